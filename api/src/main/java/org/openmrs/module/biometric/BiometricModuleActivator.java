@@ -10,7 +10,15 @@
 
 package org.openmrs.module.biometric;
 
+import java.util.Date;
+import java.util.Properties;
+import org.openmrs.api.context.Context;
 import org.openmrs.module.BaseModuleActivator;
+import org.openmrs.module.biometric.api.constants.BiometricApiConstants;
+import org.openmrs.scheduler.SchedulerException;
+import org.openmrs.scheduler.SchedulerService;
+import org.openmrs.scheduler.TaskDefinition;
+import org.openmrs.util.OpenmrsUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,6 +28,7 @@ import org.slf4j.LoggerFactory;
 public class BiometricModuleActivator extends BaseModuleActivator {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(BiometricModuleActivator.class);
+  private static final String DEFAULT_SNAPSHOT_INTERVAL = "21600";
 
   /**
    * Triggered when biometric module is started
@@ -29,6 +38,7 @@ public class BiometricModuleActivator extends BaseModuleActivator {
   @Override
   public void started() {
     LOGGER.info("Biometric module started");
+    registerSnapshotTask();
   }
 
   /**
@@ -41,4 +51,38 @@ public class BiometricModuleActivator extends BaseModuleActivator {
     LOGGER.info("Biometric module Stopped");
   }
 
+  /**
+   * Registers the scheduler task which periodically materializes the bootstrap snapshots used by
+   * newly provisioned devices. The task is created only once, after that its interval can be
+   * maintained from the scheduler administration page.
+   */
+  private void registerSnapshotTask() {
+    Properties properties =
+        OpenmrsUtil.getRuntimeProperties(BiometricApiConstants.APP_PROPERTIES_FILE);
+    if (!Boolean.parseBoolean(properties.getProperty(BiometricApiConstants.SNAPSHOT_ENABLED,
+        Boolean.TRUE.toString()))) {
+      LOGGER.info("Bootstrap snapshot generation is disabled");
+      return;
+    }
+    try {
+      SchedulerService schedulerService = Context.getSchedulerService();
+      TaskDefinition task = schedulerService.getTaskByName(BiometricApiConstants.SNAPSHOT_TASK_NAME);
+      if (null == task) {
+        task = new TaskDefinition();
+        task.setName(BiometricApiConstants.SNAPSHOT_TASK_NAME);
+        task.setDescription("Builds the per scope bootstrap snapshots for new devices");
+        task.setTaskClass(BiometricApiConstants.SNAPSHOT_TASK_CLASS);
+        task.setStartTime(new Date());
+        task.setRepeatInterval(Long.valueOf(properties.getProperty(
+            BiometricApiConstants.SNAPSHOT_INTERVAL, DEFAULT_SNAPSHOT_INTERVAL)));
+        task.setStartOnStartup(true);
+        schedulerService.saveTaskDefinition(task);
+      }
+      if (!Boolean.TRUE.equals(task.getStarted())) {
+        schedulerService.scheduleTask(task);
+      }
+    } catch (SchedulerException | RuntimeException e) {
+      LOGGER.error("Unable to schedule the bootstrap snapshot task", e);
+    }
+  }
 }
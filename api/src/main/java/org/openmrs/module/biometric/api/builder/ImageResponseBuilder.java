@@ -10,6 +10,7 @@
 
 package org.openmrs.module.biometric.api.builder;
 
+import static org.openmrs.module.biometric.api.constants.BiometricApiConstants.SYNC_UNCHANGED;
 import static org.openmrs.module.biometric.api.constants.BiometricApiConstants.SYNC_UPDATE;
 
 import java.io.File;
@@ -23,6 +24,10 @@ import org.apache.commons.io.FilenameUtils;
 import org.openmrs.module.biometric.api.constants.BiometricApiConstants;
 import org.openmrs.module.biometric.api.contract.SyncImageResponse;
 import org.openmrs.module.biometric.api.model.SyncImageData;
+import org.openmrs.module.biometric.api.util.ImageHashStore;
+import org.openmrs.module.biometric.api.util.ImageVariantStore;
+import org.openmrs.module.biometric.api.util.SyncTaskExecutor;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 /**
@@ -31,64 +36,98 @@ import org.springframework.stereotype.Component;
 @Component
 public class ImageResponseBuilder {
 
+  @Autowired
+  private SyncTaskExecutor syncTaskExecutor;
+
+  @Autowired
+  private ImageVariantStore imageVariantStore;
+
+  @Autowired
+  private ImageHashStore imageHashStore;
+
   /**
-   * Build response object for sync images api.
+   * Build response object for sync images api. The images are read and encoded in parallel, the
+   * requested variants being generated on the way when missing. Images whose hash matches the one
+   * held by the device are not read, they are returned as unchanged.
    *
    * @param results participants image path details
    * @return participants image details
    * @throws IOException in case of any error
    */
   public List<SyncImageResponse> createFrom(List<SyncImageData> results) throws IOException {
-    List<SyncImageResponse> responses = new ArrayList<>(BiometricApiConstants.INITIAL_SIZE);
-    for (SyncImageData image : results) {
-      SyncImageResponse response = new SyncImageResponse();
-      File file = image.getPath().toFile();
-      response.setParticipantUuid(FilenameUtils.getBaseName(file.getName()));
-      response.setDateModified(image.getDateModified());
-      response.setType("delete");
-      if (!image.isVoided()) {
-        if (!file.exists()) {
-          continue;
-        }
-        byte[] imageFileContent = FileUtils.readFileToByteArray(file);
-        String base64EncodedImage = Base64.getEncoder().encodeToString(imageFileContent);
-
-        if (null != base64EncodedImage) {
-          response.setType(SYNC_UPDATE);
-          response.setImage(base64EncodedImage);
-        }
+    List<SyncImageResponse> mapped = syncTaskExecutor.map(results, this::createFrom);
+    List<SyncImageResponse> responses = new ArrayList<>(mapped.size());
+    for (SyncImageResponse response : mapped) {
+      // images missing on disk are skipped
+      if (null != response) {
+        responses.add(response);
       }
-      responses.add(response);
     }
     return responses;
   }
 
   /**
-   * Build response object for sync images api.
+   * Build response object for sync images api. The images are read and encoded in parallel.
    *
    * @param results participants image path details
    * @return participants image details
    * @throws IOException in case of any error
    */
   public List<SyncImageResponse> createFromPath(List<Path> results) throws IOException {
-    List<SyncImageResponse> responses = new ArrayList<>(BiometricApiConstants.INITIAL_SIZE);
-    for (Path filePath : results) {
-      SyncImageResponse response = new SyncImageResponse();
-      File file = filePath.toFile();
-      response.setParticipantUuid(FilenameUtils.getBaseName(file.getName()));
-      response.setDateModified(file.lastModified());
-      response.setType("delete");
-      if (file.getName().endsWith(BiometricApiConstants.IMAGE_EXTN)) {
-        byte[] imageFileContent = FileUtils.readFileToByteArray(file);
-        String base64EncodedImage = Base64.getEncoder().encodeToString(imageFileContent);
+    return syncTaskExecutor.map(results, this::createFromPath);
+  }
+
+  private SyncImageResponse createFrom(SyncImageData image) throws IOException {
+    SyncImageResponse response = new SyncImageResponse();
+    Path path = image.getPath();
+    response.setParticipantUuid(FilenameUtils.getBaseName(path.toFile().getName()));
+    response.setDateModified(image.getDateModified());
+    response.setType("delete");
+    if (!image.isVoided()) {
+      if (null != image.getVariant()) {
+        path = imageVariantStore.resolve(image.getVariant(), path);
+      }
+      File file = path.toFile();
+      if (!file.exists()) {
+        return null;
+      }
+      String hash = imageHashStore.getHash(path);
+      if (null != hash && hash.equals(image.getKnownHash())) {
+        response.setType(SYNC_UNCHANGED);
+        response.setImageHash(hash);
+        return response;
+      }
+      byte[] imageFileContent = FileUtils.readFileToByteArray(file);
+      if (null == hash) {
+        hash = imageHashStore.saveHash(path, imageFileContent);
+      }
+      String base64EncodedImage = Base64.getEncoder().encodeToString(imageFileContent);
 
-        if (null != base64EncodedImage) {
-          response.setType(SYNC_UPDATE);
-          response.setImage(base64EncodedImage);
-        }
+      if (null != base64EncodedImage) {
+        response.setType(SYNC_UPDATE);
+        response.setImage(base64EncodedImage);
+        response.setImageHash(hash);
       }
-      responses.add(response);
     }
-    return responses;
+    return response;
+  }
+
+  private SyncImageResponse createFromPath(Path filePath) throws IOException {
+    SyncImageResponse response = new SyncImageResponse();
+    File file = filePath.toFile();
+    response.setParticipantUuid(FilenameUtils.getBaseName(file.getName()));
+    response.setDateModified(file.lastModified());
+    response.setType("delete");
+    if (file.getName().endsWith(BiometricApiConstants.IMAGE_EXTN)) {
+      byte[] imageFileContent = FileUtils.readFileToByteArray(file);
+      String base64EncodedImage = Base64.getEncoder().encodeToString(imageFileContent);
+
+      if (null != base64EncodedImage) {
+        response.setType(SYNC_UPDATE);
+        response.setImage(base64EncodedImage);
+        response.setImageHash(ImageHashStore.hash(imageFileContent));
+      }
+    }
+    return response;
   }
 }
@@ -23,6 +23,12 @@ public final class BiometricApiConstants {
   public static final String PARTICIPANT_IMAGES_DIR = "biometric.images.dir";
   public static final String DEFAULT_PARTICIPANT_IMAGES_DIR = File.separator + "person_images";
   public static final String IMAGE_EXTN = "jpeg";
+  public static final String IMAGE_HASH_EXTN = "sha256";
+  public static final String IMAGE_VARIANTS = "biometric.images.variants";
+  public static final String DEFAULT_IMAGE_VARIANTS = "thumb:128:0.75";
+  public static final String IMAGE_VARIANTS_DIR = "biometric.images.variants.dir";
+  public static final String DEFAULT_IMAGE_VARIANTS_DIR =
+      File.separator + "person_image_variants";
   public static final String MAIN_CONFIG = "main";
   public static final String TABLE_COUNT = "tableCount";
   public static final String IGNORED_COUNT = "ignoredCount";
@@ -30,6 +36,12 @@ public final class BiometricApiConstants {
   public static final String SYNC_DELETE = "delete";
   public static final String VOIDED = "voided";
   public static final String SYNC_UPDATE = "update";
+  public static final String SYNC_UNCHANGED = "unchanged";
+  public static final String SYNC_ENTITY_PARTICIPANTS = "participants";
+  public static final String SYNC_ENTITY_VISITS = "visits";
+  public static final String SYNC_ENTITY_IMAGES = "images";
+  public static final String SYNC_ENTITY_TEMPLATES = "templates";
+  public static final int MAX_RECONCILE_BUCKETS = 65536;
   public static final String ACTIVE_COUNT = "activeCount";
   public static final String CFL_VACCINES = "cfl.vaccines";
   public static final String DOSING_VISIT_TYPE = "Dosing";
@@ -39,6 +51,21 @@ public final class BiometricApiConstants {
   public static final String LOCALIZATION_GP = GP_PREFIX + ".localization";
   public static final String PERSON_IMAGE_ATTRIBUTE = "PersonImageAttribute";
   public static final String PERSON_TEMPLATE_ATTRIBUTE = "PersonTemplateAttribute";
+  public static final String LOCATION_ATTRIBUTE = "LocationAttribute";
+  public static final String SNAPSHOT_ENABLED = "biometric.snapshot.enabled";
+  public static final String SNAPSHOT_INTERVAL = "biometric.snapshot.interval";
+  public static final String SNAPSHOT_SCOPES = "biometric.snapshot.scopes";
+  public static final String SNAPSHOT_TASK_NAME = "Biometric Bootstrap Snapshot Task";
+  public static final String SNAPSHOT_TASK_CLASS =
+      "org.openmrs.module.biometric.task.BootstrapSnapshotTask";
+  public static final String SYNC_ADMISSION_RATE = "biometric.sync.admission.rate";
+  public static final String SYNC_ADMISSION_BURST = "biometric.sync.admission.burst";
+  public static final String SYNC_ADMISSION_WAIT = "biometric.sync.admission.wait";
+  public static final String SYNC_ADMISSION_CONCURRENCY = "biometric.sync.admission.concurrency.";
+  public static final String SYNC_CHANGES_MAX_WAITERS = "biometric.sync.changes.max.waiters";
+  public static final int DEFAULT_SYNC_CHANGES_MAX_WAITERS = 50;
+  public static final String PHONE_ATTRIBUTE_TYPES = "biometric.phone.attribute.types";
+  public static final String DEFAULT_PHONE_ATTRIBUTE_TYPE = "Telephone Number";
 
   private BiometricApiConstants() {
   }
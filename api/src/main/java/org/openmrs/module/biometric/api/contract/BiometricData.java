@@ -21,7 +21,7 @@ public class BiometricData {
 
   private String participantUuid;
 
-  private String template;
+  private byte[] template;
 
   private String device;
 
@@ -44,7 +44,7 @@ public class BiometricData {
    * @param modificationDate last modification date
    * @param voided flag for participant status
    */
-  public BiometricData(String id, String participantUuid, String template, Date modificationDate,
+  public BiometricData(String id, String participantUuid, byte[] template, Date modificationDate,
       boolean voided) {
     this.id = id;
     this.participantUuid = participantUuid;
@@ -69,11 +69,11 @@ public class BiometricData {
     this.participantUuid = participantUuid;
   }
 
-  public String getTemplate() {
+  public byte[] getTemplate() {
     return template;
   }
 
-  public void setTemplate(String template) {
+  public void setTemplate(byte[] template) {
     this.template = template;
   }
 
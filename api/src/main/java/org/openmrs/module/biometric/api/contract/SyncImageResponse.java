@@ -22,6 +22,9 @@ public class SyncImageResponse extends SyncData {
   @JsonSerialize(include = JsonSerialize.Inclusion.NON_NULL)
   private String image;
 
+  @JsonSerialize(include = JsonSerialize.Inclusion.NON_NULL)
+  private String imageHash;
+
   public String getImage() {
     return image;
   }
@@ -29,4 +32,12 @@ public class SyncImageResponse extends SyncData {
   public void setImage(String image) {
     this.image = image;
   }
+
+  public String getImageHash() {
+    return imageHash;
+  }
+
+  public void setImageHash(String imageHash) {
+    this.imageHash = imageHash;
+  }
 }
@@ -14,18 +14,20 @@ import org.codehaus.jackson.map.annotate.JsonSerialize;
 import org.openmrs.module.biometric.api.model.SyncData;
 
 /**
- * This class is used for response for sync templates api calls.
+ * This class is used for response for sync templates api calls. The template is held as read from
+ * the database, it is base64 encoded while the JSON response is written and written as raw binary
+ * in the Smile format.
  */
 public class SyncTemplateResponse extends SyncData {
 
   @JsonSerialize(include = JsonSerialize.Inclusion.NON_NULL)
-  private String biometricsTemplate;
+  private byte[] biometricsTemplate;
 
-  public String getBiometricsTemplate() {
+  public byte[] getBiometricsTemplate() {
     return biometricsTemplate;
   }
 
-  public void setBiometricsTemplate(String biometricsTemplate) {
+  public void setBiometricsTemplate(byte[] biometricsTemplate) {
     this.biometricsTemplate = biometricsTemplate;
   }
 }
@@ -10,11 +10,16 @@
 
 package org.openmrs.module.biometric.api.db;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import org.openmrs.Concept;
 import org.openmrs.Patient;
+import org.openmrs.PersonAddress;
+import org.openmrs.User;
 import org.openmrs.Visit;
 import org.openmrs.module.biometric.api.model.SyncTemplateData;
+import org.openmrs.module.licensemanagement.Device;
 
 /**
  * Defines the methods to retrieve sync data information.
@@ -25,20 +30,24 @@ public interface SyncDao {
    * Retrieve all the patients for the given sites, modified date.
    *
    * @param lastModifiedDate retrieve records after the modified date
+   * @param highWaterMark when not null, only the records last modified up to this date are
+   * retrieved
    * @param maxResultsToFetch max results to fetch
    * @param locations list of sites
    * @return list of patients
    */
-  List<Patient> getAllPatientsByLocations(Date lastModifiedDate, int maxResultsToFetch,
-      List<String> locations);
+  List<Patient> getAllPatientsByLocations(Date lastModifiedDate, Date highWaterMark,
+      int maxResultsToFetch, List<String> locations);
 
   /**
    * Retrieve the patients count for the given sites.
    *
    * @param locations list of sites
+   * @param highWaterMark when not null, only the records last modified up to this date are
+   * counted
    * @return patient count based on the match criteria
    */
-  List<Object[]> getPatientCount(List<String> locations);
+  List<Object[]> getPatientCount(List<String> locations, Date highWaterMark);
 
   /**
    * Get the count of patient for the given attribute.
@@ -46,62 +55,170 @@ public interface SyncDao {
    * @param locations list of sites
    * @param deviceId device id from where the patient was enrolled
    * @param attributeType attribute value contains the device id
+   * @param highWaterMark when not null, only the records last modified up to this date are
+   * counted
    * @return patient count based on the match criteria
    */
-  Long getIgnoredCount(List<String> locations, String deviceId, String attributeType);
+  Long getIgnoredCount(List<String> locations, String deviceId, String attributeType,
+      Date highWaterMark);
 
   /**
    * Retrieves patients with images.
    *
    * @param lastModifiedDate retrieve records after the modified date
+   * @param highWaterMark when not null, only the records last modified up to this date are
+   * retrieved
    * @param deviceId device id from where the patient was enrolled
    * @param locations list of sites
    * @param optimize true, will skip the patient images captured on the device, false will include
    * @param maxResultsToFetch maximum results to fetch
    * @return list of patient images
    */
-  List<Patient> getPatientImageData(Date lastModifiedDate, String deviceId, List<String> locations,
-      boolean optimize, int maxResultsToFetch);
+  List<Patient> getPatientImageData(Date lastModifiedDate, Date highWaterMark, String deviceId,
+      List<String> locations, boolean optimize, int maxResultsToFetch);
 
   /**
    * Get patient count for the given sites and attribute type.
    *
    * @param locations list of sites
    * @param attributeType attribute type name
+   * @param highWaterMark when not null, only the records last modified up to this date are
+   * counted
    * @return patient count
    */
   List<Object[]> getPatientCountByLocationsAndAttribute(List<String> locations,
-      String attributeType);
+      String attributeType, Date highWaterMark);
 
   /**
    * Retrieves patients with biometric template.
    *
    * @param lastModifiedDate retrieve records after the modified date
+   * @param highWaterMark when not null, only the records last modified up to this date are
+   * retrieved
    * @param deviceId device id from where the patient was enrolled
    * @param locations list of sites
    * @param optimize true will skip the patient images captured on the device, false will include
    * @param maxResultsToFetch maximum results to fetch
    * @return patients with biometric template
    */
-  List<SyncTemplateData> getPatientTemplateData(Date lastModifiedDate, String deviceId,
-      List<String> locations,
-      boolean optimize, int maxResultsToFetch);
+  List<SyncTemplateData> getPatientTemplateData(Date lastModifiedDate, Date highWaterMark,
+      String deviceId, List<String> locations, boolean optimize, int maxResultsToFetch);
 
   /**
    * Retrieves all the dosing visits based on the given criteria.
    *
    * @param lastModifiedDate retrieve records after the modified date
+   * @param highWaterMark when not null, only the records last modified up to this date are
+   * retrieved
    * @param maxResultsToFetch maximum results to fetch
    * @param locations list of sites
    * @return dosing visits
    */
-  List<Visit> getAllVisits(Date lastModifiedDate, int maxResultsToFetch, List<String> locations);
+  List<Visit> getAllVisits(Date lastModifiedDate, Date highWaterMark, int maxResultsToFetch,
+      List<String> locations);
 
   /**
    * Retrieves the dosing visit count for th given sites.
    *
    * @param locations list of sites
+   * @param highWaterMark when not null, only the records last modified up to this date are
+   * counted
    * @return dosing visit count
    */
-  List<Object[]> getVisitCount(List<String> locations);
+  List<Object[]> getVisitCount(List<String> locations, Date highWaterMark);
+
+  /**
+   * Retrieves the identifiers of the given patients.
+   *
+   * @param patientIds ids of the patients
+   * @return rows of patient id, identifier, preferred and voided flags
+   */
+  List<Object[]> getPatientIdentifiers(Collection<Integer> patientIds);
+
+  /**
+   * Retrieves the active attributes of the given persons.
+   *
+   * @param personIds ids of the persons
+   * @return rows of person id, attribute type name and value
+   */
+  List<Object[]> getActivePersonAttributes(Collection<Integer> personIds);
+
+  /**
+   * Retrieves the addresses of the given persons, the non voided and preferred addresses of each
+   * person come first.
+   *
+   * @param personIds ids of the persons
+   * @return the person addresses
+   */
+  List<PersonAddress> getPersonAddresses(Collection<Integer> personIds);
+
+  /**
+   * Retrieves the active attributes of the given visits.
+   *
+   * @param visitIds ids of the visits
+   * @return rows of visit id, attribute type name and value reference
+   */
+  List<Object[]> getActiveVisitAttributes(Collection<Integer> visitIds);
+
+  /**
+   * Retrieves the non voided encounters of the given visits, the oldest created encounter of each
+   * visit comes first.
+   *
+   * @param visitIds ids of the visits
+   * @return rows of visit id, encounter id and encounter datetime
+   */
+  List<Object[]> getNonVoidedEncounters(Collection<Integer> visitIds);
+
+  /**
+   * Retrieves the non voided observations of the given encounters.
+   *
+   * @param encounterIds ids of the encounters
+   * @return rows of encounter id, concept id and text value
+   */
+  List<Object[]> getNonVoidedObservations(Collection<Integer> encounterIds);
+
+  /**
+   * Retrieves the given concepts together with their names.
+   *
+   * @param conceptIds ids of the concepts
+   * @return the concepts
+   */
+  List<Concept> getConceptsWithNames(Collection<Integer> conceptIds);
+
+  /**
+   * Retrieves the versions of the non voided patients of the given sites.
+   *
+   * @param locations list of sites
+   * @return rows of uuid, date created and date changed
+   */
+  List<Object[]> getPatientVersions(List<String> locations);
+
+  /**
+   * Retrieves the versions of the non voided visits of the given sites.
+   *
+   * @param locations list of sites
+   * @return rows of uuid, date created and date changed
+   */
+  List<Object[]> getVisitVersions(List<String> locations);
+
+  /**
+   * Retrieves the versions of the non voided persons of the given sites having an attribute, like
+   * the persons with an image or a biometric template.
+   *
+   * @param locations list of sites
+   * @param attributeType the name of the attribute type
+   * @return rows of uuid, date created and date changed
+   */
+  List<Object[]> getPersonVersionsByAttribute(List<String> locations, String attributeType);
+
+  /**
+   * Voids the non voided errors of a device having one of the given keys, in a single update.
+   *
+   * @param device the device whose errors are voided
+   * @param keys the error keys
+   * @param voidedBy the user voiding the errors
+   * @param voidReason the reason of the void
+   * @return the number of voided errors
+   */
+  int voidDeviceErrors(Device device, Collection<String> keys, User voidedBy, String voidReason);
 }
@@ -0,0 +1,173 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.api.db.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
+import org.apache.commons.lang3.StringUtils;
+import org.hibernate.SQLQuery;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+import org.openmrs.module.biometric.api.constants.BiometricApiConstants;
+import org.openmrs.util.OpenmrsUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the phone numbers of the participants without separators in the biometric_phone_number
+ * table, so that a number is found whatever the way it was entered. The numbers of a person are
+ * refreshed from its phone attributes when they are saved, by the {@link SyncChangeInterceptor}
+ * which sees the attributes saved from every screen. The phone attribute types are read from the
+ * biometric.phone.attribute.types runtime property, the default is "Telephone Number".
+ */
+@Component("biometric.phoneNumberIndex")
+public class PhoneNumberIndex {
+
+  // the characters matched by \s, then the dashes, parentheses and dots
+  private static final String[] SEPARATORS =
+      {"char(32)", "char(9)", "char(10)", "char(11)", "char(12)", "char(13)", "'-'", "'('", "')'",
+          "'.'"};
+  private static final Pattern PHONE_SEPARATORS = Pattern.compile("[\\s\\-().]");
+  private static final String NORMALIZED_VALUE = normalizeSql("attribute.value");
+  private static final String PHONE_ATTRIBUTES = " from person_attribute attribute"
+      + " inner join person_attribute_type pat"
+      + " on attribute.person_attribute_type_id = pat.person_attribute_type_id"
+      + " where pat.name in (:attributeTypes) and attribute.voided = false";
+  private static final String DELETE_PHONES_QUERY =
+      "delete from biometric_phone_number where person_id in (:personIds)";
+  private static final String INSERT_PHONES_QUERY =
+      "insert into biometric_phone_number (person_id, phone)"
+          + " select distinct attribute.person_id, " + NORMALIZED_VALUE + PHONE_ATTRIBUTES
+          + " and attribute.person_id in (:personIds) and " + NORMALIZED_VALUE + " <> ''";
+  // a stored number is only kept while a current phone attribute of the person still matches it
+  private static final String PERSON_IDS_BY_PHONE_QUERY =
+      "select distinct phone.person_id from biometric_phone_number phone"
+          + " inner join person_attribute attribute on phone.person_id = attribute.person_id"
+          + " inner join person_attribute_type pat"
+          + " on attribute.person_attribute_type_id = pat.person_attribute_type_id"
+          + " where phone.phone = :phone and pat.name in (:attributeTypes)"
+          + " and attribute.voided = false and " + NORMALIZED_VALUE + " = :phone";
+
+  private List<String> attributeTypes =
+      Collections.singletonList(BiometricApiConstants.DEFAULT_PHONE_ATTRIBUTE_TYPE);
+
+  @Autowired
+  private DbSessionFactory sessionFactory;
+
+  /**
+   * Reads the phone attribute types from the runtime properties.
+   */
+  @PostConstruct
+  public void init() {
+    configure(OpenmrsUtil.getRuntimeProperties(BiometricApiConstants.APP_PROPERTIES_FILE));
+  }
+
+  /**
+   * Returns the names of the phone attribute types.
+   *
+   * @return the phone attribute types
+   */
+  public List<String> getAttributeTypes() {
+    return attributeTypes;
+  }
+
+  /**
+   * Tells whether the attributes of a type hold phone numbers.
+   *
+   * @param attributeType the name of the attribute type
+   * @return true for a phone attribute type
+   */
+  public boolean isPhoneAttributeType(String attributeType) {
+    return attributeTypes.contains(attributeType);
+  }
+
+  /**
+   * Replaces the phone numbers of persons with the numbers of their active phone attributes.
+   *
+   * @param personIds the ids of the persons
+   */
+  public void refresh(Collection<Integer> personIds) {
+    if (personIds.isEmpty() || attributeTypes.isEmpty()) {
+      return;
+    }
+    SQLQuery delete = sessionFactory.getCurrentSession().createSQLQuery(DELETE_PHONES_QUERY);
+    delete.setParameterList("personIds", personIds);
+    delete.executeUpdate();
+    SQLQuery insert = sessionFactory.getCurrentSession().createSQLQuery(INSERT_PHONES_QUERY);
+    insert.setParameterList("personIds", personIds);
+    insert.setParameterList("attributeTypes", attributeTypes);
+    insert.executeUpdate();
+  }
+
+  /**
+   * Returns the ids of the persons with a phone attribute holding a number.
+   *
+   * @param phone the phone number, as entered
+   * @return the ids of the persons
+   */
+  public List<Integer> find(String phone) {
+    String normalized = normalize(phone);
+    if (normalized.isEmpty() || attributeTypes.isEmpty()) {
+      return Collections.emptyList();
+    }
+    SQLQuery query = sessionFactory.getCurrentSession().createSQLQuery(PERSON_IDS_BY_PHONE_QUERY);
+    query.setParameter("phone", normalized);
+    query.setParameterList("attributeTypes", attributeTypes);
+    List<Integer> personIds = new ArrayList<>();
+    for (Object personId : query.list()) {
+      personIds.add(((Number) personId).intValue());
+    }
+    return personIds;
+  }
+
+  /**
+   * Returns a phone number without white spaces, dashes, dots and parentheses.
+   *
+   * @param phone the phone number
+   * @return the normalized phone number, empty if there is no number
+   */
+  public static String normalize(String phone) {
+    return null == phone ? "" : PHONE_SEPARATORS.matcher(phone).replaceAll("");
+  }
+
+  /**
+   * Sets the phone attribute types from properties.
+   *
+   * @param properties the runtime properties, may be null
+   */
+  void configure(Properties properties) {
+    String value = null == properties ? null
+        : properties.getProperty(BiometricApiConstants.PHONE_ATTRIBUTE_TYPES);
+    if (null == value) {
+      return;
+    }
+    attributeTypes = Arrays.stream(StringUtils.split(value, ','))
+        .map(String::trim).filter(StringUtils::isNotEmpty).collect(Collectors.toList());
+  }
+
+  /**
+   * Returns the SQL removing the separators of {@link #normalize(String)} from a column, the same
+   * expression fills the table in the liquibase changelog.
+   */
+  private static String normalizeSql(String column) {
+    String sql = column;
+    for (String separator : SEPARATORS) {
+      sql = "replace(" + sql + ", " + separator + ", '')";
+    }
+    return sql;
+  }
+}
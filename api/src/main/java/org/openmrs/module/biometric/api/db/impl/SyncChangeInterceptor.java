@@ -0,0 +1,202 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.api.db.impl;
+
+import static org.openmrs.module.biometric.api.constants.BiometricApiConstants.LOCATION_ATTRIBUTE;
+import static org.openmrs.module.biometric.api.constants.BiometricApiConstants.PERSON_IMAGE_ATTRIBUTE;
+import static org.openmrs.module.biometric.api.constants.BiometricApiConstants.PERSON_TEMPLATE_ATTRIBUTE;
+import static org.openmrs.module.biometric.api.constants.BiometricApiConstants.SYNC_ENTITY_IMAGES;
+import static org.openmrs.module.biometric.api.constants.BiometricApiConstants.SYNC_ENTITY_PARTICIPANTS;
+import static org.openmrs.module.biometric.api.constants.BiometricApiConstants.SYNC_ENTITY_TEMPLATES;
+import static org.openmrs.module.biometric.api.constants.BiometricApiConstants.SYNC_ENTITY_VISITS;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.Hibernate;
+import org.hibernate.Transaction;
+import org.hibernate.type.Type;
+import org.openmrs.Encounter;
+import org.openmrs.Location;
+import org.openmrs.Obs;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.Person;
+import org.openmrs.PersonAddress;
+import org.openmrs.PersonAttribute;
+import org.openmrs.PersonAttributeType;
+import org.openmrs.PersonName;
+import org.openmrs.Visit;
+import org.openmrs.module.biometric.api.util.SyncChangeTracker;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+/**
+ * Hibernate interceptor which records the changes of the synchronized records. The changes are
+ * collected during the transaction and published to the {@link SyncChangeTracker} once it is
+ * committed, so that the waiting devices never query before the changes are visible. The location
+ * of a record is only read from associations which are already loaded, a record whose location is
+ * not known is reported to every sync scope. The stored phone numbers of the persons whose phone
+ * attributes changed are refreshed in the {@link PhoneNumberIndex} before the transaction commits.
+ */
+@Component("biometric.syncChangeInterceptor")
+public class SyncChangeInterceptor extends EmptyInterceptor {
+
+  private static final long serialVersionUID = 1L;
+
+  private final transient ThreadLocal<Map<String, Set<String>>> pending = new ThreadLocal<>();
+
+  private final transient ThreadLocal<Set<Integer>> pendingPhones = new ThreadLocal<>();
+
+  @Autowired
+  private transient SyncChangeTracker syncChangeTracker;
+
+  // lazy, the index queries through the session factory which is built with this interceptor
+  @Autowired
+  @Lazy
+  private transient PhoneNumberIndex phoneNumberIndex;
+
+  @Override
+  public boolean onSave(Object entity, Serializable id, Object[] state, String[] propertyNames,
+      Type[] types) {
+    record(entity);
+    return false;
+  }
+
+  @Override
+  public boolean onFlushDirty(Object entity, Serializable id, Object[] currentState,
+      Object[] previousState, String[] propertyNames, Type[] types) {
+    record(entity);
+    return false;
+  }
+
+  @Override
+  public void onDelete(Object entity, Serializable id, Object[] state, String[] propertyNames,
+      Type[] types) {
+    record(entity);
+  }
+
+  @Override
+  public void beforeTransactionCompletion(Transaction tx) {
+    Set<Integer> personIds = pendingPhones.get();
+    if (null != personIds) {
+      pendingPhones.remove();
+      phoneNumberIndex.refresh(personIds);
+    }
+  }
+
+  @Override
+  public void afterTransactionCompletion(Transaction tx) {
+    pendingPhones.remove();
+    Map<String, Set<String>> changes = pending.get();
+    if (null == changes) {
+      return;
+    }
+    pending.remove();
+    if (null == tx || tx.wasCommitted()) {
+      syncChangeTracker.publish(changes);
+    }
+  }
+
+  private void record(Object entity) {
+    if (entity instanceof Person) {
+      add(SYNC_ENTITY_PARTICIPANTS, getLocation((Person) entity));
+    } else if (entity instanceof PersonAttribute) {
+      recordAttribute((PersonAttribute) entity);
+    } else if (entity instanceof PersonName) {
+      add(SYNC_ENTITY_PARTICIPANTS, getLocation(((PersonName) entity).getPerson()));
+    } else if (entity instanceof PersonAddress) {
+      add(SYNC_ENTITY_PARTICIPANTS, getLocation(((PersonAddress) entity).getPerson()));
+    } else if (entity instanceof PatientIdentifier) {
+      add(SYNC_ENTITY_PARTICIPANTS, getLocation(((PatientIdentifier) entity).getPatient()));
+    } else if (entity instanceof Visit) {
+      add(SYNC_ENTITY_VISITS, getLocation((Visit) entity));
+    } else if (entity instanceof Encounter) {
+      recordEncounter((Encounter) entity);
+    } else if (entity instanceof Obs && null != ((Obs) entity).getEncounter()) {
+      recordEncounter(((Obs) entity).getEncounter());
+    }
+  }
+
+  private void recordEncounter(Encounter encounter) {
+    // encounters outside of a visit are not synchronized
+    if (!isLoaded(encounter)) {
+      add(SYNC_ENTITY_VISITS, null);
+    } else if (null != encounter.getVisit()) {
+      add(SYNC_ENTITY_VISITS, getLocation(encounter.getVisit()));
+    }
+  }
+
+  private void recordAttribute(PersonAttribute attribute) {
+    PersonAttributeType attributeType = attribute.getAttributeType();
+    String name = isLoaded(attributeType) ? attributeType.getName() : null;
+    if (null == name || phoneNumberIndex.isPhoneAttributeType(name)) {
+      addPhones(attribute.getPerson());
+    }
+    if (LOCATION_ATTRIBUTE.equals(name)) {
+      add(SYNC_ENTITY_PARTICIPANTS, attribute.getValue());
+    } else if (PERSON_IMAGE_ATTRIBUTE.equals(name)) {
+      add(SYNC_ENTITY_IMAGES, getLocation(attribute.getPerson()));
+    } else if (PERSON_TEMPLATE_ATTRIBUTE.equals(name)) {
+      add(SYNC_ENTITY_TEMPLATES, getLocation(attribute.getPerson()));
+    } else {
+      add(SYNC_ENTITY_PARTICIPANTS, getLocation(attribute.getPerson()));
+    }
+  }
+
+  private void addPhones(Person person) {
+    if (null == person || null == person.getPersonId()) {
+      return;
+    }
+    Set<Integer> personIds = pendingPhones.get();
+    if (null == personIds) {
+      personIds = new HashSet<>();
+      pendingPhones.set(personIds);
+    }
+    personIds.add(person.getPersonId());
+  }
+
+  private void add(String entityType, String location) {
+    Map<String, Set<String>> changes = pending.get();
+    if (null == changes) {
+      changes = new HashMap<>();
+      pending.set(changes);
+    }
+    changes.computeIfAbsent(entityType, k -> new HashSet<>())
+        .add(null == location ? SyncChangeTracker.ANY_LOCATION : location);
+  }
+
+  private static String getLocation(Person person) {
+    if (!isLoaded(person) || !Hibernate.isInitialized(person.getAttributes())) {
+      return null;
+    }
+    for (PersonAttribute attribute : person.getAttributes()) {
+      PersonAttributeType attributeType = attribute.getAttributeType();
+      if (!Boolean.TRUE.equals(attribute.getVoided()) && isLoaded(attributeType)
+          && LOCATION_ATTRIBUTE.equals(attributeType.getName())) {
+        return attribute.getValue();
+      }
+    }
+    return null;
+  }
+
+  private static String getLocation(Visit visit) {
+    Location location = isLoaded(visit) ? visit.getLocation() : null;
+    return isLoaded(location) ? location.getUuid() : null;
+  }
+
+  private static boolean isLoaded(Object entity) {
+    return null != entity && Hibernate.isInitialized(entity);
+  }
+}
@@ -11,25 +11,33 @@
 package org.openmrs.module.biometric.api.db.impl;
 
 import org.hibernate.Criteria;
+import org.hibernate.FetchMode;
 import org.hibernate.Query;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.Order;
+import org.hibernate.criterion.ProjectionList;
 import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
 import org.hibernate.sql.JoinType;
 import org.hibernate.transform.Transformers;
+import org.openmrs.Concept;
 import org.openmrs.Patient;
+import org.openmrs.PersonAddress;
+import org.openmrs.User;
 import org.openmrs.Visit;
 import org.openmrs.module.biometric.api.db.SyncDao;
 import org.openmrs.module.biometric.api.helper.SyncQueryHelper;
 import org.openmrs.module.biometric.api.model.SyncTemplateData;
+import org.openmrs.module.licensemanagement.Device;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
@@ -44,12 +52,43 @@ public class SyncDaoImpl implements SyncDao {
   private static final String DATE_CREATED= "dateCreated";
   private static final String DATE_CHANGED = "dateChanged";
   private static final String DEVICE_ID = "deviceId";
+  private static final String HIGH_WATER_MARK = "highWaterMark";
   private static final String PATIENT_ID = "patientId";
   private static final String VISIT_ID = "visitId";
   private static final String PERSON_IMAGE_ATTRIBUTE = "PersonImageAttribute";
   private static final String PERSON_TEMPLATE_ATTRIBUTE = "PersonTemplateAttribute";
   private static final String LOCATIONS = "locations";
   private static final String ATTRIBUTE_TYPE_NAME = "attributeTypeName";
+  private static final String IDS = "ids";
+  private static final String VOIDED = "voided";
+  private static final String PATIENT_IDENTIFIERS_QUERY =
+      "select pi.patient.patientId, pi.identifier, pi.preferred, pi.voided from PatientIdentifier pi"
+          + " where pi.patient.patientId in (:ids) order by pi.patientIdentifierId";
+  private static final String ACTIVE_PERSON_ATTRIBUTES_QUERY =
+      "select pa.person.personId, pat.name, pa.value from PersonAttribute pa"
+          + " join pa.attributeType pat where pa.person.personId in (:ids) and pa.voided = false"
+          + " order by pa.personAttributeId";
+  private static final String PERSON_ADDRESSES_QUERY =
+      "from PersonAddress pa where pa.person.personId in (:ids)"
+          + " order by pa.voided, pa.preferred desc, pa.personAddressId";
+  private static final String ACTIVE_VISIT_ATTRIBUTES_QUERY =
+      "select va.visit.visitId, vat.name, va.valueReference from VisitAttribute va"
+          + " join va.attributeType vat where va.visit.visitId in (:ids) and va.voided = false"
+          + " order by va.visitAttributeId";
+  private static final String NON_VOIDED_ENCOUNTERS_QUERY =
+      "select e.visit.visitId, e.encounterId, e.encounterDatetime from Encounter e"
+          + " where e.visit.visitId in (:ids) and e.voided = false"
+          + " order by e.dateCreated, e.encounterId";
+  private static final String NON_VOIDED_OBSERVATIONS_QUERY =
+      "select o.encounter.encounterId, o.concept.conceptId, o.valueText from Obs o"
+          + " where o.encounter.encounterId in (:ids) and o.voided = false order by o.obsId";
+  private static final String VOID_DEVICE_ERRORS_QUERY =
+      "update org.openmrs.module.licensemanagement.DeviceError e set e.voided = true,"
+          + " e.voidedBy = :voidedBy, e.dateVoided = :dateVoided, e.voidReason = :voidReason,"
+          + " e.changedBy = :voidedBy, e.dateChanged = :dateVoided"
+          + " where e.device = :device and e.key in (:keys) and e.voided = false";
+  private static final String CONCEPTS_WITH_NAMES_QUERY =
+      "select distinct c from Concept c left join fetch c.names where c.conceptId in (:ids)";
 
   private SessionFactory sessionFactory;
 
@@ -58,8 +97,9 @@ public class SyncDaoImpl implements SyncDao {
   }
 
   @Override
-  public List<Patient> getAllPatientsByLocations(Date lastModifiedDate, int maxResultsToFetch, List<String> locations) {
-    Criteria criteria = buildPatientLocationsCriteria(locations);
+  public List<Patient> getAllPatientsByLocations(Date lastModifiedDate, Date highWaterMark,
+      int maxResultsToFetch, List<String> locations) {
+    Criteria criteria = buildPatientLocationsCriteria(locations, highWaterMark);
     if (null != lastModifiedDate) {
       criteria.add(
           Restrictions.or(Restrictions.ge(DATE_CHANGED, lastModifiedDate), Restrictions.ge(DATE_CREATED, lastModifiedDate)));
@@ -71,8 +111,8 @@ public class SyncDaoImpl implements SyncDao {
   }
 
   @Override
-  public List<Object[]> getPatientCount(List<String> locations) {
-    Criteria criteria = buildPatientLocationsCriteria(locations);
+  public List<Object[]> getPatientCount(List<String> locations, Date highWaterMark) {
+    Criteria criteria = buildPatientLocationsCriteria(locations, highWaterMark);
 
     @SuppressWarnings("unchecked")
     List<Object[]> list =
@@ -87,12 +127,14 @@ public class SyncDaoImpl implements SyncDao {
 
   @Transactional(readOnly = true)
   @Override
-  public Long getIgnoredCount(List<String> locations, String deviceId, String attributeType) {
+  public Long getIgnoredCount(List<String> locations, String deviceId, String attributeType,
+      Date highWaterMark) {
     final Instant start = Instant.now();
-    Query query = getQuery(SyncQueryHelper.getSyncIgnoredCountQuery());
+    Query query = getQuery(SyncQueryHelper.getSyncIgnoredCountQuery(null != highWaterMark));
     query.setParameterList(LOCATIONS, locations);
     query.setParameter(ATTRIBUTE_TYPE_NAME, attributeType);
     query.setParameter(DEVICE_ID, deviceId);
+    setHighWaterMark(query, highWaterMark);
     Long ignoredCount = (Long) query.list().get(0);
     Instant end = Instant.now();
     LOGGER.debug("Ignored Count query completed : {}", Duration.between(start, end));
@@ -101,14 +143,13 @@ public class SyncDaoImpl implements SyncDao {
 
   @Override
   @Transactional(readOnly = true)
-  public List<Patient> getPatientImageData(Date lastModifiedDate, String deviceId,
-      List<String> locations,
-      boolean optimize, int maxResultsToFetch) {
+  public List<Patient> getPatientImageData(Date lastModifiedDate, Date highWaterMark,
+      String deviceId, List<String> locations, boolean optimize, int maxResultsToFetch) {
     Instant start = Instant.now();
     String sql = SyncQueryHelper.buildParticipantImageQuery();
 
     Query query = getSyncQuery(
-        lastModifiedDate, deviceId, locations, optimize,
+        lastModifiedDate, highWaterMark, deviceId, locations, optimize,
         maxResultsToFetch, sql, PERSON_IMAGE_ATTRIBUTE);
 
     List<Patient> patients = (List<Patient>) query.list();
@@ -119,15 +160,15 @@ public class SyncDaoImpl implements SyncDao {
 
   @Override
   @Transactional(readOnly = true)
-  public List<SyncTemplateData> getPatientTemplateData(Date lastModifiedDate, String deviceId,
-      List<String> locations,
-      boolean optimize, int maxResultsToFetch) {
+  public List<SyncTemplateData> getPatientTemplateData(Date lastModifiedDate,
+      Date highWaterMark, String deviceId, List<String> locations, boolean optimize,
+      int maxResultsToFetch) {
     Instant start = Instant.now();
 
     String sql = SyncQueryHelper.buildParticipantTemplatesQuery();
 
-    Query query = getSyncQuery(lastModifiedDate, deviceId, locations, optimize, maxResultsToFetch,
-        sql, PERSON_TEMPLATE_ATTRIBUTE);
+    Query query = getSyncQuery(lastModifiedDate, highWaterMark, deviceId, locations, optimize,
+        maxResultsToFetch, sql, PERSON_TEMPLATE_ATTRIBUTE);
 
     @SuppressWarnings("unchecked")
     List<SyncTemplateData> patients =
@@ -139,21 +180,23 @@ public class SyncDaoImpl implements SyncDao {
   }
 
   @Override
-  public List<Visit> getAllVisits(Date lastModifiedDate, int maxResultsToFetch,
-      List<String> locations) {
-    Criteria criteria = buildVisitLocationsCriteria(locations);
+  public List<Visit> getAllVisits(Date lastModifiedDate, Date highWaterMark,
+      int maxResultsToFetch, List<String> locations) {
+    Criteria criteria = buildVisitLocationsCriteria(locations, highWaterMark);
     if (null != lastModifiedDate) {
       criteria.add(Restrictions.ge(DATE_CHANGED, lastModifiedDate));
     }
     criteria.addOrder(Order.asc(DATE_CHANGED));
     criteria.addOrder(Order.asc(VISIT_ID));
+    // the patient uuid is part of every visit response
+    criteria.setFetchMode("patient", FetchMode.JOIN);
     criteria.setMaxResults(maxResultsToFetch);
     return criteria.list();
   }
 
   @Override
-  public List<Object[]> getVisitCount(List<String> locations) {
-    Criteria criteria = buildVisitLocationsCriteria(locations);
+  public List<Object[]> getVisitCount(List<String> locations, Date highWaterMark) {
+    Criteria criteria = buildVisitLocationsCriteria(locations, highWaterMark);
 
     @SuppressWarnings("unchecked")
     List<Object[]> list =
@@ -169,11 +212,12 @@ public class SyncDaoImpl implements SyncDao {
   @Override
   @Transactional(readOnly = true)
   public List<Object[]> getPatientCountByLocationsAndAttribute(List<String> locations,
-      String attributeType) {
+      String attributeType, Date highWaterMark) {
     Instant start = Instant.now();
-    Query query = getQuery(SyncQueryHelper.getSyncTotalCountQuery());
+    Query query = getQuery(SyncQueryHelper.getSyncTotalCountQuery(null != highWaterMark));
     query.setParameterList(LOCATIONS, locations);
     query.setParameter(ATTRIBUTE_TYPE_NAME, attributeType);
+    setHighWaterMark(query, highWaterMark);
     Instant end = Instant.now();
     LOGGER.info(
         "getPatientCountByLocationsAndAttribute call execution time : {}",
@@ -181,49 +225,189 @@ public class SyncDaoImpl implements SyncDao {
     return query.list();
   }
 
+  @Override
+  @Transactional(readOnly = true)
+  public List<Object[]> getPatientIdentifiers(Collection<Integer> patientIds) {
+    Query query = getQuery(PATIENT_IDENTIFIERS_QUERY);
+    query.setParameterList(IDS, patientIds);
+    return query.list();
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public List<Object[]> getActivePersonAttributes(Collection<Integer> personIds) {
+    Query query = getQuery(ACTIVE_PERSON_ATTRIBUTES_QUERY);
+    query.setParameterList(IDS, personIds);
+    return query.list();
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public List<PersonAddress> getPersonAddresses(Collection<Integer> personIds) {
+    Query query = getQuery(PERSON_ADDRESSES_QUERY);
+    query.setParameterList(IDS, personIds);
+    return query.list();
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public List<Object[]> getActiveVisitAttributes(Collection<Integer> visitIds) {
+    Query query = getQuery(ACTIVE_VISIT_ATTRIBUTES_QUERY);
+    query.setParameterList(IDS, visitIds);
+    return query.list();
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public List<Object[]> getNonVoidedEncounters(Collection<Integer> visitIds) {
+    Query query = getQuery(NON_VOIDED_ENCOUNTERS_QUERY);
+    query.setParameterList(IDS, visitIds);
+    return query.list();
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public List<Object[]> getNonVoidedObservations(Collection<Integer> encounterIds) {
+    Query query = getQuery(NON_VOIDED_OBSERVATIONS_QUERY);
+    query.setParameterList(IDS, encounterIds);
+    return query.list();
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public List<Concept> getConceptsWithNames(Collection<Integer> conceptIds) {
+    Query query = getQuery(CONCEPTS_WITH_NAMES_QUERY);
+    query.setParameterList(IDS, conceptIds);
+    return query.list();
+  }
+
+  @Override
+  public List<Object[]> getPatientVersions(List<String> locations) {
+    Criteria criteria = buildPatientLocationsCriteria(locations, null);
+    criteria.add(Restrictions.eq(VOIDED, false));
+    return criteria.setProjection(getVersionProjection()).list();
+  }
+
+  @Override
+  public List<Object[]> getVisitVersions(List<String> locations) {
+    Criteria criteria = buildVisitLocationsCriteria(locations, null);
+    criteria.add(Restrictions.eq(VOIDED, false));
+    return criteria.setProjection(getVersionProjection()).list();
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public List<Object[]> getPersonVersionsByAttribute(List<String> locations,
+      String attributeType) {
+    Query query = getQuery(SyncQueryHelper.buildPersonVersionsQuery());
+    query.setParameterList(LOCATIONS, locations);
+    query.setParameter(ATTRIBUTE_TYPE_NAME, attributeType);
+    return query.list();
+  }
+
+  @Override
+  public int voidDeviceErrors(Device device, Collection<String> keys, User voidedBy,
+      String voidReason) {
+    Date now = new Date();
+    Query query = getQuery(VOID_DEVICE_ERRORS_QUERY);
+    query.setParameter("voidedBy", voidedBy);
+    query.setParameter("dateVoided", now);
+    query.setParameter("voidReason", voidReason);
+    query.setParameter("device", device);
+    query.setParameterList("keys", keys);
+    return query.executeUpdate();
+  }
+
+  private static ProjectionList getVersionProjection() {
+    return Projections.projectionList()
+        .add(Projections.property("uuid"))
+        .add(Projections.property(DATE_CREATED))
+        .add(Projections.property(DATE_CHANGED));
+  }
+
   private Query getQuery(String query) {
     final Session session = this.sessionFactory.getCurrentSession();
     return session.createQuery(query);
   }
 
-  private Query getSyncQuery(Date lastModifiedDate, String deviceId, List<String> locations,
-      boolean optimize, int maxResultsToFetch, String baseSql, String attributeType) {
-    String sql = baseSql;
-    if (null != lastModifiedDate) {
-      sql = sql + " and person.dateChanged >= :dateChanged";
-    }
-    if (optimize) {
-      sql = sql + " and attribute.value <> :deviceId";
-    }
-    sql = sql + " order by person.dateChanged,person.id";
-    Query query = getQuery(sql);
+  private Query getSyncQuery(Date lastModifiedDate, Date highWaterMark, String deviceId,
+      List<String> locations, boolean optimize, int maxResultsToFetch, String baseSql,
+      String attributeType) {
+    Query query = getQuery(
+        buildSyncQuery(baseSql, null != lastModifiedDate, null != highWaterMark, optimize));
     if (null != lastModifiedDate) {
       query.setParameter(DATE_CHANGED, lastModifiedDate);
     }
     if (optimize) {
       query.setParameter(DEVICE_ID, deviceId);
     }
+    setHighWaterMark(query, highWaterMark);
     query.setParameter(ATTRIBUTE_TYPE_NAME, attributeType);
     query.setParameterList(LOCATIONS, locations);
     query.setMaxResults(maxResultsToFetch);
     return query;
   }
 
-  private Criteria buildPatientLocationsCriteria(List<String> locations) {
+  /**
+   * Appends the filters and the order of a sync page to a participant images or templates query.
+   *
+   * @param baseSql the query of {@link SyncQueryHelper}
+   * @param modifiedSince true to keep the participants changed since the :dateChanged parameter
+   * @param bounded true to keep the participants modified up to the :highWaterMark parameter
+   * @param optimize true to skip the participants of the :deviceId parameter
+   * @return the sync page query
+   */
+  static String buildSyncQuery(String baseSql, boolean modifiedSince, boolean bounded,
+      boolean optimize) {
+    String sql = baseSql;
+    if (modifiedSince) {
+      sql = sql + " and person.dateChanged >= :dateChanged";
+    }
+    sql = sql + SyncQueryHelper.getHighWaterMarkFilter(bounded);
+    if (optimize) {
+      sql = sql + " and attribute.value <> :deviceId";
+    }
+    return sql + " order by person.dateChanged,person.id";
+  }
+
+  private static void setHighWaterMark(Query query, Date highWaterMark) {
+    if (null != highWaterMark) {
+      query.setParameter(HIGH_WATER_MARK, highWaterMark);
+    }
+  }
+
+  /**
+   * Restricts the records to the ones last modified up to the given date, a record which was
+   * never changed has a null date changed and is restricted on its creation date.
+   */
+  private static Criterion getHighWaterMarkRestriction(Date highWaterMark) {
+    return Restrictions.or(
+        Restrictions.le(DATE_CHANGED, highWaterMark),
+        Restrictions.and(
+            Restrictions.isNull(DATE_CHANGED), Restrictions.le(DATE_CREATED, highWaterMark)));
+  }
+
+  private Criteria buildPatientLocationsCriteria(List<String> locations, Date highWaterMark) {
     final Criteria criteria = sessionFactory.getCurrentSession().createCriteria(Patient.class);
     criteria.createAlias("attributes", "attribute", JoinType.INNER_JOIN);
     criteria.createAlias("attribute.attributeType", "attributeType", JoinType.INNER_JOIN);
     criteria.add(Restrictions.eq("attributeType.name", "LocationAttribute"));
     criteria.add(Restrictions.in("attribute.value", locations));
+    if (null != highWaterMark) {
+      criteria.add(getHighWaterMarkRestriction(highWaterMark));
+    }
     return criteria;
   }
 
-  private Criteria buildVisitLocationsCriteria(List<String> locations) {
+  private Criteria buildVisitLocationsCriteria(List<String> locations, Date highWaterMark) {
     final Criteria criteria = sessionFactory.getCurrentSession().createCriteria(Visit.class);
     criteria.createAlias("location", "location", JoinType.INNER_JOIN);
     criteria.createAlias("visitType", "visitType", JoinType.INNER_JOIN);
     criteria.add(Restrictions.eq("visitType.name", "Dosing"));
     criteria.add(Restrictions.in("location.uuid", locations));
+    if (null != highWaterMark) {
+      criteria.add(getHighWaterMarkRestriction(highWaterMark));
+    }
     return criteria;
   }
 }
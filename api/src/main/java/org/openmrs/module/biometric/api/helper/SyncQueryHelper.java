@@ -15,7 +15,7 @@ package org.openmrs.module.biometric.api.helper;
  */
 public final class SyncQueryHelper {
 
-  private static final String TEMPLATES_SQL = "SELECT dbid, TO_BASE64(template) template FROM"
+  private static final String TEMPLATES_SQL = "SELECT dbid, template FROM"
       + " iris_templates where dbid in (:patientIdentifierList) ";
 
   private static final String INNER_JOIN_PERSON_ATTRIBUTES = "inner join person.attributes as attribute ";
@@ -46,8 +46,13 @@ public final class SyncQueryHelper {
           + SELECT_PERSON
           + INNER_JOIN_ATTRIBUTES
           + LOCATION_ATTRIBUTE_FILTER
-          + ") "
-          + " group by person.voided ";
+          + ") ";
+
+  private static final String GROUP_BY_VOIDED = " group by person.voided ";
+
+  // records created without a change keep a null date changed, the creation date is used instead
+  private static final String HIGH_WATER_MARK_FILTER =
+      " and coalesce(person.dateChanged, person.dateCreated) <= :highWaterMark";
 
   private static final String SYNC_TEMPLATES_SQL =
       "select person.uuid as uuid, pi.identifier as identifier, person.voided as voided"
@@ -72,6 +77,18 @@ public final class SyncQueryHelper {
       + LOCATION_ATTRIBUTE_FILTER
       + ") ";
 
+  private static final String SYNC_VERSIONS_SQL =
+      "select person.uuid, person.dateCreated, person.dateChanged from Person as person "
+          + INNER_JOIN_PERSON_ATTRIBUTES
+          + ATTRIBUTE_TYPE_FILTER
+          + " and person.voided = false"
+          + AND_PERSON_ID_IN
+          + "("
+          + SELECT_PERSON
+          + INNER_JOIN_ATTRIBUTES
+          + LOCATION_ATTRIBUTE_FILTER
+          + ") ";
+
   private SyncQueryHelper() {
 
   }
@@ -84,12 +101,20 @@ public final class SyncQueryHelper {
     return SYNC_IMAGES_SQL;
   }
 
-  public static String getSyncTotalCountQuery() {
-    return SYNC_TOTAL_COUNT_QUERY;
+  public static String getSyncTotalCountQuery(boolean bounded) {
+    return SYNC_TOTAL_COUNT_QUERY + getHighWaterMarkFilter(bounded) + GROUP_BY_VOIDED;
+  }
+
+  public static String getSyncIgnoredCountQuery(boolean bounded) {
+    return SYNC_IGNORED_COUNT_QUERY + getHighWaterMarkFilter(bounded);
+  }
+
+  public static String getHighWaterMarkFilter(boolean bounded) {
+    return bounded ? HIGH_WATER_MARK_FILTER : "";
   }
 
-  public static String getSyncIgnoredCountQuery() {
-    return SYNC_IGNORED_COUNT_QUERY;
+  public static String buildPersonVersionsQuery() {
+    return SYNC_VERSIONS_SQL;
   }
 
   public static String buildSyncTemplatesQuery() {
@@ -0,0 +1,48 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.api.model;
+
+/**
+ * Read-only projection of a patient identifier used while assembling sync pages.
+ */
+public class IdentifierData {
+
+  private final String identifier;
+
+  private final boolean preferred;
+
+  private final boolean voided;
+
+  /**
+   * Constructor.
+   *
+   * @param identifier the identifier value
+   * @param preferred true if it is the preferred identifier of the patient
+   * @param voided true if the identifier is voided
+   */
+  public IdentifierData(String identifier, boolean preferred, boolean voided) {
+    this.identifier = identifier;
+    this.preferred = preferred;
+    this.voided = voided;
+  }
+
+  public String getIdentifier() {
+    return identifier;
+  }
+
+  public boolean isPreferred() {
+    return preferred;
+  }
+
+  public boolean isVoided() {
+    return voided;
+  }
+}
@@ -0,0 +1,40 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.api.model;
+
+/**
+ * Read-only projection of an observation used while assembling visit sync pages.
+ */
+public class ObservationData {
+
+  private final String name;
+
+  private final String value;
+
+  /**
+   * Constructor.
+   *
+   * @param name the name of the observation concept
+   * @param value the text value of the observation
+   */
+  public ObservationData(String name, String value) {
+    this.name = name;
+    this.value = value;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getValue() {
+    return value;
+  }
+}
@@ -0,0 +1,49 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.api.model;
+
+/**
+ * Read-only projection of the keys of a participant, used to check whether a participant exists
+ * without loading it.
+ */
+public class ParticipantKey {
+
+  private final String uuid;
+
+  private final String identifier;
+
+  private final boolean voided;
+
+  /**
+   * Constructor.
+   *
+   * @param uuid the uuid of the participant
+   * @param identifier the participant id, null if the participant has no active identifier
+   * @param voided true if the participant is voided
+   */
+  public ParticipantKey(String uuid, String identifier, boolean voided) {
+    this.uuid = uuid;
+    this.identifier = identifier;
+    this.voided = voided;
+  }
+
+  public String getUuid() {
+    return uuid;
+  }
+
+  public String getIdentifier() {
+    return identifier;
+  }
+
+  public boolean isVoided() {
+    return voided;
+  }
+}
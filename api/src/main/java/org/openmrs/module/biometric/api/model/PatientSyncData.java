@@ -0,0 +1,44 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.api.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.openmrs.PersonAddress;
+
+/**
+ * Identifiers, active attributes and address of a patient, loaded for a whole sync page at once
+ * instead of through the lazy collections of each patient.
+ */
+public class PatientSyncData {
+
+  private final List<IdentifierData> identifiers = new ArrayList<>();
+
+  private final List<AttributeData> attributes = new ArrayList<>();
+
+  private PersonAddress address;
+
+  public List<IdentifierData> getIdentifiers() {
+    return identifiers;
+  }
+
+  public List<AttributeData> getAttributes() {
+    return attributes;
+  }
+
+  public PersonAddress getAddress() {
+    return address;
+  }
+
+  public void setAddress(PersonAddress address) {
+    this.address = address;
+  }
+}
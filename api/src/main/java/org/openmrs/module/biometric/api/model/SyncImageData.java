@@ -24,6 +24,10 @@ public class SyncImageData {
 
   private long dateModified;
 
+  private String variant;
+
+  private String knownHash;
+
   public Path getPath() {
     return path;
   }
@@ -47,4 +51,20 @@ public class SyncImageData {
   public void setDateModified(long dateModified) {
     this.dateModified = dateModified;
   }
+
+  public String getVariant() {
+    return variant;
+  }
+
+  public void setVariant(String variant) {
+    this.variant = variant;
+  }
+
+  public String getKnownHash() {
+    return knownHash;
+  }
+
+  public void setKnownHash(String knownHash) {
+    this.knownHash = knownHash;
+  }
 }
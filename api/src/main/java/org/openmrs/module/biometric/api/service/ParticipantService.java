@@ -20,6 +20,7 @@ import org.openmrs.module.biometric.api.contract.PatientResponse;
 import org.openmrs.module.biometric.api.contract.SyncImageResponse;
 import org.openmrs.module.biometric.api.contract.SyncTemplateResponse;
 import org.openmrs.module.biometric.api.exception.BiometricApiException;
+import org.openmrs.module.biometric.api.model.ParticipantKey;
 import org.springframework.transaction.annotation.Transactional;
 
 /**
@@ -37,6 +38,16 @@ public interface ParticipantService {
   Patient registerParticipant(Patient patient)
       throws BiometricApiException;
 
+  /**
+   * Registers participants in a single transaction, flushing and clearing the session every few
+   * participants. The participants must have been checked for existing uuids and ids, the saved
+   * participants are detached from the session.
+   *
+   * @param patients the participants to register
+   * @return the registered participants
+   */
+  List<Patient> registerParticipants(List<Patient> patients);
+
   /**
    * Update a patient.
    *
@@ -82,6 +93,19 @@ public interface ParticipantService {
    */
   Optional<String> retrieveParticipantImage(String personUuid) throws IOException, BiometricApiException;
 
+  /**
+   * Retrieve a variant of participant's image, like a thumbnail. The variant is generated when it
+   * is missing.
+   *
+   * @param personUuid unique identifier of a participant
+   * @param variant a configured image variant, null for the original image
+   * @return participant's image in base64 encoded format
+   * @throws IOException when there is an issue in reading the images from the file path
+   * @throws BiometricApiException when failed to upload a participant's image
+   */
+  Optional<String> retrieveParticipantImage(String personUuid, String variant)
+      throws IOException, BiometricApiException;
+
   /**
    * Retrieve a patient by his phone.
    *
@@ -126,6 +150,33 @@ public interface ParticipantService {
   List<PatientResponse> findPatientsByUuids(Set<String> uuids)
       throws BiometricApiException, IOException;
 
+  /**
+   * Retrieves the keys of the participants with the given uuids, without loading the
+   * participants. The identifier of a key is the preferred active identifier of the participant.
+   *
+   * @param uuids list of person uuids
+   * @return the keys of the participants found, voided participants included
+   */
+  List<ParticipantKey> findParticipantKeysByUuids(Set<String> uuids);
+
+  /**
+   * Retrieves the keys of the participants having the given active participant id, without
+   * loading the participants.
+   *
+   * @param participantId unique identifier for a participant
+   * @return the keys of the participants found, voided participants included
+   */
+  List<ParticipantKey> findParticipantKeysByParticipantId(String participantId);
+
+  /**
+   * Retrieves the keys of the participants having one of the given active participant ids,
+   * without loading the participants.
+   *
+   * @param participantIds unique identifiers of participants
+   * @return the keys of the participants found, voided participants included
+   */
+  List<ParticipantKey> findParticipantKeysByParticipantIds(Set<String> participantIds);
+
   /**
    * Retrieves participant images by the specified list of person uuids.
    *
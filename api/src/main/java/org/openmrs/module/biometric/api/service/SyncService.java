@@ -14,11 +14,16 @@ import java.io.IOException;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 import org.openmrs.Patient;
 import org.openmrs.Visit;
 import org.openmrs.module.biometric.api.contract.SyncImageResponse;
 import org.openmrs.module.biometric.api.contract.SyncTemplateResponse;
 import org.openmrs.module.biometric.api.exception.EntityNotFoundException;
+import org.openmrs.module.biometric.api.exception.EntityValidationException;
+import org.openmrs.module.biometric.api.model.PatientSyncData;
+import org.openmrs.module.biometric.api.model.SyncErrorData;
+import org.openmrs.module.biometric.api.model.VisitSyncData;
 
 /**
  * Defines the services for sync calls.
@@ -26,27 +31,50 @@ import org.openmrs.module.biometric.api.exception.EntityNotFoundException;
 public interface SyncService {
 
   /**
-   * Retrieves all the participant data registered in a program  bases on the sync scope at country
+   * Retrieves all the participant data registered in a program based on the sync scope at country
    * or at site level and the records added or modified after a specified date.
    *
    * @param lastModifiedDate date after which the records needs to be retrieved
+   * @param highWaterMark when not null, only the records last modified up to this date are
+   * retrieved, the creation date is used for the records which were never changed
    * @param maxResultsToFetch number of results to be returned
    * @param locations list of sites from where the participants needs to be retrieved
    * @return @see org.openmrs.Patient
    */
-  List<Patient> getAllPatients(Date lastModifiedDate, int maxResultsToFetch,
+  List<Patient> getAllPatients(Date lastModifiedDate, Date highWaterMark, int maxResultsToFetch,
       List<String> locations);
 
+  /**
+   * Loads the identifiers, active attributes and address of all the given patients with a fixed
+   * number of queries, so that a sync page can be assembled without lazy loading.
+   *
+   * @param patients the patients of a sync page
+   * @return the sync data by patient id, every patient has an entry
+   */
+  Map<Integer, PatientSyncData> getPatientSyncData(List<Patient> patients);
+
+  /**
+   * Loads the active attributes of all the given visits and the observations of their oldest
+   * created encounter with a fixed number of queries, so that a sync page can be assembled without
+   * lazy loading.
+   *
+   * @param visits the visits of a sync page
+   * @return the sync data by visit id, every visit has an entry
+   */
+  Map<Integer, VisitSyncData> getVisitSyncData(List<Visit> visits);
+
   /**
    * Get the patient count for the given sites.
    *
    * @param locations list of sites
+   * @param highWaterMark when not null, only the records last modified up to this date are
+   * counted
    * @return the patient count
    */
-  Map<String, Long> getPatientCount(List<String> locations);
+  Map<String, Long> getPatientCount(List<String> locations, Date highWaterMark);
 
   /**
-   * Retrieves all the participant images registered in a program  bases on the sync scope at
+   * Retrieves all the participant images registered in a program based on the sync scope at
    * country or at site level and the records added or modified after a specified date.
    *
    * @param lastModifiedDate date after which the records needs to be retrieved
@@ -66,6 +94,36 @@ public interface SyncService {
       boolean optimizeData)
       throws IOException;
 
+  /**
+   * Retrieves all the participant images registered in a program based on the sync scope at
+   * country or at site level and the records added or modified after a specified date, in the
+   * requested variant.
+   *
+   * @param lastModifiedDate date after which the records needs to be retrieved
+   * @param highWaterMark when not null, only the records last modified up to this date are
+   * retrieved, the creation date is used for the records which were never changed
+   * @param maxResultsToFetch number of results to be returned
+   * @param locations from where the images needs to be retrieved
+   * @param deviceId the device from where the request was received
+   * @param optimizeData true, excludes the images from the requested device and false, includes the
+   * images from the requested device also
+   * @param imageVariant a configured image variant, null for the original images
+   * @param imageHashes the hashes of the images held by the device by participant uuid, the
+   * matching images are returned as unchanged without their content, may be null
+   * @return @see org.openmrs.module.biometric.api.contract.SyncImageResponse
+   * @throws IOException in case if any issues while retrieving the participant images
+   */
+  List<SyncImageResponse> getAllParticipantImages(
+      Date lastModifiedDate,
+      Date highWaterMark,
+      int maxResultsToFetch,
+      List<String> locations,
+      String deviceId,
+      boolean optimizeData,
+      String imageVariant,
+      Map<String, String> imageHashes)
+      throws IOException;
+
   /**
    * To retrieve the image count of participants for the given params.
    *
@@ -73,41 +131,48 @@ public interface SyncService {
    * @param deviceId the device from where the request was received
    * @param optimizeFlag true, excludes the images from the requested device and false, includes the
    * images from the requested device also
+   * @param highWaterMark when not null, only the records last modified up to this date are
+   * counted
    */
   Map<String, Long> getParticipantImagesCount(List<String> locations,
       String deviceId,
-      boolean optimizeFlag)
+      boolean optimizeFlag,
+      Date highWaterMark)
       throws IOException;
 
   /**
-   * Retrieves all the images of participants registered in a program  bases on the sync scope at
+   * Retrieves all the images of participants registered in a program based on the sync scope at
    * country at site level and records added or modified after a specified date.
    *
    * @param lastModifiedDate date after which the records needs to be retrieved
+   * @param highWaterMark when not null, only the records last modified up to this date are
+   * retrieved, the creation date is used for the records which were never changed
    * @param maxResultsToFetch number of results to be returned
    * @param locations from where the visits needs to be retrieved
    * @return @org.openmrs.Visit
    */
-  List<Visit> getAllVisits(Date lastModifiedDate, int maxResultsToFetch, List<String> locations);
+  List<Visit> getAllVisits(Date lastModifiedDate, Date highWaterMark, int maxResultsToFetch,
+      List<String> locations);
 
   /**
-   * Retrieves all the biometric templates of the participants registered in a program  bases on the
-   * sync scope at country or at site level and the records added or modified after a specified.
-   * date
+   * Streams the biometric templates of the participants registered in a program based on the sync
+   * scope at country or at site level and the records added or modified after a specified date.
+   * The templates are read in bounded chunks and each record is passed to the consumer as soon as
+   * its template is merged, in the order of the modification dates.
    *
    * @param lastModifiedDate date after which the records needs to be retrieved
+   * @param highWaterMark when not null, only the records last modified up to this date are
+   * retrieved, the creation date is used for the records which were never changed
    * @param deviceId the id of a device from which the request was received
-   * @param country where the program is running
-   * @param siteId the site where the program is running
    * @param locations list of locations to fetch the templates
    * @param optimize true, excludes the templates from the requested device and false includes the
    * templates from the requested device also
    * @param maxResultsToFetch number of results to be returned
-   * @return @see org.openmrs.module.biometric.api.contract.SyncTemplateResponse
+   * @param consumer receives the records
    */
-  List<SyncTemplateResponse> getAllBiometricTemplates(Date lastModifiedDate, String deviceId,
-      String country,
-      String siteId, List<String> locations, boolean optimize, int maxResultsToFetch);
+  void forEachBiometricTemplate(Date lastModifiedDate, Date highWaterMark, String deviceId,
+      List<String> locations, boolean optimize, int maxResultsToFetch,
+      Consumer<SyncTemplateResponse> consumer);
 
   /**
    * Get patient count with biometric templates for the given sites.
@@ -115,18 +180,22 @@ public interface SyncService {
    * @param deviceId device id from where the patient was enrolled
    * @param locations list of sites
    * @param optimize true, will skip the patient images captured on the device, false will include
+   * @param highWaterMark when not null, only the records last modified up to this date are
+   * counted
    * @return patient count with biometric templates
    */
   Map<String, Long> getBiometricTemplatesCount(String deviceId, List<String> locations,
-      boolean optimize);
+      boolean optimize, Date highWaterMark);
 
   /**
    * Get visit count for the given sites.
    *
    * @param locations list of sites
+   * @param highWaterMark when not null, only the records last modified up to this date are
+   * counted
    * @return count of dosing visits
    */
-  Map<String, Long> getVisitsCount(List<String> locations);
+  Map<String, Long> getVisitsCount(List<String> locations, Date highWaterMark);
 
   /**
    * Saves the sync errors in a mobile device.
@@ -140,10 +209,38 @@ public interface SyncService {
   void saveSyncError(String deviceId, String stackTrace, Date createdDate, String key, String meta);
 
   /**
-   * Updates the sync errors resolved in a mobile device.
+   * Saves the sync errors uploaded at once by a mobile device. The device is resolved, or created,
+   * once and all the errors are saved in a single transaction.
+   *
+   * @param deviceId the id of a device whose errors are logged
+   * @param syncErrors the errors reported by the device
+   */
+  void saveSyncErrors(String deviceId, List<SyncErrorData> syncErrors);
+
+  /**
+   * Updates the sync errors resolved in a mobile device, all the errors of the keys are voided with
+   * set based updates.
    *
    * @param deviceId ,the id of a device whose error is resolved
    * @param errorKeys ,the error keys resolved
+   * @return the number of resolved errors
+   */
+  int resolveSyncErrors(String deviceId, List<String> errorKeys) throws EntityNotFoundException;
+
+  /**
+   * Reconciles the records held by a device with the records of the sync scope. The device sends
+   * the digests of its records spread in buckets, as described in
+   * {@link org.openmrs.module.biometric.api.util.SyncDigest}, and only the records of the buckets
+   * whose digest differs are returned. The device then fetches the returned records it does not
+   * hold in that version and removes the records of these buckets which are not returned.
+   *
+   * @param entity the synced entity, participants, visits, images or templates
+   * @param locations list of sites
+   * @param bucketCount the number of buckets, a power of two
+   * @param digests the bucket digests of the device by bucket index, missing buckets are empty
+   * @return the modification date of the records by uuid, for each bucket which differs
+   * @throws EntityValidationException if the entity, the bucket count or a digest is not valid
    */
-  void resolveSyncErrors(String deviceId, List<String> errorKeys) throws EntityNotFoundException;
+  Map<Integer, Map<String, Long>> reconcile(String entity, List<String> locations,
+      int bucketCount, Map<Integer, String> digests) throws EntityValidationException;
 }
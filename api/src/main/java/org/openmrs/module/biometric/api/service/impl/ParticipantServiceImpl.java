@@ -21,22 +21,22 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
 import java.util.Set;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 import javax.annotation.PostConstruct;
 import javax.imageio.ImageIO;
 import javax.xml.bind.DatatypeConverter;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.FilenameUtils;
-import org.hibernate.Criteria;
-import org.hibernate.criterion.MatchMode;
-import org.hibernate.criterion.Restrictions;
+import org.apache.commons.lang3.StringUtils;
+import org.hibernate.Query;
 import org.openmrs.Patient;
 import org.openmrs.PatientIdentifierType;
 import org.openmrs.Person;
@@ -55,12 +55,16 @@ import org.openmrs.module.biometric.api.contract.Gender;
 import org.openmrs.module.biometric.api.contract.PatientResponse;
 import org.openmrs.module.biometric.api.contract.SyncImageResponse;
 import org.openmrs.module.biometric.api.contract.SyncTemplateResponse;
+import org.openmrs.module.biometric.api.db.impl.PhoneNumberIndex;
 import org.openmrs.module.biometric.api.exception.BiometricApiException;
 import org.openmrs.module.biometric.api.exception.EntityNotFoundException;
 import org.openmrs.module.biometric.api.model.AttributeData;
+import org.openmrs.module.biometric.api.model.ParticipantKey;
 import org.openmrs.module.biometric.api.service.ParticipantService;
 import org.openmrs.module.biometric.api.util.BiometricApiUtil;
+import org.openmrs.module.biometric.api.util.ImageVariantStore;
 import org.openmrs.module.biometric.api.util.OpenMRSUtil;
+import org.openmrs.module.biometric.api.util.ParticipantImageIndex;
 import org.openmrs.module.biometric.api.util.SecurityUtil;
 import org.openmrs.util.OpenmrsUtil;
 import org.slf4j.Logger;
@@ -80,12 +84,32 @@ public class ParticipantServiceImpl extends BaseOpenmrsService implements Partic
 
   private static final Logger LOGGER = LoggerFactory.getLogger(ParticipantServiceImpl.class);
 
-  private static final String ATTR_VALUE = "value";
   private static final String VOID_FLAG = "voided";
   private static final String OPEN_MRS_ID = "OpenMRS ID";
   private static final String DOT = ".";
-  private static final String[] FILE_EXTENSIONS = {"jpeg"};
   private static final int FETCH_SIZE = 100;
+  private static final int FLUSH_SIZE = 25;
+  // the preferred identifiers first, the first row of a participant is kept
+  private static final String PARTICIPANT_KEYS_BY_UUIDS_QUERY =
+      "select p.uuid, pi.identifier, p.voided from Patient p"
+          + " left join p.identifiers pi with pi.voided = false"
+          + " where p.uuid in (:uuids) order by pi.preferred desc, pi.patientIdentifierId";
+  private static final String PARTICIPANT_KEYS_BY_IDENTIFIER_QUERY =
+      "select p.uuid, pi.identifier, p.voided from PatientIdentifier pi inner join pi.patient p"
+          + " where pi.identifier in (:identifiers) and pi.identifierType.name = :identifierType"
+          + " and pi.voided = false";
+  // served by the (value, person_attribute_type_id, person_id) index of person_attribute
+  private static final String PERSON_IDS_BY_PHONE_QUERY =
+      "select distinct pa.person.personId from PersonAttribute pa"
+          + " where pa.value = :phone and pa.attributeType.name in (:attributeTypes)"
+          + " and pa.voided = false";
+  private static final String PATIENTS_BY_IDS_QUERY =
+      "select distinct p from Patient p left join fetch p.identifiers"
+          + " left join fetch p.attributes where p.patientId in (:patientIds)";
+  private static final String IMAGE_DEVICES_BY_UUIDS_QUERY =
+      "select p.uuid, pa.value from PersonAttribute pa inner join pa.person p"
+          + " where p.uuid in (:uuids) and pa.attributeType.name = :attributeType"
+          + " and pa.voided = false";
 
   private DriverManagerDataSource dataSource;
 
@@ -104,6 +128,15 @@ public class ParticipantServiceImpl extends BaseOpenmrsService implements Partic
   @Autowired
   private ImageResponseBuilder builder;
 
+  @Autowired
+  private ImageVariantStore imageVariantStore;
+
+  @Autowired
+  private ParticipantImageIndex imageIndex;
+
+  @Autowired
+  private PhoneNumberIndex phoneNumberIndex;
+
   private String personImagesDir;
 
   /**
@@ -130,6 +163,23 @@ public class ParticipantServiceImpl extends BaseOpenmrsService implements Partic
     return patient;
   }
 
+  @Transactional
+  @Override
+  public final List<Patient> registerParticipants(List<Patient> patients) {
+    DbSession session = getSession();
+    List<Patient> registered = new ArrayList<>(patients.size());
+    for (Patient patient : patients) {
+      registered.add(patientService.savePatient(patient));
+      if (registered.size() % FLUSH_SIZE == 0) {
+        session.flush();
+        session.clear();
+      }
+    }
+    session.flush();
+    session.clear();
+    return registered;
+  }
+
   @Transactional
   @Override
   public final Patient updateParticipant(Patient patient) {
@@ -152,18 +202,27 @@ public class ParticipantServiceImpl extends BaseOpenmrsService implements Partic
   @Override
   public final List<PatientResponse> findByPhone(String phone)
       throws BiometricApiException, IOException {
-    Criteria criteria = getSession().createCriteria(PersonAttribute.class);
-    criteria.add(Restrictions.like(ATTR_VALUE, phone, MatchMode.EXACT));
-    criteria.add(Restrictions.eq(VOID_FLAG, Boolean.FALSE));
-    List<PersonAttribute> personAttributes = criteria.list();
-    LOGGER.debug("findByPhone results count : {}", personAttributes.size());
-    List<Patient> patients = new ArrayList<>(5);
-    for (PersonAttribute personAttribute : personAttributes) {
-      Integer personId = personAttribute.getPerson().getPersonId();
-      Patient patient = patientService.getPatient(personId);
-      patients.add(patient);
+    if (PhoneNumberIndex.normalize(phone).isEmpty()
+        || phoneNumberIndex.getAttributeTypes().isEmpty()) {
+      return new ArrayList<>();
     }
-    return buildPatientResponse(patients);
+    Set<Integer> personIds = new LinkedHashSet<>(phoneNumberIndex.find(phone));
+    // the phone numbers not stored yet, until their participant is next saved, are found as entered
+    Query query = getSession().createQuery(PERSON_IDS_BY_PHONE_QUERY);
+    query.setParameter("phone", StringUtils.trim(phone));
+    query.setParameterList("attributeTypes", phoneNumberIndex.getAttributeTypes());
+    personIds.addAll(query.list());
+    LOGGER.debug("findByPhone results count : {}", personIds.size());
+    return buildPatientResponse(getPatientsByIds(personIds));
+  }
+
+  private List<Patient> getPatientsByIds(Collection<Integer> patientIds) {
+    if (patientIds.isEmpty()) {
+      return new ArrayList<>();
+    }
+    Query query = getSession().createQuery(PATIENTS_BY_IDS_QUERY);
+    query.setParameterList("patientIds", patientIds);
+    return query.list();
   }
 
   @Override
@@ -199,7 +258,9 @@ public class ParticipantServiceImpl extends BaseOpenmrsService implements Partic
       final byte[] decodedBytes = DatatypeConverter.parseBase64Binary(base64EncodedImage);
       final BufferedImage bufferedImage = ImageIO.read(new ByteArrayInputStream(decodedBytes));
       ImageIO.write(bufferedImage, BiometricApiConstants.IMAGE_EXTN, imageFile);
+      imageIndex.add(imageFile.toPath());
       LOGGER.debug("Participant : {} image uploaded successfully", person.getUuid());
+      imageVariantStore.generateAll(imageFile.toPath(), bufferedImage);
 
       util.setPersonAttributeValue(person.getUuid(), PERSON_IMAGE_ATTRIBUTE, deviceId);
     } catch (IOException e) {
@@ -210,7 +271,16 @@ public class ParticipantServiceImpl extends BaseOpenmrsService implements Partic
   @Override
   public final Optional<String> retrieveParticipantImage(String personUuid)
       throws IOException, BiometricApiException {
+    return retrieveParticipantImage(personUuid, null);
+  }
+
+  @Override
+  public final Optional<String> retrieveParticipantImage(String personUuid, String variant)
+      throws IOException, BiometricApiException {
     Optional<File> imageFile = retrievePersonImage(personUuid);
+    if (imageFile.isPresent() && null != variant) {
+      imageFile = Optional.of(imageVariantStore.resolve(variant, imageFile.get().toPath()).toFile());
+    }
     return imageFile.map(this::convertFileToBase64String);
   }
 
@@ -222,15 +292,38 @@ public class ParticipantServiceImpl extends BaseOpenmrsService implements Partic
   }
 
   @Override
-  public final List<SyncImageResponse> findImagesByUuids(Set<String> uuids) throws IOException {
-    List<Path> results;
-    Path path = util.getImageDirPath(personImagesDir);
-    try (Stream<Path> walk = Files.walk(path)) {
-      results = walk.filter(Files::isRegularFile).filter(p -> Arrays.stream(FILE_EXTENSIONS)
-          .anyMatch(entry -> p.getFileName().toString().endsWith(entry)))
-          .filter(p -> uuids.contains(FilenameUtils.getBaseName(p.getFileName().toString())))
-          .collect(Collectors.toList());
+  @Transactional(readOnly = true)
+  public final List<ParticipantKey> findParticipantKeysByUuids(Set<String> uuids) {
+    Query query = getSession().createQuery(PARTICIPANT_KEYS_BY_UUIDS_QUERY);
+    query.setParameterList("uuids", uuids);
+    Map<String, ParticipantKey> keys = new LinkedHashMap<>();
+    for (ParticipantKey key : toParticipantKeys(query.list())) {
+      keys.putIfAbsent(key.getUuid(), key);
     }
+    return new ArrayList<>(keys.values());
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public final List<ParticipantKey> findParticipantKeysByParticipantId(String participantId) {
+    return findParticipantKeysByParticipantIds(Collections.singleton(participantId));
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public final List<ParticipantKey> findParticipantKeysByParticipantIds(
+      Set<String> participantIds) {
+    Query query = getSession().createQuery(PARTICIPANT_KEYS_BY_IDENTIFIER_QUERY);
+    query.setParameterList("identifiers", participantIds);
+    query.setParameter("identifierType", OPEN_MRS_ID);
+    return toParticipantKeys(query.list());
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public final List<SyncImageResponse> findImagesByUuids(Set<String> uuids) throws IOException {
+    List<Path> results =
+        imageIndex.isReady() ? imageIndex.find(uuids) : findImagesByDevice(uuids);
     return builder.createFromPath(results);
   }
 
@@ -243,20 +336,21 @@ public class ParticipantServiceImpl extends BaseOpenmrsService implements Partic
     SqlParameterSource params = new MapSqlParameterSource("uuids", uuids);
 
     String query =
-        "SELECT dbid, participantUuid, TO_BASE64(template) template,modificationDate,voided FROM iris_templates "
+        "SELECT dbid, participantUuid, template,modificationDate,voided FROM iris_templates "
             +
             "where participantUuid IN (:uuids)";
 
     List<BiometricData> biometricDataList = template.query(query, params,
         (rs, rowNum) -> new BiometricData(rs.getString("dbid"), rs.getString("participantUuid"),
-            rs.getString("template"), rs.getDate("modificationDate"), rs.getBoolean(VOID_FLAG)));
+            rs.getBytes("template"), rs.getDate("modificationDate"), rs.getBoolean(VOID_FLAG)));
     LOGGER.info("participants from biometric db : {}", biometricDataList.size());
     List<SyncTemplateResponse> responseList = new ArrayList<>(5);
 
     for (BiometricData data : biometricDataList) {
       SyncTemplateResponse response = new SyncTemplateResponse();
       response.setParticipantUuid(SecurityUtil.sanitizeOutput(data.getParticipantUuid()));
-      response.setBiometricsTemplate(SecurityUtil.sanitizeOutput(data.getTemplate()));
+      // binary content, base64 encoded when the response is written
+      response.setBiometricsTemplate(data.getTemplate());
       response.setDateModified(data.getModificationDate().getTime());
       response.setType(SYNC_DELETE);
       if (!data.isVoided()) {
@@ -278,13 +372,13 @@ public class ParticipantServiceImpl extends BaseOpenmrsService implements Partic
       throw new EntityNotFoundException(
           String.format("Person with this UUID: %s not found", personUuid));
     }
-    Path path = util.getImageDirPath(personImagesDir);
-    String file = personUuid + DOT + BiometricApiConstants.IMAGE_EXTN;
     List<Path> results;
-    try (Stream<Path> walk = Files.walk(path)) {
-      results = walk.filter(Files::isRegularFile)
-          .filter(p -> p.getFileName().toString().endsWith(file))
-          .collect(Collectors.toList());
+    if (imageIndex.isReady()) {
+      results = imageIndex.find(personUuid);
+    } else {
+      PersonAttribute device = person.getAttribute(PERSON_IMAGE_ATTRIBUTE);
+      results = findImageByDevice(personUuid, null == device ? null : device.getValue())
+          .map(Collections::singletonList).orElse(Collections.<Path>emptyList());
     }
 
     if (results.size() > 1) {
@@ -295,6 +389,42 @@ public class ParticipantServiceImpl extends BaseOpenmrsService implements Partic
      return results.stream().findFirst().map(Path::toFile);
   }
 
+  /**
+   * Locates the images from the device recorded on the participants, used until the image index is
+   * built.
+   *
+   * @param uuids the uuids of the participants
+   * @return the paths of the images found
+   */
+  private List<Path> findImagesByDevice(Set<String> uuids) {
+    List<Path> results = new ArrayList<>();
+    if (uuids.isEmpty()) {
+      return results;
+    }
+    Query query = getSession().createQuery(IMAGE_DEVICES_BY_UUIDS_QUERY);
+    query.setParameterList("uuids", uuids);
+    query.setParameter("attributeType", PERSON_IMAGE_ATTRIBUTE);
+    for (Object row : query.list()) {
+      Object[] columns = (Object[]) row;
+      findImageByDevice((String) columns[0], (String) columns[1]).ifPresent(results::add);
+    }
+    return results;
+  }
+
+  private Optional<Path> findImageByDevice(String personUuid, String deviceId) {
+    if (StringUtils.isBlank(deviceId)) {
+      return Optional.empty();
+    }
+    Path rootDirPath = util.getImageDirPath(personImagesDir);
+    Path image = rootDirPath.resolve(deviceId)
+        .resolve(personUuid + DOT + BiometricApiConstants.IMAGE_EXTN).normalize();
+    // the device id must not lead out of the images directory
+    if (!image.startsWith(rootDirPath) || !Files.isRegularFile(image)) {
+      return Optional.empty();
+    }
+    return Optional.of(image);
+  }
+
   private List<PatientResponse> buildPatientResponse(List<Patient> patients)
       throws BiometricApiException,
       IOException {
@@ -323,6 +453,16 @@ public class ParticipantServiceImpl extends BaseOpenmrsService implements Partic
     return responseList;
   }
 
+  private static List<ParticipantKey> toParticipantKeys(List<?> rows) {
+    List<ParticipantKey> keys = new ArrayList<>(rows.size());
+    for (Object row : rows) {
+      Object[] columns = (Object[]) row;
+      keys.add(new ParticipantKey((String) columns[0], (String) columns[1],
+          Boolean.TRUE.equals(columns[2])));
+    }
+    return keys;
+  }
+
   private List<Patient> getPatients(Set<String> uuids) {
     List<Patient> patients = new ArrayList<>();
     for (String uuid : uuids) {
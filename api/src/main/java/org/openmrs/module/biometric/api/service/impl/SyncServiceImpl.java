@@ -14,14 +14,21 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import javax.annotation.PostConstruct;
+import org.openmrs.Concept;
 import org.openmrs.Patient;
+import org.openmrs.PersonAddress;
 import org.openmrs.Visit;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.biometric.api.builder.ImageResponseBuilder;
@@ -31,18 +38,28 @@ import org.openmrs.module.biometric.api.contract.SyncTemplateResponse;
 import org.openmrs.module.biometric.api.db.SyncDao;
 import org.openmrs.module.biometric.api.exception.BiometricApiException;
 import org.openmrs.module.biometric.api.exception.EntityNotFoundException;
+import org.openmrs.module.biometric.api.exception.EntityValidationException;
 import org.openmrs.module.biometric.api.helper.SyncQueryHelper;
+import org.openmrs.module.biometric.api.model.AttributeData;
+import org.openmrs.module.biometric.api.model.IdentifierData;
+import org.openmrs.module.biometric.api.model.ObservationData;
+import org.openmrs.module.biometric.api.model.PatientSyncData;
+import org.openmrs.module.biometric.api.model.SyncErrorData;
 import org.openmrs.module.biometric.api.model.SyncImageData;
 import org.openmrs.module.biometric.api.model.SyncTemplateData;
+import org.openmrs.module.biometric.api.model.VisitSyncData;
 import org.openmrs.module.biometric.api.service.SyncService;
 import org.openmrs.module.biometric.api.util.BiometricApiUtil;
 import org.openmrs.module.biometric.api.util.SecurityUtil;
+import org.openmrs.module.biometric.api.util.SyncDigest;
+import org.openmrs.module.biometric.api.util.SyncTaskExecutor;
 import org.openmrs.module.licensemanagement.Device;
 import org.openmrs.module.licensemanagement.DeviceError;
 import org.openmrs.module.licensemanagement.api.DeviceErrorService;
 import org.openmrs.module.licensemanagement.api.DeviceService;
 import org.openmrs.util.OpenmrsUtil;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.core.namedparam.SqlParameterSource;
@@ -59,6 +76,7 @@ public class SyncServiceImpl implements SyncService {
   private static final String VOIDED_COUNT = "voidedCount";
   private static final String PERSON_IMAGE_ATTRIBUTE = "PersonImageAttribute";
   private static final String PERSON_TEMPLATE_ATTRIBUTE = "PersonTemplateAttribute";
+  private static final int MAX_IN_CLAUSE_SIZE = 1000;
   private DriverManagerDataSource dataSource;
   private String personImagesDir;
   private int fetchSize;
@@ -75,6 +93,9 @@ public class SyncServiceImpl implements SyncService {
   @Autowired
   private ImageResponseBuilder builder;
 
+  @Autowired
+  private SyncTaskExecutor syncTaskExecutor;
+
   private SyncDao syncDao;
 
   public void setSyncDao(SyncDao syncDao) {
@@ -92,15 +113,106 @@ public class SyncServiceImpl implements SyncService {
 
   @Override
   public final List<Patient> getAllPatients(
-      Date lastModifiedDate, int maxResultsToFetch, List<String> locations) {
+      Date lastModifiedDate, Date highWaterMark, int maxResultsToFetch, List<String> locations) {
 
     return syncDao
-        .getAllPatientsByLocations(lastModifiedDate, maxResultsToFetch, locations);
+        .getAllPatientsByLocations(lastModifiedDate, highWaterMark, maxResultsToFetch, locations);
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public final Map<Integer, PatientSyncData> getPatientSyncData(List<Patient> patients) {
+    Map<Integer, PatientSyncData> result = new HashMap<>(patients.size() * 2);
+    List<Integer> ids = new ArrayList<>(patients.size());
+    for (Patient patient : patients) {
+      result.put(patient.getPatientId(), new PatientSyncData());
+      ids.add(patient.getPatientId());
+    }
+
+    for (int from = 0; from < ids.size(); from += MAX_IN_CLAUSE_SIZE) {
+      List<Integer> chunk = ids.subList(from, Math.min(from + MAX_IN_CLAUSE_SIZE, ids.size()));
+      for (Object[] row : syncDao.getPatientIdentifiers(chunk)) {
+        result.get((Integer) row[0]).getIdentifiers().add(new IdentifierData((String) row[1],
+            Boolean.TRUE.equals(row[2]), Boolean.TRUE.equals(row[3])));
+      }
+      for (Object[] row : syncDao.getActivePersonAttributes(chunk)) {
+        AttributeData attribute = new AttributeData();
+        attribute.setType((String) row[1]);
+        attribute.setValue((String) row[2]);
+        result.get((Integer) row[0]).getAttributes().add(attribute);
+      }
+      for (PersonAddress address : syncDao.getPersonAddresses(chunk)) {
+        PatientSyncData data = result.get(address.getPerson().getPersonId());
+        // addresses are ordered so that the one returned by Person.getPersonAddress() comes first
+        if (null == data.getAddress()) {
+          data.setAddress(address);
+        }
+      }
+    }
+    return result;
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public final Map<Integer, VisitSyncData> getVisitSyncData(List<Visit> visits) {
+    Map<Integer, VisitSyncData> result = new HashMap<>(visits.size() * 2);
+    List<Integer> ids = new ArrayList<>(visits.size());
+    for (Visit visit : visits) {
+      result.put(visit.getVisitId(), new VisitSyncData());
+      ids.add(visit.getVisitId());
+    }
+
+    Map<Integer, VisitSyncData> byEncounter = new HashMap<>(visits.size() * 2);
+    for (int from = 0; from < ids.size(); from += MAX_IN_CLAUSE_SIZE) {
+      List<Integer> chunk = ids.subList(from, Math.min(from + MAX_IN_CLAUSE_SIZE, ids.size()));
+      for (Object[] row : syncDao.getActiveVisitAttributes(chunk)) {
+        AttributeData attribute = new AttributeData();
+        attribute.setType((String) row[1]);
+        attribute.setValue((String) row[2]);
+        result.get((Integer) row[0]).getAttributes().add(attribute);
+      }
+      for (Object[] row : syncDao.getNonVoidedEncounters(chunk)) {
+        VisitSyncData data = result.get((Integer) row[0]);
+        // encounters are ordered by creation date, only the oldest one of each visit is synced
+        if (null == data.getEncounterDatetime()) {
+          data.setEncounterDatetime((Date) row[2]);
+          byEncounter.put((Integer) row[1], data);
+        }
+      }
+    }
+
+    List<Integer> encounterIds = new ArrayList<>(byEncounter.keySet());
+    List<Object[]> observations = new ArrayList<>();
+    Map<Integer, String> conceptNames = new HashMap<>();
+    for (int from = 0; from < encounterIds.size(); from += MAX_IN_CLAUSE_SIZE) {
+      List<Integer> chunk =
+          encounterIds.subList(from, Math.min(from + MAX_IN_CLAUSE_SIZE, encounterIds.size()));
+      for (Object[] row : syncDao.getNonVoidedObservations(chunk)) {
+        observations.add(row);
+        conceptNames.put((Integer) row[1], null);
+      }
+    }
+
+    List<Integer> conceptIds = new ArrayList<>(conceptNames.keySet());
+    for (int from = 0; from < conceptIds.size(); from += MAX_IN_CLAUSE_SIZE) {
+      List<Integer> chunk =
+          conceptIds.subList(from, Math.min(from + MAX_IN_CLAUSE_SIZE, conceptIds.size()));
+      for (Concept concept : syncDao.getConceptsWithNames(chunk)) {
+        // resolved once per concept, the names are already loaded for the locale lookup
+        conceptNames.put(concept.getConceptId(), concept.getName().getName());
+      }
+    }
+
+    for (Object[] row : observations) {
+      byEncounter.get((Integer) row[0]).getObservations()
+          .add(new ObservationData(conceptNames.get((Integer) row[1]), (String) row[2]));
+    }
+    return result;
   }
 
   @Override
-  public final Map<String, Long> getPatientCount(List<String> locations) {
-    return getCounts(syncDao.getPatientCount(locations));
+  public final Map<String, Long> getPatientCount(List<String> locations, Date highWaterMark) {
+    return getCounts(syncDao.getPatientCount(locations, highWaterMark));
   }
 
   @Override
@@ -111,9 +223,24 @@ public class SyncServiceImpl implements SyncService {
       String deviceId,
       boolean optimizeData)
       throws IOException {
+    return getAllParticipantImages(lastModifiedDate, null, maxResultsToFetch, locations, deviceId,
+        optimizeData, null, null);
+  }
+
+  @Override
+  public final List<SyncImageResponse> getAllParticipantImages(
+      Date lastModifiedDate,
+      Date highWaterMark,
+      int maxResultsToFetch,
+      List<String> locations,
+      String deviceId,
+      boolean optimizeData,
+      String imageVariant,
+      Map<String, String> imageHashes)
+      throws IOException {
 
     List<Patient> patients = syncDao
-        .getPatientImageData(lastModifiedDate, deviceId, locations, optimizeData,
+        .getPatientImageData(lastModifiedDate, highWaterMark, deviceId, locations, optimizeData,
             maxResultsToFetch);
 
     List<SyncImageData> results = new ArrayList<>(BiometricApiConstants.INITIAL_SIZE);
@@ -128,6 +255,10 @@ public class SyncServiceImpl implements SyncService {
       Path imagePath = util.getImageDirPath(imagePathStr);
       data.setPath(imagePath);
       data.setDateModified(p.getDateChanged().getTime());
+      data.setVariant(imageVariant);
+      if (null != imageHashes) {
+        data.setKnownHash(imageHashes.get(p.getUuid()));
+      }
       results.add(data);
     }
     return builder.createFrom(results);
@@ -137,15 +268,16 @@ public class SyncServiceImpl implements SyncService {
   public final Map<String, Long> getParticipantImagesCount(
       List<String> locations,
       String deviceId,
-      boolean optimizeFlag) {
+      boolean optimizeFlag,
+      Date highWaterMark) {
     // ignored count wont't be shown in the response if the optimize flag is false
     Long ignoredCount = null;
     if (optimizeFlag) {
       ignoredCount = syncDao
-          .getIgnoredCount(locations, deviceId, PERSON_IMAGE_ATTRIBUTE);
+          .getIgnoredCount(locations, deviceId, PERSON_IMAGE_ATTRIBUTE, highWaterMark);
     }
     List<Object[]> list = syncDao
-        .getPatientCountByLocationsAndAttribute(locations, PERSON_IMAGE_ATTRIBUTE);
+        .getPatientCountByLocationsAndAttribute(locations, PERSON_IMAGE_ATTRIBUTE, highWaterMark);
     Map<String, Long> countMap = getCounts(list);
     countMap.put(BiometricApiConstants.IGNORED_COUNT, ignoredCount);
     return countMap;
@@ -154,77 +286,88 @@ public class SyncServiceImpl implements SyncService {
   @Override
   @Transactional
   public List<Visit> getAllVisits(
-      Date lastModifiedDate, int maxResultsToFetch, List<String> locations) {
-    return syncDao.getAllVisits(lastModifiedDate, maxResultsToFetch, locations);
+      Date lastModifiedDate, Date highWaterMark, int maxResultsToFetch, List<String> locations) {
+    return syncDao.getAllVisits(lastModifiedDate, highWaterMark, maxResultsToFetch, locations);
   }
 
   @Override
   @Transactional
-  public final Map<String, Long> getVisitsCount(List<String> locations) {
-    return getCounts(syncDao.getVisitCount(locations));
+  public final Map<String, Long> getVisitsCount(List<String> locations, Date highWaterMark) {
+    return getCounts(syncDao.getVisitCount(locations, highWaterMark));
   }
 
   @Override
   @Transactional(readOnly = true)
-  public final List<SyncTemplateResponse> getAllBiometricTemplates(
-      Date lastModifiedDate,
-      String deviceId,
-      String country,
-      String siteId,
-      List<String> locations,
-      boolean optimize,
-      int maxResultsToFetch) {
+  public final void forEachBiometricTemplate(Date lastModifiedDate, Date highWaterMark,
+      String deviceId, List<String> locations, boolean optimize, int maxResultsToFetch,
+      Consumer<SyncTemplateResponse> consumer) {
 
     List<SyncTemplateData> patients =
         syncDao
-            .getPatientTemplateData(lastModifiedDate, deviceId, locations, optimize,
+            .getPatientTemplateData(lastModifiedDate, highWaterMark, deviceId, locations, optimize,
                 maxResultsToFetch);
 
-    List<String> patientIdentifierList = new ArrayList<>(BiometricApiConstants.INITIAL_SIZE);
-    for (SyncTemplateData templateData : patients) {
-      patientIdentifierList.add(templateData.getIdentifier());
+    // only the templates of one chunk are held at a time
+    for (int from = 0; from < patients.size(); from += MAX_IN_CLAUSE_SIZE) {
+      List<SyncTemplateData> chunk =
+          patients.subList(from, Math.min(from + MAX_IN_CLAUSE_SIZE, patients.size()));
+      Map<String, byte[]> templates = getTemplates(chunk);
+
+      // the responses are assembled in parallel, only the uuids are sanitized, the raw templates
+      // are base64 encoded when the response is written
+      List<SyncTemplateResponse> responses = syncTaskExecutor.map(chunk, data -> {
+        SyncTemplateResponse response = new SyncTemplateResponse();
+        response.setParticipantUuid(SecurityUtil.sanitizeOutput(data.getUuid()));
+
+        boolean voided = data.isVoided();
+        if (!voided) {
+          // binary content, base64 encoded when the response is written
+          response.setBiometricsTemplate(templates.get(data.getIdentifier()));
+          response.setType(BiometricApiConstants.SYNC_UPDATE);
+        } else {
+          response.setType(BiometricApiConstants.SYNC_DELETE);
+        }
+        Date modificationDate = data.getDateModified();
+        response.setDateModified(modificationDate.getTime());
+        return response;
+      });
+      responses.forEach(consumer);
     }
-    Map<String, String> templatesMap = new HashMap<>();
-    List<SyncTemplateResponse> responseList = new ArrayList<>(BiometricApiConstants.INITIAL_SIZE);
-
-    if (!patientIdentifierList.isEmpty()) {
-      NamedParameterJdbcTemplate template =
-          util.getNamedParameterJdbcTemplate(dataSource, fetchSize);
-      Map<String, Object> params = new HashMap<>();
-      params.put("patientIdentifierList", patientIdentifierList);
-
-      SqlParameterSource namedParameters = new MapSqlParameterSource(params);
-      String templatesQuery = SyncQueryHelper.buildSyncTemplatesQuery();
-      List<Map<String, Object>> rows = template.queryForList(templatesQuery, namedParameters);
+  }
 
-      for (Map<String, Object> map : rows) {
-        templatesMap.put((String) map.get("dbid"), (String) map.get(TEMPLATE));
+  /**
+   * Reads the raw templates of the records which are not voided, the rows are read one by one from
+   * the result set.
+   */
+  private Map<String, byte[]> getTemplates(List<SyncTemplateData> records) {
+    List<String> patientIdentifierList = new ArrayList<>(records.size());
+    for (SyncTemplateData templateData : records) {
+      if (!templateData.isVoided()) {
+        patientIdentifierList.add(templateData.getIdentifier());
       }
     }
-
-    for (SyncTemplateData data : patients) {
-      SyncTemplateResponse response = new SyncTemplateResponse();
-      response.setParticipantUuid(SecurityUtil.sanitizeOutput(data.getUuid()));
-
-      boolean voided = data.isVoided();
-      if (!voided) {
-        String irisTemplate = templatesMap.get(data.getIdentifier());
-        response.setBiometricsTemplate(SecurityUtil.sanitizeOutput(irisTemplate));
-        response.setType(BiometricApiConstants.SYNC_UPDATE);
-      } else {
-        response.setType(BiometricApiConstants.SYNC_DELETE);
-      }
-      Date modificationDate = data.getDateModified();
-      response.setDateModified(modificationDate.getTime());
-      responseList.add(response);
+    Map<String, byte[]> templatesMap = new HashMap<>(records.size() * 2);
+    if (patientIdentifierList.isEmpty()) {
+      return templatesMap;
     }
-    return responseList;
+
+    NamedParameterJdbcTemplate template =
+        util.getNamedParameterJdbcTemplate(dataSource, fetchSize);
+    Map<String, Object> params = new HashMap<>();
+    params.put("patientIdentifierList", patientIdentifierList);
+
+    SqlParameterSource namedParameters = new MapSqlParameterSource(params);
+    String templatesQuery = SyncQueryHelper.buildSyncTemplatesQuery();
+    RowCallbackHandler handler =
+        rs -> templatesMap.put(rs.getString("dbid"), rs.getBytes(TEMPLATE));
+    template.query(templatesQuery, namedParameters, handler);
+    return templatesMap;
   }
 
   @Transactional(readOnly = true)
   @Override
   public final Map<String, Long> getBiometricTemplatesCount(
-      String deviceId, List<String> locations, boolean optimize) {
+      String deviceId, List<String> locations, boolean optimize, Date highWaterMark) {
 
     // ignored count wont't be shown in the response if the optimize flag is false
     Long ignoredCount = null;
@@ -232,11 +375,11 @@ public class SyncServiceImpl implements SyncService {
     //calculate ignored templates count when the optimize flag is true
     if (optimize) {
       ignoredCount = syncDao
-          .getIgnoredCount(locations, deviceId, PERSON_TEMPLATE_ATTRIBUTE);
+          .getIgnoredCount(locations, deviceId, PERSON_TEMPLATE_ATTRIBUTE, highWaterMark);
     }
     //calculate total templates count
-    List<Object[]> list = syncDao
-        .getPatientCountByLocationsAndAttribute(locations, PERSON_TEMPLATE_ATTRIBUTE);
+    List<Object[]> list = syncDao.getPatientCountByLocationsAndAttribute(
+        locations, PERSON_TEMPLATE_ATTRIBUTE, highWaterMark);
     Map<String, Long> countMap = getCounts(list);
     countMap.put(BiometricApiConstants.IGNORED_COUNT, ignoredCount);
     return countMap;
@@ -246,7 +389,20 @@ public class SyncServiceImpl implements SyncService {
   @Override
   public final void saveSyncError(
       String deviceId, String stackTrace, Date createdDate, String key, String meta) {
+    SyncErrorData syncError = new SyncErrorData();
+    syncError.setStackTrace(stackTrace);
+    syncError.setDateCreated(createdDate);
+    syncError.setKey(key);
+    syncError.setMeta(meta);
+    saveSyncErrors(deviceId, Collections.singletonList(syncError));
+  }
 
+  @Transactional
+  @Override
+  public final void saveSyncErrors(String deviceId, List<SyncErrorData> syncErrors) {
+    if (syncErrors.isEmpty()) {
+      return;
+    }
     Device device = deviceService.getDeviceByMAC(deviceId, Boolean.FALSE);
     if (null == device) {
       device = new Device();
@@ -255,38 +411,131 @@ public class SyncServiceImpl implements SyncService {
       device = deviceService.saveDevice(device);
     }
 
+    for (SyncErrorData syncError : syncErrors) {
+      deviceErrorService.saveDeviceError(createDeviceError(device, syncError));
+    }
+  }
+
+  private static DeviceError createDeviceError(Device device, SyncErrorData syncError) {
     DeviceError deviceError = new DeviceError();
+    String key = syncError.getKey();
     String[] metaArray = key.split(":", 2);
     deviceError.setMetaType(metaArray.length > 0 ? metaArray[0] : null);
     if (metaArray.length == 2) {
       String[] subTypeArray = metaArray[1].split(",", 2);
       deviceError.setMetaSubType(subTypeArray.length > 0 ? subTypeArray[0] : metaArray[1]);
     }
-    deviceError.setStackTrace(stackTrace);
-    deviceError.setReportedDate(createdDate);
+    deviceError.setStackTrace(syncError.getStackTrace());
+    deviceError.setReportedDate(syncError.getDateCreated());
     deviceError.setKey(key);
-    deviceError.setMeta(meta);
+    deviceError.setMeta(syncError.getMeta());
     deviceError.setDevice(device);
-    deviceErrorService.saveDeviceError(deviceError);
+    return deviceError;
   }
 
   @Transactional(rollbackFor = EntityNotFoundException.class)
   @Override
-  public void resolveSyncErrors(String deviceId, List<String> errorKeys)
+  public int resolveSyncErrors(String deviceId, List<String> errorKeys)
       throws EntityNotFoundException {
     Device device = deviceService.getDeviceByMAC(deviceId, Boolean.FALSE);
     if (null == device) {
       throw new EntityNotFoundException("Device not found");
     }
-    for (String key : errorKeys) {
-      List<DeviceError> deviceErrors = deviceErrorService.getDeviceErrorsByKey(device, key, false);
-      for (DeviceError deviceError : deviceErrors) {
-        deviceError.setVoided(Boolean.TRUE);
-        deviceError.setVoidReason("Error resolved");
-        deviceError.setVoidedBy(Context.getAuthenticatedUser());
-        deviceErrorService.saveDeviceError(deviceError);
+    List<String> keys = new ArrayList<>(new HashSet<>(errorKeys));
+    int resolved = 0;
+    for (int from = 0; from < keys.size(); from += MAX_IN_CLAUSE_SIZE) {
+      List<String> chunk = keys.subList(from, Math.min(from + MAX_IN_CLAUSE_SIZE, keys.size()));
+      resolved += syncDao.voidDeviceErrors(device, chunk, Context.getAuthenticatedUser(),
+          "Error resolved");
+    }
+    return resolved;
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public Map<Integer, Map<String, Long>> reconcile(String entity, List<String> locations,
+      int bucketCount, Map<Integer, String> digests) throws EntityValidationException {
+    if (!SyncDigest.isValidBucketCount(bucketCount, BiometricApiConstants.MAX_RECONCILE_BUCKETS)) {
+      throw new EntityValidationException(String.format(
+          "Bucket count must be a power of two up to %d",
+          BiometricApiConstants.MAX_RECONCILE_BUCKETS));
+    }
+    long[] deviceDigests = parseDigests(bucketCount, digests);
+    List<Object[]> versions = getVersions(entity, locations);
+
+    // the versions are read once, the records are only kept for the buckets which differ
+    long[] serverDigests = new long[bucketCount];
+    int[] buckets = new int[versions.size()];
+    Set<String> uuids = new HashSet<>(versions.size() * 2);
+    for (int i = 0; i < versions.size(); i++) {
+      Object[] row = versions.get(i);
+      String uuid = (String) row[0];
+      if (!uuids.add(uuid)) {
+        // a participant with several location attributes would cancel itself out
+        buckets[i] = -1;
+        continue;
+      }
+      buckets[i] = SyncDigest.bucketOf(uuid, bucketCount);
+      serverDigests[buckets[i]] ^= SyncDigest.recordHash(uuid, getDateModified(row));
+    }
+
+    Map<Integer, Map<String, Long>> result = new TreeMap<>();
+    for (int bucket = 0; bucket < bucketCount; bucket++) {
+      if (serverDigests[bucket] != deviceDigests[bucket]) {
+        result.put(bucket, new HashMap<>());
       }
     }
+    for (int i = 0; i < versions.size(); i++) {
+      Map<String, Long> records = buckets[i] < 0 ? null : result.get(buckets[i]);
+      if (null != records) {
+        Object[] row = versions.get(i);
+        records.put((String) row[0], getDateModified(row));
+      }
+    }
+    return result;
+  }
+
+  private List<Object[]> getVersions(String entity, List<String> locations)
+      throws EntityValidationException {
+    if (BiometricApiConstants.SYNC_ENTITY_PARTICIPANTS.equals(entity)) {
+      return syncDao.getPatientVersions(locations);
+    } else if (BiometricApiConstants.SYNC_ENTITY_VISITS.equals(entity)) {
+      return syncDao.getVisitVersions(locations);
+    } else if (BiometricApiConstants.SYNC_ENTITY_IMAGES.equals(entity)) {
+      return syncDao.getPersonVersionsByAttribute(locations, PERSON_IMAGE_ATTRIBUTE);
+    } else if (BiometricApiConstants.SYNC_ENTITY_TEMPLATES.equals(entity)) {
+      return syncDao.getPersonVersionsByAttribute(locations, PERSON_TEMPLATE_ATTRIBUTE);
+    }
+    throw new EntityValidationException(String.format("Unknown sync entity %s", entity));
+  }
+
+  private static long[] parseDigests(int bucketCount, Map<Integer, String> digests)
+      throws EntityValidationException {
+    long[] result = new long[bucketCount];
+    if (null == digests) {
+      return result;
+    }
+    for (Map.Entry<Integer, String> entry : digests.entrySet()) {
+      Integer bucket = entry.getKey();
+      if (null == bucket || bucket < 0 || bucket >= bucketCount) {
+        throw new EntityValidationException(String.format("Invalid bucket %s", bucket));
+      }
+      String invalidDigest = String.format("Invalid digest of the bucket %d", bucket);
+      if (null == entry.getValue()) {
+        throw new EntityValidationException(invalidDigest);
+      }
+      try {
+        result[bucket] = Long.parseUnsignedLong(entry.getValue(), 16);
+      } catch (NumberFormatException e) {
+        throw new EntityValidationException(invalidDigest);
+      }
+    }
+    return result;
+  }
+
+  private static long getDateModified(Object[] row) {
+    Date dateModified = null == row[2] ? (Date) row[1] : (Date) row[2];
+    return dateModified.getTime();
   }
 
   @SuppressWarnings("fb-contrib:CLI_CONSTANT_LIST_INDEX")
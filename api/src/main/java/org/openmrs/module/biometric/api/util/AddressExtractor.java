@@ -0,0 +1,182 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.api.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.codehaus.jackson.JsonNode;
+import org.openmrs.PersonAddress;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Extracts the address fields configured per country in the addressFields section of the main
+ * configuration. The configuration is compiled once into method handles of the {@link
+ * PersonAddress} getters, so that no reflection lookup or JSON parsing happens per address. Each
+ * country is compiled on its own, an invalid configuration only fails the lookups of its country.
+ */
+public final class AddressExtractor {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(AddressExtractor.class);
+  private static final String FIELD = "field";
+  private static final MethodType GETTER_TYPE = MethodType.methodType(String.class);
+  private static final Map<String, MethodHandle> GETTERS = new ConcurrentHashMap<>();
+
+  private final Map<String, List<AddressField>> fieldsByCountry;
+
+  private final Map<String, String> errorsByCountry;
+
+  private AddressExtractor(Map<String, List<AddressField>> fieldsByCountry,
+      Map<String, String> errorsByCountry) {
+    this.fieldsByCountry = fieldsByCountry;
+    this.errorsByCountry = errorsByCountry;
+  }
+
+  /**
+   * Compiles the address fields configuration. A country whose configuration is not valid is
+   * logged and its lookups fail, the other countries are not affected.
+   *
+   * @param addressFields the addressFields node of the main configuration, may be null
+   * @return the extractor
+   */
+  public static AddressExtractor compile(JsonNode addressFields) {
+    Map<String, List<AddressField>> fieldsByCountry = new HashMap<>();
+    Map<String, String> errorsByCountry = new HashMap<>();
+    if (null != addressFields) {
+      Iterator<Map.Entry<String, JsonNode>> countries = addressFields.getFields();
+      while (countries.hasNext()) {
+        Map.Entry<String, JsonNode> country = countries.next();
+        try {
+          fieldsByCountry.put(country.getKey(), compileCountry(country.getValue()));
+        } catch (IllegalArgumentException e) {
+          LOGGER.error("Invalid address configuration for country {} : {}", country.getKey(),
+              e.getMessage());
+          errorsByCountry.put(country.getKey(), e.getMessage());
+        }
+      }
+    }
+    return new AddressExtractor(fieldsByCountry, errorsByCountry);
+  }
+
+  private static List<AddressField> compileCountry(JsonNode countryFields) {
+    List<AddressField> fields = new ArrayList<>();
+    for (JsonNode field : countryFields) {
+      JsonNode name = field.get(FIELD);
+      if (null == name || !name.isTextual()) {
+        throw new IllegalArgumentException("Missing property name in " + field);
+      }
+      fields.add(new AddressField(name.asText(), getter(name.asText())));
+    }
+    return Collections.unmodifiableList(fields);
+  }
+
+  /**
+   * Returns the getter of a person address property. Getters are looked up once and shared.
+   *
+   * @param property the property name, e.g. cityVillage
+   * @return the getter method handle
+   * @throws IllegalArgumentException if the property does not exist
+   */
+  public static MethodHandle getter(String property) {
+    MethodHandle getter = GETTERS.get(property);
+    if (null == getter) {
+      try {
+        getter = MethodHandles.publicLookup().findVirtual(PersonAddress.class,
+            "get" + property.substring(0, 1).toUpperCase() + property.substring(1), GETTER_TYPE);
+      } catch (NoSuchMethodException | IllegalAccessException | RuntimeException e) {
+        throw new IllegalArgumentException("Invalid property name " + property, e);
+      }
+      GETTERS.put(property, getter);
+    }
+    return getter;
+  }
+
+  /**
+   * Reads a property of a person address through its cached getter.
+   *
+   * @param address the person address, may be null
+   * @param property the property name
+   * @return the value or null if the address is null
+   * @throws IllegalArgumentException if the property does not exist
+   */
+  public static String getProperty(PersonAddress address, String property) {
+    if (null == address) {
+      return null;
+    }
+    return invoke(getter(property), address);
+  }
+
+  /**
+   * Returns the address fields configured for a country.
+   *
+   * @param country the country name
+   * @return the fields in configuration order or null if the country is not configured
+   * @throws IllegalArgumentException if the configuration of the country is not valid
+   */
+  public List<AddressField> getFields(String country) {
+    if (null == country) {
+      return null;
+    }
+    String error = errorsByCountry.get(country);
+    if (null != error) {
+      throw new IllegalArgumentException(
+          String.format("Invalid address configuration for country %s : %s", country, error));
+    }
+    return fieldsByCountry.get(country);
+  }
+
+  private static String invoke(MethodHandle getter, PersonAddress address) {
+    try {
+      return (String) getter.invokeExact(address);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * A configured address field with its compiled getter.
+   */
+  public static final class AddressField {
+
+    private final String name;
+
+    private final MethodHandle getter;
+
+    private AddressField(String name, MethodHandle getter) {
+      this.name = name;
+      this.getter = getter;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Reads the field from the address.
+     *
+     * @param address the person address, not null
+     * @return the field value
+     */
+    public String getValue(PersonAddress address) {
+      return invoke(getter, address);
+    }
+  }
+}
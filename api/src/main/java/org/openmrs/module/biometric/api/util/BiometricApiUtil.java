@@ -13,19 +13,17 @@ package org.openmrs.module.biometric.api.util;
 import static org.openmrs.module.biometric.api.constants.BiometricApiConstants.DEFAULT_PARTICIPANT_IMAGES_DIR;
 
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
+import java.util.AbstractMap;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import javax.sql.DataSource;
-import org.codehaus.jackson.JsonNode;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.openmrs.Location;
 import org.openmrs.Patient;
@@ -58,12 +56,13 @@ public class BiometricApiUtil {
   private static final String BIOMETRIC_DB_USER = "biometric.connection.username";
   private static final String BIOMETRIC_DB_PWD = "biometric.connection.password";
   private static final String ADDRESS_FIELDS = "addressFields";
-  private static final String FIELD = "field";
   private static final String COUNTRY = "country";
 
   @Autowired
   private ConfigService configService;
 
+  private volatile Map.Entry<String, AddressExtractor> addressExtractor;
+
   /**
    * Converts the date object to ISO8601 string format.
    *
@@ -127,22 +126,45 @@ public class BiometricApiUtil {
   public Map<String, String> getPersonAddressProperty(Person person)
       throws BiometricApiException, IOException {
     Map<String, String> addressMap = new HashMap<>();
-    String country = getPersonAddressPropertyByField(person.getPersonAddress(), COUNTRY);
-    Iterator<JsonNode> iter = new ObjectMapper()
-        .readTree(configService.retrieveConfig(BiometricApiConstants.MAIN_CONFIG))
-        .get(ADDRESS_FIELDS)
-        .get(country).getElements();
-
-    while (iter.hasNext()) {
-      String fieldName = iter.next().get(FIELD).asText();
-      String value = getPersonAddressPropertyByField(person.getPersonAddress(), fieldName);
-      addressMap.put(fieldName, value);
+    PersonAddress address = person.getPersonAddress();
+    String country = SecurityUtil.sanitizeOutput(address.getCountry());
+    List<AddressExtractor.AddressField> fields;
+    try {
+      fields = getAddressExtractor().getFields(country);
+    } catch (IllegalArgumentException e) {
+      throw new BiometricApiException(e.getMessage(), e);
+    }
+    if (null == fields) {
+      throw new BiometricApiException("Missing address configuration for country " + country);
+    }
+
+    for (AddressExtractor.AddressField field : fields) {
+      addressMap.put(field.getName(), SecurityUtil.sanitizeOutput(field.getValue(address)));
     }
-    addressMap.put(COUNTRY, person.getPersonAddress().getCountry());
+    addressMap.put(COUNTRY, address.getCountry());
 
     return addressMap;
   }
 
+  /**
+   * Returns the extractor of the address fields configured in the main configuration. The
+   * configuration is compiled again only when the global property value has changed.
+   *
+   * @return the address extractor
+   * @throws EntityNotFoundException if the main configuration is missing
+   * @throws IOException if the main configuration is not valid JSON
+   */
+  public AddressExtractor getAddressExtractor() throws EntityNotFoundException, IOException {
+    String config = configService.retrieveConfig(BiometricApiConstants.MAIN_CONFIG);
+    Map.Entry<String, AddressExtractor> compiled = addressExtractor;
+    if (null == compiled || !config.equals(compiled.getKey())) {
+      compiled = new AbstractMap.SimpleImmutableEntry<>(config,
+          AddressExtractor.compile(new ObjectMapper().readTree(config).get(ADDRESS_FIELDS)));
+      addressExtractor = compiled;
+    }
+    return compiled.getValue();
+  }
+
   /**
    * Gets a Path to a {@code dirRelative} relative to the {@code rootDir}. Creates any needed parent
    * directories if needed. The method checks if the result path actually starts with the {@code
@@ -228,18 +250,4 @@ public class BiometricApiUtil {
       personService.savePerson(patient);
     }
   }
-
-  private String getPersonAddressPropertyByField(PersonAddress address, String property)
-      throws BiometricApiException {
-    try {
-      Class<?> personAddressClass = Context.loadClass("org.openmrs.PersonAddress");
-      Method getPersonAddressProperty;
-      getPersonAddressProperty = personAddressClass
-          .getMethod("get" + property.substring(0, 1).toUpperCase() + property.substring(1));
-      return SecurityUtil
-          .sanitizeOutput((String) getPersonAddressProperty.invoke(address));
-    } catch (InvocationTargetException | IllegalAccessException | ClassNotFoundException | NoSuchMethodException e) {
-      throw new BiometricApiException("Invalid property name " + property, e);
-    }
-  }
 }
@@ -0,0 +1,109 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.api.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.openmrs.module.biometric.api.constants.BiometricApiConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the SHA-256 hash of the stored images in a sidecar file next to each image, like
+ * &lt;uuid&gt;.jpeg.sha256, so that the sync can tell whether a device already holds an image
+ * without reading it. The sidecar also records the modification time and size of the image it was
+ * computed from, a hash of an image which has been replaced since is ignored.
+ */
+@Component
+public class ImageHashStore {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ImageHashStore.class);
+
+  /**
+   * Returns the stored hash of an image.
+   *
+   * @param image the path of the image
+   * @return the hex encoded hash, null if it is missing or outdated
+   */
+  public String getHash(Path image) {
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(image, BasicFileAttributes.class);
+      String[] content = new String(Files.readAllBytes(getHashPath(image)),
+          StandardCharsets.US_ASCII).trim().split(" ");
+      if (content.length == 3
+          && Long.parseLong(content[1]) == attributes.lastModifiedTime().toMillis()
+          && Long.parseLong(content[2]) == attributes.size()) {
+        return content[0];
+      }
+    } catch (NoSuchFileException e) {
+      LOGGER.debug("No hash stored for the image {}", image);
+    } catch (IOException | NumberFormatException e) {
+      LOGGER.warn("Hash of the image {} cannot be read", image, e);
+    }
+    return null;
+  }
+
+  /**
+   * Computes the hash of an image and stores it. Failures to store the hash are logged, it is then
+   * computed again on the next sync.
+   *
+   * @param image the path of the image
+   * @param content the content of the image
+   * @return the hex encoded hash
+   */
+  public String saveHash(Path image, byte[] content) {
+    String hash = hash(content);
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(image, BasicFileAttributes.class);
+      if (attributes.size() != content.length) {
+        // the image has been replaced while it was read
+        return hash;
+      }
+      Path hashPath = getHashPath(image);
+      Path temp = Files.createTempFile(hashPath.getParent(), hashPath.getFileName().toString(),
+          ".tmp");
+      try {
+        Files.write(temp, String.format("%s %d %d", hash,
+            attributes.lastModifiedTime().toMillis(), attributes.size())
+            .getBytes(StandardCharsets.US_ASCII));
+        Files.move(temp, hashPath, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(temp);
+      }
+    } catch (IOException e) {
+      LOGGER.warn("Hash of the image {} cannot be stored", image, e);
+    }
+    return hash;
+  }
+
+  /**
+   * Computes the hash of an image content.
+   *
+   * @param content the content of the image
+   * @return the hex encoded SHA-256 hash
+   */
+  public static String hash(byte[] content) {
+    return DigestUtils.sha256Hex(content);
+  }
+
+  private static Path getHashPath(Path image) {
+    return image.resolveSibling(
+        image.getFileName() + "." + BiometricApiConstants.IMAGE_HASH_EXTN);
+  }
+}
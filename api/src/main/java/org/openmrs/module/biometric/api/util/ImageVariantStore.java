@@ -0,0 +1,256 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.api.util;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Pattern;
+import javax.annotation.PostConstruct;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import org.openmrs.module.biometric.api.constants.BiometricApiConstants;
+import org.openmrs.module.biometric.api.exception.BiometricApiException;
+import org.openmrs.module.biometric.api.exception.EntityValidationException;
+import org.openmrs.util.OpenmrsUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Stores the derived variants of the participant images, like thumbnails, so that devices which
+ * only display a small avatar do not have to download the full resolution image. The variants are
+ * configured with the biometric.images.variants runtime property as a comma separated list of
+ * name:size:quality entries, the size being the maximum width and height in pixels and the quality
+ * the JPEG compression quality between 0 and 1. Variants are generated when an image is uploaded,
+ * or on first request for the images uploaded before, and are kept in a directory outside of the
+ * images directory which mirrors its layout.
+ */
+@Component
+public class ImageVariantStore {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ImageVariantStore.class);
+  private static final Pattern VARIANT_NAME = Pattern.compile("^[a-z0-9_-]{1,32}$");
+
+  @Autowired
+  private BiometricApiUtil util;
+
+  private Path imagesRoot;
+  private Path variantsRoot;
+  private Map<String, ImageVariant> variants = Collections.emptyMap();
+
+  /**
+   * Reads the variants configuration from the runtime properties.
+   *
+   * @throws BiometricApiException if the images directory is missing
+   */
+  @PostConstruct
+  public void init() throws BiometricApiException {
+    Properties properties = OpenmrsUtil
+        .getRuntimeProperties(BiometricApiConstants.APP_PROPERTIES_FILE);
+    String defaultDir = OpenmrsUtil.getApplicationDataDirectory()
+        + BiometricApiConstants.DEFAULT_IMAGE_VARIANTS_DIR;
+    configure(util.getImageDirPath(util.getImageDirectory(properties)),
+        util.getImageDirPath(
+            properties.getProperty(BiometricApiConstants.IMAGE_VARIANTS_DIR, defaultDir)),
+        properties.getProperty(BiometricApiConstants.IMAGE_VARIANTS,
+            BiometricApiConstants.DEFAULT_IMAGE_VARIANTS));
+  }
+
+  /**
+   * Configures the store.
+   *
+   * @param imagesRoot the directory of the original images
+   * @param variantsRoot the directory of the variants
+   * @param configuration the comma separated name:size:quality entries of the variants
+   */
+  public void configure(Path imagesRoot, Path variantsRoot, String configuration) {
+    Map<String, ImageVariant> parsed = new LinkedHashMap<>();
+    for (String entry : configuration.split(",")) {
+      String[] parts = entry.trim().split(":");
+      try {
+        if (parts.length != 3 || !VARIANT_NAME.matcher(parts[0]).matches()) {
+          throw new IllegalArgumentException("expected name:size:quality");
+        }
+        parsed.put(parts[0],
+            new ImageVariant(Integer.parseInt(parts[1]), Float.parseFloat(parts[2])));
+      } catch (IllegalArgumentException e) {
+        LOGGER.error("Invalid image variant configuration {} : {}", entry, e.getMessage());
+      }
+    }
+    this.imagesRoot = imagesRoot.toAbsolutePath().normalize();
+    this.variantsRoot = variantsRoot.toAbsolutePath().normalize();
+    this.variants = Collections.unmodifiableMap(parsed);
+  }
+
+  /**
+   * Checks that a variant is configured.
+   *
+   * @param variant the name of the variant
+   * @throws EntityValidationException if the variant is not configured
+   */
+  public void validate(String variant) throws EntityValidationException {
+    if (!variants.containsKey(variant)) {
+      throw new EntityValidationException(String.format("Unknown image variant %s", variant));
+    }
+  }
+
+  /**
+   * Returns the variant of an image, it is generated when missing or older than the image.
+   *
+   * @param variant the name of a configured variant
+   * @param original the path of the original image
+   * @return the path of the variant, or of the original image if it is missing or unreadable
+   * @throws IOException if the variant cannot be written
+   */
+  public Path resolve(String variant, Path original) throws IOException {
+    ImageVariant imageVariant = variants.get(variant);
+    if (null == imageVariant) {
+      throw new IllegalArgumentException(String.format("Unknown image variant %s", variant));
+    }
+    if (!Files.isRegularFile(original)) {
+      return original;
+    }
+    Path target = getVariantPath(variant, original);
+    if (!Files.isRegularFile(target)
+        || Files.getLastModifiedTime(target).compareTo(Files.getLastModifiedTime(original)) < 0) {
+      BufferedImage image = ImageIO.read(original.toFile());
+      if (null == image) {
+        LOGGER.error("Image {} cannot be decoded, the variant {} is not generated", original,
+            variant);
+        return original;
+      }
+      write(imageVariant, image, target);
+    }
+    return target;
+  }
+
+  /**
+   * Generates all the variants of an uploaded image. Failures are logged, the variants are then
+   * generated on first request.
+   *
+   * @param original the path of the original image
+   * @param image the decoded image
+   */
+  public void generateAll(Path original, BufferedImage image) {
+    for (Map.Entry<String, ImageVariant> entry : variants.entrySet()) {
+      try {
+        write(entry.getValue(), image, getVariantPath(entry.getKey(), original));
+      } catch (IOException e) {
+        LOGGER.error("Variant {} of the image {} cannot be generated", entry.getKey(), original,
+            e);
+      }
+    }
+  }
+
+  private Path getVariantPath(String variant, Path original) throws IOException {
+    Path normalized = original.toAbsolutePath().normalize();
+    Path relative =
+        normalized.startsWith(imagesRoot) ? imagesRoot.relativize(normalized)
+            : normalized.getFileName();
+    Path target = variantsRoot.resolve(variant).resolve(relative).normalize();
+    if (!target.startsWith(variantsRoot)) {
+      throw new IOException(String.format("Invalid image path %s", original));
+    }
+    return target;
+  }
+
+  private static void write(ImageVariant variant, BufferedImage image, Path target)
+      throws IOException {
+    BufferedImage scaled = scale(image, variant.size);
+    Files.createDirectories(target.getParent());
+    // written next to the target and moved, readers never see a partial variant
+    Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+    try {
+      ImageWriter writer = ImageIO.getImageWritersByFormatName(BiometricApiConstants.IMAGE_EXTN)
+          .next();
+      ImageWriteParam param = writer.getDefaultWriteParam();
+      param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+      param.setCompressionQuality(variant.quality);
+      try (ImageOutputStream out = ImageIO.createImageOutputStream(temp.toFile())) {
+        writer.setOutput(out);
+        writer.write(null, new IIOImage(scaled, null, null), param);
+      } finally {
+        writer.dispose();
+      }
+      Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Scales the image to fit in a square of the given size, images are never enlarged. Large
+   * reductions are done by halving the image first, a single bilinear step would skip pixels.
+   */
+  static BufferedImage scale(BufferedImage image, int size) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    double ratio = Math.min(1d, (double) size / Math.max(width, height));
+    int targetWidth = Math.max(1, (int) Math.round(width * ratio));
+    int targetHeight = Math.max(1, (int) Math.round(height * ratio));
+
+    BufferedImage current = image;
+    if (BufferedImage.TYPE_INT_RGB != image.getType()) {
+      // JPEG has no alpha channel
+      current = draw(image, width, height);
+    }
+    while (current.getWidth() / 2 >= targetWidth && current.getHeight() / 2 >= targetHeight) {
+      current = draw(current, current.getWidth() / 2, current.getHeight() / 2);
+    }
+    if (current.getWidth() != targetWidth || current.getHeight() != targetHeight) {
+      current = draw(current, targetWidth, targetHeight);
+    }
+    return current;
+  }
+
+  private static BufferedImage draw(BufferedImage source, int width, int height) {
+    BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = target.createGraphics();
+    try {
+      graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+          RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      graphics.setRenderingHint(RenderingHints.KEY_RENDERING,
+          RenderingHints.VALUE_RENDER_QUALITY);
+      graphics.drawImage(source, 0, 0, width, height, null);
+    } finally {
+      graphics.dispose();
+    }
+    return target;
+  }
+
+  private static final class ImageVariant {
+
+    private final int size;
+    private final float quality;
+
+    ImageVariant(int size, float quality) {
+      if (size <= 0 || quality <= 0 || quality > 1) {
+        throw new IllegalArgumentException("size must be positive and quality between 0 and 1");
+      }
+      this.size = size;
+      this.quality = quality;
+    }
+  }
+}
@@ -0,0 +1,321 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.api.util;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.apache.commons.io.FilenameUtils;
+import org.openmrs.module.biometric.api.constants.BiometricApiConstants;
+import org.openmrs.module.biometric.api.exception.BiometricApiException;
+import org.openmrs.util.OpenmrsUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the location of the participant images in memory, so that an image is found without
+ * walking the images directory. The index is built in the background when the module starts, the
+ * device directories being scanned in parallel, and is then kept current from the uploads and from
+ * the changes reported by a {@link WatchService}. Until the index is built, or while it is rebuilt
+ * after the watch service lost events, {@link #isReady()} returns false and the images have to be
+ * located from the device recorded on the participant. Without a watch service the images written
+ * by other processes would be missed, so the index is then never built and never ready.
+ */
+@Component
+public class ParticipantImageIndex {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ParticipantImageIndex.class);
+  private static final String IMAGE_SUFFIX = "." + BiometricApiConstants.IMAGE_EXTN;
+
+  private final Map<String, Set<Path>> images = new ConcurrentHashMap<>();
+  private final Map<WatchKey, Path> watchedDirs = new ConcurrentHashMap<>();
+  private volatile boolean ready;
+  private WatchService watchService;
+  private Thread watcher;
+
+  @Autowired
+  private BiometricApiUtil util;
+
+  /**
+   * Starts building the index of the configured images directory.
+   *
+   * @throws BiometricApiException if the images directory is missing
+   */
+  @PostConstruct
+  public void init() throws BiometricApiException {
+    Properties properties = OpenmrsUtil
+        .getRuntimeProperties(BiometricApiConstants.APP_PROPERTIES_FILE);
+    start(util.getImageDirPath(util.getImageDirectory(properties)));
+  }
+
+  /**
+   * Starts building the index of an images directory in the background and watching it.
+   *
+   * @param imagesRoot the images directory
+   */
+  public synchronized void start(Path imagesRoot) {
+    stop();
+    Path imagesDir = imagesRoot.toAbsolutePath().normalize();
+    try {
+      watchService = newWatchService(imagesDir);
+    } catch (IOException | UnsupportedOperationException e) {
+      LOGGER.warn("Images directory {} cannot be watched, the images are located from the devices"
+          + " of the participants", imagesDir, e);
+      return;
+    }
+    WatchService service = watchService;
+    watcher = new Thread(() -> run(service, imagesDir), "biometric-image-index");
+    watcher.setDaemon(true);
+    watcher.start();
+  }
+
+  /**
+   * Stops watching the images directory and drops the index.
+   */
+  @PreDestroy
+  public synchronized void stop() {
+    ready = false;
+    if (null != watcher) {
+      watcher.interrupt();
+      watcher = null;
+    }
+    if (null != watchService) {
+      try {
+        watchService.close();
+      } catch (IOException e) {
+        LOGGER.debug("Images watch service cannot be closed", e);
+      }
+      watchService = null;
+    }
+    watchedDirs.clear();
+    images.clear();
+  }
+
+  /**
+   * Tells whether the index is built and watched, a participant missing from an index which is not
+   * ready may still have an image.
+   *
+   * @return true if the index is built and watched
+   */
+  public boolean isReady() {
+    return ready;
+  }
+
+  /**
+   * Returns the images of a participant, usually one.
+   *
+   * @param uuid the uuid of the participant
+   * @return the paths of the images of the participant which still exist
+   */
+  public List<Path> find(String uuid) {
+    Set<Path> paths = images.get(uuid);
+    if (null == paths) {
+      return Collections.emptyList();
+    }
+    return paths.stream().filter(Files::isRegularFile).collect(Collectors.toList());
+  }
+
+  /**
+   * Returns the images of participants.
+   *
+   * @param uuids the uuids of the participants
+   * @return the paths of the images of the participants which still exist
+   */
+  public List<Path> find(Set<String> uuids) {
+    List<Path> results = new ArrayList<>(uuids.size());
+    for (String uuid : uuids) {
+      results.addAll(find(uuid));
+    }
+    return results;
+  }
+
+  /**
+   * Adds an image to the index, files which are not images are ignored.
+   *
+   * @param image the path of the image
+   */
+  public void add(Path image) {
+    if (isImage(image)) {
+      images.computeIfAbsent(getUuid(image), k -> ConcurrentHashMap.newKeySet())
+          .add(image.toAbsolutePath().normalize());
+    }
+  }
+
+  /**
+   * Removes an image, or all the images of a directory, from the index.
+   *
+   * @param path the path of the image or of the directory
+   */
+  public void remove(Path path) {
+    Path removed = path.toAbsolutePath().normalize();
+    if (isImage(removed)) {
+      images.computeIfPresent(getUuid(removed), (uuid, paths) -> {
+        paths.remove(removed);
+        return paths.isEmpty() ? null : paths;
+      });
+    } else {
+      for (String uuid : images.keySet()) {
+        images.computeIfPresent(uuid, (k, paths) -> {
+          paths.removeIf(p -> p.startsWith(removed));
+          return paths.isEmpty() ? null : paths;
+        });
+      }
+    }
+  }
+
+  /**
+   * Returns the number of indexed participants.
+   *
+   * @return the number of participants
+   */
+  public int size() {
+    return images.size();
+  }
+
+  /**
+   * Creates the watch service of an images directory.
+   *
+   * @param imagesDir the images directory
+   * @return the watch service
+   * @throws IOException if the watch service cannot be created
+   */
+  WatchService newWatchService(Path imagesDir) throws IOException {
+    return imagesDir.getFileSystem().newWatchService();
+  }
+
+  private void run(WatchService service, Path imagesDir) {
+    rebuild(service, imagesDir);
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        WatchKey key = service.take();
+        Path dir = watchedDirs.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+          if (OVERFLOW.equals(event.kind())) {
+            LOGGER.info("Images watch service lost events, rebuilding the image index");
+            rebuild(service, imagesDir);
+            break;
+          }
+          if (null != dir) {
+            onEvent(service, event.kind(), dir.resolve((Path) event.context()));
+          }
+        }
+        if (!key.reset()) {
+          watchedDirs.remove(key);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ClosedWatchServiceException e) {
+      LOGGER.debug("Images watch service closed");
+    }
+  }
+
+  private void onEvent(WatchService service, WatchEvent.Kind<?> kind, Path path) {
+    if (ENTRY_CREATE.equals(kind)) {
+      if (Files.isDirectory(path)) {
+        scan(service, path);
+      } else {
+        add(path);
+      }
+    } else if (ENTRY_DELETE.equals(kind)) {
+      remove(path);
+    }
+  }
+
+  private void rebuild(WatchService service, Path imagesDir) {
+    ready = false;
+    long start = System.currentTimeMillis();
+    images.clear();
+    register(service, imagesDir);
+    List<Path> children;
+    try (Stream<Path> list = Files.list(imagesDir)) {
+      children = list.collect(Collectors.toList());
+    } catch (IOException | UncheckedIOException e) {
+      LOGGER.error("Images directory {} cannot be indexed", imagesDir, e);
+      return;
+    }
+    // the device directories are scanned in parallel
+    children.parallelStream().forEach(child -> scan(service, child));
+    ready = !Thread.currentThread().isInterrupted();
+    LOGGER.info("Indexed the images of {} participants in {} ms", images.size(),
+        System.currentTimeMillis() - start);
+  }
+
+  private void scan(WatchService service, Path start) {
+    try {
+      Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+          register(service, dir);
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+          if (attrs.isRegularFile()) {
+            add(file);
+          }
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException e) {
+          LOGGER.debug("Image {} cannot be indexed", file, e);
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch (IOException e) {
+      LOGGER.warn("Images of {} cannot be indexed", start, e);
+    }
+  }
+
+  private void register(WatchService service, Path dir) {
+    try {
+      watchedDirs.put(dir.register(service, ENTRY_CREATE, ENTRY_DELETE), dir);
+    } catch (IOException | ClosedWatchServiceException e) {
+      LOGGER.debug("Images directory {} cannot be watched", dir, e);
+    }
+  }
+
+  private static boolean isImage(Path path) {
+    Path fileName = path.getFileName();
+    return null != fileName && fileName.toString().endsWith(IMAGE_SUFFIX);
+  }
+
+  private static String getUuid(Path image) {
+    return FilenameUtils.getBaseName(image.getFileName().toString());
+  }
+}
@@ -7,6 +7,8 @@ import org.jsoup.safety.Whitelist;
 
 public final class SecurityUtil {
 
+  private static final char DEL = 0x7F;
+
   private SecurityUtil() {
     throw new IllegalStateException("Utility class");
   }
@@ -21,10 +23,47 @@ public final class SecurityUtil {
     if (null == str) {
       return null;
     }
+    String plainText = sanitizePlainText(str);
+    if (null != plainText) {
+      return plainText;
+    }
     return Jsoup.clean(StringEscapeUtils.escapeHtml4(StringEscapeUtils.unescapeEcmaScript(str)),
         Whitelist.basic());
   }
 
+  /**
+   * Fast path of {@link #sanitizeOutput(String)} for strings made only of printable ASCII
+   * characters without any of the markup significant characters {@code \ & < > "}. For those the
+   * full sanitizer only normalizes the whitespace, the same is done here in a single pass. The
+   * string itself is returned when it is already normalized, which is the case for UUIDs, codes and
+   * most attribute values.
+   *
+   * @param str string to be sanitized, not null
+   * @return the sanitized string or null if the string requires the full sanitizer
+   */
+  public static String sanitizePlainText(String str) {
+    final int length = str.length();
+    boolean normalized = true;
+    boolean lastWasWhitespace = true;
+    for (int i = 0; i < length; i++) {
+      char c = str.charAt(i);
+      if (isWhitespace(c)) {
+        if (lastWasWhitespace || c != ' ') {
+          normalized = false;
+        }
+        lastWasWhitespace = true;
+      } else if (c > ' ' && c < DEL && c != '\\' && c != '&' && c != '<' && c != '>' && c != '"') {
+        lastWasWhitespace = false;
+      } else {
+        return null;
+      }
+    }
+    if (lastWasWhitespace && length > 0) {
+      normalized = false;
+    }
+    return normalized ? str : normalizeWhitespace(str);
+  }
+
   /**
    * Generates MD5 hash of a specified string.
    *
@@ -36,4 +75,30 @@ public final class SecurityUtil {
     // this is not a sensitive data, hence this warning can be ignored
     return DigestUtils.md5Hex(str);
   }
+
+  /**
+   * Collapses whitespace runs into a single space and trims the string, as the pretty printed
+   * output of Jsoup does for text.
+   */
+  private static String normalizeWhitespace(String str) {
+    StringBuilder builder = new StringBuilder(str.length());
+    boolean pendingSpace = false;
+    for (int i = 0; i < str.length(); i++) {
+      char c = str.charAt(i);
+      if (isWhitespace(c)) {
+        pendingSpace = builder.length() > 0;
+      } else {
+        if (pendingSpace) {
+          builder.append(' ');
+          pendingSpace = false;
+        }
+        builder.append(c);
+      }
+    }
+    return builder.toString();
+  }
+
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\f' || c == '\r';
+  }
 }
@@ -0,0 +1,228 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.api.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import javax.annotation.PostConstruct;
+import org.apache.commons.lang3.StringUtils;
+import org.openmrs.module.biometric.api.constants.BiometricApiConstants;
+import org.openmrs.util.OpenmrsUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps a sequence of the committed changes of the synchronized records, per record type and
+ * location, so that devices can wait for a change in their sync scope instead of polling all the
+ * sync endpoints. The cursor returned to the devices holds the sequence and the epoch of the
+ * tracker, a cursor of an earlier epoch, for example after a restart, reports all the record
+ * types as changed. Every waiting device holds a request thread of the servlet container, the
+ * number of waiting devices is capped by the {@link BiometricApiConstants#SYNC_CHANGES_MAX_WAITERS}
+ * runtime property, well below the default thread pool of the container.
+ */
+@Component
+public class SyncChangeTracker {
+
+  public static final String ANY_LOCATION = "";
+  public static final List<String> ENTITY_TYPES = Collections.unmodifiableList(Arrays.asList(
+      BiometricApiConstants.SYNC_ENTITY_PARTICIPANTS, BiometricApiConstants.SYNC_ENTITY_VISITS,
+      BiometricApiConstants.SYNC_ENTITY_IMAGES, BiometricApiConstants.SYNC_ENTITY_TEMPLATES));
+  private static final Logger LOGGER = LoggerFactory.getLogger(SyncChangeTracker.class);
+  private static final char CURSOR_SEPARATOR = ':';
+
+  private final String epoch = UUID.randomUUID().toString().substring(0, 8);
+  private final Map<String, Map<String, Long>> sequences = new HashMap<>();
+  private long sequence;
+  private int waiters;
+  private int maxWaiters = BiometricApiConstants.DEFAULT_SYNC_CHANGES_MAX_WAITERS;
+
+  /**
+   * Reads the maximum number of waiting devices from the runtime properties.
+   */
+  @PostConstruct
+  public void init() {
+    Properties properties =
+        OpenmrsUtil.getRuntimeProperties(BiometricApiConstants.APP_PROPERTIES_FILE);
+    String value = null == properties ? null
+        : properties.getProperty(BiometricApiConstants.SYNC_CHANGES_MAX_WAITERS);
+    if (StringUtils.isBlank(value)) {
+      return;
+    }
+    try {
+      setMaxWaiters(Integer.parseInt(value.trim()));
+    } catch (NumberFormatException e) {
+      LOGGER.warn("Invalid value {} of the property {}", value,
+          BiometricApiConstants.SYNC_CHANGES_MAX_WAITERS);
+    }
+  }
+
+  /**
+   * Sets the maximum number of devices waiting for a change, the devices above the limit get the
+   * changes known so far immediately.
+   *
+   * @param maxWaiters the maximum number of waiting devices, zero to disable the waiting
+   */
+  public synchronized void setMaxWaiters(int maxWaiters) {
+    this.maxWaiters = Math.max(0, maxWaiters);
+  }
+
+  /**
+   * Records committed changes and wakes up the waiting devices.
+   *
+   * @param changes the locations of the changed records per record type, {@link #ANY_LOCATION}
+   * when the location of a record is not known
+   */
+  public synchronized void publish(Map<String, Set<String>> changes) {
+    if (changes.isEmpty()) {
+      return;
+    }
+    sequence++;
+    for (Map.Entry<String, Set<String>> entry : changes.entrySet()) {
+      Map<String, Long> locations =
+          sequences.computeIfAbsent(entry.getKey(), k -> new HashMap<>());
+      for (String location : entry.getValue()) {
+        locations.put(null == location ? ANY_LOCATION : location, sequence);
+      }
+    }
+    notifyAll();
+  }
+
+  /**
+   * Waits until records of the given locations change after the cursor or the timeout elapses.
+   * Without a cursor, the current cursor is returned immediately. When too many devices are
+   * already waiting, the changes known so far are returned immediately.
+   *
+   * @param cursor the cursor returned by an earlier call, null to start tracking
+   * @param locations the locations of the sync scope of the device
+   * @param timeoutMillis the maximum time to wait
+   * @return the changed record types and the cursor to send with the next call
+   */
+  public synchronized SyncChanges await(String cursor, Collection<String> locations,
+      long timeoutMillis) {
+    if (StringUtils.isBlank(cursor)) {
+      return new SyncChanges(getCursor(), Collections.emptySet());
+    }
+    long since = parseCursor(cursor);
+    if (since < 0) {
+      return new SyncChanges(getCursor(), new TreeSet<>(ENTITY_TYPES));
+    }
+    Set<String> changed = getChangesSince(since, locations);
+    if (!changed.isEmpty() || timeoutMillis <= 0 || waiters >= maxWaiters) {
+      return new SyncChanges(getCursor(), changed);
+    }
+
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    waiters++;
+    try {
+      long remaining = timeoutMillis;
+      while (changed.isEmpty() && remaining > 0) {
+        wait(remaining);
+        changed = getChangesSince(since, locations);
+        remaining = deadline - System.currentTimeMillis();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      waiters--;
+    }
+    return new SyncChanges(getCursor(), changed);
+  }
+
+  /**
+   * Returns the cursor of the latest change.
+   *
+   * @return the cursor
+   */
+  public synchronized String getCursor() {
+    return epoch + CURSOR_SEPARATOR + sequence;
+  }
+
+  /**
+   * Returns the number of devices waiting for a change.
+   *
+   * @return the number of waiting devices
+   */
+  public synchronized int getWaiters() {
+    return waiters;
+  }
+
+  private long parseCursor(String cursor) {
+    int index = cursor.indexOf(CURSOR_SEPARATOR);
+    if (index < 0 || !epoch.equals(cursor.substring(0, index))) {
+      return -1;
+    }
+    try {
+      long since = Long.parseLong(cursor.substring(index + 1));
+      return since <= sequence ? since : -1;
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private Set<String> getChangesSince(long since, Collection<String> locations) {
+    Set<String> changed = new TreeSet<>();
+    for (Map.Entry<String, Map<String, Long>> entry : sequences.entrySet()) {
+      if (isChangedSince(entry.getValue(), ANY_LOCATION, since)) {
+        changed.add(entry.getKey());
+        continue;
+      }
+      for (String location : locations) {
+        if (isChangedSince(entry.getValue(), location, since)) {
+          changed.add(entry.getKey());
+          break;
+        }
+      }
+    }
+    return changed;
+  }
+
+  private static boolean isChangedSince(Map<String, Long> locations, String location, long since) {
+    Long changed = locations.get(location);
+    return null != changed && changed > since;
+  }
+
+  /**
+   * The record types changed since a cursor.
+   */
+  public static final class SyncChanges {
+
+    private final String cursor;
+    private final Set<String> entityTypes;
+
+    /**
+     * Constructor.
+     *
+     * @param cursor the cursor of the latest change
+     * @param entityTypes the changed record types
+     */
+    public SyncChanges(String cursor, Set<String> entityTypes) {
+      this.cursor = cursor;
+      this.entityTypes = entityTypes;
+    }
+
+    public String getCursor() {
+      return cursor;
+    }
+
+    public Set<String> getEntityTypes() {
+      return entityTypes;
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.api.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Digests of the sync records used to reconcile the records held by a device with the server. The
+ * records are spread in a power of two number of buckets, the bucket of a record is the first four
+ * bytes of the SHA-256 hash of its uuid, read as an unsigned big endian integer, modulo the number
+ * of buckets. The digest of a bucket is the XOR of the first eight bytes of the SHA-256 hash of
+ * &lt;uuid&gt;:&lt;dateModified&gt; of all its records, dateModified being in epoch milliseconds,
+ * and is written as 16 lower case hex characters. An empty bucket has a zero digest.
+ */
+public final class SyncDigest {
+
+  private static final String HASH_ALGORITHM = "SHA-256";
+  private static final String EMPTY_DIGEST = "0000000000000000";
+  private static final ThreadLocal<MessageDigest> DIGESTS = ThreadLocal.withInitial(() -> {
+    try {
+      return MessageDigest.getInstance(HASH_ALGORITHM);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  });
+
+  private SyncDigest() {
+    throw new IllegalStateException("Utility class");
+  }
+
+  /**
+   * Returns the bucket of a record.
+   *
+   * @param uuid the uuid of the record
+   * @param bucketCount the number of buckets, a power of two
+   * @return the bucket index
+   */
+  public static int bucketOf(String uuid, int bucketCount) {
+    int prefix = ByteBuffer.wrap(hash(uuid)).getInt();
+    return (int) (Integer.toUnsignedLong(prefix) % bucketCount);
+  }
+
+  /**
+   * Returns the hash of a record version, the bucket digests are the XOR of these.
+   *
+   * @param uuid the uuid of the record
+   * @param dateModified the modification date of the record in epoch milliseconds
+   * @return the record hash
+   */
+  public static long recordHash(String uuid, long dateModified) {
+    return ByteBuffer.wrap(hash(uuid + ":" + dateModified)).getLong();
+  }
+
+  /**
+   * Formats a bucket digest.
+   *
+   * @param digest the XOR of the record hashes
+   * @return the digest as 16 hex characters
+   */
+  public static String format(long digest) {
+    String hex = Long.toHexString(digest);
+    return EMPTY_DIGEST.substring(hex.length()) + hex;
+  }
+
+  /**
+   * Checks if a number of buckets is supported.
+   *
+   * @param bucketCount the number of buckets
+   * @param maxBucketCount the maximum number of buckets
+   * @return true if it is a power of two not greater than the maximum
+   */
+  public static boolean isValidBucketCount(int bucketCount, int maxBucketCount) {
+    return bucketCount > 0 && bucketCount <= maxBucketCount
+        && Integer.bitCount(bucketCount) == 1;
+  }
+
+  private static byte[] hash(String value) {
+    MessageDigest digest = DIGESTS.get();
+    digest.reset();
+    return digest.digest(value.getBytes(StandardCharsets.UTF_8));
+  }
+}
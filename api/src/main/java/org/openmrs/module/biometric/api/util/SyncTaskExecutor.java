@@ -0,0 +1,272 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.api.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import javax.annotation.PreDestroy;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs the stages of sync page assembly in parallel. CPU bound mappings, like reading and encoding
+ * images or sanitizing records, are spread over a bounded fork-join pool keeping the order of the
+ * records. Queries which can run next to the page query, like the counts, are submitted to a
+ * bounded worker pool, within an OpenMRS session of the requesting user. Speculative work, like
+ * preparing the next sync page, runs on its own small pool and is dropped when that pool is busy.
+ */
+@Component
+public class SyncTaskExecutor {
+
+  private static final int PARALLELISM = Math.max(1, Runtime.getRuntime().availableProcessors());
+  private static final int PARALLEL_THRESHOLD = 32;
+  private static final int MAX_QUEUED_TASKS = 64;
+  private static final int PREFETCH_THREADS = Math.max(1, PARALLELISM / 2);
+  private static final int MAX_QUEUED_PREFETCHES = 16;
+
+  private final ForkJoinPool mappingPool;
+  private final ThreadPoolExecutor queryPool;
+  private final ThreadPoolExecutor prefetchPool;
+
+  /**
+   * Constructor.
+   */
+  public SyncTaskExecutor() {
+    mappingPool = new ForkJoinPool(PARALLELISM, pool -> {
+      ForkJoinWorkerThread thread =
+          ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+      thread.setName("biometric-sync-mapping-" + thread.getPoolIndex());
+      thread.setDaemon(true);
+      return thread;
+    }, null, false);
+    AtomicInteger threadCount = new AtomicInteger();
+    ThreadFactory threadFactory = task -> {
+      Thread thread = new Thread(task, "biometric-sync-query-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    // when all workers are busy the query runs on the requesting thread instead of waiting
+    queryPool = new ThreadPoolExecutor(PARALLELISM, PARALLELISM, 1, TimeUnit.MINUTES,
+        new ArrayBlockingQueue<>(MAX_QUEUED_TASKS), threadFactory,
+        new ThreadPoolExecutor.CallerRunsPolicy());
+    queryPool.allowCoreThreadTimeOut(true);
+    AtomicInteger prefetchCount = new AtomicInteger();
+    ThreadFactory prefetchFactory = task -> {
+      Thread thread =
+          new Thread(task, "biometric-sync-prefetch-" + prefetchCount.incrementAndGet());
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    };
+    // speculative tasks never run on the requesting thread, they are rejected when the pool is full
+    prefetchPool = new ThreadPoolExecutor(PREFETCH_THREADS, PREFETCH_THREADS, 1, TimeUnit.MINUTES,
+        new ArrayBlockingQueue<>(MAX_QUEUED_PREFETCHES), prefetchFactory,
+        new ThreadPoolExecutor.AbortPolicy());
+    prefetchPool.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Maps the items in parallel, small lists are mapped on the calling thread. The mapping must not
+   * use the OpenMRS context or lazy loaded entities, the items are processed by worker threads.
+   *
+   * @param items the items to be mapped
+   * @param mapping the mapping of an item
+   * @param <T> the type of the items
+   * @param <R> the type of the results
+   * @param <E> the type of the exception thrown by the mapping
+   * @return the results in the order of the items
+   * @throws E if the mapping of an item fails
+   */
+  public <T, R, E extends Exception> List<R> map(List<T> items, Mapping<T, R, E> mapping)
+      throws E {
+    if (items.size() < PARALLEL_THRESHOLD) {
+      List<R> results = new ArrayList<>(items.size());
+      for (T item : items) {
+        results.add(mapping.apply(item));
+      }
+      return results;
+    }
+    Future<List<R>> future = mappingPool.submit(() -> items.parallelStream()
+        .map(item -> apply(mapping, item))
+        .collect(Collectors.toList()));
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      future.cancel(true);
+      throw new APIException("Interrupted while mapping the sync records", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof MappingException) {
+        cause = cause.getCause();
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        @SuppressWarnings("unchecked")
+        E mappingException = (E) cause;
+        throw mappingException;
+      }
+      throw rethrow(cause);
+    }
+  }
+
+  /**
+   * Submits a task which runs next to the calling thread, in a new OpenMRS session authenticated
+   * as the current user.
+   *
+   * @param task the task
+   * @param <T> the type of the result
+   * @return the future result, to be retrieved with {@link #await(Future)}
+   */
+  public <T> Future<T> submit(Callable<T> task) {
+    Thread caller = Thread.currentThread();
+    UserContext userContext = Context.getUserContext();
+    return queryPool.submit(() -> {
+      if (Thread.currentThread() == caller) {
+        return task.call();
+      }
+      Context.openSession();
+      try {
+        Context.setUserContext(userContext);
+        return task.call();
+      } finally {
+        Context.clearUserContext();
+        Context.closeSession();
+      }
+    });
+  }
+
+  /**
+   * Submits a speculative task, in a new OpenMRS session authenticated as the current user. The
+   * task is dropped instead of slowing down the requests when the prefetch pool is busy.
+   *
+   * @param task the task
+   * @param <T> the type of the result
+   * @return the future result or null if the task was dropped
+   */
+  public <T> Future<T> prefetch(Callable<T> task) {
+    UserContext userContext = Context.getUserContext();
+    try {
+      return prefetchPool.submit(() -> {
+        Context.openSession();
+        try {
+          Context.setUserContext(userContext);
+          return task.call();
+        } finally {
+          Context.clearUserContext();
+          Context.closeSession();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Waits for the result of a task submitted by the calling thread. A task which is still queued
+   * is run by the calling thread, so that tasks submitted from the worker threads never wait for
+   * a free worker.
+   *
+   * @param future the future result
+   * @param <T> the type of the result
+   * @return the result
+   */
+  public <T> T await(Future<T> future) {
+    if (future instanceof RunnableFuture && queryPool.remove((Runnable) future)) {
+      ((Runnable) future).run();
+    }
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      future.cancel(true);
+      throw new APIException("Interrupted while waiting for a sync query", e);
+    } catch (ExecutionException e) {
+      throw rethrow(e.getCause());
+    }
+  }
+
+  /**
+   * Stops the worker threads when the module is stopped.
+   */
+  @PreDestroy
+  public void shutdown() {
+    mappingPool.shutdownNow();
+    queryPool.shutdownNow();
+    prefetchPool.shutdownNow();
+  }
+
+  private static <T, R, E extends Exception> R apply(Mapping<T, R, E> mapping, T item) {
+    try {
+      return mapping.apply(item);
+    } catch (Exception e) {
+      throw new MappingException(e);
+    }
+  }
+
+  private static RuntimeException rethrow(Throwable cause) {
+    if (cause instanceof RuntimeException) {
+      return (RuntimeException) cause;
+    }
+    if (cause instanceof Error) {
+      throw (Error) cause;
+    }
+    return new APIException(cause.getMessage(), cause);
+  }
+
+  /**
+   * Mapping of a sync record.
+   *
+   * @param <T> the type of the item
+   * @param <R> the type of the result
+   * @param <E> the type of the exception thrown by the mapping
+   */
+  @FunctionalInterface
+  public interface Mapping<T, R, E extends Exception> {
+
+    /**
+     * Maps an item.
+     *
+     * @param item the item
+     * @return the result
+     * @throws E if the item cannot be mapped
+     */
+    R apply(T item) throws E;
+  }
+
+  /**
+   * Carries the exception of a mapping out of the worker threads, the fork-join pool would
+   * otherwise rethrow a copy of it.
+   */
+  private static final class MappingException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    MappingException(Exception cause) {
+      super(cause);
+    }
+  }
+}
@@ -12,21 +12,41 @@ package org.openmrs.module.biometric.api.builder;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
 import org.openmrs.module.biometric.api.contract.SyncImageResponse;
+import org.openmrs.module.biometric.api.model.SyncImageData;
+import org.openmrs.module.biometric.api.util.ImageHashStore;
+import org.openmrs.module.biometric.api.util.SyncTaskExecutor;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 @RunWith(PowerMockRunner.class)
 public class ImageResponseBuilderTest {
 
+  private static final String IMAGE_HASH = "9f86d081884c7d659a2feaa0c55ad015";
+
+  @Spy
+  private SyncTaskExecutor syncTaskExecutor = new SyncTaskExecutor();
+
+  @Mock
+  private ImageHashStore imageHashStore;
+
   @InjectMocks
   private ImageResponseBuilder imageResponseBuilder;
 
@@ -43,4 +63,63 @@ public class ImageResponseBuilderTest {
 
   }
 
+  @Test
+  public void createFrom_shouldKeepTheOrderOfTheImagesWhenBuiltInParallel() throws IOException {
+    Path image = Paths.get("src/test/resources/images/Device1/test1.jpeg");
+    Path missingImage = Paths.get("src/test/resources/images/Device1/missing.jpeg");
+    List<SyncImageData> results = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      SyncImageData data = new SyncImageData();
+      // every third image is missing on disk, every fifth participant is voided
+      data.setPath(i % 3 == 0 ? missingImage : image);
+      data.setVoided(i % 5 == 0);
+      data.setDateModified((long) i);
+      results.add(data);
+    }
+
+    List<SyncImageResponse> responseList = imageResponseBuilder.createFrom(results);
+
+    int index = 0;
+    for (int i = 0; i < 100; i++) {
+      if (i % 3 == 0 && i % 5 != 0) {
+        continue;
+      }
+      SyncImageResponse response = responseList.get(index++);
+      assertEquals(Long.valueOf(i), response.getDateModified());
+      assertEquals(i % 5 == 0 ? "delete" : "update", response.getType());
+    }
+    assertEquals(index, responseList.size());
+  }
+
+  @Test
+  public void createFrom_shouldNotReadImagesAlreadyHeldByTheDevice() throws IOException {
+    Path image = Paths.get("src/test/resources/images/Device1/test1.jpeg");
+    when(imageHashStore.getHash(image)).thenReturn(IMAGE_HASH);
+    SyncImageData data = new SyncImageData();
+    data.setPath(image);
+    data.setKnownHash(IMAGE_HASH);
+
+    List<SyncImageResponse> responseList = imageResponseBuilder.createFrom(Arrays.asList(data));
+
+    assertEquals(1, responseList.size());
+    assertEquals("unchanged", responseList.get(0).getType());
+    assertEquals(IMAGE_HASH, responseList.get(0).getImageHash());
+    assertNull(responseList.get(0).getImage());
+    verify(imageHashStore, never()).saveHash(any(Path.class), any(byte[].class));
+  }
+
+  @Test
+  public void createFrom_shouldSendImageAndStoreItsHashWhenNotKnown() throws IOException {
+    Path image = Paths.get("src/test/resources/images/Device1/test1.jpeg");
+    when(imageHashStore.saveHash(eq(image), any(byte[].class))).thenReturn(IMAGE_HASH);
+    SyncImageData data = new SyncImageData();
+    data.setPath(image);
+    data.setKnownHash("outdated");
+
+    List<SyncImageResponse> responseList = imageResponseBuilder.createFrom(Arrays.asList(data));
+
+    assertEquals("update", responseList.get(0).getType());
+    assertEquals(IMAGE_HASH, responseList.get(0).getImageHash());
+    assertNotNull(responseList.get(0).getImage());
+  }
 }
@@ -0,0 +1,76 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.api.contract;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Random;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+
+public class SyncTemplateResponseTest {
+
+  private static final int TEMPLATE_SIZE = 2048;
+
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  @Test
+  public void write_shouldEncodeTheRawTemplateAsBase64() throws IOException {
+    byte[] template = createTemplate();
+    SyncTemplateResponse record = new SyncTemplateResponse();
+    record.setBiometricsTemplate(template);
+
+    JsonNode json = mapper.readTree(mapper.writeValueAsString(record));
+
+    assertArrayEquals(template,
+        Base64.getDecoder().decode(json.get("biometricsTemplate").getTextValue()));
+  }
+
+  @Test
+  public void write_shouldBeSmallerThanTheTemplateEncodedByTheDatabase() throws IOException {
+    byte[] template = createTemplate();
+    SyncTemplateResponse record = new SyncTemplateResponse();
+    record.setBiometricsTemplate(template);
+    // TO_BASE64 of the database breaks the lines every 76 characters, escaped in the JSON string
+    String text = Base64.getMimeEncoder(76, new byte[]{'\n'}).encodeToString(template);
+
+    int raw = mapper.writeValueAsBytes(record).length;
+    int encoded = mapper.writeValueAsBytes(new TextTemplate(text)).length;
+
+    assertTrue(raw < encoded);
+  }
+
+  private static byte[] createTemplate() {
+    byte[] template = new byte[TEMPLATE_SIZE];
+    new Random(1L).nextBytes(template);
+    return template;
+  }
+
+  /**
+   * The former response, holding the template as base64 text.
+   */
+  static final class TextTemplate {
+
+    private final String biometricsTemplate;
+
+    private TextTemplate(String biometricsTemplate) {
+      this.biometricsTemplate = biometricsTemplate;
+    }
+
+    public String getBiometricsTemplate() {
+      return biometricsTemplate;
+    }
+  }
+}
@@ -0,0 +1,102 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.api.db.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import org.hibernate.SQLQuery;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.openmrs.api.db.hibernate.DbSession;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+import org.openmrs.module.biometric.api.constants.BiometricApiConstants;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PhoneNumberIndexTest {
+
+  private static final List<Integer> PERSON_IDS = Arrays.asList(7, 8);
+
+  @Mock
+  private DbSessionFactory sessionFactory;
+
+  @Mock
+  private DbSession dbSession;
+
+  @Mock
+  private SQLQuery sqlQuery;
+
+  @InjectMocks
+  private PhoneNumberIndex phoneNumberIndex;
+
+  @Before
+  public void setUp() {
+    when(sessionFactory.getCurrentSession()).thenReturn(dbSession);
+    when(dbSession.createSQLQuery(anyString())).thenReturn(sqlQuery);
+  }
+
+  @Test
+  public void normalize_shouldRemoveTheWhiteSpacesAndSeparators() {
+    assertEquals("+32470123456", PhoneNumberIndex.normalize(" +32\t(470)\n12-34.56\r\n"));
+    assertEquals("", PhoneNumberIndex.normalize(null));
+  }
+
+  @Test
+  public void configure_shouldReadThePhoneAttributeTypes() {
+    Properties properties = new Properties();
+    properties.setProperty(BiometricApiConstants.PHONE_ATTRIBUTE_TYPES, "Mobile, Home Phone,");
+
+    phoneNumberIndex.configure(properties);
+
+    assertEquals(Arrays.asList("Mobile", "Home Phone"), phoneNumberIndex.getAttributeTypes());
+    assertTrue(phoneNumberIndex.isPhoneAttributeType("Home Phone"));
+    assertFalse(phoneNumberIndex.isPhoneAttributeType(
+        BiometricApiConstants.DEFAULT_PHONE_ATTRIBUTE_TYPE));
+  }
+
+  @Test
+  public void refresh_shouldReplaceThePhonesOfThePersons() {
+    phoneNumberIndex.refresh(PERSON_IDS);
+
+    verify(sqlQuery, times(2)).setParameterList("personIds", PERSON_IDS);
+    verify(sqlQuery).setParameterList("attributeTypes",
+        Collections.singletonList(BiometricApiConstants.DEFAULT_PHONE_ATTRIBUTE_TYPE));
+    verify(sqlQuery, times(2)).executeUpdate();
+  }
+
+  @Test
+  public void find_shouldLookUpTheNormalizedPhone() {
+    when(sqlQuery.list()).thenReturn(Arrays.asList(7, 8L));
+
+    assertEquals(PERSON_IDS, phoneNumberIndex.find(" +32 (470) 12-34.56 "));
+    verify(sqlQuery).setParameter("phone", "+32470123456");
+  }
+
+  @Test
+  public void find_shouldNotQueryWithoutPhone() {
+    assertTrue(phoneNumberIndex.find(" -\t").isEmpty());
+    verify(dbSession, never()).createSQLQuery(anyString());
+  }
+}
@@ -0,0 +1,161 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.api.db.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.hibernate.Transaction;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.openmrs.Encounter;
+import org.openmrs.Location;
+import org.openmrs.Obs;
+import org.openmrs.Person;
+import org.openmrs.PersonAttribute;
+import org.openmrs.PersonAttributeType;
+import org.openmrs.Visit;
+import org.openmrs.module.biometric.api.util.SyncChangeTracker;
+import org.openmrs.module.biometric.api.util.TestUtil;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SyncChangeInterceptorTest {
+
+  private static final String VISIT_LOCATION = "2dd05e68-4d77-4b61-b2bf-436857f35aa0";
+
+  @Mock
+  private SyncChangeTracker syncChangeTracker;
+
+  @Mock
+  private Transaction transaction;
+
+  @Mock
+  private PhoneNumberIndex phoneNumberIndex;
+
+  @InjectMocks
+  private SyncChangeInterceptor interceptor;
+
+  @Test
+  public void afterTransactionCompletion_shouldPublishTheCommittedChangesByLocation() {
+    Person person = TestUtil.createPerson();
+    PersonAttribute imageAttribute = null;
+    for (PersonAttribute attribute : person.getAttributes()) {
+      attribute.setPerson(person);
+      if ("PersonImageAttribute".equals(attribute.getAttributeType().getName())) {
+        imageAttribute = attribute;
+      }
+    }
+    Visit visit = new Visit();
+    Location location = new Location();
+    location.setUuid(VISIT_LOCATION);
+    visit.setLocation(location);
+    Encounter encounter = new Encounter();
+    encounter.setVisit(visit);
+    Obs obs = new Obs();
+    obs.setEncounter(encounter);
+    when(transaction.wasCommitted()).thenReturn(true);
+
+    interceptor.onSave(person, 1, null, null, null);
+    interceptor.onFlushDirty(imageAttribute, 2, null, null, null, null);
+    interceptor.onSave(obs, 3, null, null, null);
+    interceptor.afterTransactionCompletion(transaction);
+
+    Map<String, Set<String>> changes = captureChanges();
+    assertEquals(Collections.singleton(TestUtil.LOCATION_UUID), changes.get("participants"));
+    assertEquals(Collections.singleton(TestUtil.LOCATION_UUID), changes.get("images"));
+    assertEquals(Collections.singleton(VISIT_LOCATION), changes.get("visits"));
+  }
+
+  @Test
+  public void afterTransactionCompletion_shouldReportUnknownLocationToEveryScope() {
+    when(transaction.wasCommitted()).thenReturn(true);
+
+    interceptor.onDelete(new Person(), 1, null, null, null);
+    interceptor.afterTransactionCompletion(transaction);
+
+    assertEquals(Collections.singleton(SyncChangeTracker.ANY_LOCATION),
+        captureChanges().get("participants"));
+  }
+
+  @Test
+  public void afterTransactionCompletion_shouldDropTheChangesOfRolledBackTransactions() {
+    when(transaction.wasCommitted()).thenReturn(false);
+
+    interceptor.onSave(TestUtil.createPerson(), 1, null, null, null);
+    interceptor.afterTransactionCompletion(transaction);
+    when(transaction.wasCommitted()).thenReturn(true);
+    interceptor.afterTransactionCompletion(transaction);
+
+    verify(syncChangeTracker, never()).publish(anyMap());
+  }
+
+  @Test
+  public void onSave_shouldIgnoreEncountersOutsideOfVisits() {
+    when(transaction.wasCommitted()).thenReturn(true);
+
+    interceptor.onSave(new Encounter(), 1, null, null, null);
+    interceptor.afterTransactionCompletion(transaction);
+
+    verify(syncChangeTracker, never()).publish(anyMap());
+  }
+
+  @Test
+  public void beforeTransactionCompletion_shouldRefreshThePhonesOfTheChangedPhoneAttributes() {
+    when(phoneNumberIndex.isPhoneAttributeType("Telephone Number")).thenReturn(true);
+
+    interceptor.onFlushDirty(createAttribute(7, "Telephone Number"), 1, null, null, null, null);
+    interceptor.onDelete(createAttribute(8, "Telephone Number"), 2, null, null, null);
+    interceptor.onSave(createAttribute(9, "Email"), 3, null, null, null);
+    interceptor.beforeTransactionCompletion(transaction);
+    interceptor.beforeTransactionCompletion(transaction);
+
+    verify(phoneNumberIndex).refresh(new HashSet<>(Arrays.asList(7, 8)));
+  }
+
+  @Test
+  public void afterTransactionCompletion_shouldDropThePhonesOfRolledBackTransactions() {
+    when(phoneNumberIndex.isPhoneAttributeType("Telephone Number")).thenReturn(true);
+
+    interceptor.onSave(createAttribute(7, "Telephone Number"), 1, null, null, null);
+    interceptor.afterTransactionCompletion(transaction);
+    interceptor.beforeTransactionCompletion(transaction);
+
+    verify(phoneNumberIndex, never()).refresh(anyCollectionOf(Integer.class));
+  }
+
+  private static PersonAttribute createAttribute(Integer personId, String type) {
+    PersonAttributeType attributeType = new PersonAttributeType();
+    attributeType.setName(type);
+    PersonAttribute attribute = new PersonAttribute(attributeType, "+32 470 12 34 56");
+    attribute.setPerson(new Person(personId));
+    return attribute;
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map<String, Set<String>> captureChanges() {
+    ArgumentCaptor<Map> captor = ArgumentCaptor.forClass(Map.class);
+    verify(syncChangeTracker).publish(captor.capture());
+    return captor.getValue();
+  }
+}
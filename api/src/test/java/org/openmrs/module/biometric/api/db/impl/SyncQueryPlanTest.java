@@ -0,0 +1,351 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.api.db.impl;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.openmrs.module.biometric.api.constants.BiometricApiConstants.LOCATION_ATTRIBUTE;
+import static org.openmrs.module.biometric.api.constants.BiometricApiConstants.PERSON_IMAGE_ATTRIBUTE;
+import static org.openmrs.module.biometric.api.constants.BiometricApiConstants.PERSON_TEMPLATE_ATTRIBUTE;
+
+import java.sql.Connection;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import liquibase.Liquibase;
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.resource.FileSystemResourceAccessor;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openmrs.module.biometric.api.helper.SyncQueryHelper;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.jdbc.datasource.init.DatabasePopulatorUtils;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+/**
+ * Checks the plans and the latency of the sync queries on an embedded database holding a
+ * synthetic dataset, with the indexes of the module changelog applied. The HQL queries of
+ * {@link SyncQueryHelper}, with the filters {@link SyncDaoImpl} appends, are translated to the SQL
+ * Hibernate generates for them, with and without the high water mark of the sync sessions. The
+ * participants and visits pages are criteria queries, they are checked through their SQL, the
+ * iris templates query is used as is.
+ */
+public class SyncQueryPlanTest {
+
+  private static final int PERSONS = 20000;
+  private static final int LOCATIONS = 40;
+  private static final int DEVICES = 5;
+  private static final int PAGE_SIZE = 100;
+  private static final long MAX_QUERY_MILLIS = 500;
+  private static final long START = Timestamp.valueOf("2026-01-01 00:00:00").getTime();
+  private static final String[] LARGE_TABLES =
+      {"PERSON", "PATIENT", "PERSON_ATTRIBUTE", "PATIENT_IDENTIFIER", "VISIT", "IRIS_TEMPLATES"};
+
+  // same restrictions as SyncDaoImpl#getAllPatientsByLocations and #getAllVisits, the criteria
+  // queries have no HQL to translate
+  private static final String MODIFIED_SINCE =
+      "(person.date_changed >= :dateChanged or person.date_created >= :dateChanged)";
+  private static final String PERSON_HIGH_WATER_MARK = " and (person.date_changed <= :highWaterMark"
+      + " or (person.date_changed is null and person.date_created <= :highWaterMark))";
+  private static final String VISIT_HIGH_WATER_MARK = " and (v.date_changed <= :highWaterMark"
+      + " or (v.date_changed is null and v.date_created <= :highWaterMark))";
+  private static final String PARTICIPANTS_QUERY = "select patient.patient_id from patient patient"
+      + " inner join person person on patient.patient_id = person.person_id"
+      + " inner join person_attribute attribute on patient.patient_id = attribute.person_id"
+      + " inner join person_attribute_type type"
+      + " on attribute.person_attribute_type_id = type.person_attribute_type_id"
+      + " where type.name = '" + LOCATION_ATTRIBUTE + "' and attribute.value in (:locations)"
+      + " and " + MODIFIED_SINCE + "%s order by person.date_changed, patient.patient_id"
+      + " limit " + PAGE_SIZE;
+  private static final String VISITS_QUERY = "select v.visit_id from visit v"
+      + " inner join location l on v.location_id = l.location_id"
+      + " inner join visit_type vt on v.visit_type_id = vt.visit_type_id"
+      + " where vt.name = 'Dosing' and l.uuid in (:locations) and v.date_changed >= :dateChanged"
+      + "%s order by v.date_changed, v.visit_id limit " + PAGE_SIZE;
+  private static final String PARTICIPANT_IRIS_TEMPLATES_QUERY = "select dbid, participantUuid,"
+      + " template, modificationDate, voided from iris_templates where participantUuid in (:uuids)";
+
+  private static final String ATTRIBUTE_VALUE_INDEX = "BIOMETRIC_PERSON_ATTRIBUTE_VALUE";
+  private static final boolean[] BOUNDS = {false, true};
+  private static final Pattern PROPERTY = Pattern.compile("(\\w+)\\.([a-z]+[A-Z]\\w*)");
+
+  private static SingleConnectionDataSource dataSource;
+  private static NamedParameterJdbcTemplate template;
+
+  @BeforeClass
+  public static void setUpDatabase() throws Exception {
+    dataSource = new SingleConnectionDataSource(
+        "jdbc:h2:mem:biometric_sync;DB_CLOSE_DELAY=-1", "sa", "", true);
+    DatabasePopulatorUtils.execute(
+        new ResourceDatabasePopulator(new ClassPathResource("sync_query_plan_schema.sql")),
+        dataSource);
+
+    Connection connection = dataSource.getConnection();
+    Database database = DatabaseFactory.getInstance()
+        .findCorrectDatabaseImplementation(new JdbcConnection(connection));
+    new Liquibase("liquibase.xml", new FileSystemResourceAccessor("src/main/resources"), database)
+        .update("");
+
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    loadDataset(jdbcTemplate);
+    jdbcTemplate.execute("ANALYZE");
+    template = new NamedParameterJdbcTemplate(jdbcTemplate);
+  }
+
+  @AfterClass
+  public static void tearDownDatabase() {
+    new JdbcTemplate(dataSource).execute("SHUTDOWN");
+    dataSource.destroy();
+  }
+
+  @Test
+  public void ignoredCountQuery_shouldUseTheLocationIndex() {
+    MapSqlParameterSource params = getScopeParams(PERSON_IMAGE_ATTRIBUTE)
+        .addValue("deviceId", getDeviceId(1));
+
+    for (boolean bounded : BOUNDS) {
+      assertQuery(toSql(SyncQueryHelper.getSyncIgnoredCountQuery(bounded)), params,
+          ATTRIBUTE_VALUE_INDEX);
+    }
+  }
+
+  @Test
+  public void totalCountQuery_shouldUseTheLocationIndex() {
+    for (boolean bounded : BOUNDS) {
+      assertQuery(toSql(SyncQueryHelper.getSyncTotalCountQuery(bounded)),
+          getScopeParams(PERSON_IMAGE_ATTRIBUTE), ATTRIBUTE_VALUE_INDEX);
+    }
+  }
+
+  @Test
+  public void participantTemplatesQuery_shouldUseTheLocationIndex() {
+    for (boolean bounded : BOUNDS) {
+      assertQuery(getSyncPageQuery(SyncQueryHelper.buildParticipantTemplatesQuery(), bounded),
+          getPageParams(PERSON_TEMPLATE_ATTRIBUTE), ATTRIBUTE_VALUE_INDEX);
+    }
+  }
+
+  @Test
+  public void participantImagesQuery_shouldUseTheLocationIndex() {
+    for (boolean bounded : BOUNDS) {
+      assertQuery(getSyncPageQuery(SyncQueryHelper.buildParticipantImageQuery(), bounded),
+          getPageParams(PERSON_IMAGE_ATTRIBUTE), ATTRIBUTE_VALUE_INDEX);
+    }
+  }
+
+  @Test
+  public void participantsQuery_shouldUseTheLocationIndex() {
+    MapSqlParameterSource params = new MapSqlParameterSource("locations", getSyncLocations())
+        .addValue("dateChanged", getRecentDate())
+        .addValue("highWaterMark", getHighWaterMark());
+
+    assertQuery(String.format(PARTICIPANTS_QUERY, ""), params, ATTRIBUTE_VALUE_INDEX);
+    assertQuery(String.format(PARTICIPANTS_QUERY, PERSON_HIGH_WATER_MARK), params,
+        ATTRIBUTE_VALUE_INDEX);
+  }
+
+  @Test
+  public void participantsModifiedSince_shouldHaveAnIndexForEachDate() {
+    MapSqlParameterSource params = new MapSqlParameterSource("dateChanged", getRecentDate());
+
+    assertQuery("select person.person_id from person person"
+        + " where person.date_changed >= :dateChanged", params, "BIOMETRIC_PERSON_DATE_CHANGED");
+    assertQuery("select person.person_id from person person"
+        + " where person.date_created >= :dateChanged", params, "BIOMETRIC_PERSON_DATE_CREATED");
+  }
+
+  @Test
+  public void personVersionsQuery_shouldUseTheLocationIndex() {
+    assertQuery(toSql(SyncQueryHelper.buildPersonVersionsQuery()),
+        getScopeParams(PERSON_IMAGE_ATTRIBUTE), ATTRIBUTE_VALUE_INDEX);
+  }
+
+  @Test
+  public void syncTemplatesQuery_shouldReadTheTemplatesByKey() {
+    MapSqlParameterSource params = new MapSqlParameterSource("patientIdentifierList",
+        Arrays.asList(getIdentifier(1), getIdentifier(2), getIdentifier(3)));
+
+    assertQuery(SyncQueryHelper.buildSyncTemplatesQuery(), params);
+  }
+
+  @Test
+  public void participantIrisTemplatesQuery_shouldUseTheParticipantIndex() {
+    MapSqlParameterSource params =
+        new MapSqlParameterSource("uuids", Arrays.asList(getUuid(1), getUuid(2)));
+
+    assertQuery(PARTICIPANT_IRIS_TEMPLATES_QUERY, params, "BIOMETRIC_IRIS_TEMPLATES_PARTICIPANT");
+  }
+
+  @Test
+  public void visitsQuery_shouldUseTheLocationAndDateChangedIndex() {
+    MapSqlParameterSource params = new MapSqlParameterSource("locations", getSyncLocations())
+        .addValue("dateChanged", getRecentDate())
+        .addValue("highWaterMark", getHighWaterMark());
+
+    assertQuery(String.format(VISITS_QUERY, ""), params, "BIOMETRIC_VISIT_LOCATION_DATE_CHANGED");
+    assertQuery(String.format(VISITS_QUERY, VISIT_HIGH_WATER_MARK), params,
+        "BIOMETRIC_VISIT_LOCATION_DATE_CHANGED");
+  }
+
+  /**
+   * Returns the SQL of a participant images or templates page, with the filters of a sync with
+   * an offset and the optimize flag.
+   */
+  private static String getSyncPageQuery(String baseQuery, boolean bounded) {
+    return toSql(SyncDaoImpl.buildSyncQuery(baseQuery, true, bounded, true))
+        + " limit " + PAGE_SIZE;
+  }
+
+  /**
+   * Translates a person query of {@link SyncQueryHelper} to the joins and columns Hibernate
+   * generates for it, the selected person is read by id.
+   */
+  private static String toSql(String hql) {
+    String sql = hql.replaceAll("from Person as (\\w+)", "from person $1")
+        .replaceAll("inner join (\\w+)\\.attributes as (\\w+)",
+            "inner join person_attribute $2 on $1.person_id = $2.person_id"
+                + " inner join person_attribute_type $2_type"
+                + " on $2.person_attribute_type_id = $2_type.person_attribute_type_id")
+        .replaceAll("inner join (\\w+)\\.identifiers as (\\w+)",
+            "inner join patient_identifier $2 on $1.person_id = $2.patient_id")
+        .replaceAll("(\\w+)\\.attributeType\\.name", "$1_type.name")
+        .replaceAll("select (\\w+) from", "select $1.person_id from")
+        .replaceAll("(\\w+)\\.id\\b", "$1.person_id");
+    Matcher matcher = PROPERTY.matcher(sql);
+    StringBuffer columns = new StringBuffer();
+    while (matcher.find()) {
+      matcher.appendReplacement(columns, matcher.group(1) + "."
+          + matcher.group(2).replaceAll("([A-Z])", "_$1").toLowerCase());
+    }
+    return matcher.appendTail(columns).toString();
+  }
+
+  private static void assertQuery(String sql, MapSqlParameterSource params,
+      String... expectedIndexes) {
+    String plan = template.queryForObject("EXPLAIN " + sql, params, String.class);
+    for (String index : expectedIndexes) {
+      assertTrue("Expected " + index + " in plan: " + plan, plan.contains(index));
+    }
+    for (String table : LARGE_TABLES) {
+      assertFalse("Unexpected scan of " + table + " in plan: " + plan,
+          plan.contains("PUBLIC." + table + ".tableScan"));
+    }
+
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < 3; i++) {
+      long start = System.nanoTime();
+      template.queryForList(sql, params);
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    long millis = TimeUnit.NANOSECONDS.toMillis(best);
+    assertTrue("Query took " + millis + " ms: " + sql, millis <= MAX_QUERY_MILLIS);
+  }
+
+  private static MapSqlParameterSource getScopeParams(String attributeType) {
+    return new MapSqlParameterSource("locations", getSyncLocations())
+        .addValue("attributeTypeName", attributeType)
+        .addValue("highWaterMark", getHighWaterMark());
+  }
+
+  private static MapSqlParameterSource getPageParams(String attributeType) {
+    return getScopeParams(attributeType)
+        .addValue("dateChanged", getRecentDate())
+        .addValue("deviceId", getDeviceId(1));
+  }
+
+  private static List<String> getSyncLocations() {
+    return Arrays.asList(getLocationUuid(1), getLocationUuid(2));
+  }
+
+  // the last tenth of the records is changed after this date
+  private static Timestamp getRecentDate() {
+    return getDateChanged(PERSONS - PERSONS / 10);
+  }
+
+  // the last records are changed after the start of the sync
+  private static Timestamp getHighWaterMark() {
+    return getDateChanged(PERSONS - PERSONS / 100);
+  }
+
+  private static void loadDataset(JdbcTemplate jdbcTemplate) {
+    List<Object[]> locations = new ArrayList<>();
+    for (int i = 0; i < LOCATIONS; i++) {
+      locations.add(new Object[] {i, getLocationUuid(i)});
+    }
+    jdbcTemplate.batchUpdate("insert into location values (?, ?)", locations);
+    jdbcTemplate.batchUpdate("insert into person_attribute_type values (?, ?)", Arrays.asList(
+        new Object[] {1, LOCATION_ATTRIBUTE}, new Object[] {2, PERSON_IMAGE_ATTRIBUTE},
+        new Object[] {3, PERSON_TEMPLATE_ATTRIBUTE}, new Object[] {4, "Telephone Number"}));
+    jdbcTemplate.batchUpdate("insert into visit_type values (?, ?)",
+        Arrays.asList(new Object[] {1, "Dosing"}, new Object[] {2, "Other"}));
+
+    List<Object[]> persons = new ArrayList<>(PERSONS);
+    List<Object[]> patients = new ArrayList<>(PERSONS);
+    List<Object[]> attributes = new ArrayList<>(PERSONS * 4);
+    List<Object[]> identifiers = new ArrayList<>(PERSONS);
+    List<Object[]> visits = new ArrayList<>(PERSONS);
+    List<Object[]> templates = new ArrayList<>(PERSONS);
+    byte[] irisTemplate = new byte[256];
+    for (int i = 0; i < PERSONS; i++) {
+      Timestamp dateChanged = getDateChanged(i);
+      boolean voided = i % 50 == 0;
+      String deviceId = getDeviceId(i % DEVICES);
+      int location = i % LOCATIONS;
+      persons.add(new Object[] {i, getUuid(i), dateChanged, dateChanged, voided});
+      patients.add(new Object[] {i, voided});
+      attributes.add(new Object[] {4 * i, i, getLocationUuid(location), 1, false});
+      attributes.add(new Object[] {4 * i + 1, i, deviceId, 2, false});
+      attributes.add(new Object[] {4 * i + 2, i, deviceId, 3, false});
+      attributes.add(new Object[] {4 * i + 3, i, String.valueOf(1000000 + i), 4, false});
+      identifiers.add(new Object[] {i, i, getIdentifier(i), false});
+      visits.add(
+          new Object[] {i, i, i % 4 == 0 ? 2 : 1, location, dateChanged, dateChanged, voided});
+      templates.add(new Object[] {getIdentifier(i), getUuid(i), irisTemplate, dateChanged, voided});
+    }
+    jdbcTemplate.batchUpdate("insert into person values (?, ?, ?, ?, ?)", persons);
+    jdbcTemplate.batchUpdate("insert into patient values (?, ?)", patients);
+    jdbcTemplate.batchUpdate("insert into person_attribute values (?, ?, ?, ?, ?)", attributes);
+    jdbcTemplate.batchUpdate("insert into patient_identifier values (?, ?, ?, ?)", identifiers);
+    jdbcTemplate.batchUpdate("insert into visit values (?, ?, ?, ?, ?, ?, ?)", visits);
+    jdbcTemplate.batchUpdate("insert into iris_templates values (?, ?, ?, ?, ?)", templates);
+  }
+
+  private static Timestamp getDateChanged(int person) {
+    return new Timestamp(START + TimeUnit.MINUTES.toMillis(person));
+  }
+
+  private static String getUuid(int person) {
+    return String.format("00000000-0000-0000-0000-%012d", person);
+  }
+
+  private static String getLocationUuid(int location) {
+    return String.format("10000000-0000-0000-0000-%012d", location);
+  }
+
+  private static String getIdentifier(int person) {
+    return "P" + person;
+  }
+
+  private static String getDeviceId(int device) {
+    return "device-" + device;
+  }
+}
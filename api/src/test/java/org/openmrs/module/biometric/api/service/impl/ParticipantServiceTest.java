@@ -23,6 +23,7 @@ import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.anyObject;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -34,19 +35,25 @@ import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
 import javax.imageio.ImageIO;
 import javax.xml.bind.DatatypeConverter;
 import org.apache.commons.io.FileUtils;
-import org.hibernate.Criteria;
+import org.hibernate.Query;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
@@ -54,7 +61,6 @@ import org.mockito.Mockito;
 import org.openmrs.Patient;
 import org.openmrs.PatientIdentifierType;
 import org.openmrs.Person;
-import org.openmrs.PersonAttribute;
 import org.openmrs.api.AdministrationService;
 import org.openmrs.api.PatientService;
 import org.openmrs.api.PersonService;
@@ -67,8 +73,12 @@ import org.openmrs.module.biometric.api.contract.BiometricData;
 import org.openmrs.module.biometric.api.contract.PatientResponse;
 import org.openmrs.module.biometric.api.contract.SyncImageResponse;
 import org.openmrs.module.biometric.api.contract.SyncTemplateResponse;
+import org.openmrs.module.biometric.api.db.impl.PhoneNumberIndex;
 import org.openmrs.module.biometric.api.exception.BiometricApiException;
+import org.openmrs.module.biometric.api.model.ParticipantKey;
 import org.openmrs.module.biometric.api.util.BiometricApiUtil;
+import org.openmrs.module.biometric.api.util.ImageVariantStore;
+import org.openmrs.module.biometric.api.util.ParticipantImageIndex;
 import org.openmrs.module.biometric.api.util.TestUtil;
 import org.openmrs.util.OpenmrsUtil;
 import org.powermock.api.mockito.PowerMockito;
@@ -109,17 +119,26 @@ public class ParticipantServiceTest {
   @Mock
   private DbSessionFactory sessionFactory;
   @Mock
-  private Criteria criteria;
+  private Query query;
   @Mock
   private DbSession dbSession;
   @Mock
   private NamedParameterJdbcTemplate template;
   @Mock
   private ImageResponseBuilder builder;
+  @Mock
+  private ImageVariantStore imageVariantStore;
+  @Mock
+  private ParticipantImageIndex imageIndex;
+  @Mock
+  private PhoneNumberIndex phoneNumberIndex;
 
   @InjectMocks
   private ParticipantServiceImpl participantService;
 
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
 
   private Person person;
   private Patient patient;
@@ -140,6 +159,8 @@ public class ParticipantServiceTest {
     given(OpenmrsUtil.getRuntimeProperties(BiometricApiConstants.APP_PROPERTIES_FILE))
         .willReturn(new Properties());
     participantService.init();
+    when(phoneNumberIndex.getAttributeTypes())
+        .thenReturn(Collections.singletonList(BiometricApiConstants.DEFAULT_PHONE_ATTRIBUTE_TYPE));
 
     // Just return the combined path, no checks or creation
     when(util.getRootedDirectorySafely(Mockito.any(), Mockito.any())).then(
@@ -303,12 +324,33 @@ public class ParticipantServiceTest {
   @Test
   public void findByPhone_shouldReturnPatient() throws BiometricApiException, IOException {
     when(sessionFactory.getCurrentSession()).thenReturn(dbSession);
-    when(dbSession.createCriteria(PersonAttribute.class)).thenReturn(criteria);
+    when(dbSession.createQuery(anyString())).thenReturn(query);
+    when(query.list()).thenReturn(Collections.emptyList());
 
     List<PatientResponse> patientResponseList = participantService.findByPhone("12345");
 
     assertNotNull(patientResponseList);
     assertTrue(patientResponseList.isEmpty());
+    verify(dbSession, times(1)).createQuery(anyString());
+  }
+
+  @Test
+  public void findByPhone_shouldLoadTheMatchedPatientsInOneQuery()
+      throws BiometricApiException, IOException {
+    when(sessionFactory.getCurrentSession()).thenReturn(dbSession);
+    when(dbSession.createQuery(anyString())).thenReturn(query);
+    when(phoneNumberIndex.find(" +32 (470) 12-34.56 ")).thenReturn(Arrays.asList(1, 2));
+    when(query.list()).thenReturn(Arrays.asList(2, 3), Collections.singletonList(patient));
+
+    List<PatientResponse> patientResponseList =
+        participantService.findByPhone(" +32 (470) 12-34.56 ");
+
+    assertThat(patientResponseList, hasSize(1));
+    verify(query).setParameter("phone", "+32 (470) 12-34.56");
+    verify(query).setParameterList("attributeTypes",
+        Collections.singletonList(BiometricApiConstants.DEFAULT_PHONE_ATTRIBUTE_TYPE));
+    verify(query).setParameterList("patientIds", new LinkedHashSet<>(Arrays.asList(1, 2, 3)));
+    verify(patientService, times(0)).getPatient(any(Integer.class));
   }
 
   @Test
@@ -382,6 +424,97 @@ public class ParticipantServiceTest {
     }
   }
 
+  @Test
+  public void findParticipantKeysByUuids_shouldKeepTheFirstIdentifierOfEachParticipant() {
+    when(sessionFactory.getCurrentSession()).thenReturn(dbSession);
+    when(dbSession.createQuery(anyString())).thenReturn(query);
+    when(query.list()).thenReturn(Arrays.asList(
+        new Object[] {PERSON_UUID, PARTCIPANT_ID, false},
+        new Object[] {PERSON_UUID, "oldId", false},
+        new Object[] {"voided-person-uuid", null, true}));
+
+    Set<String> uuids = new HashSet<>(Arrays.asList(PERSON_UUID, "voided-person-uuid"));
+
+    List<ParticipantKey> keys = participantService.findParticipantKeysByUuids(uuids);
+
+    assertThat(keys, hasSize(2));
+    assertThat(keys.get(0).getIdentifier(), equalTo(PARTCIPANT_ID));
+    assertThat(keys.get(0).isVoided(), equalTo(false));
+    assertThat(keys.get(1).getIdentifier(), equalTo(null));
+    assertThat(keys.get(1).isVoided(), equalTo(true));
+    verify(patientService, times(0)).getPatientByUuid(anyString());
+  }
+
+  @Test
+  public void findParticipantKeysByParticipantId_shouldQueryTheOpenMrsIdentifier() {
+    when(sessionFactory.getCurrentSession()).thenReturn(dbSession);
+    when(dbSession.createQuery(anyString())).thenReturn(query);
+    when(query.list()).thenReturn(Collections.singletonList(
+        new Object[] {PERSON_UUID, PARTCIPANT_ID, false}));
+
+    List<ParticipantKey> keys =
+        participantService.findParticipantKeysByParticipantId(PARTCIPANT_ID);
+
+    assertThat(keys, hasSize(1));
+    assertThat(keys.get(0).getUuid(), equalTo(PERSON_UUID));
+    verify(query).setParameterList("identifiers", Collections.singleton(PARTCIPANT_ID));
+    verify(query).setParameter("identifierType", "OpenMRS ID");
+  }
+
+  @Test
+  public void registerParticipants_shouldFlushAndClearTheSessionEveryFewParticipants() {
+    when(sessionFactory.getCurrentSession()).thenReturn(dbSession);
+    when(patientService.savePatient(any(Patient.class))).thenReturn(patient);
+    List<Patient> patients = new ArrayList<>();
+    for (int i = 0; i < 60; i++) {
+      patients.add(new Patient());
+    }
+
+    List<Patient> registered = participantService.registerParticipants(patients);
+
+    assertThat(registered, hasSize(60));
+    verify(patientService, times(60)).savePatient(any(Patient.class));
+    verify(dbSession, times(3)).flush();
+    verify(dbSession, times(3)).clear();
+  }
+
+  @Test
+  public void findImagesByUuids_shouldLookUpTheImageIndex() throws IOException {
+    Set<String> uuids = Collections.singleton(PERSON_UUID);
+    List<Path> images = Collections.singletonList(
+        folder.getRoot().toPath().resolve("device1").resolve(PERSON_UUID + ".jpeg"));
+    when(imageIndex.isReady()).thenReturn(true);
+    when(imageIndex.find(uuids)).thenReturn(images);
+
+    participantService.findImagesByUuids(uuids);
+
+    verify(builder).createFromPath(images);
+    verify(sessionFactory, never()).getCurrentSession();
+  }
+
+  @Test
+  public void findImagesByUuids_shouldLocateTheImagesByDeviceWhenTheIndexIsNotReady()
+      throws IOException {
+    Path root = folder.newFolder("images").toPath();
+    Path image = root.resolve("device1").resolve(PERSON_UUID + ".jpeg");
+    Files.createDirectories(image.getParent());
+    Files.write(image, new byte[] {1});
+    // an image outside of the images directory is not served
+    Files.write(folder.getRoot().toPath().resolve("other-uuid.jpeg"), new byte[] {1});
+    when(util.getImageDirPath(any(String.class))).thenReturn(root);
+    when(sessionFactory.getCurrentSession()).thenReturn(dbSession);
+    when(dbSession.createQuery(anyString())).thenReturn(query);
+    when(query.list()).thenReturn(Arrays.asList(new Object[] {PERSON_UUID, "device1"},
+        new Object[] {"other-uuid", ".."}, new Object[] {"no-image-uuid", "device1"}));
+
+    participantService.findImagesByUuids(
+        new HashSet<>(Arrays.asList(PERSON_UUID, "other-uuid", "no-image-uuid")));
+
+    verify(builder).createFromPath(Collections.singletonList(image));
+    verify(query).setParameter("attributeType", BiometricApiConstants.PERSON_IMAGE_ATTRIBUTE);
+    verify(imageIndex, never()).find(any(Set.class));
+  }
+
 /*  @Test
   public void findImagesByUuids_ShouldReturnImagesWithUuids() throws IOException {
     List<String> uuids = Arrays.asList("8gi19999-h1af-9899-b684-851abfbac4d9");
@@ -1,6 +1,7 @@
 package org.openmrs.module.biometric.api.service.impl;
 
 import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
@@ -9,6 +10,8 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.anyBoolean;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -20,11 +23,15 @@ import static org.openmrs.module.biometric.api.util.TestUtil.createPerson;
 
 import java.io.File;
 import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.stream.Collectors;
@@ -34,7 +41,12 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
+import org.openmrs.Concept;
+import org.openmrs.ConceptName;
 import org.openmrs.Patient;
+import org.openmrs.PersonAddress;
+import org.openmrs.User;
 import org.openmrs.Visit;
 import org.openmrs.api.PatientService;
 import org.openmrs.api.context.Context;
@@ -46,9 +58,15 @@ import org.openmrs.module.biometric.api.contract.SyncTemplateResponse;
 import org.openmrs.module.biometric.api.db.SyncDao;
 import org.openmrs.module.biometric.api.exception.BiometricApiException;
 import org.openmrs.module.biometric.api.exception.EntityNotFoundException;
+import org.openmrs.module.biometric.api.exception.EntityValidationException;
+import org.openmrs.module.biometric.api.model.PatientSyncData;
+import org.openmrs.module.biometric.api.model.SyncErrorData;
 import org.openmrs.module.biometric.api.model.SyncImageData;
 import org.openmrs.module.biometric.api.model.SyncTemplateData;
+import org.openmrs.module.biometric.api.model.VisitSyncData;
 import org.openmrs.module.biometric.api.util.BiometricApiUtil;
+import org.openmrs.module.biometric.api.util.SyncDigest;
+import org.openmrs.module.biometric.api.util.SyncTaskExecutor;
 import org.openmrs.module.biometric.api.util.TestUtil;
 import org.openmrs.module.licensemanagement.Device;
 import org.openmrs.module.licensemanagement.DeviceError;
@@ -58,8 +76,9 @@ import org.openmrs.util.OpenmrsUtil;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
-import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.jdbc.datasource.DriverManagerDataSource;
 
 @RunWith(PowerMockRunner.class)
@@ -78,6 +97,7 @@ public class SyncServiceTest {
   private static final String DEVICE_ID = "deviceId";
   private static final int MAX_RESULTS_TO_FETCH = 10;
   private static final String PERSON_UUID = "1232-fjfj-4343-43434-fsdsd";
+  private static final byte[] TEMPLATE = {7, 3, -12, 64};
 
   List<SyncImageData> results = new ArrayList<>();
 
@@ -101,6 +121,9 @@ public class SyncServiceTest {
   @Mock
   private SyncDao syncDAO;
 
+  @Spy
+  private SyncTaskExecutor syncTaskExecutor = new SyncTaskExecutor();
+
   @InjectMocks
   private SyncServiceImpl syncService;
 
@@ -137,18 +160,89 @@ public class SyncServiceTest {
   public void getAllPatients_shouldRetrieveAllPatients() {
 
     Date lastModifiedDate = new Date(1633590415000L);
+    Date highWaterMark = new Date(1633690415000L);
     List<Patient> patients = Arrays.asList(TestUtil.createPatient(TestUtil.createPerson()));
 
-    when(syncDAO
-        .getAllPatientsByLocations(lastModifiedDate, MAX_RESULTS_TO_FETCH, locationList))
+    when(syncDAO.getAllPatientsByLocations(
+        lastModifiedDate, highWaterMark, MAX_RESULTS_TO_FETCH, locationList))
         .thenReturn(patients);
     List<Patient> dbPatients = syncService
-        .getAllPatients(lastModifiedDate, MAX_RESULTS_TO_FETCH, locationList);
+        .getAllPatients(lastModifiedDate, highWaterMark, MAX_RESULTS_TO_FETCH, locationList);
 
     assertNotNull(dbPatients);
     assertThat(dbPatients.size(), equalTo(1));
-    verify(syncDAO, times(1))
-        .getAllPatientsByLocations(lastModifiedDate, MAX_RESULTS_TO_FETCH, locationList);
+    verify(syncDAO, times(1)).getAllPatientsByLocations(
+        lastModifiedDate, highWaterMark, MAX_RESULTS_TO_FETCH, locationList);
+  }
+
+  @Test
+  public void getPatientSyncData_shouldAssembleIdentifiersAttributesAndAddressOfAllPatients() {
+    Patient patient = TestUtil.createPatient(TestUtil.createPerson());
+    patient.setPatientId(1);
+    Patient anotherPatient = TestUtil.createPatient(TestUtil.createPerson());
+    anotherPatient.setPatientId(2);
+    List<Integer> ids = Arrays.asList(1, 2);
+    PersonAddress preferredAddress = new PersonAddress();
+    preferredAddress.setPerson(patient);
+    preferredAddress.setCountry(TestUtil.COUNTRY);
+    PersonAddress otherAddress = new PersonAddress();
+    otherAddress.setPerson(patient);
+    when(syncDAO.getPatientIdentifiers(ids)).thenReturn(Arrays.asList(
+        new Object[] {1, IDENTIFIER, true, false}, new Object[] {1, "old", false, true}));
+    when(syncDAO.getActivePersonAttributes(ids)).thenReturn(Collections.singletonList(
+        new Object[] {1, PERSON_IMAGE_ATTRIBUTE, LOCATION_UUID}));
+    when(syncDAO.getPersonAddresses(ids)).thenReturn(Arrays.asList(preferredAddress, otherAddress));
+
+    Map<Integer, PatientSyncData> syncData =
+        syncService.getPatientSyncData(Arrays.asList(patient, anotherPatient));
+
+    assertThat(syncData.size(), equalTo(2));
+    PatientSyncData data = syncData.get(1);
+    assertThat(data.getIdentifiers().size(), equalTo(2));
+    assertThat(data.getIdentifiers().get(0).getIdentifier(), equalTo(IDENTIFIER));
+    assertTrue(data.getIdentifiers().get(0).isPreferred());
+    assertTrue(data.getIdentifiers().get(1).isVoided());
+    assertThat(data.getAttributes().get(0).getType(), equalTo(PERSON_IMAGE_ATTRIBUTE));
+    assertThat(data.getAttributes().get(0).getValue(), equalTo(LOCATION_UUID));
+    assertThat(data.getAddress(), equalTo(preferredAddress));
+    assertTrue(syncData.get(2).getIdentifiers().isEmpty());
+    assertThat(syncData.get(2).getAddress(), equalTo(null));
+  }
+
+  @Test
+  public void getVisitSyncData_shouldAssembleAttributesAndObservationsOfOldestEncounter() {
+    Visit visit = TestUtil.createVisit();
+    visit.setVisitId(1);
+    Visit anotherVisit = TestUtil.createVisit();
+    anotherVisit.setVisitId(2);
+    List<Integer> ids = Arrays.asList(1, 2);
+    Date oldestEncounterDatetime = new Date(1633590415000L);
+    Concept concept = mock(Concept.class);
+    when(concept.getConceptId()).thenReturn(7);
+    when(concept.getName()).thenReturn(new ConceptName("Barcode", Locale.ENGLISH));
+    when(syncDAO.getActiveVisitAttributes(ids)).thenReturn(Collections.singletonList(
+        new Object[] {1, "Visit Status", "OCCURRED"}));
+    when(syncDAO.getNonVoidedEncounters(ids)).thenReturn(Arrays.asList(
+        new Object[] {1, 10, oldestEncounterDatetime}, new Object[] {1, 11, new Date()}));
+    when(syncDAO.getNonVoidedObservations(Collections.singletonList(10))).thenReturn(
+        Arrays.asList(new Object[] {10, 7, "12345"}, new Object[] {10, 7, "67890"}));
+    when(syncDAO.getConceptsWithNames(Collections.singletonList(7)))
+        .thenReturn(Collections.singletonList(concept));
+
+    Map<Integer, VisitSyncData> syncData =
+        syncService.getVisitSyncData(Arrays.asList(visit, anotherVisit));
+
+    assertThat(syncData.size(), equalTo(2));
+    VisitSyncData data = syncData.get(1);
+    assertThat(data.getAttributes().get(0).getType(), equalTo("Visit Status"));
+    assertThat(data.getAttributes().get(0).getValue(), equalTo("OCCURRED"));
+    assertThat(data.getEncounterDatetime(), equalTo(oldestEncounterDatetime));
+    assertThat(data.getObservations().size(), equalTo(2));
+    assertThat(data.getObservations().get(0).getName(), equalTo("Barcode"));
+    assertThat(data.getObservations().get(1).getValue(), equalTo("67890"));
+    assertTrue(syncData.get(2).getAttributes().isEmpty());
+    assertTrue(syncData.get(2).getObservations().isEmpty());
+    verify(concept, times(1)).getName();
   }
 
   @Test
@@ -157,27 +251,21 @@ public class SyncServiceTest {
     List<Visit> visits = Arrays.asList(TestUtil.createVisit());
 
     when(syncDAO
-        .getAllVisits(lastModifiedDate, MAX_RESULTS_TO_FETCH, locationList))
+        .getAllVisits(lastModifiedDate, null, MAX_RESULTS_TO_FETCH, locationList))
         .thenReturn(visits);
 
     List<Visit> dbVisits = syncService
-        .getAllVisits(lastModifiedDate, MAX_RESULTS_TO_FETCH, locationList);
+        .getAllVisits(lastModifiedDate, null, MAX_RESULTS_TO_FETCH, locationList);
     assertNotNull(dbVisits);
     assertThat(dbVisits.size(), equalTo(1));
     verify(syncDAO, times(1))
-        .getAllVisits(lastModifiedDate, MAX_RESULTS_TO_FETCH, locationList);
+        .getAllVisits(lastModifiedDate, null, MAX_RESULTS_TO_FETCH, locationList);
   }
 
   @Test
-  public void getAllBiometricTemplates_shouldRetrieveAllParticipantBiometricTemplates() {
-    Map<String, Object> row = new HashMap<>();
+  public void forEachBiometricTemplate_shouldRetrieveAllParticipantBiometricTemplates()
+      throws SQLException {
     Date lastModifiedDate = new Date(LAST_DATE_MODIFIED);
-    row.put("dbid", IDENTIFIER);
-    row.put(BiometricApiConstants.VOIDED, false);
-    row.put("template", "WQJDJKDKDOIDJDIJDI");
-    row.put("modificationDate", lastModifiedDate);
-    List<Map<String, Object>> rows = new ArrayList<>();
-    rows.add(row);
 
     List<SyncTemplateData> patients = new ArrayList<>();
     SyncTemplateData templateData = new SyncTemplateData();
@@ -188,22 +276,58 @@ public class SyncServiceTest {
     patients.add(templateData);
 
     when(syncDAO
-        .getPatientTemplateData(lastModifiedDate, DEVICE_ID, locationList, false,
+        .getPatientTemplateData(lastModifiedDate, null, DEVICE_ID, locationList, false,
             MAX_RESULTS_TO_FETCH)).thenReturn(patients);
 
     when(util.getNamedParameterJdbcTemplate(dataSource, 100)).thenReturn(template);
-    when(template.queryForList(anyString(), any(MapSqlParameterSource.class))).thenReturn(rows);
-
-    List<SyncTemplateResponse> responses = syncService
-        .getAllBiometricTemplates(lastModifiedDate, DEVICE_ID, "India", "Site1", locationList,
-            false, 10);
-    assertNotNull(responses);
-    assertTrue(!responses.isEmpty());
+    ResultSet resultSet = mock(ResultSet.class);
+    when(resultSet.getString("dbid")).thenReturn(IDENTIFIER);
+    when(resultSet.getBytes("template")).thenReturn(TEMPLATE);
+    doAnswer(invocation -> {
+      ((RowCallbackHandler) invocation.getArguments()[2]).processRow(resultSet);
+      return null;
+    }).when(template).query(anyString(), any(SqlParameterSource.class),
+        any(RowCallbackHandler.class));
+
+    List<SyncTemplateResponse> responses = new ArrayList<>();
+    syncService.forEachBiometricTemplate(lastModifiedDate, null, DEVICE_ID, locationList, false,
+        10, responses::add);
+    assertThat(responses.size(), equalTo(1));
+    assertThat(responses.get(0).getBiometricsTemplate(), equalTo(TEMPLATE));
     verify(syncDAO, times(1))
-        .getPatientTemplateData(lastModifiedDate, DEVICE_ID, locationList, false,
+        .getPatientTemplateData(lastModifiedDate, null, DEVICE_ID, locationList, false,
             MAX_RESULTS_TO_FETCH);
   }
 
+  @Test
+  public void forEachBiometricTemplate_shouldReadTheTemplatesInChunksInThePageOrder() {
+    Date lastModifiedDate = new Date(LAST_DATE_MODIFIED);
+    List<SyncTemplateData> patients = new ArrayList<>();
+    for (int i = 0; i < 1500; i++) {
+      SyncTemplateData templateData = new SyncTemplateData();
+      templateData.setUuid("uuid-" + i);
+      templateData.setIdentifier("identifier-" + i);
+      templateData.setDateModified(lastModifiedDate);
+      templateData.setVoided(i >= 1000);
+      patients.add(templateData);
+    }
+    when(syncDAO.getPatientTemplateData(
+        lastModifiedDate, null, DEVICE_ID, locationList, true, 1500))
+        .thenReturn(patients);
+    when(util.getNamedParameterJdbcTemplate(dataSource, 100)).thenReturn(template);
+
+    List<SyncTemplateResponse> responses = new ArrayList<>();
+    syncService.forEachBiometricTemplate(lastModifiedDate, null, DEVICE_ID, locationList, true,
+        1500, responses::add);
+
+    assertThat(responses.size(), equalTo(1500));
+    assertThat(responses.get(1200).getParticipantUuid(), equalTo("uuid-1200"));
+    assertThat(responses.get(1200).getType(), equalTo(BiometricApiConstants.SYNC_DELETE));
+    // the second chunk only holds voided records, which have no template to read
+    verify(template, times(1)).query(anyString(), any(SqlParameterSource.class),
+        any(RowCallbackHandler.class));
+  }
+
   @Test
   public void getAllParticipantImages_shouldRetrieveAllParticipantImagesFromAllDevicesWithOptimizeFlagFalse()
       throws IOException {
@@ -223,7 +347,7 @@ public class SyncServiceTest {
     patients.add(patient2);
 
     when(syncDAO
-        .getPatientImageData(lastModifiedDate, DEVICE_ID, locationList, false,
+        .getPatientImageData(lastModifiedDate, null, DEVICE_ID, locationList, false,
             MAX_RESULTS_TO_FETCH)).thenReturn(patients);
 
     when(builder.createFrom(anyListOf(SyncImageData.class))).thenReturn(responses);
@@ -233,7 +357,7 @@ public class SyncServiceTest {
     assertNotNull(responses);
     assertThat(actualResponse.size(), equalTo(2));
     verify(syncDAO, times(1))
-        .getPatientImageData(lastModifiedDate, device, locationList, false,
+        .getPatientImageData(lastModifiedDate, null, device, locationList, false,
             MAX_RESULTS_TO_FETCH);
   }
 
@@ -258,7 +382,7 @@ public class SyncServiceTest {
     List<SyncImageResponse> responses = buildResponse("test1");
 
     when(syncDAO
-        .getPatientImageData(lastModifiedDate, device, locationList, true,
+        .getPatientImageData(lastModifiedDate, null, device, locationList, true,
             MAX_RESULTS_TO_FETCH)).thenReturn(patients);
     when(builder.createFrom(anyListOf(SyncImageData.class))).thenReturn(responses);
 
@@ -270,14 +394,15 @@ public class SyncServiceTest {
     assertThat(actualResponse.size(), equalTo(1));
 
     verify(syncDAO, times(1))
-        .getPatientImageData(lastModifiedDate, device, locationList, true, MAX_RESULTS_TO_FETCH);
+        .getPatientImageData(
+            lastModifiedDate, null, device, locationList, true, MAX_RESULTS_TO_FETCH);
   }
 
   @Test
   public void getParticipantImagesCount_shouldReturnImageCountWithTrueOptimizeFlag() {
     String device = "Device1";
     Long ignoredCount = 1L;
-    when(syncDAO.getIgnoredCount(locationList, device, PERSON_IMAGE_ATTRIBUTE))
+    when(syncDAO.getIgnoredCount(locationList, device, PERSON_IMAGE_ATTRIBUTE, null))
         .thenReturn(ignoredCount);
 
     List<Object[]> countList = new ArrayList<>();
@@ -287,16 +412,16 @@ public class SyncServiceTest {
     countList.add(vf);
 
     when(syncDAO
-        .getPatientCountByLocationsAndAttribute(locationList, PERSON_IMAGE_ATTRIBUTE))
+        .getPatientCountByLocationsAndAttribute(locationList, PERSON_IMAGE_ATTRIBUTE, null))
         .thenReturn(countList);
 
     Map<String, Long> actualResponse = syncService
-        .getParticipantImagesCount(locationList, device, true);
+        .getParticipantImagesCount(locationList, device, true, null);
     assertThat(actualResponse.size(), equalTo(4));
     assertThat(actualResponse.get("ignoredCount"), equalTo(ignoredCount));
-    verify(syncDAO, times(1)).getIgnoredCount(locationList, device, PERSON_IMAGE_ATTRIBUTE);
+    verify(syncDAO, times(1)).getIgnoredCount(locationList, device, PERSON_IMAGE_ATTRIBUTE, null);
     verify(syncDAO, times(1))
-        .getPatientCountByLocationsAndAttribute(locationList, PERSON_IMAGE_ATTRIBUTE);
+        .getPatientCountByLocationsAndAttribute(locationList, PERSON_IMAGE_ATTRIBUTE, null);
   }
 
   @Test
@@ -311,16 +436,16 @@ public class SyncServiceTest {
     countList.add(vf);
 
     when(syncDAO
-        .getPatientCountByLocationsAndAttribute(locationList, PERSON_IMAGE_ATTRIBUTE))
+        .getPatientCountByLocationsAndAttribute(locationList, PERSON_IMAGE_ATTRIBUTE, null))
         .thenReturn(countList);
 
     Map<String, Long> actualResponse = syncService
-        .getParticipantImagesCount(locationList, device, false);
+        .getParticipantImagesCount(locationList, device, false, null);
     // assertNotNull(responses);
     assertThat(actualResponse.size(), equalTo(4));
-    verify(syncDAO, never()).getIgnoredCount(locationList, device, PERSON_IMAGE_ATTRIBUTE);
+    verify(syncDAO, never()).getIgnoredCount(locationList, device, PERSON_IMAGE_ATTRIBUTE, null);
     verify(syncDAO, times(1))
-        .getPatientCountByLocationsAndAttribute(locationList, PERSON_IMAGE_ATTRIBUTE);
+        .getPatientCountByLocationsAndAttribute(locationList, PERSON_IMAGE_ATTRIBUTE, null);
   }
 
   @Test
@@ -334,16 +459,16 @@ public class SyncServiceTest {
     countList.add(vf);
 
     when(syncDAO
-        .getPatientCountByLocationsAndAttribute(locationList, PERSON_TEMPLATE_ATTRIBUTE))
+        .getPatientCountByLocationsAndAttribute(locationList, PERSON_TEMPLATE_ATTRIBUTE, null))
         .thenReturn(countList);
 
     Map<String, Long> actualResponse = syncService
-        .getBiometricTemplatesCount(device, locationList, false);
+        .getBiometricTemplatesCount(device, locationList, false, null);
 
     assertThat(actualResponse.size(), equalTo(4));
-    verify(syncDAO, never()).getIgnoredCount(locationList, device, PERSON_TEMPLATE_ATTRIBUTE);
+    verify(syncDAO, never()).getIgnoredCount(locationList, device, PERSON_TEMPLATE_ATTRIBUTE, null);
     verify(syncDAO, times(1))
-        .getPatientCountByLocationsAndAttribute(locationList, PERSON_TEMPLATE_ATTRIBUTE);
+        .getPatientCountByLocationsAndAttribute(locationList, PERSON_TEMPLATE_ATTRIBUTE, null);
   }
 
   @Test
@@ -357,21 +482,22 @@ public class SyncServiceTest {
     countList.add(vf);
     Long ignoredCount = 5L;
     when(syncDAO
-        .getIgnoredCount(locationList, device, PERSON_TEMPLATE_ATTRIBUTE))
+        .getIgnoredCount(locationList, device, PERSON_TEMPLATE_ATTRIBUTE, null))
         .thenReturn(ignoredCount);
 
     when(syncDAO
-        .getPatientCountByLocationsAndAttribute(locationList, PERSON_TEMPLATE_ATTRIBUTE))
+        .getPatientCountByLocationsAndAttribute(locationList, PERSON_TEMPLATE_ATTRIBUTE, null))
         .thenReturn(countList);
 
     Map<String, Long> actualResponse = syncService
-        .getBiometricTemplatesCount(device, locationList, true);
+        .getBiometricTemplatesCount(device, locationList, true, null);
 
     assertThat(actualResponse.size(), equalTo(4));
     assertThat(actualResponse.get("ignoredCount"), equalTo(ignoredCount));
-    verify(syncDAO, times(1)).getIgnoredCount(locationList, device, PERSON_TEMPLATE_ATTRIBUTE);
     verify(syncDAO, times(1))
-        .getPatientCountByLocationsAndAttribute(locationList, PERSON_TEMPLATE_ATTRIBUTE);
+        .getIgnoredCount(locationList, device, PERSON_TEMPLATE_ATTRIBUTE, null);
+    verify(syncDAO, times(1))
+        .getPatientCountByLocationsAndAttribute(locationList, PERSON_TEMPLATE_ATTRIBUTE, null);
   }
 
   @Test
@@ -424,6 +550,27 @@ public class SyncServiceTest {
     verify(deviceErrorService, times(1)).saveDeviceError(any(DeviceError.class));
   }
 
+  @Test
+  public void saveSyncErrors_shouldResolveTheDeviceOnceAndSaveAllErrors() {
+    String deviceId = "newDeviceId";
+    List<SyncErrorData> syncErrors = new ArrayList<>();
+    for (String key : Arrays.asList("license:IRIS_CLIENT,GET_LICENSE_CALL", "license:", "sync")) {
+      SyncErrorData syncError = new SyncErrorData();
+      syncError.setKey(key);
+      syncError.setStackTrace("Exception(test)");
+      syncError.setDateCreated(new Date());
+      syncErrors.add(syncError);
+    }
+    when(deviceService.getDeviceByMAC(deviceId, false)).thenReturn(null);
+    when(deviceService.saveDevice(any(Device.class))).thenReturn(TestUtil.createDevice(deviceId));
+
+    syncService.saveSyncErrors(deviceId, syncErrors);
+
+    verify(deviceService, times(1)).getDeviceByMAC(deviceId, false);
+    verify(deviceService, times(1)).saveDevice(any(Device.class));
+    verify(deviceErrorService, times(3)).saveDeviceError(any(DeviceError.class));
+  }
+
   @Test
   public void resolveSyncErrors_shouldVoidTheSyncErrorForTheDeviceAndGivenKey()
       throws EntityNotFoundException {
@@ -431,19 +578,31 @@ public class SyncServiceTest {
     List<String> errorKeys = new ArrayList<>();
     errorKeys.add("license:IRIS_CLIENT,GET_LICENSE_CALL");
     Device device = TestUtil.createDevice(deviceId);
-    DeviceError deviceError = TestUtil.createDeviceError();
-    DeviceError deviceErrorVoided = TestUtil.createDeviceErrorVoided();
-    List<DeviceError> deviceErrorList = new ArrayList<>();
-    deviceErrorList.add(deviceError);
     when(deviceService.getDeviceByMAC(deviceId, false)).thenReturn(device);
-    when(deviceErrorService.getDeviceErrorsByKey(any(Device.class), anyString(), anyBoolean()))
-        .thenReturn(deviceErrorList);
-    when(deviceErrorService.saveDeviceError(any(DeviceError.class))).thenReturn(deviceErrorVoided);
-    syncService.resolveSyncErrors(deviceId, errorKeys);
+    when(syncDAO.voidDeviceErrors(device, errorKeys, null, "Error resolved")).thenReturn(2);
+    int resolved = syncService.resolveSyncErrors(deviceId, errorKeys);
+    assertEquals(2, resolved);
     verify(deviceService, times(1)).getDeviceByMAC(deviceId, false);
-    verify(deviceErrorService, times(1))
-        .getDeviceErrorsByKey(any(Device.class), anyString(), anyBoolean());
-    verify(deviceErrorService, times(1)).saveDeviceError(any(DeviceError.class));
+    verify(syncDAO, times(1)).voidDeviceErrors(device, errorKeys, null, "Error resolved");
+    verify(deviceErrorService, never()).saveDeviceError(any(DeviceError.class));
+  }
+
+  @Test
+  public void resolveSyncErrors_shouldVoidTheSyncErrorsOfLongKeyListsInChunks()
+      throws EntityNotFoundException {
+    String deviceId = "newDeviceId";
+    List<String> errorKeys = new ArrayList<>();
+    for (int i = 0; i < 2500; i++) {
+      errorKeys.add("sync:" + i);
+    }
+    Device device = TestUtil.createDevice(deviceId);
+    when(deviceService.getDeviceByMAC(deviceId, false)).thenReturn(device);
+    when(syncDAO.voidDeviceErrors(any(Device.class), anyListOf(String.class), any(User.class),
+        anyString())).thenReturn(1);
+
+    assertEquals(3, syncService.resolveSyncErrors(deviceId, errorKeys));
+    verify(syncDAO, times(3)).voidDeviceErrors(any(Device.class), anyListOf(String.class),
+        any(User.class), anyString());
   }
 
   @Test(expected = EntityNotFoundException.class)
@@ -461,6 +620,69 @@ public class SyncServiceTest {
     verify(deviceErrorService, times(0)).saveDeviceError(any(DeviceError.class));
   }
 
+  @Test
+  public void reconcile_shouldReturnOnlyTheBucketsWhichDiffer() throws EntityValidationException {
+    int bucketCount = 4;
+    List<Object[]> versions = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      versions.add(new Object[]{"uuid-" + i, new Date(1000L * i), null});
+    }
+    // the device misses the first record and still holds an older version of the second
+    Object[] missing = versions.get(0);
+    Object[] outdated = versions.get(1);
+    outdated[2] = new Date(LAST_DATE_MODIFIED);
+    long[] deviceDigests = new long[bucketCount];
+    for (Object[] row : versions) {
+      if (row != missing) {
+        String uuid = (String) row[0];
+        deviceDigests[SyncDigest.bucketOf(uuid, bucketCount)] ^=
+            SyncDigest.recordHash(uuid, ((Date) row[1]).getTime());
+      }
+    }
+    Map<Integer, String> digests = new HashMap<>();
+    for (int bucket = 0; bucket < bucketCount; bucket++) {
+      digests.put(bucket, SyncDigest.format(deviceDigests[bucket]));
+    }
+    when(syncDAO.getPatientVersions(locationList)).thenReturn(versions);
+
+    Map<Integer, Map<String, Long>> result = syncService
+        .reconcile(BiometricApiConstants.SYNC_ENTITY_PARTICIPANTS, locationList, bucketCount,
+            digests);
+
+    int missingBucket = SyncDigest.bucketOf("uuid-0", bucketCount);
+    int outdatedBucket = SyncDigest.bucketOf("uuid-1", bucketCount);
+    assertEquals(missingBucket == outdatedBucket ? 1 : 2, result.size());
+    assertEquals(Long.valueOf(0L), result.get(missingBucket).get("uuid-0"));
+    assertEquals(Long.valueOf(LAST_DATE_MODIFIED), result.get(outdatedBucket).get("uuid-1"));
+  }
+
+  @Test
+  public void reconcile_shouldReturnEmptyBucketsHeldByTheDevice()
+      throws EntityValidationException {
+    Map<Integer, String> digests = new HashMap<>();
+    digests.put(3, SyncDigest.format(SyncDigest.recordHash("uuid-0", 0L)));
+    when(syncDAO.getVisitVersions(locationList)).thenReturn(new ArrayList<>());
+
+    Map<Integer, Map<String, Long>> result = syncService
+        .reconcile(BiometricApiConstants.SYNC_ENTITY_VISITS, locationList, 8, digests);
+
+    assertEquals(1, result.size());
+    assertTrue(result.get(3).isEmpty());
+  }
+
+  @Test(expected = EntityValidationException.class)
+  public void reconcile_shouldThrowEntityValidationExceptionForInvalidBucketCount()
+      throws EntityValidationException {
+    syncService.reconcile(BiometricApiConstants.SYNC_ENTITY_PARTICIPANTS, locationList, 6,
+        new HashMap<>());
+  }
+
+  @Test(expected = EntityValidationException.class)
+  public void reconcile_shouldThrowEntityValidationExceptionForUnknownEntity()
+      throws EntityValidationException {
+    syncService.reconcile("encounters", locationList, 4, new HashMap<>());
+  }
+
   private List<SyncImageResponse> buildResponse(String uuid) {
     List<SyncImageResponse> responses = new ArrayList<>();
     SyncImageResponse response = new SyncImageResponse();
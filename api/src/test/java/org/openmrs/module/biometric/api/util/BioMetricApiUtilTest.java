@@ -12,7 +12,11 @@ package org.openmrs.module.biometric.api.util;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.times;
@@ -164,4 +168,40 @@ public class BioMetricApiUtilTest {
     verify(configService, times(1)).retrieveConfig(anyString());
     assertEquals(person.getPersonAddress().getCountry(), map.get(COUNTRY));
   }
+
+  @Test
+  public void getAddressExtractor_shouldCompileConfigurationOnlyWhenItChanges()
+      throws IOException, EntityNotFoundException {
+    String config = new String(Files.readAllBytes(Paths.get("src/test/resources/address.json")));
+    when(configService.retrieveConfig(anyString())).thenReturn(config);
+
+    AddressExtractor extractor = biometricApiUtil.getAddressExtractor();
+    assertSame(extractor, biometricApiUtil.getAddressExtractor());
+
+    when(configService.retrieveConfig(anyString())).thenReturn(config.replace("India", "Belgium"));
+    AddressExtractor updated = biometricApiUtil.getAddressExtractor();
+    assertNotSame(extractor, updated);
+    assertNull(updated.getFields("India"));
+
+    PersonAddress address = TestUtil.createPerson().getPersonAddress();
+    assertEquals(address.getCityVillage(), updated.getFields("Belgium").get(1).getValue(address));
+  }
+
+  @Test
+  public void getAddressExtractor_shouldOnlyFailTheCountryWithAnInvalidConfiguration()
+      throws IOException, EntityNotFoundException {
+    String config = "{\"addressFields\":{\"Belgium\":[{\"field\":\"cityVillage\"}],"
+        + "\"India\":[{\"field\":\"cityVillage\"},{\"field\":\"unknownField\"}]}}";
+    when(configService.retrieveConfig(anyString())).thenReturn(config);
+
+    AddressExtractor extractor = biometricApiUtil.getAddressExtractor();
+
+    assertEquals(1, extractor.getFields("Belgium").size());
+    try {
+      extractor.getFields("India");
+      fail("should throw IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("India"));
+    }
+  }
 }
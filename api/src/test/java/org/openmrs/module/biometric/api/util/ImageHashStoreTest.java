@@ -0,0 +1,65 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.api.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ImageHashStoreTest {
+
+  private static final byte[] CONTENT = "test".getBytes(StandardCharsets.US_ASCII);
+  private static final String CONTENT_HASH =
+      "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private ImageHashStore store = new ImageHashStore();
+  private Path image;
+
+  @Before
+  public void setUp() throws IOException {
+    image = folder.getRoot().toPath().resolve("a1b2c3.jpeg");
+    Files.write(image, CONTENT);
+  }
+
+  @Test
+  public void getHash_shouldReturnNullIfNoHashIsStored() {
+    assertNull(store.getHash(image));
+  }
+
+  @Test
+  public void saveHash_shouldStoreTheHashNextToTheImage() {
+    assertEquals(CONTENT_HASH, store.saveHash(image, CONTENT));
+
+    assertEquals(CONTENT_HASH, store.getHash(image));
+    assertEquals(1, folder.getRoot().list((dir, name) -> name.endsWith(".sha256")).length);
+  }
+
+  @Test
+  public void getHash_shouldIgnoreTheHashOfAReplacedImage() throws IOException {
+    store.saveHash(image, CONTENT);
+    Files.setLastModifiedTime(image, FileTime.fromMillis(
+        Files.getLastModifiedTime(image).toMillis() + 1000));
+
+    assertNull(store.getHash(image));
+  }
+}
@@ -0,0 +1,120 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.api.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import javax.imageio.ImageIO;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openmrs.module.biometric.api.exception.EntityValidationException;
+
+public class ImageVariantStoreTest {
+
+  private static final String DEVICE_ID = "device1";
+  private static final String IMAGE_NAME = "a1b2c3.jpeg";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private ImageVariantStore store;
+  private Path imagesRoot;
+  private Path variantsRoot;
+  private Path original;
+
+  @Before
+  public void setUp() throws IOException {
+    imagesRoot = folder.newFolder("images").toPath();
+    variantsRoot = folder.newFolder("variants").toPath();
+    original = imagesRoot.resolve(DEVICE_ID).resolve(IMAGE_NAME);
+    Files.createDirectories(original.getParent());
+    ImageIO.write(new BufferedImage(640, 480, BufferedImage.TYPE_3BYTE_BGR), "jpeg",
+        original.toFile());
+
+    store = new ImageVariantStore();
+    store.configure(imagesRoot, variantsRoot, "thumb:128:0.75, small:1024:0.8, ../bad:64:0.5");
+  }
+
+  @Test
+  public void resolve_shouldGenerateMissingVariant() throws IOException {
+    Path thumb = store.resolve("thumb", original);
+
+    assertEquals(variantsRoot.resolve("thumb").resolve(DEVICE_ID).resolve(IMAGE_NAME),
+        thumb.toAbsolutePath());
+    BufferedImage image = ImageIO.read(thumb.toFile());
+    assertEquals(128, image.getWidth());
+    assertEquals(96, image.getHeight());
+  }
+
+  @Test
+  public void resolve_shouldNotEnlargeSmallImages() throws IOException {
+    BufferedImage image = ImageIO.read(store.resolve("small", original).toFile());
+
+    assertEquals(640, image.getWidth());
+    assertEquals(480, image.getHeight());
+  }
+
+  @Test
+  public void resolve_shouldRegenerateVariantOlderThanOriginal() throws IOException {
+    Path thumb = store.resolve("thumb", original);
+    Files.write(thumb, new byte[0]);
+    Files.setLastModifiedTime(thumb, FileTime.fromMillis(0));
+    FileTime stale = Files.getLastModifiedTime(thumb);
+
+    store.resolve("thumb", original);
+
+    assertTrue(Files.getLastModifiedTime(thumb).compareTo(stale) > 0);
+    assertTrue(Files.size(thumb) > 0);
+  }
+
+  @Test
+  public void resolve_shouldReturnOriginalPathIfImageIsMissing() throws IOException {
+    Path missing = imagesRoot.resolve(DEVICE_ID).resolve("missing.jpeg");
+
+    assertEquals(missing, store.resolve("thumb", missing));
+  }
+
+  @Test
+  public void generateAll_shouldGenerateAllVariants() throws IOException {
+    store.generateAll(original, ImageIO.read(original.toFile()));
+
+    assertTrue(Files.isRegularFile(variantsRoot.resolve("thumb").resolve(DEVICE_ID)
+        .resolve(IMAGE_NAME)));
+    assertTrue(Files.isRegularFile(variantsRoot.resolve("small").resolve(DEVICE_ID)
+        .resolve(IMAGE_NAME)));
+    assertFalse(new File(folder.getRoot(), "bad").exists());
+  }
+
+  @Test
+  public void validate_shouldAcceptConfiguredVariant() throws EntityValidationException {
+    store.validate("thumb");
+  }
+
+  @Test(expected = EntityValidationException.class)
+  public void validate_shouldRejectUnknownVariant() throws EntityValidationException {
+    store.validate("poster");
+  }
+
+  @Test(expected = EntityValidationException.class)
+  public void validate_shouldRejectInvalidVariantName() throws EntityValidationException {
+    store.validate("../bad");
+  }
+}
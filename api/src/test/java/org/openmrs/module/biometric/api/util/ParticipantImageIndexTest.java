@@ -0,0 +1,125 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.api.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.function.BooleanSupplier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ParticipantImageIndexTest {
+
+  private static final long TIMEOUT = 10000L;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private ParticipantImageIndex index;
+  private Path imagesRoot;
+
+  @Before
+  public void setUp() throws IOException {
+    imagesRoot = folder.newFolder("images").toPath().toAbsolutePath().normalize();
+    index = new ParticipantImageIndex();
+  }
+
+  @After
+  public void tearDown() {
+    index.stop();
+  }
+
+  @Test
+  public void start_shouldIndexTheImagesOfEveryDevice() throws Exception {
+    Path first = createImage("device1", "a1.jpeg");
+    Path second = createImage("device2/Site1", "b2.jpeg");
+    createImage("device1", "a1.jpeg.sha256");
+
+    index.start(imagesRoot);
+    await(index::isReady);
+
+    assertEquals(2, index.size());
+    assertEquals(Collections.singletonList(first), index.find("a1"));
+    assertEquals(new HashSet<>(Arrays.asList(first, second)),
+        new HashSet<>(index.find(new HashSet<>(Arrays.asList("a1", "b2", "c3")))));
+  }
+
+  @Test
+  public void start_shouldFollowTheChangesOfTheImagesDirectory() throws Exception {
+    index.start(imagesRoot);
+    await(index::isReady);
+
+    Path image = createImage("device3", "c3.jpeg");
+    await(() -> !index.find("c3").isEmpty());
+    assertEquals(Collections.singletonList(image), index.find("c3"));
+
+    Files.delete(image);
+    await(() -> index.size() == 0);
+  }
+
+  @Test
+  public void start_shouldNotBeReadyWhenTheImagesDirectoryCannotBeWatched() throws Exception {
+    createImage("device1", "a1.jpeg");
+    index = new ParticipantImageIndex() {
+      @Override
+      WatchService newWatchService(Path imagesDir) throws IOException {
+        throw new IOException("no watch service");
+      }
+    };
+
+    index.start(imagesRoot);
+    Thread.sleep(200);
+
+    assertFalse(index.isReady());
+    assertTrue(index.find("a1").isEmpty());
+  }
+
+  @Test
+  public void remove_shouldDropTheImagesOfADirectory() throws Exception {
+    Path first = createImage("device1", "a1.jpeg");
+    Path second = createImage("device2", "b2.jpeg");
+    index.add(first);
+    index.add(second);
+    index.add(imagesRoot.resolve("device1").resolve("a1.jpeg.sha256"));
+
+    index.remove(imagesRoot.resolve("device1"));
+
+    assertEquals(1, index.size());
+    assertTrue(index.find("a1").isEmpty());
+    assertEquals(Collections.singletonList(second), index.find("b2"));
+  }
+
+  private Path createImage(String dir, String name) throws IOException {
+    Path image = imagesRoot.resolve(dir).resolve(name);
+    Files.createDirectories(image.getParent());
+    return Files.write(image, new byte[] {1, 2, 3});
+  }
+
+  private static void await(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    while (!condition.getAsBoolean()) {
+      assertTrue("condition not met in time", System.currentTimeMillis() < deadline);
+      Thread.sleep(20);
+    }
+  }
+}
@@ -0,0 +1,66 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is a
+ * trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.biometric.api.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Compares the throughput of the output sanitizer with the full Jsoup based sanitizer on values
+ * typical for a sync page. Not a unit test, run the main method manually.
+ */
+public final class SecurityUtilBenchmark {
+
+  private static final int ITERATIONS = 20;
+
+  private SecurityUtilBenchmark() {
+  }
+
+  public static void main(String[] args) {
+    List<String> values = new ArrayList<>();
+    Random random = new Random(1L);
+    StringBuilder template = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      template.append((char) ('A' + random.nextInt(26)));
+      if (i % 76 == 75) {
+        template.append('\n');
+      }
+    }
+    for (int i = 0; i < 5000; i++) {
+      values.add(UUID.randomUUID().toString());
+      values.add("LocationAttribute");
+      values.add("+32 470 12 34 " + i);
+      values.add(template.toString());
+    }
+    values.addAll(SecurityUtilTest.randomStrings(random, 5000));
+
+    for (int i = 0; i < ITERATIONS; i++) {
+      long full = run(values, true);
+      long fast = run(values, false);
+      System.out.printf("iteration %d: full %d ms, sanitizeOutput %d ms%n", i, full, fast);
+    }
+  }
+
+  private static long run(List<String> values, boolean full) {
+    long start = System.nanoTime();
+    int length = 0;
+    for (String value : values) {
+      String sanitized = full ? SecurityUtilTest.fullSanitize(value)
+          : SecurityUtil.sanitizeOutput(value);
+      length += sanitized.length();
+    }
+    if (length < 0) {
+      throw new IllegalStateException();
+    }
+    return (System.nanoTime() - start) / 1_000_000;
+  }
+}
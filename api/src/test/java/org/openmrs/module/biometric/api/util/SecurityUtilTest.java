@@ -0,0 +1,123 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is a
+ * trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.biometric.api.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.jsoup.Jsoup;
+import org.jsoup.safety.Whitelist;
+import org.junit.Test;
+
+/**
+ * Checks that the fast path of the output sanitizer gives exactly the same results as the full
+ * sanitizer.
+ */
+public class SecurityUtilTest {
+
+  private static final String[] CORPUS = {
+      "",
+      " ",
+      "   ",
+      "9dd05e68-4d77-4b61-b2bf-436857f35aa0",
+      "btest1",
+      "LocationAttribute",
+      "PersonImageAttribute",
+      "+32 470 12 34 56",
+      "Rue de la Loi  16",
+      " leading",
+      "trailing ",
+      "tab\tseparated",
+      "line\nbreaks\r\nand\fform feed",
+      "QUJDREVGR0hJSktMTU5PUFFSU1RVVldYWVo=\nYWJjZGVmZ2hpamtsbW5vcHFyc3R1dnd4eXo=\n",
+      "a'b",
+      "O'Neil",
+      "50%",
+      "x=1;y=2",
+      "a < b",
+      "a > b",
+      "fish & chips",
+      "&amp;",
+      "&lt;script&gt;",
+      "<script>alert(1)</script>",
+      "<b>bold</b>",
+      "say \"hi\"",
+      "back\\slash",
+      "\\u003cscript\\u003e",
+      "\\n",
+      "caf\u00e9",
+      "\u00a0non breaking",
+      "\u4e2d\u6587",
+      "emoji \ud83d\ude00",
+      "control\u0001char",
+      "vertical\u000btab",
+      "del\u007fchar"
+  };
+
+  private static final String ALPHABET = " \t\n\r\fabcXYZ019+/=-_.,;:'!?#$%()*[]{}|~`^@&<>\"\\\u00e9";
+
+  @Test
+  public void sanitizeOutput_shouldMatchFullSanitizerOnCorpus() {
+    for (String str : CORPUS) {
+      assertEquals(str, fullSanitize(str), SecurityUtil.sanitizeOutput(str));
+    }
+  }
+
+  @Test
+  public void sanitizeOutput_shouldMatchFullSanitizerOnRandomStrings() {
+    Random random = new Random(20210501L);
+    for (String str : randomStrings(random, 20000)) {
+      assertEquals(str, fullSanitize(str), SecurityUtil.sanitizeOutput(str));
+    }
+  }
+
+  @Test
+  public void sanitizePlainText_shouldReturnSameInstanceForNormalizedText() {
+    String uuid = "9dd05e68-4d77-4b61-b2bf-436857f35aa0";
+
+    assertSame(uuid, SecurityUtil.sanitizePlainText(uuid));
+  }
+
+  @Test
+  public void sanitizePlainText_shouldDeferMarkupAndNonAsciiToFullSanitizer() {
+    for (String str : Arrays.asList("a<b", "a>b", "a&b", "a\"b", "a\\b", "caf\u00e9", "a\u000bb")) {
+      assertNull(str, SecurityUtil.sanitizePlainText(str));
+    }
+  }
+
+  @Test
+  public void sanitizeOutput_shouldReturnNullForNull() {
+    assertNull(SecurityUtil.sanitizeOutput(null));
+  }
+
+  static List<String> randomStrings(Random random, int count) {
+    List<String> strings = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      int length = random.nextInt(24);
+      StringBuilder builder = new StringBuilder(length);
+      for (int j = 0; j < length; j++) {
+        builder.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+      }
+      strings.add(builder.toString());
+    }
+    return strings;
+  }
+
+  static String fullSanitize(String str) {
+    return Jsoup.clean(StringEscapeUtils.escapeHtml4(StringEscapeUtils.unescapeEcmaScript(str)),
+        Whitelist.basic());
+  }
+}
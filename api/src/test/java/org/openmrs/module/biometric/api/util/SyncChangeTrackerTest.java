@@ -0,0 +1,107 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.api.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.openmrs.module.biometric.api.util.SyncChangeTracker.SyncChanges;
+
+public class SyncChangeTrackerTest {
+
+  private static final List<String> LOCATIONS = Collections.singletonList("site-1");
+
+  private final SyncChangeTracker tracker = new SyncChangeTracker();
+
+  @Test
+  public void await_shouldReturnTheCursorImmediatelyWithoutCursor() {
+    SyncChanges changes = tracker.await(null, LOCATIONS, 60000);
+
+    assertEquals(tracker.getCursor(), changes.getCursor());
+    assertTrue(changes.getEntityTypes().isEmpty());
+  }
+
+  @Test
+  public void await_shouldReturnTheTypesChangedInTheLocations() {
+    String cursor = tracker.getCursor();
+    tracker.publish(changes("visits", "site-1"));
+    tracker.publish(changes("participants", "site-2"));
+
+    SyncChanges changes = tracker.await(cursor, LOCATIONS, 0);
+
+    assertEquals(Collections.singleton("visits"), changes.getEntityTypes());
+    assertNotEquals(cursor, changes.getCursor());
+    assertTrue(tracker.await(changes.getCursor(), LOCATIONS, 0).getEntityTypes().isEmpty());
+  }
+
+  @Test
+  public void await_shouldReportChangesOfUnknownLocationToEveryScope() {
+    String cursor = tracker.getCursor();
+    tracker.publish(changes("images", SyncChangeTracker.ANY_LOCATION));
+
+    assertEquals(Collections.singleton("images"),
+        tracker.await(cursor, LOCATIONS, 0).getEntityTypes());
+  }
+
+  @Test
+  public void await_shouldReportAllTypesForACursorOfAnotherEpoch() {
+    SyncChanges changes = new SyncChangeTracker().await("00000000:12", LOCATIONS, 60000);
+
+    assertEquals(new HashSet<>(SyncChangeTracker.ENTITY_TYPES), changes.getEntityTypes());
+  }
+
+  @Test
+  public void await_shouldWaitUntilAChangeIsPublished() throws Exception {
+    String cursor = tracker.getCursor();
+    CompletableFuture<SyncChanges> waiting =
+        CompletableFuture.supplyAsync(() -> tracker.await(cursor, LOCATIONS, 10000));
+    while (tracker.getWaiters() == 0) {
+      Thread.sleep(5);
+    }
+
+    tracker.publish(changes("participants", "site-1"));
+
+    assertEquals(Collections.singleton("participants"),
+        waiting.get(5, TimeUnit.SECONDS).getEntityTypes());
+  }
+
+  @Test
+  public void await_shouldNotWaitWhenTheMaximumOfWaitersIsReached() {
+    tracker.setMaxWaiters(0);
+
+    long start = System.currentTimeMillis();
+    SyncChanges changes = tracker.await(tracker.getCursor(), LOCATIONS, 10000);
+
+    assertTrue(changes.getEntityTypes().isEmpty());
+    assertTrue(System.currentTimeMillis() - start < 5000);
+  }
+
+  @Test
+  public void await_shouldReturnNoChangesAfterTheTimeout() {
+    SyncChanges changes = tracker.await(tracker.getCursor(), LOCATIONS, 20);
+
+    assertTrue(changes.getEntityTypes().isEmpty());
+  }
+
+  private static Map<String, Set<String>> changes(String entityType, String... locations) {
+    return Collections.singletonMap(entityType, new HashSet<>(Arrays.asList(locations)));
+  }
+}
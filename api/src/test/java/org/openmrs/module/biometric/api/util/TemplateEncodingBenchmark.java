@@ -0,0 +1,123 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is a
+ * trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.biometric.api.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.openmrs.module.biometric.api.contract.SyncTemplateResponse;
+
+/**
+ * Compares writing a page of templates read as raw bytes, base64 encoded while the JSON response
+ * is written, with the former path where the templates were read as TO_BASE64 text and sanitized.
+ * The TO_BASE64 encoding done by the database is reproduced with a MIME encoder. Not a unit test,
+ * run the main method manually.
+ */
+public final class TemplateEncodingBenchmark {
+
+  private static final int ITERATIONS = 20;
+  private static final int RECORDS = 5000;
+  private static final int TEMPLATE_SIZE = 2048;
+
+  private TemplateEncodingBenchmark() {
+  }
+
+  public static void main(String[] args) throws IOException {
+    ObjectMapper mapper = new ObjectMapper();
+    Random random = new Random(1L);
+    List<String> uuids = new ArrayList<>(RECORDS);
+    List<byte[]> templates = new ArrayList<>(RECORDS);
+    for (int i = 0; i < RECORDS; i++) {
+      byte[] template = new byte[TEMPLATE_SIZE];
+      random.nextBytes(template);
+      templates.add(template);
+      uuids.add(UUID.randomUUID().toString());
+    }
+    verify(mapper, templates.get(0));
+
+    for (int i = 0; i < ITERATIONS; i++) {
+      long start = System.nanoTime();
+      long textBytes = writeText(mapper, uuids, templates);
+      long text = (System.nanoTime() - start) / 1_000_000;
+      start = System.nanoTime();
+      long rawBytes = writeRaw(mapper, uuids, templates);
+      long raw = (System.nanoTime() - start) / 1_000_000;
+      System.out.printf("iteration %d: TO_BASE64 text %d ms %d bytes, raw bytes %d ms %d bytes%n",
+          i, text, textBytes, raw, rawBytes);
+    }
+  }
+
+  private static long writeText(ObjectMapper mapper, List<String> uuids, List<byte[]> templates)
+      throws IOException {
+    Base64.Encoder toBase64 = Base64.getMimeEncoder(76, new byte[]{'\n'});
+    List<Map<String, Object>> records = new ArrayList<>(RECORDS);
+    for (int i = 0; i < RECORDS; i++) {
+      Map<String, Object> record = new HashMap<>();
+      record.put("participantUuid", SecurityUtil.sanitizeOutput(uuids.get(i)));
+      record.put("biometricsTemplate",
+          SecurityUtil.sanitizeOutput(toBase64.encodeToString(templates.get(i))));
+      records.add(record);
+    }
+    CountingOutputStream out = new CountingOutputStream();
+    mapper.writeValue(out, records);
+    return out.count;
+  }
+
+  private static long writeRaw(ObjectMapper mapper, List<String> uuids, List<byte[]> templates)
+      throws IOException {
+    List<SyncTemplateResponse> records = new ArrayList<>(RECORDS);
+    for (int i = 0; i < RECORDS; i++) {
+      SyncTemplateResponse record = new SyncTemplateResponse();
+      record.setParticipantUuid(SecurityUtil.sanitizeOutput(uuids.get(i)));
+      record.setBiometricsTemplate(templates.get(i));
+      records.add(record);
+    }
+    CountingOutputStream out = new CountingOutputStream();
+    mapper.writeValue(out, records);
+    return out.count;
+  }
+
+  private static void verify(ObjectMapper mapper, byte[] template) throws IOException {
+    SyncTemplateResponse record = new SyncTemplateResponse();
+    record.setBiometricsTemplate(template);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    mapper.writeValue(out, record);
+    JsonNode json = mapper.readTree(out.toByteArray());
+    byte[] decoded = Base64.getDecoder().decode(json.get("biometricsTemplate").getTextValue());
+    if (!Arrays.equals(template, decoded)) {
+      throw new IllegalStateException("The template is not encoded as base64");
+    }
+  }
+
+  private static final class CountingOutputStream extends OutputStream {
+
+    private long count;
+
+    @Override
+    public void write(int b) {
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      count += len;
+    }
+  }
+}
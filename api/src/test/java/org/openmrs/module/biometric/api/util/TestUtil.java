@@ -407,7 +407,7 @@ public class TestUtil {
     }
 
     public static BiometricData createBiometricData() {
-        return new BiometricData("btest1", "p1", "WQJDJKDKDOIDJDIJDI", new Date(),
+        return new BiometricData("btest1", "p1", new byte[]{1, 2, 3}, new Date(),
                 false);
     }
 
@@ -0,0 +1,70 @@
+-- Tables and core indexes used by the sync queries, see SyncQueryPlanTest
+CREATE TABLE person (
+  person_id INT PRIMARY KEY,
+  uuid CHAR(38) NOT NULL,
+  date_created TIMESTAMP NOT NULL,
+  date_changed TIMESTAMP,
+  voided BOOLEAN NOT NULL
+);
+CREATE UNIQUE INDEX person_uuid_index ON person (uuid);
+
+CREATE TABLE patient (
+  patient_id INT PRIMARY KEY,
+  voided BOOLEAN NOT NULL
+);
+
+CREATE TABLE person_attribute_type (
+  person_attribute_type_id INT PRIMARY KEY,
+  name VARCHAR(50) NOT NULL
+);
+CREATE INDEX name_of_attribute ON person_attribute_type (name);
+
+CREATE TABLE person_attribute (
+  person_attribute_id INT PRIMARY KEY,
+  person_id INT NOT NULL,
+  value VARCHAR(50) NOT NULL,
+  person_attribute_type_id INT NOT NULL,
+  voided BOOLEAN NOT NULL
+);
+CREATE INDEX identifies_person ON person_attribute (person_id);
+CREATE INDEX defines_attribute_type ON person_attribute (person_attribute_type_id);
+
+CREATE TABLE patient_identifier (
+  patient_identifier_id INT PRIMARY KEY,
+  patient_id INT NOT NULL,
+  identifier VARCHAR(50) NOT NULL,
+  voided BOOLEAN NOT NULL
+);
+CREATE INDEX identifies_patient ON patient_identifier (patient_id);
+
+CREATE TABLE location (
+  location_id INT PRIMARY KEY,
+  uuid CHAR(38) NOT NULL
+);
+CREATE UNIQUE INDEX location_uuid_index ON location (uuid);
+
+CREATE TABLE visit_type (
+  visit_type_id INT PRIMARY KEY,
+  name VARCHAR(255) NOT NULL
+);
+
+CREATE TABLE visit (
+  visit_id INT PRIMARY KEY,
+  patient_id INT NOT NULL,
+  visit_type_id INT NOT NULL,
+  location_id INT,
+  date_created TIMESTAMP NOT NULL,
+  date_changed TIMESTAMP,
+  voided BOOLEAN NOT NULL
+);
+CREATE INDEX visit_patient_index ON visit (patient_id);
+CREATE INDEX visit_type_fk ON visit (visit_type_id);
+CREATE INDEX visit_location_fk ON visit (location_id);
+
+CREATE TABLE iris_templates (
+  dbid VARCHAR(50) PRIMARY KEY,
+  participantUuid VARCHAR(38) NOT NULL,
+  template BLOB,
+  modificationDate TIMESTAMP,
+  voided BOOLEAN NOT NULL
+);
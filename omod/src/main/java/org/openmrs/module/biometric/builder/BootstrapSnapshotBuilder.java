@@ -0,0 +1,377 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.builder;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.lang3.StringUtils;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.SerializationConfig;
+import org.openmrs.Patient;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.biometric.api.constants.BiometricApiConstants;
+import org.openmrs.module.biometric.api.contract.SyncImageResponse;
+import org.openmrs.module.biometric.api.contract.SyncTemplateResponse;
+import org.openmrs.module.biometric.api.exception.BiometricApiException;
+import org.openmrs.module.biometric.api.service.SyncService;
+import org.openmrs.module.biometric.contract.VisitResponse;
+import org.openmrs.module.biometric.contract.sync.ParticipantData;
+import org.openmrs.module.biometric.contract.sync.SyncRequest;
+import org.openmrs.module.biometric.contract.sync.SyncScope;
+import org.openmrs.module.biometric.util.LocationUtil;
+import org.openmrs.util.OpenmrsUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+/**
+ * Materializes the bootstrap snapshots used by newly provisioned devices. A snapshot is a gzip
+ * compressed json document holding all the participants, visits, participant images and biometric
+ * templates of a sync scope, written under the application data directory as
+ * {@code biometric_snapshots/<scope>/<watermark>.json.gz}. Devices import the snapshot and then
+ * delta sync using the snapshot watermark as the date modified offset.
+ */
+@Component
+public class BootstrapSnapshotBuilder {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(BootstrapSnapshotBuilder.class);
+  private static final String SNAPSHOT_DIR = "biometric_snapshots";
+  private static final String SNAPSHOT_EXTN = ".json.gz";
+  private static final String TEMP_EXTN = ".tmp";
+  private static final String SITE_SCOPE = "site";
+  private static final String CLUSTER_SCOPE = "cluster";
+  private static final String COUNTRY_SCOPE = "country";
+  private static final String DEFAULT_SCOPES = "site,cluster,country";
+  private static final String SCOPE_SEPARATOR = "_";
+  private static final int PAGE_SIZE = 500;
+  // records committed shortly before the snapshot started are delta synced again by the devices
+  private static final long WATERMARK_MARGIN_MILLIS = 60_000L;
+
+  private final ObjectMapper mapper =
+      new ObjectMapper().configure(SerializationConfig.Feature.FLUSH_AFTER_WRITE_VALUE, false);
+
+  @Autowired
+  @Qualifier("biometric.syncService")
+  private SyncService syncService;
+
+  @Autowired
+  private ParticipantRecordsResponseBuilder participantRecordsResponseBuilder;
+
+  @Autowired
+  private VisitResponseBuilder visitResponseBuilder;
+
+  @Autowired
+  private LocationUtil locationUtil;
+
+  /**
+   * Builds the snapshots of all the configured scope types. A failure of one scope is logged and
+   * does not stop the remaining scopes.
+   */
+  public void buildAll() {
+    final Instant start = Instant.now();
+    Properties properties =
+        OpenmrsUtil.getRuntimeProperties(BiometricApiConstants.APP_PROPERTIES_FILE);
+    Set<String> scopeTypes = new HashSet<>(Arrays.asList(
+        properties.getProperty(BiometricApiConstants.SNAPSHOT_SCOPES, DEFAULT_SCOPES)
+            .toLowerCase(Locale.ENGLISH).split("\\s*,\\s*")));
+
+    for (Map.Entry<String, List<String>> entry : locationUtil.findAllLocationsByCountry().entrySet()) {
+      if (scopeTypes.contains(COUNTRY_SCOPE)) {
+        buildQuietly(createScope(entry.getKey(), null, null), entry.getValue());
+      }
+      if (scopeTypes.contains(SITE_SCOPE)) {
+        for (String siteUuid : entry.getValue()) {
+          buildQuietly(createScope(entry.getKey(), null, siteUuid),
+              Collections.singletonList(siteUuid));
+        }
+      }
+    }
+    if (scopeTypes.contains(CLUSTER_SCOPE)) {
+      for (Map.Entry<String, List<String>> entry : locationUtil.findAllLocationsByCluster()
+          .entrySet()) {
+        buildQuietly(createScope(null, entry.getKey(), null), entry.getValue());
+      }
+    }
+    LOGGER.info("Bootstrap snapshots built in : {}", Duration.between(start, Instant.now()));
+  }
+
+  /**
+   * Builds a new snapshot version for the given scope and removes the older versions.
+   *
+   * @param syncScope the scope of the snapshot
+   * @param locations the location uuids covered by the scope
+   * @return the snapshot which was built
+   * @throws IOException if the snapshot file cannot be written
+   * @throws BiometricApiException if the sync records cannot be retrieved
+   */
+  public Snapshot build(SyncScope syncScope, List<String> locations)
+      throws IOException, BiometricApiException {
+    final Instant start = Instant.now();
+    long watermark = System.currentTimeMillis() - WATERMARK_MARGIN_MILLIS;
+    File directory = getScopeDirectory(syncScope);
+    File temp = new File(directory, watermark + SNAPSHOT_EXTN + TEMP_EXTN);
+    File target = new File(directory, watermark + SNAPSHOT_EXTN);
+
+    SyncRequest request = new SyncRequest();
+    request.setSyncScope(syncScope);
+
+    try (OutputStream out = new GZIPOutputStream(
+        new BufferedOutputStream(new FileOutputStream(temp)));
+        JsonGenerator generator = mapper.getJsonFactory()
+            .createJsonGenerator(out, JsonEncoding.UTF8)) {
+      generator.writeStartObject();
+      generator.writeNumberField("version", watermark);
+      generator.writeNumberField("watermark", watermark);
+      generator.writeFieldName("syncScope");
+      mapper.writeValue(generator, syncScope);
+
+      writeRecords(generator, "participants",
+          (date, max, consumer) -> getParticipants(date, max, locations, request)
+              .forEach(consumer),
+          ParticipantData::getParticipantUuid, ParticipantData::getDateModified);
+      writeRecords(generator, "visits",
+          (date, max, consumer) -> visitResponseBuilder.createFrom(
+              syncService.getAllVisits(date, null, max, locations)).forEach(consumer),
+          VisitResponse::getVisitUuid, VisitResponse::getDateModified);
+      writeRecords(generator, "participantImages",
+          (date, max, consumer) -> syncService
+              .getAllParticipantImages(date, max, locations, null, false).forEach(consumer),
+          SyncImageResponse::getParticipantUuid, SyncImageResponse::getDateModified);
+      // the templates are written chunk by chunk, a page of templates is never held in memory
+      writeRecords(generator, "biometricTemplates",
+          (date, max, consumer) -> syncService.forEachBiometricTemplate(date, null, null,
+              locations, false, max, consumer),
+          SyncTemplateResponse::getParticipantUuid, SyncTemplateResponse::getDateModified);
+      generator.writeEndObject();
+    } catch (IOException | BiometricApiException | RuntimeException e) {
+      Files.deleteIfExists(temp.toPath());
+      throw e;
+    }
+
+    Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+        StandardCopyOption.REPLACE_EXISTING);
+    removeOlderVersions(directory, watermark);
+    LOGGER.info("Bootstrap snapshot {} built in : {}", target.getAbsolutePath(),
+        Duration.between(start, Instant.now()));
+    return new Snapshot(target, watermark);
+  }
+
+  /**
+   * Finds the latest snapshot built for the given scope.
+   *
+   * @param syncScope the scope requested by the device
+   * @return the latest snapshot or null if no snapshot has been built yet
+   */
+  public Snapshot findLatest(SyncScope syncScope) {
+    File[] files = getScopeDirectory(syncScope).listFiles();
+    Snapshot latest = null;
+    if (null != files) {
+      for (File file : files) {
+        Long version = getVersion(file);
+        if (null != version && (null == latest || version > latest.getWatermark())) {
+          latest = new Snapshot(file, version);
+        }
+      }
+    }
+    return latest;
+  }
+
+  private void buildQuietly(SyncScope syncScope, List<String> locations) {
+    try {
+      build(syncScope, locations);
+    } catch (IOException | BiometricApiException | RuntimeException e) {
+      LOGGER.error("Unable to build the bootstrap snapshot for {}", getScopeKey(syncScope), e);
+    } finally {
+      Context.clearSession();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<ParticipantData> getParticipants(Date dateModified, int maxResults,
+      List<String> locations, SyncRequest request) throws IOException, BiometricApiException {
+    List<Patient> patients =
+        syncService.getAllPatients(dateModified, null, maxResults, locations);
+    return (List<ParticipantData>) participantRecordsResponseBuilder
+        .createFrom(patients, 0L, 0L, request).getRecords();
+  }
+
+  /**
+   * Pages through the records the same way the devices do, starting from the beginning and moving
+   * the date modified offset to the last record of every page. The records are written as they are
+   * read.
+   */
+  private <T> void writeRecords(JsonGenerator generator, String fieldName, PageReader<T> reader,
+      Function<T, String> uuidOf, Function<T, Long> dateModifiedOf)
+      throws IOException, BiometricApiException {
+    generator.writeArrayFieldStart(fieldName);
+    RecordWriter<T> writer = new RecordWriter<>(generator, uuidOf, dateModifiedOf);
+
+    do {
+      writer.progressed = false;
+      try {
+        reader.read(null == writer.offset ? null : new Date(writer.offset),
+            PAGE_SIZE + writer.uuidsWithOffset.size(), writer);
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+      // the records are only needed until they are written
+      Context.clearSession();
+    } while (writer.progressed);
+    generator.writeEndArray();
+    LOGGER.debug("{} {} records written to the bootstrap snapshot", writer.written.size(),
+        fieldName);
+  }
+
+  private void removeOlderVersions(File directory, long watermark) throws IOException {
+    File[] files = directory.listFiles();
+    if (null != files) {
+      for (File file : files) {
+        Long version = getVersion(file);
+        if (null != version && version < watermark) {
+          Files.deleteIfExists(file.toPath());
+        }
+      }
+    }
+  }
+
+  private Long getVersion(File file) {
+    String name = file.getName();
+    if (!name.endsWith(SNAPSHOT_EXTN)) {
+      return null;
+    }
+    String version = name.substring(0, name.length() - SNAPSHOT_EXTN.length());
+    return StringUtils.isNumeric(version) ? Long.valueOf(version) : null;
+  }
+
+  private File getScopeDirectory(SyncScope syncScope) {
+    File directory = new File(
+        OpenmrsUtil.getDirectoryInApplicationDataDirectory(SNAPSHOT_DIR), getScopeKey(syncScope));
+    if (!directory.exists() && !directory.mkdirs()) {
+      LOGGER.warn("Unable to create the snapshot directory {}", directory.getAbsolutePath());
+    }
+    return directory;
+  }
+
+  private String getScopeKey(SyncScope syncScope) {
+    String key;
+    if (StringUtils.isNotBlank(syncScope.getSiteUuid())) {
+      key = SITE_SCOPE + SCOPE_SEPARATOR + syncScope.getSiteUuid();
+    } else if (StringUtils.isNotBlank(syncScope.getCluster())) {
+      key = CLUSTER_SCOPE + SCOPE_SEPARATOR + syncScope.getCluster();
+    } else {
+      key = COUNTRY_SCOPE + SCOPE_SEPARATOR + syncScope.getCountry();
+    }
+    return key.toLowerCase(Locale.ENGLISH).replaceAll("[^a-z0-9-]", SCOPE_SEPARATOR);
+  }
+
+  private SyncScope createScope(String country, String cluster, String siteUuid) {
+    SyncScope syncScope = new SyncScope();
+    syncScope.setCountry(country);
+    syncScope.setCluster(cluster);
+    syncScope.setSiteUuid(siteUuid);
+    return syncScope;
+  }
+
+  @FunctionalInterface
+  private interface PageReader<T> {
+
+    void read(Date dateModified, int maxResults, Consumer<T> consumer)
+        throws IOException, BiometricApiException;
+  }
+
+  /**
+   * Writes the records which were not written by an earlier page and tracks the date modified
+   * offset of the next page.
+   */
+  private final class RecordWriter<T> implements Consumer<T> {
+
+    private final JsonGenerator generator;
+    private final Function<T, String> uuidOf;
+    private final Function<T, Long> dateModifiedOf;
+    private final Set<String> written = new HashSet<>();
+    private Set<String> uuidsWithOffset = new HashSet<>();
+    private Long offset;
+    private boolean progressed;
+
+    private RecordWriter(JsonGenerator generator, Function<T, String> uuidOf,
+        Function<T, Long> dateModifiedOf) {
+      this.generator = generator;
+      this.uuidOf = uuidOf;
+      this.dateModifiedOf = dateModifiedOf;
+    }
+
+    @Override
+    public void accept(T record) {
+      String uuid = uuidOf.apply(record);
+      if (written.add(uuid)) {
+        try {
+          mapper.writeValue(generator, record);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        progressed = true;
+      }
+      Long dateModified = dateModifiedOf.apply(record);
+      if (!dateModified.equals(offset)) {
+        offset = dateModified;
+        uuidsWithOffset = new HashSet<>();
+      }
+      uuidsWithOffset.add(uuid);
+    }
+  }
+
+  /**
+   * A snapshot file together with its version, the version is the watermark of the snapshot.
+   */
+  public static final class Snapshot {
+
+    private final File file;
+
+    private final long watermark;
+
+    public Snapshot(File file, long watermark) {
+      this.file = file;
+      this.watermark = watermark;
+    }
+
+    public File getFile() {
+      return file;
+    }
+
+    public long getWatermark() {
+      return watermark;
+    }
+  }
+}
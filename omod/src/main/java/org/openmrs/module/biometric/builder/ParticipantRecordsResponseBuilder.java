@@ -10,16 +10,18 @@
 
 package org.openmrs.module.biometric.builder;
 
-import org.codehaus.jackson.JsonNode;
 import org.openmrs.Patient;
-import org.openmrs.PatientIdentifier;
-import org.openmrs.PersonAttribute;
-import org.openmrs.module.biometric.api.constants.BiometricApiConstants;
+import org.openmrs.PersonAddress;
 import org.openmrs.module.biometric.api.exception.EntityNotFoundException;
 import org.openmrs.module.biometric.api.model.AttributeData;
-import org.openmrs.module.biometric.api.service.ConfigService;
+import org.openmrs.module.biometric.api.model.IdentifierData;
+import org.openmrs.module.biometric.api.model.PatientSyncData;
+import org.openmrs.module.biometric.api.service.SyncService;
+import org.openmrs.module.biometric.api.util.AddressExtractor;
+import org.openmrs.module.biometric.api.util.BiometricApiUtil;
 import org.openmrs.module.biometric.api.util.OpenMRSUtil;
 import org.openmrs.module.biometric.api.util.SecurityUtil;
+import org.openmrs.module.biometric.api.util.SyncTaskExecutor;
 import org.openmrs.module.biometric.contract.sync.Gender;
 import org.openmrs.module.biometric.contract.sync.ParticipantData;
 import org.openmrs.module.biometric.contract.sync.SyncRequest;
@@ -34,7 +36,6 @@ import org.springframework.stereotype.Component;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -48,8 +49,6 @@ import static org.openmrs.module.biometric.api.constants.BiometricApiConstants.S
 public class ParticipantRecordsResponseBuilder {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(ParticipantRecordsResponseBuilder.class);
-  private static final String ADDRESS_FIELDS = "addressFields";
-  private static final String FIELD = "field";
   private static final String COUNTRY = "country";
 
   @Autowired
@@ -59,8 +58,14 @@ public class ParticipantRecordsResponseBuilder {
   private SyncResponseBuilder syncResponseBuilder;
 
   @Autowired
-  @Qualifier("biometric.configService")
-  private ConfigService configService;
+  private BiometricApiUtil biometricApiUtil;
+
+  @Autowired
+  @Qualifier("biometric.syncService")
+  private SyncService syncService;
+
+  @Autowired
+  private SyncTaskExecutor syncTaskExecutor;
 
   /**
    * to build response for sync participant calls.
@@ -73,45 +78,60 @@ public class ParticipantRecordsResponseBuilder {
    */
   public SyncResponse createFrom(List<Patient> patients, long totalCount, long voidedCount, SyncRequest syncRequest)
       throws EntityNotFoundException, IOException {
-    List<ParticipantData> participants = new ArrayList<>(BiometricApiConstants.INITIAL_SIZE);
-
-    for (Patient patient : patients) {
-      ParticipantData participantData = new ParticipantData();
-      if (Boolean.TRUE.equals(patient.getVoided())) {
-        participantData.setType(SYNC_DELETE);
-      } else {
-        participantData.setType(SYNC_UPDATE);
-      }
-      participantData.setParticipantUuid(SecurityUtil.sanitizeOutput(patient.getUuid()));
-      participantData.setDateModified(OpenMRSUtil.getLastModificationDate(patient).getTime());
-      participantData.setParticipantId(getSafePatientIdentifier(patient));
-      if (Boolean.FALSE.equals(patient.getVoided())) {
-        participantData.setBirthDate(util.dateToISO8601(patient.getBirthdate()));
-        participantData.setGender(Gender.valueOf(patient.getGender()));
-
-        List<AttributeData> attributes = new ArrayList<>(10);
-        for (PersonAttribute personAttribute : patient.getPerson().getActiveAttributes()) {
-          AttributeData attribute = new AttributeData();
-          attribute.setType(SecurityUtil.sanitizeOutput(personAttribute.getAttributeType().getName()));
-          attribute.setValue(SecurityUtil.sanitizeOutput(personAttribute.getValue()));
-          attributes.add(attribute);
-        }
-        participantData.setAttributes(attributes);
-        participantData.setAddresses(getAddress(patient));
+    Map<Integer, PatientSyncData> syncData = syncService.getPatientSyncData(patients);
+    AddressExtractor addressExtractor = null;
+    for (PatientSyncData patientData : syncData.values()) {
+      PersonAddress address = patientData.getAddress();
+      if (null != address && null != address.getCountry()) {
+        // the address configuration is compiled once per page, only when an address needs it
+        addressExtractor = biometricApiUtil.getAddressExtractor();
+        break;
       }
-      participants.add(participantData);
     }
 
+    // the entities and projections are fully loaded, the records are mapped in parallel
+    AddressExtractor extractor = addressExtractor;
+    List<ParticipantData> participants = syncTaskExecutor.map(patients,
+        patient -> createFrom(patient, syncData.get(patient.getPatientId()), extractor));
+
     return syncResponseBuilder.createFrom(participants, totalCount, null, voidedCount, syncRequest);
   }
 
-  private String getSafePatientIdentifier(Patient patient) {
-    PatientIdentifier result = null;
+  private ParticipantData createFrom(Patient patient, PatientSyncData patientData,
+      AddressExtractor addressExtractor) {
+    ParticipantData participantData = new ParticipantData();
+    if (Boolean.TRUE.equals(patient.getVoided())) {
+      participantData.setType(SYNC_DELETE);
+    } else {
+      participantData.setType(SYNC_UPDATE);
+    }
+    participantData.setParticipantUuid(SecurityUtil.sanitizeOutput(patient.getUuid()));
+    participantData.setDateModified(OpenMRSUtil.getLastModificationDate(patient).getTime());
+    participantData.setParticipantId(getSafePatientIdentifier(patientData.getIdentifiers()));
+    if (Boolean.FALSE.equals(patient.getVoided())) {
+      participantData.setBirthDate(util.dateToISO8601(patient.getBirthdate()));
+      participantData.setGender(Gender.valueOf(patient.getGender()));
+
+      List<AttributeData> attributes = new ArrayList<>(patientData.getAttributes().size());
+      for (AttributeData personAttribute : patientData.getAttributes()) {
+        AttributeData attribute = new AttributeData();
+        attribute.setType(SecurityUtil.sanitizeOutput(personAttribute.getType()));
+        attribute.setValue(SecurityUtil.sanitizeOutput(personAttribute.getValue()));
+        attributes.add(attribute);
+      }
+      participantData.setAttributes(attributes);
+      participantData.setAddresses(getAddress(patientData.getAddress(), addressExtractor));
+    }
+    return participantData;
+  }
 
-    for (PatientIdentifier patientIdentifier : patient.getIdentifiers()) {
+  private String getSafePatientIdentifier(List<IdentifierData> identifiers) {
+    IdentifierData result = null;
+
+    for (IdentifierData patientIdentifier : identifiers) {
       if (result == null ||
-          (Boolean.TRUE.equals(result.getVoided()) && Boolean.FALSE.equals(patientIdentifier.getVoided())) ||
-          (Boolean.FALSE.equals(patientIdentifier.getVoided()) && Boolean.TRUE.equals(patientIdentifier.getPreferred()))) {
+          (result.isVoided() && !patientIdentifier.isVoided()) ||
+          (!patientIdentifier.isVoided() && patientIdentifier.isPreferred())) {
         result = patientIdentifier;
       }
     }
@@ -119,30 +139,24 @@ public class ParticipantRecordsResponseBuilder {
     return result != null ? result.getIdentifier() : "";
   }
 
-  private Map<String, String> getAddress(Patient patient) throws IOException, EntityNotFoundException {
+  private Map<String, String> getAddress(PersonAddress personAddress,
+      AddressExtractor addressExtractor) {
     Map<String, String> addressMap = new HashMap<>();
-    String country = util.getPersonAddressProperty(patient.getPerson().getPersonAddress(), COUNTRY);
+    String country = null == personAddress ? null : personAddress.getCountry();
 
     if (null != country) {
-      final JsonNode countryJsonNode = getPersonAddressConfiguration(country);
+      List<AddressExtractor.AddressField> fields = addressExtractor.getFields(country);
 
-      if (countryJsonNode == null) {
+      if (fields == null) {
         LOGGER.error("Missing Address Configuration for country: {}", country);
       } else {
-        Iterator<JsonNode> iter = countryJsonNode.getElements();
-
-        while (iter.hasNext()) {
-          String fieldName = iter.next().get(FIELD).asText();
-          String value = util.getPersonAddressProperty(patient.getPerson().getPersonAddress(), fieldName);
-          addressMap.put(SecurityUtil.sanitizeOutput(fieldName), SecurityUtil.sanitizeOutput(value));
+        for (AddressExtractor.AddressField field : fields) {
+          addressMap.put(SecurityUtil.sanitizeOutput(field.getName()),
+              SecurityUtil.sanitizeOutput(field.getValue(personAddress)));
         }
-        addressMap.put(COUNTRY, SecurityUtil.sanitizeOutput(patient.getPerson().getPersonAddress().getCountry()));
+        addressMap.put(COUNTRY, SecurityUtil.sanitizeOutput(country));
       }
     }
     return addressMap;
   }
-
-  private JsonNode getPersonAddressConfiguration(String country) throws EntityNotFoundException, IOException {
-    return util.toJsonNode(configService.retrieveConfig(BiometricApiConstants.MAIN_CONFIG)).get(ADDRESS_FIELDS).get(country);
-  }
 }
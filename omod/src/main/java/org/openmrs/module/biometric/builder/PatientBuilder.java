@@ -13,10 +13,14 @@ package org.openmrs.module.biometric.builder;
 import static org.openmrs.module.biometric.constants.BiometricModConstants.OPEN_MRS_ID;
 
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import org.openmrs.Location;
 import org.openmrs.Patient;
 import org.openmrs.PatientIdentifier;
 import org.openmrs.PatientIdentifierType;
@@ -64,6 +68,19 @@ public class PatientBuilder {
    */
   public Patient createFrom(RegisterRequest request)
       throws EntityNotFoundException, ParseException {
+    return createFrom(request, new Lookups());
+  }
+
+  /**
+   * Creates Patient entity from @code {RegistrationRequest}, reusing the identifier type,
+   * attribute types and locations already resolved for the other requests of a batch.
+   *
+   * @param request Registration request
+   * @param lookups the lookups of the batch
+   * @return Patient @see org.openmrs.Patient
+   */
+  public Patient createFrom(RegisterRequest request, Lookups lookups)
+      throws EntityNotFoundException, ParseException {
     Patient patient = new Patient();
     patient.setUuid(request.getParticipantUuid());
     patient.setDateCreated(util.convertIsoStringToDate(request.getRegistrationDate()));
@@ -72,8 +89,10 @@ public class PatientBuilder {
     patient.setPersonDateChanged(new Date());
     patient.setGender(request.getGender());
     patient.setBirthdate(util.convertIsoStringToDate(request.getBirthdate()));
-    PatientIdentifierType patientIdentifierType = patientService
-        .getPatientIdentifierTypeByName(OPEN_MRS_ID);
+    if (null == lookups.identifierType) {
+      lookups.identifierType = patientService.getPatientIdentifierTypeByName(OPEN_MRS_ID);
+    }
+    PatientIdentifierType patientIdentifierType = lookups.identifierType;
     PatientIdentifier patientIdentifier = new PatientIdentifier();
 
     patientIdentifier.setIdentifierType(patientIdentifierType);
@@ -83,18 +102,19 @@ public class PatientBuilder {
     patientIdentifier.setPreferred(Boolean.TRUE);
 
     String locationUuid = locationUtil.getLocationUuid(request.getAttributes());
-    patientIdentifier.setLocation(locationUtil.getLocationByUuid(locationUuid));
+    patientIdentifier.setLocation(lookups.locations
+        .computeIfAbsent(locationUuid, uuid -> locationUtil.getLocationByUuid(uuid)));
     patient.addIdentifier(patientIdentifier);
 
     // store first sync date of a participant. actual registration date will be stored in dateCreated field
-    List<AttributeData> attributes = request.getAttributes();
+    List<AttributeData> attributes = new ArrayList<>(request.getAttributes());
     attributes.add(util.createAttribute(FIRST_SYNC_DATE, util.dateToISO8601(new Date())));
 
     for (AttributeData attr : attributes) {
       PersonAttribute attribute = new PersonAttribute();
       attribute.setValue(attr.getValue());
-      PersonAttributeType personAttributeType = personService
-          .getPersonAttributeTypeByName(attr.getType());
+      PersonAttributeType personAttributeType = lookups.attributeTypes.computeIfAbsent(
+          attr.getType(), type -> personService.getPersonAttributeTypeByName(type));
       if (null == personAttributeType) {
         throw new EntityNotFoundException(
             String.format("Attribute type : %s does not exists", attr.getType()));
@@ -122,4 +142,15 @@ public class PatientBuilder {
     patient.addName(personName);
     return patient;
   }
+
+  /**
+   * The identifier type, attribute types and locations resolved while creating the patients of
+   * a registration batch.
+   */
+  public static final class Lookups {
+
+    private PatientIdentifierType identifierType;
+    private final Map<String, PersonAttributeType> attributeTypes = new HashMap<>();
+    private final Map<String, Location> locations = new HashMap<>();
+  }
 }
@@ -0,0 +1,121 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.builder;
+
+import java.io.IOException;
+import org.codehaus.jackson.JsonGenerator;
+import org.openmrs.module.biometric.contract.sync.SyncRequest;
+import org.openmrs.module.biometric.contract.sync.SyncStatus;
+
+/**
+ * Writes a sync page with the fields of a {@link
+ * org.openmrs.module.biometric.contract.sync.SyncResponse}, streaming the records as they are read
+ * instead of holding the page in memory. The records are written before the counts and the sync
+ * status. Nothing is written before the first record or the end of the page, so that a page which
+ * fails before can still be reported as an error.
+ */
+public class SyncPageWriter {
+
+  private final JsonGenerator generator;
+  private final String fieldName;
+  private final SyncRequest request;
+  private boolean started;
+  private int written;
+
+  /**
+   * Constructor.
+   *
+   * @param generator the generator of the response
+   * @param fieldName the field of the page in the enclosing object, null for a top level page
+   * @param request the request of the page
+   */
+  public SyncPageWriter(JsonGenerator generator, String fieldName, SyncRequest request) {
+    this.generator = generator;
+    this.fieldName = fieldName;
+    this.request = request;
+  }
+
+  /**
+   * Writes a record of the page.
+   *
+   * @param record the record
+   * @throws IOException if the record cannot be written
+   */
+  public void write(Object record) throws IOException {
+    start();
+    generator.writeObject(record);
+    written++;
+  }
+
+  /**
+   * Completes the page with its counts.
+   *
+   * @param tableCount the total count
+   * @param ignoredCount the ignored count, null when the request is not optimized
+   * @param voidedCount the deactivated count
+   * @throws IOException if the page cannot be written
+   */
+  public void end(Long tableCount, Long ignoredCount, Long voidedCount) throws IOException {
+    start();
+    generator.writeEndArray();
+    generator.writeObjectField("syncStatus", written > 0 ? SyncStatus.OUT_OF_SYNC : SyncStatus.OK);
+    generator.writeObjectField("tableCount", tableCount);
+    if (null != ignoredCount) {
+      generator.writeNumberField("ignoredCount", ignoredCount);
+    }
+    generator.writeObjectField("voidedTableCount", voidedCount);
+    if (null != request.getSyncSessionId()) {
+      generator.writeStringField("syncSessionId", request.getSyncSessionId());
+    }
+    generator.writeEndObject();
+  }
+
+  /**
+   * Closes a page which failed after records were written, without its counts.
+   *
+   * @throws IOException if the page cannot be written
+   */
+  public void abort() throws IOException {
+    if (started) {
+      generator.writeEndArray();
+      generator.writeEndObject();
+    }
+  }
+
+  /**
+   * Tells whether a part of the page has been written.
+   *
+   * @return true once the first record or the end of the page is written
+   */
+  public boolean isStarted() {
+    return started;
+  }
+
+  private void start() throws IOException {
+    if (started) {
+      return;
+    }
+    started = true;
+    if (null != fieldName) {
+      generator.writeFieldName(fieldName);
+    }
+    generator.writeStartObject();
+    generator.writeObjectField("dateModifiedOffset", request.getDateModifiedOffset());
+    generator.writeObjectField("syncScope", request.getSyncScope());
+    if (null != request.getOptimize()) {
+      generator.writeBooleanField("optimize", request.getOptimize());
+    }
+    generator.writeObjectField("uuidsWithDateModifiedOffset",
+        request.getUuidsWithDateModifiedOffset());
+    generator.writeNumberField("limit", request.getLimit());
+    generator.writeArrayFieldStart("records");
+  }
+}
@@ -53,6 +53,7 @@ public class SyncResponseBuilder {
     syncResponse.setIgnoredCount(ignoredCount);
     syncResponse.setVoidedTableCount(voidedCount);
     syncResponse.setRecords(records);
+    syncResponse.setSyncSessionId(syncRequest.getSyncSessionId());
     return syncResponse;
   }
 }
@@ -13,24 +13,25 @@ package org.openmrs.module.biometric.builder;
 import static org.openmrs.module.biometric.api.constants.BiometricApiConstants.SYNC_DELETE;
 import static org.openmrs.module.biometric.api.constants.BiometricApiConstants.SYNC_UPDATE;
 
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Date;
 import java.util.List;
-import java.util.Set;
-import org.openmrs.Encounter;
-import org.openmrs.Obs;
+import java.util.Map;
 import org.openmrs.Visit;
-import org.openmrs.VisitAttribute;
 import org.openmrs.module.biometric.api.constants.BiometricApiConstants;
 import org.openmrs.module.biometric.api.model.AttributeData;
+import org.openmrs.module.biometric.api.model.ObservationData;
+import org.openmrs.module.biometric.api.model.VisitSyncData;
+import org.openmrs.module.biometric.api.service.SyncService;
 import org.openmrs.module.biometric.contract.NewVisitResponse;
 import org.openmrs.module.biometric.contract.Observation;
 import org.openmrs.module.biometric.contract.VisitResponse;
-import org.openmrs.module.biometric.util.BiometricModUtil;
 import org.openmrs.module.biometric.util.SanitizeUtil;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
 /**
@@ -39,10 +40,12 @@ import org.springframework.stereotype.Component;
 @Component
 public class VisitResponseBuilder {
 
-  private static final String RFC_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSSZ";
+  private static final DateTimeFormatter RFC_FORMATTER =
+      DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
 
   @Autowired
-  private BiometricModUtil util;
+  @Qualifier("biometric.syncService")
+  private SyncService syncService;
 
   /**
    * To create a visit response object from Visit entity.
@@ -62,8 +65,8 @@ public class VisitResponseBuilder {
    */
   public List<VisitResponse> createFrom(List<Visit> visits) {
     List<VisitResponse> responses = new ArrayList<>(BiometricApiConstants.INITIAL_SIZE);
-    List<Visit> modifiedVisits = util.getOldestEncounterInVisit(visits);
-    for (Visit visit : modifiedVisits) {
+    Map<Integer, VisitSyncData> syncData = syncService.getVisitSyncData(visits);
+    for (Visit visit : visits) {
       VisitResponse visitResponse = new VisitResponse();
       visitResponse.setVisitUuid(SanitizeUtil.sanitizeOutput(visit.getUuid()));
       visitResponse.setParticipantUuid(SanitizeUtil.sanitizeOutput(visit.getPatient().getUuid()));
@@ -82,44 +85,47 @@ public class VisitResponseBuilder {
 
       if (!Boolean.TRUE.equals(visit.getVoided())) {
         visitResponse.setLocationUuid(SanitizeUtil.sanitizeOutput(visit.getLocation().getUuid()));
-        visitResponse
-            .setStartDatetime(new SimpleDateFormat(RFC_FORMAT).format(visit.getStartDatetime()));
+        visitResponse.setStartDatetime(format(visit.getStartDatetime()));
         visitResponse.setVisitType(SanitizeUtil.sanitizeOutput(visit.getVisitType().getName()));
-        visitResponse.setAttributes(getAttributes(visit));
-        visitResponse.setObservations(getObservations(visit));
+        VisitSyncData visitData = syncData.get(visit.getVisitId());
+        visitResponse.setAttributes(getAttributes(visitData));
+        visitResponse.setObservations(getObservations(visitData));
       }
       responses.add(visitResponse);
     }
     return responses;
   }
 
-  private List<AttributeData> getAttributes(Visit visit) {
-    Collection<VisitAttribute> attributes = visit.getActiveAttributes();
-    List<AttributeData> attributeList = new ArrayList<>(7);
-    for (VisitAttribute visitAttribute : attributes) {
+  private List<AttributeData> getAttributes(VisitSyncData visitData) {
+    List<AttributeData> attributeList = new ArrayList<>(visitData.getAttributes().size());
+    for (AttributeData visitAttribute : visitData.getAttributes()) {
       AttributeData attribute = new AttributeData();
-      attribute
-          .setType(SanitizeUtil.sanitizeOutput(visitAttribute.getAttributeType().getName()));
-      attribute.setValue(SanitizeUtil.sanitizeOutput(visitAttribute.getValueReference()));
+      attribute.setType(SanitizeUtil.sanitizeOutput(visitAttribute.getType()));
+      attribute.setValue(SanitizeUtil.sanitizeOutput(visitAttribute.getValue()));
       attributeList.add(attribute);
     }
     return attributeList;
   }
 
-  private List<Observation> getObservations(Visit visit) {
-    List<Observation> observations = new ArrayList<>();
-    List<Encounter> encounters = visit.getNonVoidedEncounters();
-    for (Encounter encounter : encounters) {
-      Set<Obs> obsSet = encounter.getAllObs(false);
-      for (Obs obs : obsSet) {
-        Observation observation = new Observation();
-        observation.setDatetime(
-            new SimpleDateFormat(RFC_FORMAT).format(encounter.getEncounterDatetime()));
-        observation.setName(SanitizeUtil.sanitizeOutput(obs.getConcept().getName().getName()));
-        observation.setValue(SanitizeUtil.sanitizeOutput(obs.getValueText()));
-        observations.add(observation);
-      }
+  private List<Observation> getObservations(VisitSyncData visitData) {
+    List<Observation> observations = new ArrayList<>(visitData.getObservations().size());
+    if (visitData.getObservations().isEmpty()) {
+      return observations;
+    }
+    String datetime = format(visitData.getEncounterDatetime());
+    for (ObservationData obs : visitData.getObservations()) {
+      Observation observation = new Observation();
+      observation.setDatetime(datetime);
+      observation.setName(SanitizeUtil.sanitizeOutput(obs.getName()));
+      observation.setValue(SanitizeUtil.sanitizeOutput(obs.getValue()));
+      observations.add(observation);
     }
     return observations;
   }
+
+  private static String format(Date date) {
+    // java.sql dates do not support toInstant()
+    return RFC_FORMATTER
+        .format(Instant.ofEpochMilli(date.getTime()).atZone(ZoneId.systemDefault()));
+  }
 }
@@ -0,0 +1,64 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.contract;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Outcome of the registration of one participant of a bulk registration.
+ */
+public class RegisterResult {
+
+  public static final String REGISTERED = "REGISTERED";
+  public static final String DUPLICATE = "DUPLICATE";
+  public static final String FAILED = "FAILED";
+
+  private String participantUuid;
+
+  private String status;
+
+  private boolean irisRegistered;
+
+  private String error;
+
+  public String getParticipantUuid() {
+    return participantUuid;
+  }
+
+  public void setParticipantUuid(String participantUuid) {
+    this.participantUuid = participantUuid;
+  }
+
+  public String getStatus() {
+    return status;
+  }
+
+  public void setStatus(String status) {
+    this.status = status;
+  }
+
+  @JsonProperty("isIrisRegistered")
+  public boolean isIrisRegistered() {
+    return irisRegistered;
+  }
+
+  public void setIrisRegistered(boolean irisRegistered) {
+    this.irisRegistered = irisRegistered;
+  }
+
+  public String getError() {
+    return error;
+  }
+
+  public void setError(String error) {
+    this.error = error;
+  }
+}
@@ -0,0 +1,50 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.contract.sync;
+
+import java.util.Map;
+import org.openmrs.module.biometric.util.SanitizeUtil;
+
+/**
+ * ReconcileRequest class, the digests of the records held by a device for a sync scope.
+ */
+public class ReconcileRequest extends SyncRequest {
+
+  private String entity;
+
+  private int bucketCount;
+
+  private Map<Integer, String> digests;
+
+  public String getEntity() {
+    return entity;
+  }
+
+  public void setEntity(String entity) {
+    this.entity = SanitizeUtil.sanitizeInputString(entity);
+  }
+
+  public int getBucketCount() {
+    return bucketCount;
+  }
+
+  public void setBucketCount(int bucketCount) {
+    this.bucketCount = bucketCount;
+  }
+
+  public Map<Integer, String> getDigests() {
+    return digests;
+  }
+
+  public void setDigests(Map<Integer, String> digests) {
+    this.digests = digests;
+  }
+}
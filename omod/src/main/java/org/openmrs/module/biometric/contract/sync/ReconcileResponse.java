@@ -0,0 +1,49 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.contract.sync;
+
+import java.util.Map;
+
+/**
+ * ReconcileResponse class, the records of the buckets whose digest differs from the device.
+ */
+public class ReconcileResponse {
+
+  private String entity;
+
+  private int bucketCount;
+
+  private Map<Integer, Map<String, Long>> buckets;
+
+  public String getEntity() {
+    return entity;
+  }
+
+  public void setEntity(String entity) {
+    this.entity = entity;
+  }
+
+  public int getBucketCount() {
+    return bucketCount;
+  }
+
+  public void setBucketCount(int bucketCount) {
+    this.bucketCount = bucketCount;
+  }
+
+  public Map<Integer, Map<String, Long>> getBuckets() {
+    return buckets;
+  }
+
+  public void setBuckets(Map<Integer, Map<String, Long>> buckets) {
+    this.buckets = buckets;
+  }
+}
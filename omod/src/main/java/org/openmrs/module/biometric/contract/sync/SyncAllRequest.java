@@ -0,0 +1,44 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.contract.sync;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.openmrs.module.biometric.util.SanitizeUtil;
+
+/**
+ * SyncAllRequest class, the sync scope shared by the record types synced in one request and the
+ * position and limit of the page requested for each record type.
+ */
+public class SyncAllRequest extends SyncRequest {
+
+  private Map<String, SyncRequest> entities;
+
+  public Map<String, SyncRequest> getEntities() {
+    return entities;
+  }
+
+  /**
+   * Sets the pages requested.
+   *
+   * @param entities the page requests by record type
+   */
+  public void setEntities(Map<String, SyncRequest> entities) {
+    if (null == entities) {
+      this.entities = null;
+      return;
+    }
+    this.entities = new LinkedHashMap<>(entities.size());
+    for (Map.Entry<String, SyncRequest> entry : entities.entrySet()) {
+      this.entities.put(SanitizeUtil.sanitizeInputString(entry.getKey()), entry.getValue());
+    }
+  }
+}
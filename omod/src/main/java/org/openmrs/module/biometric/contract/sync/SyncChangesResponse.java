@@ -0,0 +1,39 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.contract.sync;
+
+import java.util.Set;
+
+/**
+ * SyncChangesResponse class, the record types changed in the sync scope of a device.
+ */
+public class SyncChangesResponse {
+
+  private String cursor;
+
+  private Set<String> changes;
+
+  public String getCursor() {
+    return cursor;
+  }
+
+  public void setCursor(String cursor) {
+    this.cursor = cursor;
+  }
+
+  public Set<String> getChanges() {
+    return changes;
+  }
+
+  public void setChanges(Set<String> changes) {
+    this.changes = changes;
+  }
+}
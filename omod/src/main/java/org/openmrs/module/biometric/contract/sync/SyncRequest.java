@@ -10,6 +10,8 @@
 
 package org.openmrs.module.biometric.contract.sync;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 import org.codehaus.jackson.annotate.JsonIgnoreProperties;
 import org.openmrs.module.biometric.util.SanitizeUtil;
@@ -32,6 +34,12 @@ public class SyncRequest {
 
   private Boolean optimize;
 
+  private String syncSessionId;
+
+  private String imageVariant;
+
+  private Map<String, String> imageHashes;
+
   public Long getDateModifiedOffset() {
     return dateModifiedOffset;
   }
@@ -80,5 +88,41 @@ public class SyncRequest {
   public void setOptimize(Boolean optimize) {
     this.optimize = optimize;
   }
-}
 
+  public String getSyncSessionId() {
+    return syncSessionId;
+  }
+
+  public void setSyncSessionId(String syncSessionId) {
+    this.syncSessionId = SanitizeUtil.sanitizeInputString(syncSessionId);
+  }
+
+  public String getImageVariant() {
+    return imageVariant;
+  }
+
+  public void setImageVariant(String imageVariant) {
+    this.imageVariant = SanitizeUtil.sanitizeInputString(imageVariant);
+  }
+
+  public Map<String, String> getImageHashes() {
+    return imageHashes;
+  }
+
+  /**
+   * Sets the hashes of the images held by the device.
+   *
+   * @param imageHashes the image hashes by participant uuid
+   */
+  public void setImageHashes(Map<String, String> imageHashes) {
+    if (null == imageHashes) {
+      this.imageHashes = null;
+      return;
+    }
+    this.imageHashes = new HashMap<>(imageHashes.size());
+    for (Map.Entry<String, String> entry : imageHashes.entrySet()) {
+      this.imageHashes.put(SanitizeUtil.sanitizeInputString(entry.getKey()),
+          SanitizeUtil.sanitizeInputString(entry.getValue()));
+    }
+  }
+}
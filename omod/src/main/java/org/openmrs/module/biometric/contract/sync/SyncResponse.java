@@ -42,6 +42,9 @@ public class SyncResponse {
 
   private List<?> records;
 
+  @JsonSerialize(include = JsonSerialize.Inclusion.NON_NULL)
+  private String syncSessionId;
+
   public Long getDateModifiedOffset() {
     return dateModifiedOffset;
   }
@@ -122,4 +125,12 @@ public class SyncResponse {
   public void setRecords(List<?> records) {
     this.records = records;
   }
+
+  public String getSyncSessionId() {
+    return syncSessionId;
+  }
+
+  public void setSyncSessionId(String syncSessionId) {
+    this.syncSessionId = syncSessionId;
+  }
 }
@@ -0,0 +1,57 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is a
+ * trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.contract.sync;
+
+/**
+ * SyncSessionResponse class.
+ */
+public class SyncSessionResponse {
+
+  private String syncSessionId;
+
+  private SyncScope syncScope;
+
+  private Long highWaterMark;
+
+  private int timeout;
+
+  public String getSyncSessionId() {
+    return syncSessionId;
+  }
+
+  public void setSyncSessionId(String syncSessionId) {
+    this.syncSessionId = syncSessionId;
+  }
+
+  public SyncScope getSyncScope() {
+    return syncScope;
+  }
+
+  public void setSyncScope(SyncScope syncScope) {
+    this.syncScope = syncScope;
+  }
+
+  public Long getHighWaterMark() {
+    return highWaterMark;
+  }
+
+  public void setHighWaterMark(Long highWaterMark) {
+    this.highWaterMark = highWaterMark;
+  }
+
+  public int getTimeout() {
+    return timeout;
+  }
+
+  public void setTimeout(int timeout) {
+    this.timeout = timeout;
+  }
+}
@@ -0,0 +1,90 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.filter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Least recently used cache of compressed payloads, keyed by the content hash and the encoding.
+ * Used for the immutable payloads like configurations and the address hierarchy, which are served
+ * to every device and would otherwise be compressed again on every request.
+ */
+public class CompressedPayloadCache {
+
+  private final long maxBytes;
+  private final Map<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long size;
+
+  /**
+   * Constructor.
+   *
+   * @param maxBytes the maximum number of compressed bytes kept in the cache
+   */
+  public CompressedPayloadCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Returns the compressed payload, compressing and caching it on the first request.
+   *
+   * @param contentHash the hash of the uncompressed payload
+   * @param encoding gzip or deflate
+   * @param payload the uncompressed payload
+   * @return the compressed payload
+   */
+  public byte[] get(String contentHash, String encoding, byte[] payload) {
+    String key = contentHash + ':' + encoding;
+    synchronized (entries) {
+      byte[] cached = entries.get(key);
+      if (null != cached) {
+        return cached;
+      }
+    }
+    byte[] compressed = compress(payload, encoding);
+    synchronized (entries) {
+      if (!entries.containsKey(key) && compressed.length <= maxBytes) {
+        entries.put(key, compressed);
+        size += compressed.length;
+        Iterator<byte[]> iterator = entries.values().iterator();
+        while (size > maxBytes && iterator.hasNext()) {
+          size -= iterator.next().length;
+          iterator.remove();
+        }
+      }
+    }
+    return compressed;
+  }
+
+  /**
+   * Compresses the payload with the given encoding.
+   *
+   * @param payload the uncompressed payload
+   * @param encoding gzip or deflate
+   * @return the compressed payload
+   */
+  static byte[] compress(byte[] payload, String encoding) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(32, payload.length / 4));
+    try (DeflaterOutputStream compressor = CompressionResponseWrapper.GZIP.equals(encoding)
+        ? new GZIPOutputStream(out) : new DeflaterOutputStream(out)) {
+      compressor.write(payload);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return out.toByteArray();
+  }
+}
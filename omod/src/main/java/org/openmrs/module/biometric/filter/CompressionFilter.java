@@ -0,0 +1,179 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.filter;
+
+import static org.openmrs.module.biometric.filter.CompressionResponseWrapper.ACCEPT_ENCODING;
+import static org.openmrs.module.biometric.filter.CompressionResponseWrapper.CONTENT_ENCODING;
+import static org.openmrs.module.biometric.filter.CompressionResponseWrapper.CONTENT_LENGTH;
+import static org.openmrs.module.biometric.filter.CompressionResponseWrapper.DEFLATE;
+import static org.openmrs.module.biometric.filter.CompressionResponseWrapper.GZIP;
+import static org.openmrs.module.biometric.filter.CompressionResponseWrapper.VARY;
+
+import java.io.IOException;
+import java.util.Locale;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Filter which compresses the responses of the biometric endpoints with gzip or deflate, depending
+ * on the Accept-Encoding header of the request. The configuration and address hierarchy payloads
+ * are the same for all the devices, their compressed bytes are cached by content hash and returned
+ * with an ETag so that unchanged payloads are not sent again.
+ */
+public class CompressionFilter implements Filter {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(CompressionFilter.class);
+  private static final String BASE_PATH = "/rest/v1/biometric";
+  private static final String[] CACHEABLE_PATHS = {"/addresshierarchy", "/config/"};
+  private static final String GET = "GET";
+  private static final String ETAG = "ETag";
+  private static final String IF_NONE_MATCH = "If-None-Match";
+  private static final String QUALITY = "q=";
+  private static final long CACHE_SIZE = 16L * 1024 * 1024;
+
+  private final CompressedPayloadCache cache = new CompressedPayloadCache(CACHE_SIZE);
+
+  /**
+   * @see javax.servlet.Filter#init(javax.servlet.FilterConfig)
+   */
+  @Override
+  public void init(FilterConfig filterConfig) throws ServletException {
+    LOGGER.info("Initializing Biometric Compression filter");
+  }
+
+  /**
+   * @see javax.servlet.Filter#destroy()
+   */
+  @Override
+  public void destroy() {
+    LOGGER.debug("Destroying Biometric Compression filter");
+  }
+
+  /**
+   * @see javax.servlet.Filter#doFilter(javax.servlet.ServletRequest, javax.servlet.ServletResponse,
+   * javax.servlet.FilterChain)
+   */
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+      throws IOException, ServletException {
+    if (!(request instanceof HttpServletRequest) || !(response instanceof HttpServletResponse)) {
+      chain.doFilter(request, response);
+      return;
+    }
+    HttpServletRequest httpRequest = (HttpServletRequest) request;
+    HttpServletResponse httpResponse = (HttpServletResponse) response;
+    String encoding = negotiateEncoding(httpRequest.getHeader(ACCEPT_ENCODING));
+    if (null == encoding) {
+      chain.doFilter(request, response);
+      return;
+    }
+
+    boolean cacheable = isCacheable(httpRequest);
+    CompressionResponseWrapper wrapper =
+        new CompressionResponseWrapper(httpResponse, encoding, cacheable);
+    chain.doFilter(request, wrapper);
+    wrapper.finish();
+    if (cacheable) {
+      writeCacheable(httpRequest, httpResponse, wrapper, encoding);
+    }
+  }
+
+  /**
+   * Picks the preferred encoding supported by the client, gzip is preferred over deflate.
+   *
+   * @param acceptEncoding the Accept-Encoding header
+   * @return gzip, deflate or null if the client does not accept any of them
+   */
+  static String negotiateEncoding(String acceptEncoding) {
+    if (StringUtils.isBlank(acceptEncoding)) {
+      return null;
+    }
+    boolean deflate = false;
+    for (String token : acceptEncoding.toLowerCase(Locale.ENGLISH).split(",")) {
+      String[] parts = token.trim().split(";");
+      if (isAccepted(parts)) {
+        String coding = parts[0].trim();
+        if (GZIP.equals(coding) || "x-gzip".equals(coding) || "*".equals(coding)) {
+          return GZIP;
+        }
+        deflate = deflate || DEFLATE.equals(coding);
+      }
+    }
+    return deflate ? DEFLATE : null;
+  }
+
+  private static boolean isAccepted(String[] parts) {
+    for (int i = 1; i < parts.length; i++) {
+      String parameter = parts[i].trim();
+      if (parameter.startsWith(QUALITY)) {
+        try {
+          return Double.parseDouble(parameter.substring(QUALITY.length())) > 0;
+        } catch (NumberFormatException e) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private boolean isCacheable(HttpServletRequest request) {
+    if (!GET.equalsIgnoreCase(request.getMethod())) {
+      return false;
+    }
+    String path = request.getRequestURI();
+    int index = null == path ? -1 : path.indexOf(BASE_PATH);
+    if (index < 0) {
+      return false;
+    }
+    String endpoint = path.substring(index + BASE_PATH.length());
+    for (String cacheablePath : CACHEABLE_PATHS) {
+      if (endpoint.startsWith(cacheablePath)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void writeCacheable(HttpServletRequest request, HttpServletResponse response,
+      CompressionResponseWrapper wrapper, String encoding) throws IOException {
+    byte[] body = wrapper.getBufferedBody();
+    if (!wrapper.isCompressible(body.length)) {
+      if (!response.isCommitted()) {
+        response.setHeader(CONTENT_LENGTH, String.valueOf(body.length));
+      }
+      response.getOutputStream().write(body);
+      return;
+    }
+
+    String contentHash = DigestUtils.sha256Hex(body);
+    String etag = "\"" + contentHash + '-' + encoding + "\"";
+    response.setHeader(ETAG, etag);
+    response.addHeader(VARY, ACCEPT_ENCODING);
+    if (etag.equals(request.getHeader(IF_NONE_MATCH))) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+    byte[] compressed = cache.get(contentHash, encoding, body);
+    response.setHeader(CONTENT_ENCODING, encoding);
+    response.setHeader(CONTENT_LENGTH, String.valueOf(compressed.length));
+    response.getOutputStream().write(compressed);
+  }
+}
@@ -0,0 +1,292 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.filter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Response wrapper which compresses the body with the negotiated content encoding. The decision to
+ * compress is taken when the first byte is written, so that the status, content type and headers
+ * set by the controller can be taken into account. Responses which are already encoded, partial or
+ * too small are sent as they are. In buffered mode the body is kept in memory so that the filter
+ * can serve it from the compressed payload cache.
+ */
+public class CompressionResponseWrapper extends HttpServletResponseWrapper {
+
+  static final String GZIP = "gzip";
+  static final String DEFLATE = "deflate";
+  static final String CONTENT_ENCODING = "Content-Encoding";
+  static final String CONTENT_LENGTH = "Content-Length";
+  static final String VARY = "Vary";
+  static final String ACCEPT_ENCODING = "Accept-Encoding";
+  private static final int MIN_COMPRESSION_SIZE = 512;
+  private static final String[] COMPRESSED_CONTENT_TYPES =
+      {"application/gzip", "application/x-gzip", "application/zip", "image/", "video/", "audio/"};
+
+  private final String encoding;
+  private final boolean buffered;
+  private long contentLength = -1;
+  private boolean encodedByHandler;
+  private CompressionOutputStream stream;
+  private PrintWriter writer;
+
+  /**
+   * Constructor.
+   *
+   * @param response the wrapped response
+   * @param encoding the content encoding negotiated with the client, gzip or deflate
+   * @param buffered true to keep the body in memory instead of streaming it
+   */
+  public CompressionResponseWrapper(HttpServletResponse response, String encoding,
+      boolean buffered) {
+    super(response);
+    this.encoding = encoding;
+    this.buffered = buffered;
+  }
+
+  @Override
+  public void setContentLength(int len) {
+    contentLength = len;
+  }
+
+  /**
+   * Servlet 3.1 variant of {@link #setContentLength(int)}.
+   *
+   * @param len the content length
+   */
+  public void setContentLengthLong(long len) {
+    contentLength = len;
+  }
+
+  @Override
+  public void setHeader(String name, String value) {
+    if (!interceptHeader(name, value)) {
+      super.setHeader(name, value);
+    }
+  }
+
+  @Override
+  public void addHeader(String name, String value) {
+    if (!interceptHeader(name, value)) {
+      super.addHeader(name, value);
+    }
+  }
+
+  @Override
+  public void setIntHeader(String name, int value) {
+    if (!interceptHeader(name, String.valueOf(value))) {
+      super.setIntHeader(name, value);
+    }
+  }
+
+  @Override
+  public void addIntHeader(String name, int value) {
+    if (!interceptHeader(name, String.valueOf(value))) {
+      super.addIntHeader(name, value);
+    }
+  }
+
+  @Override
+  public ServletOutputStream getOutputStream() throws IOException {
+    if (null != writer) {
+      throw new IllegalStateException("getWriter() has already been called on this response");
+    }
+    return getStream();
+  }
+
+  @Override
+  public PrintWriter getWriter() throws IOException {
+    if (null == writer) {
+      if (null != stream) {
+        throw new IllegalStateException(
+            "getOutputStream() has already been called on this response");
+      }
+      writer = new PrintWriter(new OutputStreamWriter(getStream(), getCharacterEncoding()));
+    }
+    return writer;
+  }
+
+  @Override
+  public void flushBuffer() throws IOException {
+    if (null != writer) {
+      writer.flush();
+    } else if (null != stream) {
+      stream.flush();
+    } else {
+      // the headers get committed, the body can no longer be encoded
+      encodedByHandler = true;
+      super.flushBuffer();
+    }
+  }
+
+  @Override
+  public void resetBuffer() {
+    super.resetBuffer();
+    if (null != stream) {
+      stream.resetBuffer();
+    }
+  }
+
+  /**
+   * Completes the response, writing the trailer of the compressed stream.
+   *
+   * @throws IOException if the response cannot be written
+   */
+  public void finish() throws IOException {
+    if (null != writer) {
+      writer.flush();
+    }
+    if (null != stream) {
+      stream.finish();
+    } else if (!buffered && contentLength >= 0) {
+      super.setHeader(CONTENT_LENGTH, String.valueOf(contentLength));
+    }
+  }
+
+  /**
+   * Returns the body kept in buffered mode.
+   *
+   * @return the uncompressed body, empty when nothing was written
+   */
+  public byte[] getBufferedBody() {
+    return null == stream ? new byte[0] : stream.getBufferedBody();
+  }
+
+  /**
+   * Returns the content length set by the handler.
+   *
+   * @return the content length or -1 if the handler did not set it
+   */
+  public long getContentLength() {
+    return contentLength;
+  }
+
+  /**
+   * Checks if the response can be encoded, based on the status, headers and content type set by
+   * the handler.
+   *
+   * @param length the length of the body or -1 if not known yet
+   * @return true if the body should be compressed
+   */
+  public boolean isCompressible(long length) {
+    if (encodedByHandler || isCommitted() || getStatus() != HttpServletResponse.SC_OK) {
+      return false;
+    }
+    long knownLength = length >= 0 ? length : contentLength;
+    if (knownLength >= 0 && knownLength < MIN_COMPRESSION_SIZE) {
+      return false;
+    }
+    String contentType = getContentType();
+    if (null != contentType) {
+      for (String compressedType : COMPRESSED_CONTENT_TYPES) {
+        if (StringUtils.startsWithIgnoreCase(contentType, compressedType)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private boolean interceptHeader(String name, String value) {
+    if (CONTENT_LENGTH.equalsIgnoreCase(name)) {
+      contentLength = Long.parseLong(value.trim());
+      return true;
+    }
+    if (CONTENT_ENCODING.equalsIgnoreCase(name)) {
+      encodedByHandler = true;
+    }
+    return false;
+  }
+
+  private CompressionOutputStream getStream() {
+    if (null == stream) {
+      stream = new CompressionOutputStream();
+    }
+    return stream;
+  }
+
+  /**
+   * Output stream which decides on the first write whether the body gets compressed.
+   */
+  private final class CompressionOutputStream extends ServletOutputStream {
+
+    private ByteArrayOutputStream buffer;
+    private OutputStream target;
+
+    @Override
+    public void write(int b) throws IOException {
+      getTarget().write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      getTarget().write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      getTarget().flush();
+    }
+
+    void resetBuffer() {
+      if (null != buffer) {
+        buffer.reset();
+      }
+    }
+
+    void finish() throws IOException {
+      if (!buffered) {
+        OutputStream out = getTarget();
+        if (out instanceof DeflaterOutputStream) {
+          ((DeflaterOutputStream) out).finish();
+        }
+        out.flush();
+      }
+    }
+
+    byte[] getBufferedBody() {
+      return null == buffer ? new byte[0] : buffer.toByteArray();
+    }
+
+    private OutputStream getTarget() throws IOException {
+      if (null == target) {
+        if (buffered) {
+          buffer = new ByteArrayOutputStream();
+          target = buffer;
+        } else if (isCompressible(-1)) {
+          HttpServletResponse response = (HttpServletResponse) getResponse();
+          response.setHeader(CONTENT_ENCODING, encoding);
+          response.addHeader(VARY, ACCEPT_ENCODING);
+          target = GZIP.equals(encoding)
+              ? new GZIPOutputStream(response.getOutputStream(), true)
+              : new DeflaterOutputStream(response.getOutputStream(), true);
+        } else {
+          if (contentLength >= 0) {
+            CompressionResponseWrapper.super.setHeader(CONTENT_LENGTH,
+                String.valueOf(contentLength));
+          }
+          target = getResponse().getOutputStream();
+        }
+      }
+      return target;
+    }
+  }
+}
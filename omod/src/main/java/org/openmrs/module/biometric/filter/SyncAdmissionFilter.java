@@ -0,0 +1,435 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.filter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.lang3.StringUtils;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.openmrs.User;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.biometric.api.constants.BiometricApiConstants;
+import org.openmrs.module.biometric.constants.BiometricModConstants;
+import org.openmrs.module.biometric.error.ApiError;
+import org.openmrs.util.OpenmrsUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Filter which protects the server from bursts of sync requests, for example when many devices
+ * reconnect at the same time. Each device of an authenticated user gets a token bucket limiting
+ * its request rate, and each type of sync endpoint has a fair limit of concurrent requests, so that
+ * heavy image pulls cannot starve the participant and visit syncs. Requests which cannot be
+ * admitted get a 429 status with a Retry-After header. A sync all request takes as many permits of
+ * its lane as the costs of the record types it requests. The queue depths and counters are served
+ * to authenticated users on the /sync/admission endpoint.
+ */
+public class SyncAdmissionFilter implements Filter {
+
+  static final int SC_TOO_MANY_REQUESTS = 429;
+  static final String RETRY_AFTER = "Retry-After";
+  private static final Logger LOGGER = LoggerFactory.getLogger(SyncAdmissionFilter.class);
+  private static final String BASE_PATH = "/rest/v1/biometric";
+  private static final String METRICS_PATH = "/sync/admission";
+  private static final String SYNC_ALL_PATH = "/sync/getAll";
+  private static final String ENTITIES = "entities";
+  private static final String GET = "GET";
+  private static final String JSON_CONTENT_TYPE = "application/json";
+  private static final double DEFAULT_RATE = 2;
+  private static final int DEFAULT_BURST = 10;
+  private static final long DEFAULT_WAIT = 2000;
+  private static final int MAX_DEVICES = 10000;
+  private static final long PURGE_INTERVAL = TimeUnit.MINUTES.toNanos(1);
+  // weight of the latest request in the average time a request holds a permit
+  private static final double SERVICE_TIME_WEIGHT = 0.2;
+  // permits of the sync all lane taken per record type, images and templates have half the lanes
+  private static final Map<String, Integer> ENTITY_COSTS;
+
+  static {
+    Map<String, Integer> costs = new HashMap<>();
+    costs.put(BiometricApiConstants.SYNC_ENTITY_PARTICIPANTS, 1);
+    costs.put(BiometricApiConstants.SYNC_ENTITY_VISITS, 1);
+    costs.put(BiometricApiConstants.SYNC_ENTITY_IMAGES, 2);
+    costs.put(BiometricApiConstants.SYNC_ENTITY_TEMPLATES, 2);
+    ENTITY_COSTS = Collections.unmodifiableMap(costs);
+  }
+
+  private final ObjectMapper mapper = new ObjectMapper();
+  // in access order, the least recently used device is evicted when the map is full
+  private final Map<String, TokenBucket> buckets =
+      new LinkedHashMap<String, TokenBucket>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TokenBucket> eldest) {
+          return size() > MAX_DEVICES;
+        }
+      };
+  private final AtomicLong throttled = new AtomicLong();
+  private volatile Map<String, Lane> lanes;
+  private volatile double rate;
+  private volatile int burst;
+  private volatile long maxWait;
+  private volatile long lastPurge = System.nanoTime();
+
+  /**
+   * Constructor, the limits are read from the runtime properties when the filter is initialized.
+   */
+  public SyncAdmissionFilter() {
+    configure(new Properties());
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param properties the properties with the admission limits
+   */
+  SyncAdmissionFilter(Properties properties) {
+    configure(properties);
+  }
+
+  /**
+   * @see javax.servlet.Filter#init(javax.servlet.FilterConfig)
+   */
+  @Override
+  public void init(FilterConfig filterConfig) throws ServletException {
+    LOGGER.info("Initializing Biometric Sync Admission filter");
+    Properties properties =
+        OpenmrsUtil.getRuntimeProperties(BiometricApiConstants.APP_PROPERTIES_FILE);
+    if (null != properties) {
+      configure(properties);
+    }
+  }
+
+  /**
+   * @see javax.servlet.Filter#destroy()
+   */
+  @Override
+  public void destroy() {
+    LOGGER.debug("Destroying Biometric Sync Admission filter");
+    synchronized (buckets) {
+      buckets.clear();
+    }
+  }
+
+  /**
+   * @see javax.servlet.Filter#doFilter(javax.servlet.ServletRequest, javax.servlet.ServletResponse,
+   * javax.servlet.FilterChain)
+   */
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+      throws IOException, ServletException {
+    if (!(request instanceof HttpServletRequest) || !(response instanceof HttpServletResponse)) {
+      chain.doFilter(request, response);
+      return;
+    }
+    HttpServletRequest httpRequest = (HttpServletRequest) request;
+    HttpServletResponse httpResponse = (HttpServletResponse) response;
+    String endpoint = getEndpoint(httpRequest.getRequestURI());
+    if (METRICS_PATH.equals(endpoint) && GET.equalsIgnoreCase(httpRequest.getMethod())) {
+      // the authorization filter runs first and has already answered anonymous requests
+      if (!Context.isSessionOpen() || !Context.isAuthenticated()) {
+        if (!httpResponse.isCommitted()) {
+          httpResponse.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Not authenticated");
+        }
+        return;
+      }
+      writeJson(httpResponse, HttpServletResponse.SC_OK, getMetrics());
+      return;
+    }
+    Lane lane = null == endpoint ? null : lanes.get(endpoint);
+    if (null == lane) {
+      chain.doFilter(request, response);
+      return;
+    }
+
+    String key = getBucketKey(httpRequest);
+    long now = System.nanoTime();
+    TokenBucket bucket = getBucket(key, now);
+    long wait = bucket.tryConsume(now);
+    if (wait > 0) {
+      throttled.incrementAndGet();
+      LOGGER.debug("Sync request of the device {} throttled", key);
+      reject(httpResponse, toRetryAfterSeconds(wait), "Too many sync requests from the device");
+      return;
+    }
+
+    ServletRequest admitted = request;
+    int permits = 1;
+    if (SYNC_ALL_PATH.equals(endpoint)) {
+      CachedBodyRequestWrapper wrapper = new CachedBodyRequestWrapper(httpRequest);
+      admitted = wrapper;
+      permits = Math.min(lane.size, getCost(wrapper.getBody()));
+    }
+    boolean acquired;
+    lane.waiting.incrementAndGet();
+    try {
+      // the timed tryAcquire honours the fairness of the semaphore, requests are served in order
+      acquired = lane.permits.tryAcquire(permits, maxWait, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      acquired = false;
+    } finally {
+      lane.waiting.decrementAndGet();
+    }
+    if (!acquired) {
+      lane.rejected.incrementAndGet();
+      LOGGER.warn("Sync {} requests saturated, request of the device {} rejected", lane.name, key);
+      // the retry needs a free permit of the lane and a token of the device
+      long retryWait = Math.max(lane.getWait(maxWait), bucket.getWait(System.nanoTime()));
+      reject(httpResponse, toRetryAfterSeconds(retryWait),
+          "The server is busy, please retry later");
+      return;
+    }
+    long start = System.nanoTime();
+    try {
+      lane.admitted.incrementAndGet();
+      chain.doFilter(admitted, response);
+    } finally {
+      lane.permits.release(permits);
+      lane.recordServiceTime(System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Returns the queue depths and counters of the admission control.
+   *
+   * @return the metrics per endpoint type
+   */
+  Map<String, Object> getMetrics() {
+    Map<String, Object> metrics = new LinkedHashMap<>();
+    synchronized (buckets) {
+      metrics.put("devices", buckets.size());
+    }
+    metrics.put("throttled", throttled.get());
+    Map<String, Object> endpoints = new LinkedHashMap<>();
+    for (Lane lane : lanes.values()) {
+      if (!endpoints.containsKey(lane.name)) {
+        Map<String, Object> laneMetrics = new LinkedHashMap<>();
+        laneMetrics.put("limit", lane.size);
+        laneMetrics.put("active", lane.size - lane.permits.availablePermits());
+        laneMetrics.put("queued", lane.waiting.get());
+        laneMetrics.put("admitted", lane.admitted.get());
+        laneMetrics.put("rejected", lane.rejected.get());
+        endpoints.put(lane.name, laneMetrics);
+      }
+    }
+    metrics.put("endpoints", endpoints);
+    return metrics;
+  }
+
+  /**
+   * Returns the endpoint path after the base path of the module.
+   *
+   * @param uri the request uri
+   * @return the endpoint or null if the uri does not belong to the module
+   */
+  static String getEndpoint(String uri) {
+    int index = null == uri ? -1 : uri.indexOf(BASE_PATH);
+    if (index < 0) {
+      return null;
+    }
+    String endpoint = uri.substring(index + BASE_PATH.length());
+    return endpoint.endsWith("/") ? endpoint.substring(0, endpoint.length() - 1) : endpoint;
+  }
+
+  /**
+   * Returns the permits taken by a sync all request, the sum of the costs of the requested record
+   * types. Unknown record types are rejected by the endpoint and cost nothing.
+   *
+   * @param body the body of the sync all request
+   * @return the cost of the request, at least one
+   */
+  int getCost(byte[] body) {
+    int cost = 0;
+    try {
+      JsonNode root = body.length == 0 ? null : mapper.readTree(new ByteArrayInputStream(body));
+      JsonNode entities = null == root ? null : root.get(ENTITIES);
+      if (null != entities) {
+        Iterator<String> names = entities.getFieldNames();
+        while (names.hasNext()) {
+          Integer entityCost = ENTITY_COSTS.get(names.next());
+          cost += null == entityCost ? 0 : entityCost;
+        }
+      }
+    } catch (IOException e) {
+      LOGGER.debug("Invalid sync all request : {}", e.getMessage());
+    }
+    return Math.max(1, cost);
+  }
+
+  /**
+   * Converts a wait time to the value of the Retry-After header.
+   *
+   * @param nanos the wait time in nanoseconds
+   * @return the wait time in whole seconds, at least one
+   */
+  static long toRetryAfterSeconds(long nanos) {
+    return Math.max(1, (nanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+  }
+
+  /**
+   * Returns the key of the token bucket of a request. The device id header is chosen by the
+   * client, it is only trusted to tell apart the devices of the authenticated user.
+   *
+   * @param request the sync request
+   * @return the authenticated user and the device, the remote address for anonymous requests
+   */
+  static String getBucketKey(HttpServletRequest request) {
+    User user = Context.isSessionOpen() ? Context.getAuthenticatedUser() : null;
+    String owner = null == user ? request.getRemoteAddr() : user.getUuid();
+    String deviceId = request.getHeader(BiometricModConstants.DEVICE_ID);
+    return StringUtils.isBlank(deviceId) ? owner : owner + "/" + deviceId;
+  }
+
+  private TokenBucket getBucket(String key, long now) {
+    synchronized (buckets) {
+      // the idle buckets are dropped once per interval, the size is bounded by the eviction
+      if (now - lastPurge > PURGE_INTERVAL) {
+        purge(now);
+      }
+      return buckets.computeIfAbsent(key, k -> new TokenBucket(burst, rate, now));
+    }
+  }
+
+  private void purge(long now) {
+    lastPurge = now;
+    // a full bucket is the same as a new one, only the devices which are still limited are kept
+    Iterator<TokenBucket> iterator = buckets.values().iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next().isFull(now)) {
+        iterator.remove();
+      }
+    }
+  }
+
+  private void reject(HttpServletResponse response, long retryAfter, String message)
+      throws IOException {
+    response.setHeader(RETRY_AFTER, String.valueOf(retryAfter));
+    writeJson(response, SC_TOO_MANY_REQUESTS, new ApiError(SC_TOO_MANY_REQUESTS, message));
+  }
+
+  private void writeJson(HttpServletResponse response, int status, Object body)
+      throws IOException {
+    byte[] bytes = mapper.writeValueAsBytes(body);
+    response.setStatus(status);
+    response.setContentType(JSON_CONTENT_TYPE);
+    response.setContentLength(bytes.length);
+    response.getOutputStream().write(bytes);
+  }
+
+  private void configure(Properties properties) {
+    rate = getDouble(properties, BiometricApiConstants.SYNC_ADMISSION_RATE, DEFAULT_RATE);
+    burst = (int) getDouble(properties, BiometricApiConstants.SYNC_ADMISSION_BURST, DEFAULT_BURST);
+    maxWait = (long) getDouble(properties, BiometricApiConstants.SYNC_ADMISSION_WAIT, DEFAULT_WAIT);
+    synchronized (buckets) {
+      buckets.clear();
+    }
+
+    Map<String, Lane> configured = new LinkedHashMap<>();
+    Lane participants = createLane(properties, BiometricApiConstants.SYNC_ENTITY_PARTICIPANTS, 8);
+    Lane visits = createLane(properties, BiometricApiConstants.SYNC_ENTITY_VISITS, 8);
+    Lane images = createLane(properties, BiometricApiConstants.SYNC_ENTITY_IMAGES, 4);
+    Lane templates = createLane(properties, BiometricApiConstants.SYNC_ENTITY_TEMPLATES, 4);
+    Lane bulk = createLane(properties, "bulk", 2);
+    // one sync all request of every record type takes six permits
+    Lane all = createLane(properties, "all", 12);
+    // a change request holds its permit while it waits, up to the timeout of the endpoint
+    Lane changes = createLane(properties, "changes",
+        BiometricApiConstants.DEFAULT_SYNC_CHANGES_MAX_WAITERS);
+    configured.put("/sync/getAllParticipants", participants);
+    configured.put("/sync/getAllVisits", visits);
+    configured.put("/sync/getAllParticipantImages", images);
+    configured.put("/sync/getAllParticipantBiometricsTemplates", templates);
+    configured.put(SYNC_ALL_PATH, all);
+    configured.put("/sync/bootstrap", bulk);
+    configured.put("/sync/reconcile", bulk);
+    configured.put("/sync/changes", changes);
+    lanes = configured;
+  }
+
+  private static Lane createLane(Properties properties, String name, int defaultSize) {
+    int size = (int) getDouble(properties,
+        BiometricApiConstants.SYNC_ADMISSION_CONCURRENCY + name, defaultSize);
+    return new Lane(name, size);
+  }
+
+  private static double getDouble(Properties properties, String name, double defaultValue) {
+    String value = properties.getProperty(name);
+    if (StringUtils.isBlank(value)) {
+      return defaultValue;
+    }
+    try {
+      double parsed = Double.parseDouble(value.trim());
+      if (parsed > 0) {
+        return parsed;
+      }
+    } catch (NumberFormatException e) {
+      LOGGER.warn("Invalid value {} of the property {}", value, name);
+    }
+    return defaultValue;
+  }
+
+  /**
+   * Concurrency limit shared by the endpoints of one type.
+   */
+  private static final class Lane {
+
+    private final String name;
+    private final int size;
+    private final Semaphore permits;
+    private final AtomicLong waiting = new AtomicLong();
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile long serviceNanos;
+
+    private Lane(String name, int size) {
+      this.name = name;
+      this.size = Math.max(1, size);
+      this.permits = new Semaphore(this.size, true);
+    }
+
+    private void recordServiceTime(long nanos) {
+      long average = serviceNanos;
+      serviceNanos = 0 == average ? nanos
+          : (long) (average + SERVICE_TIME_WEIGHT * (nanos - average));
+    }
+
+    /**
+     * Estimates the time until a permit is free for a new request. The permits are released at
+     * the rate of the lane size per average service time, the queued requests are served first.
+     *
+     * @param defaultMillis the service time used until a request of the lane has completed
+     * @return the estimated wait in nanoseconds
+     */
+    private long getWait(long defaultMillis) {
+      long average = 0 == serviceNanos ? TimeUnit.MILLISECONDS.toNanos(defaultMillis)
+          : serviceNanos;
+      return average * (waiting.get() / size + 1);
+    }
+  }
+}
@@ -0,0 +1,84 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.filter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting the request rate of a single device. The bucket holds up to the burst
+ * size of tokens and is refilled continuously at the configured rate, each request takes one
+ * token.
+ */
+public class TokenBucket {
+
+  private final double capacity;
+  private final double tokensPerNano;
+  private double tokens;
+  private long lastRefill;
+
+  /**
+   * Constructor, the bucket starts full.
+   *
+   * @param capacity the maximum number of tokens, the allowed burst of requests
+   * @param tokensPerSecond the refill rate
+   * @param now the current time in nanoseconds, see {@link System#nanoTime()}
+   */
+  public TokenBucket(double capacity, double tokensPerSecond, long now) {
+    this.capacity = capacity;
+    this.tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos(1);
+    this.tokens = capacity;
+    this.lastRefill = now;
+  }
+
+  /**
+   * Takes a token from the bucket.
+   *
+   * @param now the current time in nanoseconds
+   * @return 0 if a token was taken, otherwise the nanoseconds until the next token is available
+   */
+  public synchronized long tryConsume(long now) {
+    long wait = getWait(now);
+    if (wait == 0) {
+      tokens -= 1;
+    }
+    return wait;
+  }
+
+  /**
+   * Returns the time until a token is available, without taking it.
+   *
+   * @param now the current time in nanoseconds
+   * @return 0 if a token is available, otherwise the nanoseconds until the next token
+   */
+  public synchronized long getWait(long now) {
+    refill(now);
+    return tokens >= 1 ? 0 : Math.max(1L, (long) Math.ceil((1 - tokens) / tokensPerNano));
+  }
+
+  /**
+   * Checks if the bucket is full, a full bucket carries no state and can be dropped.
+   *
+   * @param now the current time in nanoseconds
+   * @return true if the bucket is full
+   */
+  public synchronized boolean isFull(long now) {
+    refill(now);
+    return tokens >= capacity;
+  }
+
+  private void refill(long now) {
+    long elapsed = now - lastRefill;
+    if (elapsed > 0) {
+      tokens = Math.min(capacity, tokens + elapsed * tokensPerNano);
+      lastRefill = now;
+    }
+  }
+}
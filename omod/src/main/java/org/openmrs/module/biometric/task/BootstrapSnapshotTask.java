@@ -0,0 +1,39 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.task;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.biometric.builder.BootstrapSnapshotBuilder;
+import org.openmrs.scheduler.tasks.AbstractTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Scheduler task which periodically rebuilds the bootstrap snapshots of all the sync scopes.
+ */
+public class BootstrapSnapshotTask extends AbstractTask {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(BootstrapSnapshotTask.class);
+
+  @Override
+  public void execute() {
+    if (isExecuting()) {
+      LOGGER.warn("Bootstrap snapshot task is already running");
+      return;
+    }
+    startExecuting();
+    try {
+      Context.getRegisteredComponents(BootstrapSnapshotBuilder.class).get(0).buildAll();
+    } finally {
+      stopExecuting();
+    }
+  }
+}
@@ -13,13 +13,10 @@ package org.openmrs.module.biometric.util;
 import static org.openmrs.module.biometric.constants.BiometricModConstants.ENABLE_BIOMETRIC;
 
 import java.io.IOException;
-import java.lang.reflect.Method;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 import java.util.Set;
@@ -32,18 +29,17 @@ import org.apache.commons.lang3.StringUtils;
 import org.codehaus.jackson.JsonNode;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.type.TypeReference;
-import org.openmrs.Encounter;
 import org.openmrs.Patient;
 import org.openmrs.PersonAddress;
 import org.openmrs.PersonAttribute;
 import org.openmrs.PersonAttributeType;
-import org.openmrs.Visit;
 import org.openmrs.api.APIException;
 import org.openmrs.api.PersonService;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.biometric.api.contract.PatientResponse;
 import org.openmrs.module.biometric.api.exception.EntityValidationException;
 import org.openmrs.module.biometric.api.model.AttributeData;
+import org.openmrs.module.biometric.api.util.AddressExtractor;
 import org.openmrs.module.biometric.contract.MatchResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -148,12 +144,8 @@ public class BiometricModUtil {
     }
 
     try {
-      Class<?> personAddressClass = Context.loadClass("org.openmrs.PersonAddress");
-      Method getPersonAddressProperty;
-      getPersonAddressProperty =
-          personAddressClass.getMethod("get" + property.substring(0, 1).toUpperCase() + property.substring(1));
-      return (String) getPersonAddressProperty.invoke(address);
-    } catch (Exception e) {
+      return AddressExtractor.getProperty(address, property);
+    } catch (IllegalArgumentException e) {
       throw new APIException("Invalid property name " + property + " passed to getPersonAddressProperty", e);
     }
   }
@@ -225,25 +217,6 @@ public class BiometricModUtil {
     return str.replaceAll(SPACE_CHARCTER, EMPTY_STRING);
   }
 
-  /**
-   * Get the oldest encounter for the given list of visits.
-   *
-   * @param visits list of visits
-   * @return oldest encounter
-   */
-  public List<Visit> getOldestEncounterInVisit(List<Visit> visits) {
-
-    for (Visit visit : visits) {
-      List<Encounter> encounterListForVisit = visit.getNonVoidedEncounters();
-      if (null != encounterListForVisit && !encounterListForVisit.isEmpty() && encounterListForVisit.size() > 1) {
-        encounterListForVisit.sort(Comparator.comparingLong(v -> v.getDateCreated().getTime()));
-        visit.setEncounters(Collections.emptySet());
-        visit.setEncounters(Collections.singleton(encounterListForVisit.get(0)));
-      }
-    }
-    return visits;
-  }
-
   /**
    * Check if a location exists with the specified location UUID.
    *
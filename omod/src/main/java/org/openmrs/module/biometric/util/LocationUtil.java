@@ -9,7 +9,6 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.openmrs.Location;
@@ -19,6 +18,7 @@ import org.openmrs.module.biometric.api.exception.EntityNotFoundException;
 import org.openmrs.module.biometric.api.exception.EntityValidationException;
 import org.openmrs.module.biometric.api.model.AttributeData;
 import org.openmrs.module.biometric.contract.sync.SyncRequest;
+import org.openmrs.module.biometric.contract.sync.SyncScope;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
@@ -26,8 +26,13 @@ import org.springframework.stereotype.Component;
 @Component
 public class LocationUtil {
 
+  /**
+   * Maximum number of records of a page of a sync all request.
+   */
+  public static final int MAX_SYNC_LIMIT = 1000;
   private static final Logger LOGGER = LoggerFactory.getLogger(LocationUtil.class);
   private static final String CLUSTER_ATTRIBUTE_TYPE = "cluster";
+  private static final String INVALID_COUNTRY = "Invalid request. Please verify the country";
 
   /**
    *
@@ -49,21 +54,81 @@ public class LocationUtil {
     return countryLocationMap.get(country.toLowerCase());
   }
 
+  /**
+   * Loads the location uuids of all the countries, keyed by the lower cased country name.
+   *
+   * @return the location uuids grouped by country
+   */
+  public Map<String, List<String>> findAllLocationsByCountry() {
+    return loadCountriesMap(Context.getLocationService().getRootLocations(false));
+  }
+
+  /**
+   * Loads the location uuids of all the clusters, keyed by the lower cased cluster name.
+   *
+   * @return the location uuids grouped by cluster
+   */
+  public Map<String, List<String>> findAllLocationsByCluster() {
+    return loadClusterMap(Context.getLocationService().getRootLocations(false));
+  }
+
+  /**
+   * Validates the page and the sync scope of a sync request.
+   *
+   * @param request the sync request
+   * @throws EntityValidationException if the page or the sync scope is not valid
+   */
   public void validateSyncLocationData(SyncRequest request) throws EntityValidationException {
-    String countryParam = request.getSyncScope().getCountry();
-    String clusterName = request.getSyncScope().getCluster();
-    String siteId = request.getSyncScope().getSiteUuid();
-    Set<String> uuidsWithDateModifiedOffset = request.getUuidsWithDateModifiedOffset();
+    validateSyncPage(request);
+    validateSyncScope(request.getSyncScope());
+  }
+
+  /**
+   * Validates the page of a sync request, the limit is required.
+   *
+   * @param request the sync request
+   * @throws EntityValidationException if the limit or the offset uuids are missing
+   */
+  public void validateSyncPage(SyncRequest request) throws EntityValidationException {
+    if (request.getLimit() <= 0 || null == request.getUuidsWithDateModifiedOffset()) {
+      throw new EntityValidationException("Invalid request. Please verify the limit");
+    }
+  }
+
+  /**
+   * Validates a page of a sync all request, limits above {@link #MAX_SYNC_LIMIT} are lowered to it.
+   * The single record type endpoints keep the limit of their request, their clients may take a
+   * shorter page for the end of the sync.
+   *
+   * @param request the sync request of a record type
+   * @throws EntityValidationException if the limit or the offset uuids are missing
+   */
+  public void validateSyncAllPage(SyncRequest request) throws EntityValidationException {
+    validateSyncPage(request);
+    if (request.getLimit() > MAX_SYNC_LIMIT) {
+      request.setLimit(MAX_SYNC_LIMIT);
+    }
+  }
+
+  /**
+   * Validates that the country of a sync scope exists and that its site or cluster belongs to it.
+   *
+   * @param scope the sync scope
+   * @throws EntityValidationException if the sync scope is not valid
+   */
+  public void validateSyncScope(SyncScope scope) throws EntityValidationException {
+    if (null == scope) {
+      throw new EntityValidationException(INVALID_COUNTRY);
+    }
+    String countryParam = scope.getCountry();
+    String clusterName = scope.getCluster();
+    String siteId = scope.getSiteUuid();
 
     Map<String, List<String>> countryLocationMap =
         loadCountriesMap(Context.getLocationService().getRootLocations(false));
 
-    boolean limitValidation = request.getLimit() <= 0 || null == uuidsWithDateModifiedOffset;
-    boolean isCountryValid =
-        null == countryParam || !countryLocationMap.containsKey(countryParam.toLowerCase());
-
-    if (limitValidation || isCountryValid) {
-      throw new EntityValidationException("Invalid request. Please verify the country");
+    if (null == countryParam || !countryLocationMap.containsKey(countryParam.toLowerCase())) {
+      throw new EntityValidationException(INVALID_COUNTRY);
     }
 
     // cluster validation
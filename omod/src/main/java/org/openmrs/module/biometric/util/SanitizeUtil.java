@@ -15,6 +15,7 @@ import org.apache.commons.text.StringEscapeUtils;
 import org.jsoup.Jsoup;
 import org.jsoup.parser.Parser;
 import org.jsoup.safety.Whitelist;
+import org.openmrs.module.biometric.api.util.SecurityUtil;
 
 import java.util.HashSet;
 import java.util.Set;
@@ -42,10 +43,21 @@ public final class SanitizeUtil {
         StringEscapeUtils.escapeEcmaScript(StringUtils.replace(str, SINGLE_QUOTE, DOUBLE_SINGLE_QUOTE))), Whitelist.basic());
   }
 
+  /**
+   * Sanitizes the output string to prevent XSS attacks, the entities escaped by the sanitizer are
+   * unescaped again. Plain text takes the fast path of {@link SecurityUtil#sanitizePlainText}.
+   *
+   * @param str string to be sanitized
+   * @return sanitized output of the given string
+   */
   public static String sanitizeOutput(String str) {
     if (null == str) {
       return null;
     }
+    String plainText = SecurityUtil.sanitizePlainText(str);
+    if (null != plainText) {
+      return plainText;
+    }
     return Parser.unescapeEntities(Jsoup.clean(StringEscapeUtils.escapeHtml4(StringEscapeUtils.unescapeEcmaScript(str)),
         Whitelist.basic()), false);
   }
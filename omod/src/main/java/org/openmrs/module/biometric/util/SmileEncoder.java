@@ -0,0 +1,127 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.util;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.List;
+import org.apache.commons.lang3.StringUtils;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.JsonSerializer;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.SerializerProvider;
+import org.codehaus.jackson.map.annotate.JsonSerialize;
+import org.codehaus.jackson.smile.SmileFactory;
+import org.codehaus.jackson.smile.SmileGenerator;
+import org.openmrs.module.biometric.api.contract.SyncImageResponse;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+/**
+ * Encodes sync responses in the Smile binary format. Field names and short repeated values, like
+ * attribute type names, are written once and back referenced afterwards. Biometric templates and
+ * images are written as raw binary instead of base64 text.
+ */
+@Component
+public class SmileEncoder {
+
+  public static final String SMILE_CONTENT_TYPE = "application/x-jackson-smile";
+  private static final MediaType SMILE = MediaType.valueOf(SMILE_CONTENT_TYPE);
+
+  private final ObjectMapper mapper;
+
+  /**
+   * Constructor.
+   */
+  public SmileEncoder() {
+    SmileFactory factory = new SmileFactory();
+    factory.configure(SmileGenerator.Feature.ENCODE_BINARY_AS_7BIT, false);
+    factory.configure(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES, true);
+    mapper = new ObjectMapper(factory);
+    mapper.getSerializationConfig()
+        .addMixInAnnotations(SyncImageResponse.class, ImageBinaryMixIn.class);
+  }
+
+  /**
+   * Encodes the value in the Smile format.
+   *
+   * @param value the value to be encoded
+   * @return the encoded bytes
+   * @throws IOException if the value cannot be serialized
+   */
+  public byte[] encode(Object value) throws IOException {
+    return mapper.writeValueAsBytes(value);
+  }
+
+  /**
+   * Tells whether Smile is preferred over JSON by the Accept header of a request. The media types
+   * are considered by quality and specificity, JSON is preferred when both match equally, like for
+   * a wildcard, and a type refused with a zero quality is ignored.
+   *
+   * @param accept the Accept header, may be null
+   * @return true if the response should be encoded in Smile
+   */
+  public static boolean isAccepted(String accept) {
+    if (StringUtils.isBlank(accept)) {
+      return false;
+    }
+    List<MediaType> mediaTypes;
+    try {
+      mediaTypes = MediaType.parseMediaTypes(accept);
+    } catch (InvalidMediaTypeException e) {
+      return false;
+    }
+    MediaType.sortBySpecificityAndQuality(mediaTypes);
+    for (MediaType mediaType : mediaTypes) {
+      if (mediaType.getQualityValue() <= 0) {
+        continue;
+      }
+      if (mediaType.includes(MediaType.APPLICATION_JSON)) {
+        return false;
+      }
+      if (mediaType.includes(SMILE)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the mapper used to encode the values, clients reading the Smile payloads can use the
+   * same configuration.
+   *
+   * @return the Smile object mapper
+   */
+  public ObjectMapper getMapper() {
+    return mapper;
+  }
+
+  /**
+   * Writes a base64 encoded string as raw binary.
+   */
+  public static class Base64BinarySerializer extends JsonSerializer<String> {
+
+    @Override
+    public void serialize(String value, JsonGenerator jgen, SerializerProvider provider)
+        throws IOException {
+      // the MIME decoder also accepts values wrapped every 76 characters
+      jgen.writeBinary(Base64.getMimeDecoder().decode(value));
+    }
+  }
+
+  private abstract static class ImageBinaryMixIn {
+
+    @JsonSerialize(using = Base64BinarySerializer.class,
+        include = JsonSerialize.Inclusion.NON_NULL)
+    public abstract String getImage();
+  }
+}
@@ -0,0 +1,183 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.util;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.commons.lang3.StringUtils;
+import org.openmrs.module.biometric.api.util.SyncTaskExecutor;
+import org.openmrs.module.biometric.contract.sync.SyncRequest;
+import org.openmrs.module.biometric.contract.sync.SyncResponse;
+import org.openmrs.module.biometric.contract.sync.SyncScope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Holds the sync pages prepared ahead of the device requests. After a page is served, the next
+ * page of the same device and sync scope is prepared in the background from the keyset position
+ * the device is expected to send. Each device keeps at most one prepared page per record type,
+ * which is served only to the exact matching request and expires after
+ * {@link #ENTRY_TIMEOUT_SECONDS} seconds.
+ */
+@Component
+public class SyncPrefetchCache {
+
+  public static final int ENTRY_TIMEOUT_SECONDS = 30;
+  private static final Logger LOGGER = LoggerFactory.getLogger(SyncPrefetchCache.class);
+  private static final long ENTRY_TIMEOUT = TimeUnit.SECONDS.toMillis(ENTRY_TIMEOUT_SECONDS);
+  private static final long PURGE_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+  private static final int MAX_ENTRIES = 1000;
+  private static final char SEPARATOR = '|';
+
+  private final Map<String, Prefetch> entries = new ConcurrentHashMap<>();
+  private volatile long nextPurge;
+
+  @Autowired
+  private SyncTaskExecutor syncTaskExecutor;
+
+  /**
+   * Starts preparing a page in the background, replacing the page prepared earlier for the owner.
+   * Nothing is prepared when the cache or the prefetch pool is full.
+   *
+   * @param owner the user, device and record type the page is prepared for, null to skip
+   * @param request the request the device is expected to send
+   * @param loader builds the page
+   */
+  public void prefetch(String owner, SyncRequest request, Callable<SyncResponse> loader) {
+    if (null == owner) {
+      return;
+    }
+    purgeExpired(System.currentTimeMillis());
+    if (entries.size() >= MAX_ENTRIES && !entries.containsKey(owner)) {
+      LOGGER.debug("Sync prefetch cache is full, the next page is not prepared");
+      return;
+    }
+    Future<SyncResponse> page = syncTaskExecutor.prefetch(loader);
+    if (null == page) {
+      LOGGER.debug("Sync prefetch pool is busy, the next page is not prepared");
+      return;
+    }
+    Prefetch previous = entries.put(owner,
+        new Prefetch(getPageKey(request), page, System.currentTimeMillis() + ENTRY_TIMEOUT));
+    if (null != previous) {
+      previous.page.cancel(false);
+    }
+  }
+
+  /**
+   * Returns the page prepared for the request and removes it from the cache. A page which is still
+   * being prepared is awaited.
+   *
+   * @param owner the user, device and record type of the request, null to skip
+   * @param request the sync request
+   * @return the prepared page or null if there is none matching the request
+   */
+  public SyncResponse take(String owner, SyncRequest request) {
+    Prefetch prefetch = null == owner ? null : entries.remove(owner);
+    if (null == prefetch) {
+      return null;
+    }
+    long remaining = prefetch.expiry - System.currentTimeMillis();
+    if (remaining <= 0 || !prefetch.pageKey.equals(getPageKey(request))) {
+      prefetch.page.cancel(false);
+      return null;
+    }
+    try {
+      return prefetch.page.get(remaining, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (ExecutionException | TimeoutException e) {
+      LOGGER.debug("Prefetched sync page is not available", e);
+      prefetch.page.cancel(false);
+      return null;
+    }
+  }
+
+  /**
+   * Returns the number of prepared pages, expired pages are included until they are purged.
+   *
+   * @return the number of pages
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  private void purgeExpired(long now) {
+    if (now < nextPurge && entries.size() < MAX_ENTRIES) {
+      return;
+    }
+    nextPurge = now + PURGE_INTERVAL;
+    entries.values().removeIf(prefetch -> {
+      if (prefetch.isExpired(now)) {
+        prefetch.page.cancel(false);
+        return true;
+      }
+      return false;
+    });
+  }
+
+  /**
+   * Returns the key identifying the page requested, made of all the request fields the page
+   * depends on.
+   *
+   * @param request the sync request
+   * @return the page key
+   */
+  static String getPageKey(SyncRequest request) {
+    SyncScope scope = request.getSyncScope();
+    StringBuilder key = new StringBuilder();
+    if (null != scope) {
+      key.append(StringUtils.trimToEmpty(scope.getCountry())).append(SEPARATOR)
+          .append(StringUtils.trimToEmpty(scope.getCluster())).append(SEPARATOR)
+          .append(StringUtils.trimToEmpty(scope.getSiteUuid()));
+    }
+    key.append(SEPARATOR).append(request.getSyncSessionId())
+        .append(SEPARATOR).append(request.getLimit())
+        .append(SEPARATOR).append(request.getOptimize())
+        .append(SEPARATOR).append(request.getDateModifiedOffset());
+    Set<String> uuids = null == request.getUuidsWithDateModifiedOffset()
+        ? new TreeSet<>() : new TreeSet<>(request.getUuidsWithDateModifiedOffset());
+    for (String uuid : uuids) {
+      key.append(SEPARATOR).append(uuid);
+    }
+    return key.toString();
+  }
+
+  /**
+   * A page being prepared or ready to be served.
+   */
+  private static final class Prefetch {
+
+    private final String pageKey;
+    private final Future<SyncResponse> page;
+    private final long expiry;
+
+    Prefetch(String pageKey, Future<SyncResponse> page, long expiry) {
+      this.pageKey = pageKey;
+      this.page = page;
+      this.expiry = expiry;
+    }
+
+    boolean isExpired(long now) {
+      return now > expiry;
+    }
+  }
+}
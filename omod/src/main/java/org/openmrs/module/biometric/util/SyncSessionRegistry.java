@@ -0,0 +1,219 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.util;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.apache.commons.lang3.StringUtils;
+import org.openmrs.BaseOpenmrsData;
+import org.openmrs.module.biometric.api.util.OpenMRSUtil;
+import org.openmrs.module.biometric.contract.sync.SyncScope;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps track of the open sync sessions. A session pins the high-water mark and the locations of
+ * a sync scope when it is opened, the pages requested within the session only contain the records
+ * modified up to that mark and report the counts computed for the first page. Sessions expire
+ * when they are not used for {@link #SESSION_TIMEOUT_MINUTES} minutes.
+ */
+@Component
+public class SyncSessionRegistry {
+
+  public static final int SESSION_TIMEOUT_MINUTES = 30;
+  private static final long SESSION_TIMEOUT = TimeUnit.MINUTES.toMillis(SESSION_TIMEOUT_MINUTES);
+  private static final long PURGE_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+  private static final int MAX_SESSIONS = 10000;
+
+  private final Map<String, SyncSession> sessions = new ConcurrentHashMap<>();
+  private volatile long nextPurge;
+
+  /**
+   * Opens a sync session pinned at the current time.
+   *
+   * @param syncScope the sync scope of the session
+   * @param locations the locations of the sync scope
+   * @return the opened session
+   */
+  public SyncSession open(SyncScope syncScope, List<String> locations) {
+    long now = System.currentTimeMillis();
+    purgeExpired(now);
+    if (sessions.size() >= MAX_SESSIONS) {
+      evictLeastRecentlyUsed();
+    }
+    SyncSession session =
+        new SyncSession(UUID.randomUUID().toString(), syncScope, locations, now);
+    sessions.put(session.getId(), session);
+    return session;
+  }
+
+  /**
+   * Returns an open session and extends its expiry.
+   *
+   * @param sessionId the id of the session
+   * @return the session or null if it is unknown or expired
+   */
+  public SyncSession get(String sessionId) {
+    SyncSession session = sessions.get(sessionId);
+    if (null == session) {
+      return null;
+    }
+    long now = System.currentTimeMillis();
+    if (session.isExpired(now)) {
+      sessions.remove(sessionId, session);
+      return null;
+    }
+    session.lastAccess = now;
+    return session;
+  }
+
+  /**
+   * Closes a session before it expires.
+   *
+   * @param sessionId the id of the session
+   * @return true if the session was open
+   */
+  public boolean close(String sessionId) {
+    return null != sessions.remove(sessionId);
+  }
+
+  /**
+   * Returns the number of tracked sessions, expired sessions are included until they are purged.
+   *
+   * @return the number of sessions
+   */
+  public int size() {
+    return sessions.size();
+  }
+
+  private void purgeExpired(long now) {
+    if (now < nextPurge) {
+      return;
+    }
+    nextPurge = now + PURGE_INTERVAL;
+    sessions.values().removeIf(session -> session.isExpired(now));
+  }
+
+  private void evictLeastRecentlyUsed() {
+    SyncSession oldest = null;
+    for (SyncSession session : sessions.values()) {
+      if (null == oldest || session.lastAccess < oldest.lastAccess) {
+        oldest = session;
+      }
+    }
+    if (null != oldest) {
+      sessions.remove(oldest.getId(), oldest);
+    }
+  }
+
+  /**
+   * A sync session.
+   */
+  public static final class SyncSession {
+
+    private final String id;
+    private final String country;
+    private final String cluster;
+    private final String siteUuid;
+    private final List<String> locations;
+    private final long highWaterMark;
+    private final Map<String, Map<String, Long>> counts = new ConcurrentHashMap<>();
+    private volatile long lastAccess;
+
+    SyncSession(String id, SyncScope syncScope, List<String> locations, long highWaterMark) {
+      this.id = id;
+      this.country = syncScope.getCountry();
+      this.cluster = syncScope.getCluster();
+      this.siteUuid = syncScope.getSiteUuid();
+      this.locations = Collections.unmodifiableList(locations);
+      this.highWaterMark = highWaterMark;
+      this.lastAccess = highWaterMark;
+    }
+
+    public String getId() {
+      return id;
+    }
+
+    public List<String> getLocations() {
+      return locations;
+    }
+
+    public long getHighWaterMark() {
+      return highWaterMark;
+    }
+
+    /**
+     * Returns the high-water mark as the upper bound of the sync queries of the session.
+     *
+     * @return the date of the high-water mark
+     */
+    public Date getHighWaterMarkDate() {
+      return new Date(highWaterMark);
+    }
+
+    /**
+     * Checks if the sync scope is the one the session was opened for.
+     *
+     * @param syncScope the sync scope of a request
+     * @return true if the scopes are the same
+     */
+    public boolean matches(SyncScope syncScope) {
+      return StringUtils.equals(StringUtils.trimToNull(country),
+          StringUtils.trimToNull(syncScope.getCountry()))
+          && StringUtils.equals(StringUtils.trimToNull(cluster),
+          StringUtils.trimToNull(syncScope.getCluster()))
+          && StringUtils.equals(StringUtils.trimToNull(siteUuid),
+          StringUtils.trimToNull(syncScope.getSiteUuid()));
+    }
+
+    /**
+     * Checks if a record belongs to the session, a record which was never changed has a null date
+     * changed and is checked on its creation date.
+     *
+     * @param record the record
+     * @return true if the record was last modified up to the high-water mark
+     */
+    public boolean includes(BaseOpenmrsData record) {
+      Date dateModified = OpenMRSUtil.getLastModificationDate(record);
+      return null == dateModified || dateModified.getTime() <= highWaterMark;
+    }
+
+    /**
+     * Checks if a record modified at the given time belongs to the session.
+     *
+     * @param dateModified the modification time of the record in milliseconds
+     * @return true if the record was modified up to the high-water mark
+     */
+    public boolean includes(Long dateModified) {
+      return null == dateModified || dateModified <= highWaterMark;
+    }
+
+    /**
+     * Returns the counts of a record type, they are computed on the first request of the session.
+     *
+     * @param key the record type and the parameters the counts depend on
+     * @param loader computes the counts
+     * @return the counts
+     */
+    public Map<String, Long> getCounts(String key, Supplier<Map<String, Long>> loader) {
+      return counts.computeIfAbsent(key, k -> loader.get());
+    }
+
+    boolean isExpired(long now) {
+      return now - lastAccess > SESSION_TIMEOUT;
+    }
+  }
+}
@@ -30,12 +30,15 @@ import org.openmrs.module.biometric.api.exception.EntityConflictException;
 import org.openmrs.module.biometric.api.exception.EntityNotFoundException;
 import org.openmrs.module.biometric.api.exception.EntityValidationException;
 import org.openmrs.module.biometric.api.model.AttributeData;
+import org.openmrs.module.biometric.api.model.ParticipantKey;
 import org.openmrs.module.biometric.api.service.BiometricService;
 import org.openmrs.module.biometric.api.service.ParticipantService;
+import org.openmrs.module.biometric.api.util.ImageVariantStore;
 import org.openmrs.module.biometric.builder.ParticipantMatchResponseBuilder;
 import org.openmrs.module.biometric.builder.PatientBuilder;
 import org.openmrs.module.biometric.contract.ParticipantMatchResponse;
 import org.openmrs.module.biometric.contract.RegisterRequest;
+import org.openmrs.module.biometric.contract.RegisterResult;
 import org.openmrs.module.biometric.error.ApiError;
 import org.openmrs.module.biometric.util.BiometricModUtil;
 import org.openmrs.module.biometric.util.LocationUtil;
@@ -56,12 +59,14 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.multipart.MultipartHttpServletRequest;
 
 import javax.validation.Valid;
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -70,6 +75,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import static org.openmrs.module.biometric.api.constants.BiometricApiConstants.PERSON_TEMPLATE_ATTRIBUTE;
 
@@ -98,6 +104,8 @@ public class ParticipantController extends BaseRestController {
   private static final String PATIENT_ALREADY_EXISTS_WITH_DIFF_ID =
       "Participant already exists with the same uuid";
   private static final String PARTICIPANT_ID_ALREADY_EXISTS = "Participant id already in use";
+  private static final int MAX_BULK_REGISTRATIONS = 500;
+  private static final int REGISTRATION_CHUNK_SIZE = 100;
 
   @Autowired
   private PatientBuilder patientBuilder;
@@ -114,6 +122,9 @@ public class ParticipantController extends BaseRestController {
   @Autowired
   private LocationUtil locationUtil;
 
+  @Autowired
+  private ImageVariantStore imageVariantStore;
+
   @Autowired
   @Qualifier("biometric.biometricService")
   private BiometricService biometricService;
@@ -165,41 +176,84 @@ public class ParticipantController extends BaseRestController {
       throw new BiometricApiException("Participant registration failed");
     }
 
-    String base64EncodedImage = request.getImage();
-    if (null != base64EncodedImage) {
-      LOGGER.debug("Participant registered in OpenMRS with UUID : {}", registeredPatient.getUuid());
-      participantService
-          .saveParticipantImage(patient.getPerson(), base64EncodedImage,
-              SanitizeUtil.sanitizeInputString(deviceId));
-    }
+    boolean isIrisRegistered =
+        completeRegistration(deviceId, request, patient, registeredPatient, template);
 
-    boolean isIrisRegistered = false;
-    if (null != template) {
-      String locationUuid = locationUtil.getLocationUuid(request.getAttributes());
+    Map<String, Object> responseMap = new HashMap<>();
+    responseMap
+        .put(PERSON_UUID, SanitizeUtil.sanitizeOutput(registeredPatient.getUuid()));
+    responseMap.put(IRIS_STATUS_PARAM_NAME, isIrisRegistered);
+
+    return responseMap;
+  }
 
+  /**
+   * Registers several participants at once, for example the registrations recorded by a device
+   * while it was offline. The lookups and the duplicate checks are done once for the whole batch
+   * and the participants are saved in chunks. A chunk which fails is saved again one participant
+   * at a time, so that only the failing participants are reported as failed.
+   *
+   * @param deviceId the id of the device from which the request was received
+   * @param biographicData biographic information of the participants in a json array
+   * @param multipartRequest the request holding the iris templates, one optional part named
+   * template.{participantUuid} per participant
+   * @return the outcome of the registration of each participant, in the order of the request
+   * @throws IOException if the biographic data cannot be parsed
+   * @throws EntityValidationException if there are no participants or too many of them
+   */
+  @ApiOperation(
+      value = "Register several participants",
+      notes = "Register several participants",
+      response = RegisterResult.class,
+      responseContainer = "List")
+  @ResponseBody
+  @RequestMapping(value = "/registerAll", consumes = {
+      MediaType.MULTIPART_FORM_DATA_VALUE}, produces = {
+      MediaType.APPLICATION_JSON_VALUE}, method = RequestMethod.POST)
+  public List<RegisterResult> registerAll(@RequestHeader(value = DEVICE_ID) String deviceId,
+      @ApiParam(name = "biographicData", value = "data of the participants", required = true)
+      @RequestParam(BIOGRAPHIC_DATA) String biographicData,
+      @ApiParam(hidden = true) MultipartHttpServletRequest multipartRequest)
+      throws IOException, EntityValidationException {
+    List<RegisterRequest> requests =
+        util.jsonToObject(biographicData, new TypeReference<List<RegisterRequest>>() {
+        });
+    if (null == requests || requests.isEmpty() || requests.size() > MAX_BULK_REGISTRATIONS) {
+      throw new EntityValidationException(String.format(
+          "Between 1 and %d participants can be registered at once", MAX_BULK_REGISTRATIONS));
+    }
+
+    PatientBuilder.Lookups lookups = new PatientBuilder.Lookups();
+    RegisterResult[] results = new RegisterResult[requests.size()];
+    Patient[] patients = new Patient[requests.size()];
+    for (int i = 0; i < requests.size(); i++) {
       try {
-        Date registrationDate = util.convertIsoStringToDate(request.getRegistrationDate());
-        isIrisRegistered = biometricService
-            .registerBiometricData(util.removeWhiteSpaces(request.getParticipantId()),
-                template.getBytes(),
-                deviceId, locationUuid, registrationDate, patient.getUuid());
-      } catch (Exception ex) {
-        // participant registration should not be failed if there is an issue with the biometric server
-        LOGGER.error("Issue with Biometric Server", ex);
+        patients[i] = patientBuilder.createFrom(requests.get(i), lookups);
+      } catch (EntityNotFoundException | ParseException e) {
+        results[i] = createResult(requests.get(i).getParticipantUuid(), RegisterResult.FAILED,
+            e.getMessage());
       }
     }
+    checkExistingParticipants(patients, results);
 
-    if (isIrisRegistered) {
-      util.setPersonAttributeValue(registeredPatient.getUuid(), PERSON_TEMPLATE_ATTRIBUTE,
-          deviceId);
+    for (int start = 0; start < patients.length; start += REGISTRATION_CHUNK_SIZE) {
+      int end = Math.min(start + REGISTRATION_CHUNK_SIZE, patients.length);
+      registerChunk(requests, lookups, patients, results, start, end);
     }
 
-    Map<String, Object> responseMap = new HashMap<>();
-    responseMap
-        .put(PERSON_UUID, SanitizeUtil.sanitizeOutput(registeredPatient.getUuid()));
-    responseMap.put(IRIS_STATUS_PARAM_NAME, isIrisRegistered);
-
-    return responseMap;
+    for (int i = 0; i < patients.length; i++) {
+      if (RegisterResult.REGISTERED.equals(results[i].getStatus())) {
+        MultipartFile template =
+            multipartRequest.getFile(TEMPLATE + '.' + patients[i].getUuid());
+        try {
+          results[i].setIrisRegistered(completeRegistration(deviceId, requests.get(i),
+              patients[i], patients[i], template));
+        } catch (BiometricApiException e) {
+          results[i].setError(e.getMessage());
+        }
+      }
+    }
+    return Arrays.asList(results);
   }
 
   /**
@@ -491,6 +545,7 @@ public class ParticipantController extends BaseRestController {
    * Retrieve participant's image.
    *
    * @param personUuid unique identifier of a participant
+   * @param variant a configured image variant like a thumbnail, the original image if missing
    * @return participant's image in base64 encoded format
    * @throws IOException when there is an issue in reading the images from the file path
    * @throws BiometricApiException when failed to upload a participant's image
@@ -519,9 +574,17 @@ public class ParticipantController extends BaseRestController {
   public Object retrievePersonImage(
       @ApiParam(name = "personUuid", value = "uuid of person", required = true)
           @PathVariable("personUuid")
-          String personUuid)
+          String personUuid,
+      @ApiParam(name = "variant", value = "image variant, like thumb")
+      @RequestParam(value = "variant", required = false)
+          String variant)
       throws IOException, BiometricApiException {
-    Optional<String> imageString = participantService.retrieveParticipantImage(personUuid);
+    String imageVariant = SanitizeUtil.sanitizeInputString(variant);
+    if (null != imageVariant) {
+      imageVariantStore.validate(imageVariant);
+    }
+    Optional<String> imageString = participantService
+        .retrieveParticipantImage(personUuid, imageVariant);
     if (imageString.isPresent()) {
       return imageString.get();
     } else {
@@ -658,27 +721,164 @@ public class ParticipantController extends BaseRestController {
     return location.getCountry();
   }
 
-  private void validateParticipantIdAndUuid(Patient patient)
-      throws BiometricApiException, IOException {
+  private void validateParticipantIdAndUuid(Patient patient) throws BiometricApiException {
     if (null != patient.getUuid()) {
-      List<PatientResponse> existingPatientList =
-          participantService.findPatientsByUuids(Collections.singleton(patient.getUuid()));
+      String participantId = patient.getPatientIdentifier().getIdentifier();
+      List<ParticipantKey> existingPatientList = getActiveKeys(
+          participantService.findParticipantKeysByUuids(Collections.singleton(patient.getUuid())));
       if (!existingPatientList.isEmpty()) {
-        for (PatientResponse patient1 : existingPatientList) {
-          if (!patient1
-              .getParticipantId()
-              .equalsIgnoreCase(patient.getPatientIdentifier().getIdentifier())) {
+        for (ParticipantKey existingPatient : existingPatientList) {
+          if (!participantId.equalsIgnoreCase(existingPatient.getIdentifier())) {
             throw new BiometricApiException(PATIENT_ALREADY_EXISTS_WITH_DIFF_ID);
           }
         }
         throw new EntityConflictException(PATIENT_ALREADY_EXISTS);
       } else {
-        List<PatientResponse> existingPatientIdList =
-            participantService.findByParticipantId(patient.getPatientIdentifier().getIdentifier());
+        List<ParticipantKey> existingPatientIdList = getActiveKeys(
+            participantService.findParticipantKeysByParticipantId(participantId));
         if (!existingPatientIdList.isEmpty()) {
           throw new BiometricApiException(PARTICIPANT_ID_ALREADY_EXISTS);
         }
       }
     }
   }
+
+  private boolean completeRegistration(String deviceId, RegisterRequest request, Patient patient,
+      Patient registeredPatient, MultipartFile template) throws BiometricApiException {
+    String base64EncodedImage = request.getImage();
+    if (null != base64EncodedImage) {
+      LOGGER.debug("Participant registered in OpenMRS with UUID : {}", registeredPatient.getUuid());
+      participantService
+          .saveParticipantImage(patient.getPerson(), base64EncodedImage,
+              SanitizeUtil.sanitizeInputString(deviceId));
+    }
+
+    boolean isIrisRegistered = false;
+    if (null != template) {
+      String locationUuid = locationUtil.getLocationUuid(request.getAttributes());
+
+      try {
+        Date registrationDate = util.convertIsoStringToDate(request.getRegistrationDate());
+        isIrisRegistered = biometricService
+            .registerBiometricData(util.removeWhiteSpaces(request.getParticipantId()),
+                template.getBytes(),
+                deviceId, locationUuid, registrationDate, patient.getUuid());
+      } catch (Exception ex) {
+        // participant registration should not be failed if there is an issue with the biometric server
+        LOGGER.error("Issue with Biometric Server", ex);
+      }
+    }
+
+    if (isIrisRegistered) {
+      util.setPersonAttributeValue(registeredPatient.getUuid(), PERSON_TEMPLATE_ATTRIBUTE,
+          deviceId);
+    }
+    return isIrisRegistered;
+  }
+
+  private void checkExistingParticipants(Patient[] patients, RegisterResult[] results) {
+    Set<String> uuids = new HashSet<>();
+    Set<String> participantIds = new HashSet<>();
+    for (int i = 0; i < patients.length; i++) {
+      if (null != results[i] || null == patients[i].getUuid()) {
+        continue;
+      }
+      String participantId = patients[i].getPatientIdentifier().getIdentifier();
+      if (!uuids.add(patients[i].getUuid())) {
+        results[i] = createResult(patients[i].getUuid(), RegisterResult.DUPLICATE,
+            PATIENT_ALREADY_EXISTS);
+      } else if (!participantIds.add(participantId.toLowerCase())) {
+        results[i] = createResult(patients[i].getUuid(), RegisterResult.FAILED,
+            PARTICIPANT_ID_ALREADY_EXISTS);
+      }
+    }
+    if (uuids.isEmpty()) {
+      return;
+    }
+
+    Map<String, ParticipantKey> existingUuids = new HashMap<>();
+    for (ParticipantKey key : getActiveKeys(
+        participantService.findParticipantKeysByUuids(uuids))) {
+      existingUuids.put(key.getUuid(), key);
+    }
+    Set<String> existingIds = new HashSet<>();
+    for (ParticipantKey key : getActiveKeys(
+        participantService.findParticipantKeysByParticipantIds(participantIds))) {
+      existingIds.add(key.getIdentifier().toLowerCase());
+    }
+    for (int i = 0; i < patients.length; i++) {
+      if (null != results[i] || null == patients[i].getUuid()) {
+        continue;
+      }
+      String participantId = patients[i].getPatientIdentifier().getIdentifier();
+      ParticipantKey existing = existingUuids.get(patients[i].getUuid());
+      if (null != existing) {
+        results[i] = participantId.equalsIgnoreCase(existing.getIdentifier())
+            ? createResult(existing.getUuid(), RegisterResult.DUPLICATE, PATIENT_ALREADY_EXISTS)
+            : createResult(existing.getUuid(), RegisterResult.FAILED,
+                PATIENT_ALREADY_EXISTS_WITH_DIFF_ID);
+      } else if (existingIds.contains(participantId.toLowerCase())) {
+        results[i] = createResult(patients[i].getUuid(), RegisterResult.FAILED,
+            PARTICIPANT_ID_ALREADY_EXISTS);
+      }
+    }
+  }
+
+  private void registerChunk(List<RegisterRequest> requests, PatientBuilder.Lookups lookups,
+      Patient[] patients, RegisterResult[] results, int start, int end) {
+    List<Patient> chunk = new ArrayList<>(end - start);
+    for (int i = start; i < end; i++) {
+      if (null == results[i]) {
+        chunk.add(patients[i]);
+      }
+    }
+    if (chunk.isEmpty()) {
+      return;
+    }
+    try {
+      participantService.registerParticipants(chunk);
+      for (int i = start; i < end; i++) {
+        if (null == results[i]) {
+          results[i] = createResult(patients[i].getUuid(), RegisterResult.REGISTERED, null);
+        }
+      }
+    } catch (RuntimeException e) {
+      LOGGER.warn("Registration of {} participants failed, registering them one at a time",
+          chunk.size(), e);
+      for (int i = start; i < end; i++) {
+        if (null == results[i]) {
+          results[i] = registerOne(requests.get(i), lookups, patients, i);
+        }
+      }
+    }
+  }
+
+  private RegisterResult registerOne(RegisterRequest request, PatientBuilder.Lookups lookups,
+      Patient[] patients, int index) {
+    try {
+      // the patient of the failed chunk may hold the ids assigned before the rollback
+      Patient patient = patientBuilder.createFrom(request, lookups);
+      if (null == participantService.registerParticipant(patient)) {
+        throw new BiometricApiException("Participant registration failed");
+      }
+      patients[index] = patient;
+      return createResult(patient.getUuid(), RegisterResult.REGISTERED, null);
+    } catch (Exception e) {
+      LOGGER.error("Registration of participant {} failed", request.getParticipantUuid(), e);
+      return createResult(request.getParticipantUuid(), RegisterResult.FAILED, e.getMessage());
+    }
+  }
+
+  private static RegisterResult createResult(String participantUuid, String status,
+      String error) {
+    RegisterResult result = new RegisterResult();
+    result.setParticipantUuid(SanitizeUtil.sanitizeOutput(participantUuid));
+    result.setStatus(status);
+    result.setError(error);
+    return result;
+  }
+
+  private static List<ParticipantKey> getActiveKeys(List<ParticipantKey> keys) {
+    return keys.stream().filter(key -> !key.isVoided()).collect(Collectors.toList());
+  }
 }
@@ -11,6 +11,10 @@
 package org.openmrs.module.biometric.web.controller;
 
 import static org.openmrs.module.biometric.api.constants.BiometricApiConstants.IGNORED_COUNT;
+import static org.openmrs.module.biometric.api.constants.BiometricApiConstants.SYNC_ENTITY_IMAGES;
+import static org.openmrs.module.biometric.api.constants.BiometricApiConstants.SYNC_ENTITY_PARTICIPANTS;
+import static org.openmrs.module.biometric.api.constants.BiometricApiConstants.SYNC_ENTITY_TEMPLATES;
+import static org.openmrs.module.biometric.api.constants.BiometricApiConstants.SYNC_ENTITY_VISITS;
 import static org.openmrs.module.biometric.api.constants.BiometricApiConstants.TABLE_COUNT;
 import static org.openmrs.module.biometric.api.constants.BiometricApiConstants.VOIDED_COUNT;
 
@@ -19,49 +23,92 @@ import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.HttpURLConnection;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.type.TypeReference;
 import org.openmrs.Patient;
+import org.openmrs.User;
 import org.openmrs.Visit;
+import org.openmrs.api.context.Context;
 import org.openmrs.module.biometric.api.contract.SyncConfigResponse;
 import org.openmrs.module.biometric.api.contract.SyncImageResponse;
-import org.openmrs.module.biometric.api.contract.SyncTemplateResponse;
 import org.openmrs.module.biometric.api.exception.BiometricApiException;
 import org.openmrs.module.biometric.api.exception.EntityNotFoundException;
 import org.openmrs.module.biometric.api.exception.EntityValidationException;
+import org.openmrs.module.biometric.api.model.SyncErrorData;
 import org.openmrs.module.biometric.api.service.ConfigService;
 import org.openmrs.module.biometric.api.service.SyncService;
+import org.openmrs.module.biometric.api.util.ImageVariantStore;
+import org.openmrs.module.biometric.api.util.OpenMRSUtil;
+import org.openmrs.module.biometric.api.util.SyncChangeTracker;
+import org.openmrs.module.biometric.api.util.SyncChangeTracker.SyncChanges;
+import org.openmrs.module.biometric.api.util.SyncTaskExecutor;
+import org.openmrs.module.biometric.builder.BootstrapSnapshotBuilder;
 import org.openmrs.module.biometric.builder.ParticipantRecordsResponseBuilder;
+import org.openmrs.module.biometric.builder.SyncPageWriter;
 import org.openmrs.module.biometric.builder.SyncResponseBuilder;
 import org.openmrs.module.biometric.builder.VisitResponseBuilder;
 import org.openmrs.module.biometric.contract.VisitResponse;
+import org.openmrs.module.biometric.contract.sync.ParticipantData;
+import org.openmrs.module.biometric.contract.sync.ReconcileRequest;
+import org.openmrs.module.biometric.contract.sync.ReconcileResponse;
+import org.openmrs.module.biometric.contract.sync.SyncAllRequest;
+import org.openmrs.module.biometric.contract.sync.SyncChangesRequest;
+import org.openmrs.module.biometric.contract.sync.SyncChangesResponse;
 import org.openmrs.module.biometric.contract.sync.SyncError;
 import org.openmrs.module.biometric.contract.sync.SyncErrorRequest;
 import org.openmrs.module.biometric.contract.sync.SyncRequest;
 import org.openmrs.module.biometric.contract.sync.SyncResponse;
 import org.openmrs.module.biometric.contract.sync.SyncScope;
+import org.openmrs.module.biometric.contract.sync.SyncSessionResponse;
 import org.openmrs.module.biometric.util.BiometricModUtil;
 import org.openmrs.module.biometric.util.LocationUtil;
 import org.openmrs.module.biometric.util.SanitizeUtil;
+import org.openmrs.module.biometric.util.SmileEncoder;
+import org.openmrs.module.biometric.util.SyncPrefetchCache;
+import org.openmrs.module.biometric.util.SyncSessionRegistry;
+import org.openmrs.module.biometric.util.SyncSessionRegistry.SyncSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.ResponseStatus;
 
@@ -80,6 +127,14 @@ public class SyncController extends BaseRestController {
   private static final String DEVICE_ID = "deviceId";
   private static final String INVALID_REQUEST_BODY = "Invalid request body";
   private static final String LOCATION_NOT_FOUND = "Location not found";
+  private static final String SYNC_SESSION_NOT_FOUND = "Sync session not found or expired";
+  private static final String SNAPSHOT_WATERMARK_HEADER = "X-Snapshot-Watermark";
+  private static final String SNAPSHOT_CONTENT_TYPE = "application/gzip";
+  private static final String BYTES_UNIT = "bytes";
+  private static final Pattern BYTE_RANGE = Pattern.compile("^bytes=(\\d{0,18})-(\\d{0,18})$");
+  private static final int DEFAULT_CHANGES_TIMEOUT = 25;
+  private static final int MAX_CHANGES_TIMEOUT = 60;
+  private static final String SYNC_ERRORS = "errors";
 
   @Autowired
   private ParticipantRecordsResponseBuilder participantRecordsResponseBuilder;
@@ -87,6 +142,9 @@ public class SyncController extends BaseRestController {
   @Autowired
   private SyncResponseBuilder syncResponseBuilder;
 
+  @Autowired
+  private BootstrapSnapshotBuilder bootstrapSnapshotBuilder;
+
   @Autowired
   private VisitResponseBuilder visitResponseBuilder;
 
@@ -99,6 +157,27 @@ public class SyncController extends BaseRestController {
   @Autowired
   private LocationUtil locationUtil;
 
+  @Autowired
+  private SmileEncoder smileEncoder;
+
+  @Autowired
+  private ObjectMapper mapper;
+
+  @Autowired
+  private SyncSessionRegistry syncSessionRegistry;
+
+  @Autowired
+  private SyncTaskExecutor syncTaskExecutor;
+
+  @Autowired
+  private SyncPrefetchCache syncPrefetchCache;
+
+  @Autowired
+  private SyncChangeTracker syncChangeTracker;
+
+  @Autowired
+  private ImageVariantStore imageVariantStore;
+
   @Autowired
   @Qualifier("biometric.syncService")
   private SyncService syncService;
@@ -107,6 +186,7 @@ public class SyncController extends BaseRestController {
    * Retrieves all the participant data registered in a program bases on the sync scope at country
    * or at site level and the records added or modified after a specified date.
    *
+   * @param accept the media types accepted by the client, Smile is returned when requested
    * @param syncRequest contains the details of sync request like sync scope, last modified date,
    * off set and number of results to be retrieved
    * @return @see org.openmrs.module.biometric.contract.sync.SyncResponse
@@ -135,9 +215,11 @@ public class SyncController extends BaseRestController {
   @RequestMapping(value = "/sync/getAllParticipants",
       consumes = {
           MediaType.APPLICATION_JSON_VALUE}, produces = {
-      MediaType.APPLICATION_JSON_VALUE},
+      MediaType.APPLICATION_JSON_VALUE, SmileEncoder.SMILE_CONTENT_TYPE},
       method = RequestMethod.POST)
-  public SyncResponse getAllParticipants(
+  public Object getAllParticipants(
+      @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+      @RequestHeader(value = DEVICE_ID, required = false) String deviceId,
       @ApiParam(
           name = "syncRequest",
           value = "Request details to fetch participant details",
@@ -154,27 +236,51 @@ public class SyncController extends BaseRestController {
         request.getSyncScope().getCountry(),
         request.getSyncScope().getSiteUuid());
 
-    List<String> locations = getLocations(request.getSyncScope());
+    SyncSession session = getSession(request);
+    List<String> locations = getLocations(request.getSyncScope(), session);
     if (locations.isEmpty()) {
       throw new EntityNotFoundException("Location not found for the given sync scope");
     }
+    String owner = getPrefetchOwner(deviceId, SYNC_ENTITY_PARTICIPANTS);
+    SyncResponse response = syncPrefetchCache.take(owner, request);
+    if (null == response) {
+      response = getParticipantsPage(request, session, locations);
+    } else {
+      LOGGER.debug("Sync-Participants page served from the prefetch cache");
+    }
+    prefetchNextPage(owner, request, response, ParticipantData::getParticipantUuid,
+        ParticipantData::getDateModified, next -> getParticipantsPage(next, session, locations));
+
+    Instant end = Instant.now();
+    LOGGER.info("Sync-Participants call execution time : {}", Duration.between(start, end));
+    return encode(response, accept);
+  }
+
+  private SyncResponse getParticipantsPage(SyncRequest request, SyncSession session,
+      List<String> locations) throws IOException, EntityNotFoundException {
     Date dateModified = null;
     if (null != request.getDateModifiedOffset()) {
       dateModified = new Date(request.getDateModifiedOffset());
     }
     int maxResultsToFetch = request.getLimit() + request.getUuidsWithDateModifiedOffset().size();
-    List<Patient> patients = syncService.getAllPatients(dateModified, maxResultsToFetch, locations);
+    Date highWaterMark = getHighWaterMark(session);
+    Future<Map<String, Long>> counts = syncTaskExecutor.submit(() -> getCounts(session,
+        "participants", () -> syncService.getPatientCount(locations, highWaterMark)));
+    List<Patient> patients =
+        syncService.getAllPatients(dateModified, highWaterMark, maxResultsToFetch, locations);
 
     for (String uuid : request.getUuidsWithDateModifiedOffset()) {
       patients.removeIf(
           e ->
               uuid.equals(e.getUuid())
-                  && request.getDateModifiedOffset() == e.getDateChanged().getTime());
+                  && request.getDateModifiedOffset()
+                  == OpenMRSUtil.getLastModificationDate(e).getTime());
+    }
+    if (null != session) {
+      patients.removeIf(e -> !session.includes(e));
     }
 
-    Map<String, Long> map = syncService.getPatientCount(locations);
-    Instant end = Instant.now();
-    LOGGER.info("Sync-Participants call execution time : {}", Duration.between(start, end));
+    Map<String, Long> map = syncTaskExecutor.await(counts);
     return participantRecordsResponseBuilder.createFrom(
         patients, map.get(TABLE_COUNT), map.get(VOIDED_COUNT), request);
   }
@@ -183,6 +289,7 @@ public class SyncController extends BaseRestController {
    * Retrieves all the visits created for a participant bases on the sync scope at country or at
    * site level and the records added or modified after a specified date.
    *
+   * @param accept the media types accepted by the client, Smile is returned when requested
    * @param syncRequest contains the details of sync request like sync scope, last modified date,
    * off set and number * of results to be retrieved
    * @return @see org.openmrs.module.biometric.contract.sync.SyncResponse
@@ -211,9 +318,12 @@ public class SyncController extends BaseRestController {
   @RequestMapping(value = "/sync/getAllVisits",
       consumes = {
           MediaType.APPLICATION_JSON_VALUE}, produces = {
-      MediaType.APPLICATION_JSON_VALUE},
+      MediaType.APPLICATION_JSON_VALUE, SmileEncoder.SMILE_CONTENT_TYPE},
       method = RequestMethod.POST)
-  public SyncResponse getAllVisits(@RequestBody String syncRequest)
+  public Object getAllVisits(
+      @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+      @RequestHeader(value = DEVICE_ID, required = false) String deviceId,
+      @RequestBody String syncRequest)
       throws IOException, EntityNotFoundException, EntityValidationException {
 
     final Instant start = Instant.now();
@@ -223,31 +333,53 @@ public class SyncController extends BaseRestController {
         "Sync request is triggered for the country : {} and the site : {} to retrieve visits data",
         request.getSyncScope().getCountry(),
         request.getSyncScope().getSiteUuid());
-    List<String> locations = getLocations(request.getSyncScope());
+    SyncSession session = getSession(request);
+    List<String> locations = getLocations(request.getSyncScope(), session);
 
     if (locations.isEmpty()) {
       throw new EntityNotFoundException(LOCATION_NOT_FOUND);
     }
+    String owner = getPrefetchOwner(deviceId, SYNC_ENTITY_VISITS);
+    SyncResponse response = syncPrefetchCache.take(owner, request);
+    if (null == response) {
+      response = getVisitsPage(request, session, locations);
+    } else {
+      LOGGER.debug("Sync-Visits page served from the prefetch cache");
+    }
+    prefetchNextPage(owner, request, response, VisitResponse::getVisitUuid,
+        VisitResponse::getDateModified, next -> getVisitsPage(next, session, locations));
+
+    Instant end = Instant.now();
+    LOGGER.info("Sync-Visits call execution time : {}", Duration.between(start, end));
+    return encode(response, accept);
+  }
 
+  private SyncResponse getVisitsPage(SyncRequest request, SyncSession session,
+      List<String> locations) {
     Date dateModified = null;
     if (null != request.getDateModifiedOffset()) {
       dateModified = new Date(request.getDateModifiedOffset());
     }
     int maxResultsToFetch = request.getLimit() + request.getUuidsWithDateModifiedOffset().size();
 
-    List<Visit> visits = syncService.getAllVisits(dateModified, maxResultsToFetch, locations);
+    Date highWaterMark = getHighWaterMark(session);
+    Future<Map<String, Long>> counts = syncTaskExecutor.submit(() -> getCounts(session, "visits",
+        () -> syncService.getVisitsCount(locations, highWaterMark)));
+    List<Visit> visits =
+        syncService.getAllVisits(dateModified, highWaterMark, maxResultsToFetch, locations);
 
     for (String uuid : request.getUuidsWithDateModifiedOffset()) {
       visits.removeIf(
           e ->
               uuid.equals(e.getUuid())
-                  && request.getDateModifiedOffset() == e.getDateChanged().getTime());
+                  && request.getDateModifiedOffset()
+                  == OpenMRSUtil.getLastModificationDate(e).getTime());
+    }
+    if (null != session) {
+      visits.removeIf(e -> !session.includes(e));
     }
     List<VisitResponse> visitResponses = visitResponseBuilder.createFrom(visits);
-    Map<String, Long> map = syncService.getVisitsCount(locations);
-
-    Instant end = Instant.now();
-    LOGGER.info("Sync-Visits call execution time : {}", Duration.between(start, end));
+    Map<String, Long> map = syncTaskExecutor.await(counts);
     return syncResponseBuilder.createFrom(
         visitResponses, map.get(TABLE_COUNT), null, map.get(VOIDED_COUNT), request);
   }
@@ -257,6 +389,7 @@ public class SyncController extends BaseRestController {
    * or at site level and the records added or modified after a specified date.
    *
    * @param deviceMac the device from where the request was received
+   * @param accept the media types accepted by the client, Smile is returned when requested
    * @param syncRequest contains the details of sync request like sync scope, last modified date,
    * off set and number of results to be retrieved
    * @return @see org.openmrs.module.biometric.contract.sync.SyncResponse
@@ -281,9 +414,12 @@ public class SyncController extends BaseRestController {
       })
   @ResponseStatus(HttpStatus.OK)
   @ResponseBody
-  @RequestMapping(value = "/sync/getAllParticipantImages", method = RequestMethod.POST)
-  public SyncResponse getAllParticipantImages(
+  @RequestMapping(value = "/sync/getAllParticipantImages",
+      produces = {MediaType.APPLICATION_JSON_VALUE, SmileEncoder.SMILE_CONTENT_TYPE},
+      method = RequestMethod.POST)
+  public Object getAllParticipantImages(
       @RequestHeader(value = DEVICE_ID) String deviceMac,
+      @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
       @ApiParam(
           name = "syncRequest",
           value = "Request details to fetch participant images"
@@ -303,26 +439,45 @@ public class SyncController extends BaseRestController {
     if (null == request.getOptimize()) {
       throw new EntityValidationException("Optimize flag is missing");
     }
+    if (null != request.getImageVariant()) {
+      imageVariantStore.validate(request.getImageVariant());
+    }
 
-    List<String> locations = getLocations(request.getSyncScope());
+    SyncSession session = getSession(request);
+    List<String> locations = getLocations(request.getSyncScope(), session);
 
+    if (locations.isEmpty()) {
+      throw new EntityNotFoundException(LOCATION_NOT_FOUND);
+    }
+    SyncResponse response = getImagesPage(request, session, locations, deviceId);
+    Instant end = Instant.now();
+    LOGGER.info("Sync-ParticipantImages call execution time : {}", Duration.between(start, end));
+    return encode(response, accept);
+  }
+
+  private SyncResponse getImagesPage(SyncRequest request, SyncSession session,
+      List<String> locations, String deviceId) throws IOException {
     Date dateModified = null;
     if (null != request.getDateModifiedOffset()) {
       dateModified = new Date(request.getDateModifiedOffset());
     }
-
-    if (locations.isEmpty()) {
-      throw new EntityNotFoundException(LOCATION_NOT_FOUND);
-    }
     int maxResultsToFetch = request.getLimit() + request.getUuidsWithDateModifiedOffset().size();
 
+    Date highWaterMark = getHighWaterMark(session);
+    Future<Map<String, Long>> counts = syncTaskExecutor.submit(() -> getCounts(session,
+        "images:" + deviceId + ":" + request.getOptimize(),
+        () -> syncService.getParticipantImagesCount(
+            locations, deviceId, request.getOptimize(), highWaterMark)));
     List<SyncImageResponse> records =
         syncService.getAllParticipantImages(
             dateModified,
+            highWaterMark,
             maxResultsToFetch,
             locations,
             deviceId,
-            request.getOptimize());
+            request.getOptimize(),
+            request.getImageVariant(),
+            request.getImageHashes());
 
     for (String uuid : request.getUuidsWithDateModifiedOffset()) {
       records.removeIf(
@@ -330,10 +485,10 @@ public class SyncController extends BaseRestController {
               uuid.equals(e.getParticipantUuid())
                   && request.getDateModifiedOffset() == e.getDateModified().longValue());
     }
-    Map<String, Long> map =
-        syncService.getParticipantImagesCount(locations, deviceId, request.getOptimize());
-    Instant end = Instant.now();
-    LOGGER.info("Sync-ParticipantImages call execution time : {}", Duration.between(start, end));
+    if (null != session) {
+      records.removeIf(e -> !session.includes(e.getDateModified()));
+    }
+    Map<String, Long> map = syncTaskExecutor.await(counts);
     return syncResponseBuilder.createFrom(
         records, map.get("tableCount"), map.get("ignoredCount"), map.get("voidedCount"), request);
   }
@@ -344,10 +499,11 @@ public class SyncController extends BaseRestController {
    * date.
    *
    * @param deviceMac the id of a device from which the request was received
+   * @param accept the media types accepted by the client, Smile is returned when requested
    * @param syncRequest contains the details of sync request like sync scope, last modified date,
    * off set and number of results to be retrieved
-   * @return the participant biometric templates which satisfied the specified request criteria
-   * @throws IOException if the request is invalid
+   * @param response the http response to which the templates are streamed
+   * @throws IOException if the request is invalid or the response cannot be written
    * @throws EntityValidationException, if the input data is not valid
    * @see org.openmrs.module.biometric.contract.sync.SyncResponse
    */
@@ -367,21 +523,21 @@ public class SyncController extends BaseRestController {
               code = HttpURLConnection.HTTP_BAD_REQUEST,
               message = "Sync Error request to fetch details is not proper")
       })
-  @ResponseStatus(HttpStatus.OK)
-  @ResponseBody
   @RequestMapping(value = "/sync/getAllParticipantBiometricsTemplates",
       consumes = {
           MediaType.APPLICATION_JSON_VALUE}, produces = {
-      MediaType.APPLICATION_JSON_VALUE},
+      MediaType.APPLICATION_JSON_VALUE, SmileEncoder.SMILE_CONTENT_TYPE},
       method = RequestMethod.POST)
-  public SyncResponse getAllParticipantBiometricsTemplates(
+  public void getAllParticipantBiometricsTemplates(
       @RequestHeader(value = DEVICE_ID) String deviceMac,
+      @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
       @ApiParam(
           name = "syncRequest",
           value = "Request details to fetch participant biometrics template"
       )
       @RequestBody
-          String syncRequest)
+          String syncRequest,
+      HttpServletResponse response)
       throws IOException, EntityValidationException, EntityNotFoundException {
 
     final Instant start = Instant.now();
@@ -396,49 +552,460 @@ public class SyncController extends BaseRestController {
       throw new EntityValidationException("Optimize flag is missing");
     }
 
-    List<String> locations = getLocations(request.getSyncScope());
+    SyncSession session = getSession(request);
+    List<String> locations = getLocations(request.getSyncScope(), session);
 
     if (locations.isEmpty()) {
       throw new EntityNotFoundException(LOCATION_NOT_FOUND);
     }
+    // the generator is not closed on failure, so that an error raised before the first template
+    // is written can still be returned with its status
+    JsonGenerator generator = createGenerator(response, accept);
+    writeTemplatesPage(new SyncPageWriter(generator, null, request), request, session, locations,
+        deviceId);
+    generator.close();
+    Instant end = Instant.now();
+    LOGGER.info("Sync-Templates call execution time : {}", Duration.between(start, end));
+  }
 
+  /**
+   * Streams a page of templates. The templates are read in chunks and every template is written
+   * as soon as its chunk is read, the page is never held in memory.
+   */
+  private void writeTemplatesPage(SyncPageWriter page, SyncRequest request, SyncSession session,
+      List<String> locations, String deviceId) throws IOException {
     Date dateModified = null;
     if (null != request.getDateModifiedOffset()) {
       dateModified = new Date(request.getDateModifiedOffset());
     }
     int maxResultsToFetch = request.getLimit() + request.getUuidsWithDateModifiedOffset().size();
 
-    List<SyncTemplateResponse> templates =
-        syncService.getAllBiometricTemplates(
-            dateModified,
-            deviceId,
-            request.getSyncScope().getCountry(),
-            request.getSyncScope().getSiteUuid(),
-            locations,
-            request.getOptimize(),
-            maxResultsToFetch);
+    Date highWaterMark = getHighWaterMark(session);
+    Future<Map<String, Long>> counts = syncTaskExecutor.submit(() -> getCounts(session,
+        "templates:" + deviceId + ":" + request.getOptimize(),
+        () -> syncService.getBiometricTemplatesCount(
+            deviceId, locations, request.getOptimize(), highWaterMark)));
+    Long offset = request.getDateModifiedOffset();
+    Set<String> uuidsWithOffset = request.getUuidsWithDateModifiedOffset();
+    try {
+      syncService.forEachBiometricTemplate(dateModified, highWaterMark, deviceId, locations,
+          request.getOptimize(), maxResultsToFetch, template -> {
+            boolean synced = null != offset && offset.equals(template.getDateModified())
+                && uuidsWithOffset.contains(template.getParticipantUuid());
+            if (synced || (null != session && !session.includes(template.getDateModified()))) {
+              return;
+            }
+            try {
+              page.write(template);
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
 
-    for (String uuid : request.getUuidsWithDateModifiedOffset()) {
-      templates.removeIf(
-          e ->
-              uuid.equals(e.getParticipantUuid())
-                  && request.getDateModifiedOffset().longValue()
-                  == e.getDateModified().longValue());
+    Map<String, Long> map = syncTaskExecutor.await(counts);
+    page.end(map.get(TABLE_COUNT), request.getOptimize() ? map.get(IGNORED_COUNT) : null,
+        map.get(VOIDED_COUNT));
+  }
+
+  /**
+   * Retrieves a page of several record types in one request, so that a full incremental sync does
+   * not cost a round trip per record type. The sync scope is resolved once, the pages of the
+   * requested record types are then queried concurrently and each page is streamed as soon as it
+   * is ready, as a field of the response named after its record type. A record type whose page
+   * cannot be retrieved is reported in the errors field and can be synced with its own endpoint.
+   *
+   * @param deviceMac the device from where the request was received, required for the images and
+   * the templates
+   * @param accept the media types accepted by the client, Smile is returned when requested
+   * @param syncAllRequest the sync scope and the page requested by record type
+   * @param response the http response to which the pages are written
+   * @throws IOException if the request is invalid or the response cannot be written
+   * @throws EntityNotFoundException if no location is found for the sync scope
+   * @throws EntityValidationException if the sync scope or the page requests are not valid
+   */
+  @ApiOperation(
+      value = "Get the pages of several record types for the given sync scope",
+      notes = "Get the pages of participants, visits, images and templates in one request",
+      response = SyncResponse.class, responseContainer = "Map")
+  @ApiResponses(
+      value = {
+          @ApiResponse(
+              code = HttpURLConnection.HTTP_OK,
+              message = "On successful retrieval of the pages"),
+          @ApiResponse(
+              code = HttpURLConnection.HTTP_BAD_REQUEST,
+              message = "Sync request to fetch details is not proper")
+      })
+  @RequestMapping(value = "/sync/getAll",
+      consumes = MediaType.APPLICATION_JSON_VALUE, method = RequestMethod.POST)
+  public void getAll(
+      @RequestHeader(value = DEVICE_ID, required = false) String deviceMac,
+      @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+      @RequestBody String syncAllRequest,
+      HttpServletResponse response)
+      throws IOException, EntityNotFoundException, EntityValidationException {
+
+    final Instant start = Instant.now();
+    SyncAllRequest request = util.jsonToObject(syncAllRequest, SyncAllRequest.class);
+    // the pages are validated per record type, only the scope is shared by the request
+    locationUtil.validateSyncScope(request.getSyncScope());
+    String deviceId = SanitizeUtil.sanitizeInputString(deviceMac);
+    Map<String, SyncRequest> entities = request.getEntities();
+    if (null == entities || entities.isEmpty()) {
+      throw new EntityValidationException("Entities are missing");
+    }
+    for (Map.Entry<String, SyncRequest> entry : entities.entrySet()) {
+      validateEntityRequest(entry.getKey(), entry.getValue(), request, deviceId);
     }
+    LOGGER.info("Sync-All request of {} is triggered from the device : {} with scope : {}",
+        entities.keySet(), deviceId, request.getSyncScope().getSiteUuid());
 
-    Map<String, Long> map =
-        syncService.getBiometricTemplatesCount(deviceId, locations, request.getOptimize());
+    SyncSession session = getSession(request);
+    List<String> locations = getLocations(request.getSyncScope(), session);
+    if (locations.isEmpty()) {
+      throw new EntityNotFoundException(LOCATION_NOT_FOUND);
+    }
 
-    Long tableCount = map.get(TABLE_COUNT);
-    Long ignoredCount = null;
-    if (request.getOptimize()) {
-      ignoredCount = map.get(IGNORED_COUNT);
+    BlockingQueue<String> completed = new LinkedBlockingQueue<>();
+    Map<String, Future<SyncResponse>> pages = new LinkedHashMap<>();
+    for (Map.Entry<String, SyncRequest> entry : entities.entrySet()) {
+      String entity = entry.getKey();
+      SyncRequest entityRequest = entry.getValue();
+      if (SYNC_ENTITY_TEMPLATES.equals(entity)) {
+        continue;
+      }
+      pages.put(entity, syncTaskExecutor.submit(() -> {
+        try {
+          return getPage(entity, entityRequest, session, locations, deviceId);
+        } finally {
+          completed.add(entity);
+        }
+      }));
+    }
+
+    Map<String, String> errors = new TreeMap<>();
+    try (JsonGenerator generator = createGenerator(response, accept)) {
+      generator.writeStartObject();
+      SyncRequest templatesRequest = entities.get(SYNC_ENTITY_TEMPLATES);
+      if (null != templatesRequest) {
+        // the templates are streamed by the request thread while the other pages are queried
+        SyncPageWriter page =
+            new SyncPageWriter(generator, SYNC_ENTITY_TEMPLATES, templatesRequest);
+        try {
+          writeTemplatesPage(page, templatesRequest, session, locations, deviceId);
+        } catch (RuntimeException e) {
+          LOGGER.error("Sync-All failed to retrieve the {} page", SYNC_ENTITY_TEMPLATES, e);
+          page.abort();
+          errors.put(SYNC_ENTITY_TEMPLATES, e.getMessage());
+        }
+        generator.flush();
+      }
+      while (!pages.isEmpty()) {
+        // the pages are written in the order they complete, or awaited in the request order
+        String entity = completed.poll();
+        if (null == entity) {
+          entity = pages.keySet().iterator().next();
+        }
+        Future<SyncResponse> page = pages.remove(entity);
+        if (null == page) {
+          continue;
+        }
+        try {
+          generator.writeObjectField(entity, syncTaskExecutor.await(page));
+        } catch (RuntimeException e) {
+          LOGGER.error("Sync-All failed to retrieve the {} page", entity, e);
+          errors.put(entity, e.getMessage());
+        }
+        generator.flush();
+      }
+      if (!errors.isEmpty()) {
+        generator.writeObjectField(SYNC_ERRORS, errors);
+      }
+      generator.writeEndObject();
+    } finally {
+      for (Future<SyncResponse> page : pages.values()) {
+        page.cancel(true);
+      }
+    }
+    LOGGER.info("Sync-All call execution time : {}", Duration.between(start, Instant.now()));
+  }
+
+  /**
+   * Opens a sync session for a sync scope. The session pins the current time as high-water mark,
+   * the pages requested with the returned session id only contain the records modified up to that
+   * mark and report the same counts, so that writes landing between two pages neither shift the
+   * pages nor change the counts. Sessions expire when they are not used for the returned timeout
+   * in seconds, the changes made after the mark are synced by the next session.
+   *
+   * @param syncRequest contains the sync scope of the session
+   * @return the id and the high-water mark of the session
+   * @throws IOException if the request is invalid
+   * @throws EntityNotFoundException if no location is found for the sync scope
+   * @throws EntityValidationException if the sync scope is not valid
+   */
+  @ApiOperation(
+      value = "Open a sync session for the given sync scope",
+      notes = "Open a sync session for the given sync scope",
+      response = SyncSessionResponse.class)
+  @ApiResponses(
+      value = {
+          @ApiResponse(
+              code = HttpURLConnection.HTTP_OK,
+              message = "On successful opening of the sync session"),
+          @ApiResponse(
+              code = HttpURLConnection.HTTP_BAD_REQUEST,
+              message = "Sync scope of the request is not proper")
+      })
+  @ResponseStatus(HttpStatus.OK)
+  @ResponseBody
+  @RequestMapping(value = "/sync/session",
+      consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE,
+      method = RequestMethod.POST)
+  public SyncSessionResponse openSyncSession(@RequestBody String syncRequest)
+      throws IOException, EntityNotFoundException, EntityValidationException {
+
+    SyncRequest request = util.jsonToObject(syncRequest, SyncRequest.class);
+    locationUtil.validateSyncLocationData(request);
+    List<String> locations = getLocations(request.getSyncScope());
+    if (locations.isEmpty()) {
+      throw new EntityNotFoundException(LOCATION_NOT_FOUND);
+    }
+    SyncSession session = syncSessionRegistry.open(request.getSyncScope(), locations);
+    LOGGER.info("Sync session {} opened for the country : {} and the site : {}",
+        session.getId(), request.getSyncScope().getCountry(),
+        request.getSyncScope().getSiteUuid());
+
+    SyncSessionResponse response = new SyncSessionResponse();
+    response.setSyncSessionId(session.getId());
+    response.setSyncScope(request.getSyncScope());
+    response.setHighWaterMark(session.getHighWaterMark());
+    response.setTimeout(SyncSessionRegistry.SESSION_TIMEOUT_MINUTES * 60);
+    return response;
+  }
+
+  /**
+   * Closes a sync session once the device completed the sync.
+   *
+   * @param syncSessionId the id of the session
+   * @throws EntityNotFoundException if the session is not open
+   */
+  @ApiOperation(value = "Close a sync session", notes = "Close a sync session")
+  @ApiResponses(
+      value = {
+          @ApiResponse(
+              code = HttpURLConnection.HTTP_OK,
+              message = "On successful closing of the sync session"),
+          @ApiResponse(
+              code = HttpURLConnection.HTTP_NOT_FOUND,
+              message = "Sync session not found or expired")
+      })
+  @ResponseStatus(HttpStatus.OK)
+  @ResponseBody
+  @RequestMapping(value = "/sync/session/{syncSessionId}", method = RequestMethod.DELETE)
+  public void closeSyncSession(@PathVariable("syncSessionId") String syncSessionId)
+      throws EntityNotFoundException {
+    if (!syncSessionRegistry.close(syncSessionId)) {
+      throw new EntityNotFoundException(SYNC_SESSION_NOT_FOUND);
+    }
+  }
+
+  /**
+   * Reconciles the records held by a device with the server, typically after the local database of
+   * the device has been reset. The device sends the digests of its records spread in buckets, only
+   * the uuids and modification dates of the records of the buckets which differ are returned, so
+   * that the transfer scales with the difference rather than with the dataset. The device then
+   * fetches the records it misses by uuid and removes the ones which are not returned.
+   *
+   * @param reconcileRequest the sync scope, the entity and the bucket digests of the device
+   * @return the records of the buckets which differ
+   * @throws IOException if the request is invalid
+   * @throws EntityNotFoundException if no location is found for the sync scope
+   * @throws EntityValidationException if the sync scope, the entity or the digests are not valid
+   */
+  @ApiOperation(
+      value = "Reconcile the records of a device with the given sync scope",
+      notes = "Returns the records of the buckets whose digest differs from the device",
+      response = ReconcileResponse.class)
+  @ApiResponses(
+      value = {
+          @ApiResponse(
+              code = HttpURLConnection.HTTP_OK,
+              message = "On successful reconciliation"),
+          @ApiResponse(
+              code = HttpURLConnection.HTTP_BAD_REQUEST,
+              message = "Sync scope, entity or digests of the request are not proper")
+      })
+  @ResponseStatus(HttpStatus.OK)
+  @ResponseBody
+  @RequestMapping(value = "/sync/reconcile",
+      consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE,
+      method = RequestMethod.POST)
+  public ReconcileResponse reconcile(@RequestBody String reconcileRequest)
+      throws IOException, EntityNotFoundException, EntityValidationException {
+
+    final Instant start = Instant.now();
+    ReconcileRequest request = util.jsonToObject(reconcileRequest, ReconcileRequest.class);
+    locationUtil.validateSyncLocationData(request);
+    SyncSession session = getSession(request);
+    List<String> locations = getLocations(request.getSyncScope(), session);
+    if (locations.isEmpty()) {
+      throw new EntityNotFoundException(LOCATION_NOT_FOUND);
+    }
+
+    ReconcileResponse response = new ReconcileResponse();
+    response.setEntity(request.getEntity());
+    response.setBucketCount(request.getBucketCount());
+    response.setBuckets(syncService.reconcile(request.getEntity(), locations,
+        request.getBucketCount(), request.getDigests()));
+    LOGGER.info("Sync-Reconcile of {} : {} of {} buckets differ, execution time : {}",
+        request.getEntity(), response.getBuckets().size(), request.getBucketCount(),
+        Duration.between(start, Instant.now()));
+    return response;
+  }
+
+  /**
+   * Waits until records of the sync scope of the device change, so that idle devices do not have to
+   * poll all the sync endpoints. The first call, without a cursor, returns the current cursor
+   * immediately. The following calls send the cursor of the previous response and return as soon
+   * as a record type changes, or with no changes when the timeout elapses. The device then only
+   * syncs the record types returned.
+   *
+   * @param syncChangesRequest the sync scope, the cursor and the timeout in seconds
+   * @return the changed record types and the cursor for the next call
+   * @throws IOException if the request is invalid
+   * @throws EntityNotFoundException if no location is found for the sync scope
+   * @throws EntityValidationException if the sync scope is not valid
+   */
+  @ApiOperation(
+      value = "Wait for changes in the given sync scope",
+      notes = "Returns the record types changed since the cursor, or none after the timeout",
+      response = SyncChangesResponse.class)
+  @ApiResponses(
+      value = {
+          @ApiResponse(
+              code = HttpURLConnection.HTTP_OK,
+              message = "On change or timeout"),
+          @ApiResponse(
+              code = HttpURLConnection.HTTP_BAD_REQUEST,
+              message = "Sync scope of the request is not proper")
+      })
+  @ResponseStatus(HttpStatus.OK)
+  @ResponseBody
+  @RequestMapping(value = "/sync/changes",
+      consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE,
+      method = RequestMethod.POST)
+  public SyncChangesResponse getChanges(@RequestBody String syncChangesRequest)
+      throws IOException, EntityNotFoundException, EntityValidationException {
+
+    SyncChangesRequest request = util.jsonToObject(syncChangesRequest, SyncChangesRequest.class);
+    locationUtil.validateSyncLocationData(request);
+    List<String> locations = getLocations(request.getSyncScope(), getSession(request));
+    if (locations.isEmpty()) {
+      throw new EntityNotFoundException(LOCATION_NOT_FOUND);
+    }
+    int timeout = null == request.getTimeout() ? DEFAULT_CHANGES_TIMEOUT
+        : Math.max(0, Math.min(MAX_CHANGES_TIMEOUT, request.getTimeout()));
+
+    SyncChanges changes = syncChangeTracker.await(request.getCursor(), locations,
+        TimeUnit.SECONDS.toMillis(timeout));
+    SyncChangesResponse response = new SyncChangesResponse();
+    response.setCursor(changes.getCursor());
+    response.setChanges(changes.getEntityTypes());
+    return response;
+  }
+
+  /**
+   * Streams the latest bootstrap snapshot of a sync scope. Newly provisioned devices import the
+   * snapshot and then delta sync starting from the watermark returned in the X-Snapshot-Watermark
+   * header. Interrupted downloads can be resumed with a Range request, the snapshot version is
+   * returned as the ETag to be used in the If-Range header.
+   *
+   * @param country the country of the sync scope
+   * @param cluster the cluster of the sync scope
+   * @param siteUuid the site of the sync scope
+   * @param range the requested byte range
+   * @param ifRange the snapshot version the range belongs to
+   * @param response the http response to which the snapshot is written
+   * @throws IOException if the snapshot cannot be read
+   * @throws EntityNotFoundException if no snapshot is built yet for the scope
+   */
+  @ApiOperation(
+      value = "Download the bootstrap snapshot of the given sync scope",
+      notes = "Download the bootstrap snapshot of the given sync scope")
+  @ApiResponses(
+      value = {
+          @ApiResponse(
+              code = HttpURLConnection.HTTP_OK,
+              message = "On successful download of the snapshot"),
+          @ApiResponse(
+              code = HttpURLConnection.HTTP_PARTIAL,
+              message = "On successful download of the requested range of the snapshot"),
+          @ApiResponse(
+              code = HttpURLConnection.HTTP_NOT_FOUND,
+              message = "Snapshot not available for the given sync scope")
+      })
+  @RequestMapping(value = "/sync/bootstrap", method = RequestMethod.GET)
+  public void getBootstrapSnapshot(
+      @RequestParam(value = "country") String country,
+      @RequestParam(value = "cluster", required = false) String cluster,
+      @RequestParam(value = "siteUuid", required = false) String siteUuid,
+      @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+      @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) String ifRange,
+      HttpServletResponse response) throws IOException, EntityNotFoundException {
+
+    SyncScope syncScope = new SyncScope();
+    syncScope.setCountry(country);
+    syncScope.setCluster(cluster);
+    syncScope.setSiteUuid(siteUuid);
+    BootstrapSnapshotBuilder.Snapshot snapshot = bootstrapSnapshotBuilder.findLatest(syncScope);
+    if (null == snapshot) {
+      throw new EntityNotFoundException("Bootstrap snapshot not found for the given sync scope");
+    }
+
+    File file = snapshot.getFile();
+    long length = file.length();
+    String etag = "\"" + snapshot.getWatermark() + "\"";
+    response.setHeader(HttpHeaders.ETAG, etag);
+    response.setHeader(HttpHeaders.ACCEPT_RANGES, BYTES_UNIT);
+    response.setHeader(SNAPSHOT_WATERMARK_HEADER, String.valueOf(snapshot.getWatermark()));
+    response.setContentType(SNAPSHOT_CONTENT_TYPE);
+
+    long start = 0;
+    long end = length - 1;
+    Matcher matcher = null == range ? null : BYTE_RANGE.matcher(range.trim());
+    // a range of an older snapshot version is ignored and the whole snapshot is sent
+    boolean partial = null != matcher && matcher.matches()
+        && (null == ifRange || etag.equals(ifRange.trim()))
+        && !(matcher.group(1).isEmpty() && matcher.group(2).isEmpty());
+    if (partial) {
+      if (matcher.group(1).isEmpty()) {
+        start = Math.max(0, length - Long.parseLong(matcher.group(2)));
+      } else {
+        start = Long.parseLong(matcher.group(1));
+        if (!matcher.group(2).isEmpty()) {
+          end = Math.min(end, Long.parseLong(matcher.group(2)));
+        }
+      }
+      if (start >= length || start > end) {
+        response.setHeader(HttpHeaders.CONTENT_RANGE, BYTES_UNIT + " */" + length);
+        response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+        return;
+      }
+      response.setHeader(HttpHeaders.CONTENT_RANGE,
+          String.format("%s %d-%d/%d", BYTES_UNIT, start, end, length));
+      response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+    } else {
+      response.setStatus(HttpServletResponse.SC_OK);
+    }
+
+    long count = Math.max(0, end - start + 1);
+    response.setHeader(HttpHeaders.CONTENT_LENGTH, String.valueOf(count));
+    try (InputStream in = new FileInputStream(file)) {
+      IOUtils.copyLarge(in, response.getOutputStream(), start, count);
     }
-    Long voidedCount = map.get(VOIDED_COUNT);
-    Instant end = Instant.now();
-    LOGGER.info("Sync-Templates call execution time : {}", Duration.between(start, end));
-    return syncResponseBuilder.createFrom(
-        templates, tableCount, ignoredCount, voidedCount, request);
   }
 
   /**
@@ -509,14 +1076,16 @@ public class SyncController extends BaseRestController {
     if (null == syncErrors || syncErrors.isEmpty()) {
       throw new EntityValidationException(INVALID_REQUEST_BODY);
     }
+    List<SyncErrorData> errors = new ArrayList<>(syncErrors.size());
     for (SyncError syncError : syncErrors) {
-      syncService.saveSyncError(
-          deviceId,
-          syncError.getStackTrace(),
-          syncError.getDateCreated(),
-          syncError.getKey(),
-          util.toJsonString(syncError.getMetadata()));
+      SyncErrorData error = new SyncErrorData();
+      error.setStackTrace(syncError.getStackTrace());
+      error.setDateCreated(syncError.getDateCreated());
+      error.setKey(syncError.getKey());
+      error.setMeta(util.toJsonString(syncError.getMetadata()));
+      errors.add(error);
     }
+    syncService.saveSyncErrors(deviceId, errors);
   }
 
   /**
@@ -557,7 +1126,172 @@ public class SyncController extends BaseRestController {
     if (errorKeys.isEmpty()) {
       throw new EntityValidationException("syncErrorKeys cannot be empty");
     }
-    syncService.resolveSyncErrors(deviceId, errorKeys);
+    int resolved = syncService.resolveSyncErrors(deviceId, errorKeys);
+    LOGGER.debug("{} sync errors resolved for the device {}", resolved, deviceId);
+  }
+
+  /**
+   * Validates the page requested for a record type by a sync all request. The page is synced in the
+   * sync scope and the session of the request.
+   */
+  private void validateEntityRequest(String entity, SyncRequest entityRequest,
+      SyncRequest request, String deviceId) throws EntityValidationException {
+    if (!SyncChangeTracker.ENTITY_TYPES.contains(entity)) {
+      throw new EntityValidationException("Unknown sync entity : " + entity);
+    }
+    if (null == entityRequest) {
+      throw new EntityValidationException(INVALID_REQUEST_BODY);
+    }
+    entityRequest.setSyncScope(request.getSyncScope());
+    entityRequest.setSyncSessionId(request.getSyncSessionId());
+    if (null == entityRequest.getUuidsWithDateModifiedOffset()) {
+      entityRequest.setUuidsWithDateModifiedOffset(new HashSet<>());
+    }
+    locationUtil.validateSyncAllPage(entityRequest);
+    if (SYNC_ENTITY_IMAGES.equals(entity) || SYNC_ENTITY_TEMPLATES.equals(entity)) {
+      if (StringUtils.isBlank(deviceId)) {
+        throw new EntityValidationException("Device id is missing");
+      }
+      if (null == entityRequest.getOptimize()) {
+        throw new EntityValidationException("Optimize flag is missing");
+      }
+    }
+    if (SYNC_ENTITY_IMAGES.equals(entity) && null != entityRequest.getImageVariant()) {
+      imageVariantStore.validate(entityRequest.getImageVariant());
+    }
+  }
+
+  /**
+   * Retrieves the page of a record type of a sync all request, the templates are streamed by
+   * {@link #writeTemplatesPage} instead.
+   */
+  private SyncResponse getPage(String entity, SyncRequest request, SyncSession session,
+      List<String> locations, String deviceId) throws IOException, EntityNotFoundException {
+    switch (entity) {
+      case SYNC_ENTITY_PARTICIPANTS:
+        return getParticipantsPage(request, session, locations);
+      case SYNC_ENTITY_VISITS:
+        return getVisitsPage(request, session, locations);
+      default:
+        return getImagesPage(request, session, locations, deviceId);
+    }
+  }
+
+  /**
+   * Starts a streamed response, encoded in the Smile binary format when the client accepts it,
+   * otherwise in JSON.
+   */
+  private JsonGenerator createGenerator(HttpServletResponse response, String accept)
+      throws IOException {
+    boolean smile = SmileEncoder.isAccepted(accept);
+    ObjectMapper writer = smile ? smileEncoder.getMapper() : mapper;
+    response.setStatus(HttpServletResponse.SC_OK);
+    response.setContentType(smile ? SmileEncoder.SMILE_CONTENT_TYPE
+        : MediaType.APPLICATION_JSON_VALUE);
+    return writer.getJsonFactory().createJsonGenerator(response.getOutputStream());
+  }
+
+  /**
+   * Encodes the response in the Smile binary format when the client accepts it, otherwise the
+   * response is returned as it is and written as JSON.
+   */
+  private Object encode(SyncResponse response, String accept) throws IOException {
+    if (SmileEncoder.isAccepted(accept)) {
+      return smileEncoder.encode(response);
+    }
+    return response;
+  }
+
+  /**
+   * Returns the sync session of the request.
+   *
+   * @return the session or null if the request is not part of a session
+   */
+  private SyncSession getSession(SyncRequest request)
+      throws EntityNotFoundException, EntityValidationException {
+    if (StringUtils.isEmpty(request.getSyncSessionId())) {
+      return null;
+    }
+    SyncSession session = syncSessionRegistry.get(request.getSyncSessionId());
+    if (null == session) {
+      throw new EntityNotFoundException(SYNC_SESSION_NOT_FOUND);
+    }
+    if (!session.matches(request.getSyncScope())) {
+      throw new EntityValidationException("Sync scope does not match the sync session");
+    }
+    return session;
+  }
+
+  /**
+   * Returns the key of the pages prefetched for the device, the pages are only served to the same
+   * user.
+   *
+   * @return the key or null if the request does not identify the device
+   */
+  private String getPrefetchOwner(String deviceId, String entity) {
+    if (StringUtils.isBlank(deviceId)) {
+      return null;
+    }
+    User user = Context.getAuthenticatedUser();
+    return (null == user ? "" : user.getUuid()) + ':' + deviceId + ':' + entity;
+  }
+
+  /**
+   * Starts preparing the page the device is expected to request next. The device continues from
+   * the latest modification date of the served records, skipping the records it already has at
+   * that date. Nothing is prepared when the device is in sync.
+   */
+  private <T> void prefetchNextPage(String owner, SyncRequest request, SyncResponse response,
+      Function<T, String> uuid, Function<T, Long> dateModified, PageLoader loader) {
+    if (null == owner || response.getRecords().isEmpty()) {
+      return;
+    }
+    @SuppressWarnings("unchecked")
+    List<T> records = (List<T>) response.getRecords();
+    Long offset = null;
+    for (T record : records) {
+      Long date = dateModified.apply(record);
+      if (null != date && (null == offset || date > offset)) {
+        offset = date;
+      }
+    }
+    if (null == offset) {
+      return;
+    }
+    Set<String> uuids = new HashSet<>();
+    if (offset.equals(request.getDateModifiedOffset())) {
+      uuids.addAll(request.getUuidsWithDateModifiedOffset());
+    }
+    for (T record : records) {
+      if (offset.equals(dateModified.apply(record))) {
+        uuids.add(uuid.apply(record));
+      }
+    }
+    SyncRequest next = new SyncRequest();
+    next.setSyncScope(request.getSyncScope());
+    next.setSyncSessionId(request.getSyncSessionId());
+    next.setLimit(request.getLimit());
+    next.setOffset(request.getOffset());
+    next.setOptimize(request.getOptimize());
+    next.setDateModifiedOffset(offset);
+    next.setUuidsWithDateModifiedOffset(uuids);
+    syncPrefetchCache.prefetch(owner, next, () -> loader.load(next));
+  }
+
+  /**
+   * Returns the counts pinned by the session, or fresh counts when there is no session.
+   */
+  private Map<String, Long> getCounts(SyncSession session, String key,
+      Supplier<Map<String, Long>> loader) {
+    return null == session ? loader.get() : session.getCounts(key, loader);
+  }
+
+  private static Date getHighWaterMark(SyncSession session) {
+    return null == session ? null : session.getHighWaterMarkDate();
+  }
+
+  private List<String> getLocations(SyncScope syncScope, SyncSession session) {
+    return null == session ? getLocations(syncScope) : session.getLocations();
   }
 
   private List<String> getLocations(SyncScope syncScope) {
@@ -577,4 +1311,13 @@ public class SyncController extends BaseRestController {
     }
     return locations;
   }
+
+  /**
+   * Builds a sync page.
+   */
+  @FunctionalInterface
+  private interface PageLoader {
+
+    SyncResponse load(SyncRequest request) throws Exception;
+  }
 }
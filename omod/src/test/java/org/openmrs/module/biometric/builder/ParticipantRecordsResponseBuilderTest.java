@@ -15,13 +15,17 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
-import org.mockito.Mockito;
+import org.mockito.Spy;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.openmrs.Patient;
-import org.openmrs.PersonAddress;
 import org.openmrs.module.biometric.api.constants.BiometricApiConstants;
 import org.openmrs.module.biometric.api.exception.EntityNotFoundException;
-import org.openmrs.module.biometric.api.service.ConfigService;
+import org.openmrs.module.biometric.api.model.IdentifierData;
+import org.openmrs.module.biometric.api.model.PatientSyncData;
+import org.openmrs.module.biometric.api.service.SyncService;
+import org.openmrs.module.biometric.api.util.AddressExtractor;
+import org.openmrs.module.biometric.api.util.BiometricApiUtil;
+import org.openmrs.module.biometric.api.util.SyncTaskExecutor;
 import org.openmrs.module.biometric.common.ParticipantRecordsResponseBuilderTestUtil;
 import org.openmrs.module.biometric.contract.sync.ParticipantData;
 import org.openmrs.module.biometric.contract.sync.SyncRequest;
@@ -35,14 +39,15 @@ import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.anyLong;
-import static org.mockito.Matchers.anyString;
 import static org.powermock.api.mockito.PowerMockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -52,11 +57,17 @@ public class ParticipantRecordsResponseBuilderTest {
   private SyncResponseBuilder syncResponseBuilder;
 
   @Mock
-  private ConfigService configService;
+  private BiometricApiUtil biometricApiUtil;
 
   @Mock
   private BiometricModUtil util;
 
+  @Mock
+  private SyncService syncService;
+
+  @Spy
+  private SyncTaskExecutor syncTaskExecutor = new SyncTaskExecutor();
+
   @InjectMocks
   private ParticipantRecordsResponseBuilder participantRecordsResponseBuilder;
 
@@ -72,15 +83,16 @@ public class ParticipantRecordsResponseBuilderTest {
         "\"field\":\"address1\"},{\"name\":\"Number\",\"field\":\"address2\"}]}}";
     ObjectMapper objectMapper = new ObjectMapper();
     JsonNode jsonNode1 = objectMapper.readTree(json1);
-    Mockito.when(util.toJsonNode(anyString())).thenReturn(jsonNode1);
+    when(biometricApiUtil.getAddressExtractor()).thenReturn(AddressExtractor.compile(jsonNode1.get("addressFields")));
     when(util.dateToISO8601(any(Date.class))).thenReturn(strDate);
-    when(util.getPersonAddressProperty(any(PersonAddress.class), anyString())).thenReturn("Belgium");
     when(syncResponseBuilder.createFrom(anyList(), anyLong(), anyLong(), anyLong(),
         any(SyncRequest.class))).thenCallRealMethod();
 
     long total = 4L;
     long voidCount = 3L;
     List<Patient> patientList = Collections.singletonList(ParticipantRecordsResponseBuilderTestUtil.createPatient());
+    when(syncService.getPatientSyncData(patientList))
+        .thenReturn(ParticipantRecordsResponseBuilderTestUtil.createPatientSyncData(patientList.get(0)));
 
     SyncResponse response = participantRecordsResponseBuilder.createFrom(patientList, total, voidCount, syncRequest);
 
@@ -104,9 +116,8 @@ public class ParticipantRecordsResponseBuilderTest {
         "\"field\":\"address1\"},{\"name\":\"Number\",\"field\":\"address2\"}]}}";
     ObjectMapper objectMapper = new ObjectMapper();
     JsonNode jsonNode1 = objectMapper.readTree(json1);
-    Mockito.when(util.toJsonNode(anyString())).thenReturn(jsonNode1);
+    when(biometricApiUtil.getAddressExtractor()).thenReturn(AddressExtractor.compile(jsonNode1.get("addressFields")));
     when(util.dateToISO8601(any(Date.class))).thenReturn(strDate);
-    when(util.getPersonAddressProperty(any(PersonAddress.class), anyString())).thenReturn("Belgium");
     when(syncResponseBuilder.createFrom(anyList(), anyLong(), anyLong(), anyLong(),
         any(SyncRequest.class))).thenCallRealMethod();
 
@@ -116,6 +127,8 @@ public class ParticipantRecordsResponseBuilderTest {
     voidedPatient.setVoided(true);
     voidedPatient.getPatientIdentifier().setVoided(true);
     List<Patient> patientList = Collections.singletonList(voidedPatient);
+    when(syncService.getPatientSyncData(patientList))
+        .thenReturn(ParticipantRecordsResponseBuilderTestUtil.createPatientSyncData(voidedPatient));
 
     SyncResponse response = participantRecordsResponseBuilder.createFrom(patientList, total, voidCount, syncRequest);
 
@@ -126,4 +139,32 @@ public class ParticipantRecordsResponseBuilderTest {
     assertEquals(BiometricApiConstants.SYNC_DELETE, voidedParticipant.getType());
     assertEquals("btest1", voidedParticipant.getParticipantId());
   }
+
+  @Test
+  public void createFrom_shouldAssembleRecordsFromBatchLoadedSyncData() throws EntityNotFoundException, IOException {
+    SyncRequest syncRequest = ParticipantRecordsResponseBuilderTestUtil.createSyncRequest();
+    String json = "{\"addressFields\":{\"Belgium\":[{\"field\":\"cityVillage\"}]}}";
+    when(biometricApiUtil.getAddressExtractor())
+        .thenReturn(AddressExtractor.compile(new ObjectMapper().readTree(json).get("addressFields")));
+    when(syncResponseBuilder.createFrom(anyList(), anyLong(), anyLong(), anyLong(),
+        any(SyncRequest.class))).thenCallRealMethod();
+
+    Patient patient = ParticipantRecordsResponseBuilderTestUtil.createPatient();
+    Map<Integer, PatientSyncData> syncData = ParticipantRecordsResponseBuilderTestUtil.createPatientSyncData(patient);
+    PatientSyncData patientData = syncData.get(patient.getPatientId());
+    patientData.getIdentifiers().clear();
+    patientData.getIdentifiers().add(new IdentifierData("voided1", true, true));
+    patientData.getIdentifiers().add(new IdentifierData("active1", false, false));
+    List<Patient> patientList = Collections.singletonList(patient);
+    when(syncService.getPatientSyncData(anyListOf(Patient.class))).thenReturn(syncData);
+
+    SyncResponse response = participantRecordsResponseBuilder.createFrom(patientList, 1L, 0L, syncRequest);
+
+    ParticipantData participant = (ParticipantData) response.getRecords().get(0);
+    assertEquals("active1", participant.getParticipantId());
+    assertEquals(1, participant.getAttributes().size());
+    assertEquals("aseee", participant.getAttributes().get(0).getType());
+    assertEquals("aertr", participant.getAttributes().get(0).getValue());
+    assertEquals("Belgium", participant.getAddresses().get("country"));
+  }
 }
@@ -116,4 +116,25 @@ public class PatientBuilderTest {
     verify(locationUtil, times(1)).getLocationByUuid(LOCATION_UUID);
   }
 
+  @Test
+  public void createFrom_shouldResolveTheLookupsOnceForTheBatch()
+      throws EntityNotFoundException, ParseException {
+    when(patientService.getPatientIdentifierTypeByName(OPEN_MRS_ID))
+        .thenReturn(new PatientIdentifierType());
+    when(locationUtil.getLocationUuid(request.getAttributes())).thenReturn(LOCATION_UUID);
+    when(locationUtil.getLocationByUuid(LOCATION_UUID)).thenReturn(new Location());
+    when(personService.getPersonAttributeTypeByName(anyString()))
+        .thenReturn(new PersonAttributeType());
+    int attributes = request.getAttributes().size();
+    PatientBuilder.Lookups lookups = new PatientBuilder.Lookups();
+
+    patientBuilder.createFrom(request, lookups);
+    patientBuilder.createFrom(request, lookups);
+
+    assertThat(request.getAttributes().size(), equalTo(attributes));
+    verify(patientService, times(1)).getPatientIdentifierTypeByName(anyString());
+    verify(personService, times(attributes + 1)).getPersonAttributeTypeByName(anyString());
+    verify(locationUtil, times(1)).getLocationByUuid(LOCATION_UUID);
+  }
+
 }
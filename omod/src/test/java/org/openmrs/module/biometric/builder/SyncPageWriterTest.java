@@ -0,0 +1,89 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ *
+ * <p>Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is
+ * a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.module.biometric.api.contract.SyncImageResponse;
+import org.openmrs.module.biometric.common.SyncResponseTestUtil;
+import org.openmrs.module.biometric.contract.sync.SyncRequest;
+import org.openmrs.module.biometric.contract.sync.SyncResponse;
+import org.openmrs.module.biometric.contract.sync.SyncStatus;
+
+public class SyncPageWriterTest {
+
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final StringWriter out = new StringWriter();
+  private SyncRequest syncRequest;
+  private JsonGenerator generator;
+
+  @Before
+  public void setUp() throws IOException {
+    syncRequest = SyncResponseTestUtil.createSyncRequestObject();
+    generator = mapper.getJsonFactory().createJsonGenerator(out);
+  }
+
+  @Test
+  public void end_shouldWriteThePageWithTheFieldsOfASyncResponse() throws IOException {
+    SyncPageWriter page = new SyncPageWriter(generator, null, syncRequest);
+    for (SyncImageResponse record : SyncResponseTestUtil.createSyncImageResponseList()) {
+      page.write(record);
+    }
+    page.end(4L, 7L, 0L);
+    generator.close();
+
+    SyncResponse response = mapper.readValue(out.toString(), SyncResponse.class);
+    assertEquals(SyncStatus.OUT_OF_SYNC, response.getSyncStatus());
+    assertEquals(SyncResponseTestUtil.createSyncImageResponseList().size(),
+        response.getRecords().size());
+    assertEquals(Long.valueOf(4L), response.getTableCount());
+    assertEquals(Long.valueOf(7L), response.getIgnoredCount());
+    assertEquals(syncRequest.getLimit(), response.getLimit());
+    assertEquals(syncRequest.getSyncScope().getCountry(), response.getSyncScope().getCountry());
+  }
+
+  @Test
+  public void end_shouldWriteAnEmptyPageAsInSync() throws IOException {
+    SyncPageWriter page = new SyncPageWriter(generator, null, syncRequest);
+    page.end(4L, null, 0L);
+    generator.close();
+
+    JsonNode json = mapper.readTree(out.toString());
+    assertEquals(SyncStatus.OK.name(), json.get("syncStatus").getTextValue());
+    assertEquals(0, json.get("records").size());
+    assertNull(json.get("ignoredCount"));
+  }
+
+  @Test
+  public void abort_shouldCloseAPageWhichFailedAfterItsFirstRecord() throws IOException {
+    generator.writeStartObject();
+    SyncPageWriter written = new SyncPageWriter(generator, "images", syncRequest);
+    written.write(SyncResponseTestUtil.createSyncImageResponseList().get(0));
+    written.abort();
+    SyncPageWriter failed = new SyncPageWriter(generator, "templates", syncRequest);
+    failed.abort();
+    generator.writeEndObject();
+    generator.close();
+
+    JsonNode json = mapper.readTree(out.toString());
+    assertEquals(1, json.get("images").get("records").size());
+    assertNull(json.get("images").get("syncStatus"));
+    assertNull(json.get("templates"));
+  }
+}
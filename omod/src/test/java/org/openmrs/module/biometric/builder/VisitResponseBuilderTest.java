@@ -18,6 +18,8 @@ import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -31,10 +33,13 @@ import org.openmrs.Visit;
 import org.openmrs.VisitType;
 import org.openmrs.api.AdministrationService;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.biometric.api.model.AttributeData;
+import org.openmrs.module.biometric.api.model.ObservationData;
+import org.openmrs.module.biometric.api.model.VisitSyncData;
+import org.openmrs.module.biometric.api.service.SyncService;
 import org.openmrs.module.biometric.common.BiometricTestUtil;
 import org.openmrs.module.biometric.contract.NewVisitResponse;
 import org.openmrs.module.biometric.contract.VisitResponse;
-import org.openmrs.module.biometric.util.BiometricModUtil;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
@@ -47,7 +52,7 @@ public class VisitResponseBuilderTest {
   private AdministrationService administrationService;
 
   @Mock
-  private BiometricModUtil util;
+  private SyncService syncService;
 
   @InjectMocks
   private VisitResponseBuilder visitResponseBuilder;
@@ -93,13 +98,27 @@ public class VisitResponseBuilderTest {
     visit.setEncounters(encounters);
     visits.add(visit);
 
+    VisitSyncData visitData = new VisitSyncData();
+    AttributeData attribute = new AttributeData();
+    attribute.setType("Visit Status");
+    attribute.setValue("OCCURRED");
+    visitData.getAttributes().add(attribute);
+    visitData.setEncounterDatetime(new Date(0));
+    visitData.getObservations().add(new ObservationData("Barcode", "12345"));
+
     //When
-    when(util.getOldestEncounterInVisit(anyListOf(Visit.class))).thenReturn(visits);
+    when(syncService.getVisitSyncData(anyListOf(Visit.class)))
+        .thenReturn(Collections.singletonMap(visit.getVisitId(), visitData));
     List<VisitResponse> visitResponses = visitResponseBuilder.createFrom(visits);
     //Then
     assertNotNull(visitResponses);
     assertFalse(visitResponses.get(0).getVisitUuid().isEmpty());
     assertEquals(visitType.getName(), visitResponses.get(0).getVisitType());
+    assertEquals("Visit Status", visitResponses.get(0).getAttributes().get(0).getType());
+    assertEquals("OCCURRED", visitResponses.get(0).getAttributes().get(0).getValue());
+    assertEquals("Barcode", visitResponses.get(0).getObservations().get(0).getName());
+    assertEquals("12345", visitResponses.get(0).getObservations().get(0).getValue());
+    assertNotNull(visitResponses.get(0).getObservations().get(0).getDatetime());
   }
 
 }
@@ -10,7 +10,9 @@
 package org.openmrs.module.biometric.common;
 
 
+import java.util.Collections;
 import java.util.Date;
+import java.util.Map;
 import org.openmrs.Location;
 import org.openmrs.Patient;
 import org.openmrs.PatientIdentifier;
@@ -20,6 +22,9 @@ import org.openmrs.PersonAddress;
 import org.openmrs.PersonAttribute;
 import org.openmrs.PersonAttributeType;
 import org.openmrs.PersonName;
+import org.openmrs.module.biometric.api.model.AttributeData;
+import org.openmrs.module.biometric.api.model.IdentifierData;
+import org.openmrs.module.biometric.api.model.PatientSyncData;
 import org.openmrs.module.biometric.contract.sync.SyncRequest;
 import org.openmrs.module.biometric.contract.sync.SyncResponse;
 import org.openmrs.module.biometric.contract.sync.SyncScope;
@@ -89,6 +94,22 @@ public class ParticipantRecordsResponseBuilderTestUtil {
     return patient;
   }
 
+  public static Map<Integer, PatientSyncData> createPatientSyncData(Patient patient) {
+    PatientSyncData data = new PatientSyncData();
+    for (PatientIdentifier identifier : patient.getIdentifiers()) {
+      data.getIdentifiers().add(new IdentifierData(identifier.getIdentifier(),
+          identifier.getPreferred(), identifier.getVoided()));
+    }
+    for (PersonAttribute personAttribute : patient.getActiveAttributes()) {
+      AttributeData attribute = new AttributeData();
+      attribute.setType(personAttribute.getAttributeType().getName());
+      attribute.setValue(personAttribute.getValue());
+      data.getAttributes().add(attribute);
+    }
+    data.setAddress(patient.getPersonAddress());
+    return Collections.singletonMap(patient.getPatientId(), data);
+  }
+
   public static SyncResponse createSyncResponse() {
     SyncResponse syncResponse = new SyncResponse();
     syncResponse.setOptimize(true);
@@ -0,0 +1,106 @@
+package org.openmrs.module.biometric.filter;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import javax.servlet.FilterChain;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class CompressionFilterTest {
+
+  private static final String SYNC_URI = "/openmrs/ws/rest/v1/biometric/sync/getAllParticipants";
+  private static final String CONFIG_URI = "/openmrs/ws/rest/v1/biometric/config/main";
+  private static final byte[] LARGE_BODY =
+      ("[" + StringUtils.repeat("{\"type\":\"update\",\"value\":\"abc\"},", 200) + "{}]")
+          .getBytes(StandardCharsets.UTF_8);
+
+  private final CompressionFilter filter = new CompressionFilter();
+
+  @Test
+  public void negotiateEncoding_shouldPreferGzipOverDeflate() {
+    assertThat(CompressionFilter.negotiateEncoding("deflate, gzip"), equalTo("gzip"));
+    assertThat(CompressionFilter.negotiateEncoding("deflate"), equalTo("deflate"));
+    assertThat(CompressionFilter.negotiateEncoding("gzip;q=0, deflate"), equalTo("deflate"));
+    assertThat(CompressionFilter.negotiateEncoding("identity"), nullValue());
+    assertThat(CompressionFilter.negotiateEncoding(null), nullValue());
+  }
+
+  @Test
+  public void doFilter_shouldCompressLargeJsonResponses() throws Exception {
+    MockHttpServletResponse response = new MockHttpServletResponse();
+
+    filter.doFilter(createRequest("POST", SYNC_URI), response, writing("application/json", LARGE_BODY));
+
+    assertThat(response.getHeader("Content-Encoding"), equalTo("gzip"));
+    assertArrayEquals(LARGE_BODY, gunzip(response.getContentAsByteArray()));
+  }
+
+  @Test
+  public void doFilter_shouldNotCompressSmallResponses() throws Exception {
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    byte[] body = "{\"status\":\"UP\"}".getBytes(StandardCharsets.UTF_8);
+
+    filter.doFilter(createRequest("GET", SYNC_URI), response, (req, res) -> {
+      res.setContentType("application/json");
+      res.setContentLength(body.length);
+      res.getOutputStream().write(body);
+    });
+
+    assertThat(response.getHeader("Content-Encoding"), nullValue());
+    assertArrayEquals(body, response.getContentAsByteArray());
+  }
+
+  @Test
+  public void doFilter_shouldNotCompressAlreadyCompressedContent() throws Exception {
+    MockHttpServletResponse response = new MockHttpServletResponse();
+
+    filter.doFilter(createRequest("GET", SYNC_URI), response, writing("application/gzip", LARGE_BODY));
+
+    assertThat(response.getHeader("Content-Encoding"), nullValue());
+    assertArrayEquals(LARGE_BODY, response.getContentAsByteArray());
+  }
+
+  @Test
+  public void doFilter_shouldReturnNotModifiedForUnchangedCacheablePayload() throws Exception {
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    filter.doFilter(createRequest("GET", CONFIG_URI), response, writing("application/json", LARGE_BODY));
+    String etag = response.getHeader("ETag");
+    assertThat(response.getHeader("Content-Encoding"), equalTo("gzip"));
+    assertArrayEquals(LARGE_BODY, gunzip(response.getContentAsByteArray()));
+
+    MockHttpServletRequest request = createRequest("GET", CONFIG_URI);
+    request.addHeader("If-None-Match", etag);
+    MockHttpServletResponse notModified = new MockHttpServletResponse();
+    filter.doFilter(request, notModified, writing("application/json", LARGE_BODY));
+
+    assertThat(notModified.getStatus(), equalTo(304));
+    assertThat(notModified.getContentAsByteArray().length, equalTo(0));
+  }
+
+  private MockHttpServletRequest createRequest(String method, String uri) {
+    MockHttpServletRequest request = new MockHttpServletRequest(method, uri);
+    request.addHeader("Accept-Encoding", "gzip, deflate");
+    return request;
+  }
+
+  private FilterChain writing(String contentType, byte[] body) {
+    return (req, res) -> {
+      res.setContentType(contentType);
+      res.getOutputStream().write(body);
+    };
+  }
+
+  private byte[] gunzip(byte[] compressed) throws IOException {
+    return IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(compressed)));
+  }
+}
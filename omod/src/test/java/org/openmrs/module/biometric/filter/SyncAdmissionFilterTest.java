@@ -0,0 +1,283 @@
+package org.openmrs.module.biometric.filter;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.FilterChain;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openmrs.User;
+import org.openmrs.api.context.Context;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(value = {Context.class})
+public class SyncAdmissionFilterTest {
+
+  private static final String IMAGES_URI =
+      "/openmrs/ws/rest/v1/biometric/sync/getAllParticipantImages";
+  private static final String PARTICIPANTS_URI =
+      "/openmrs/ws/rest/v1/biometric/sync/getAllParticipants";
+  private static final String SYNC_ALL_URI = "/openmrs/ws/rest/v1/biometric/sync/getAll";
+  private static final String SYNC_ALL_BODY = "{\"syncScope\": {\"country\": \"c1\"},"
+      + " \"entities\": {\"participants\": {\"limit\": 10}, \"visits\": {\"limit\": 10},"
+      + " \"images\": {\"limit\": 10}, \"templates\": {\"limit\": 10}}}";
+  private static final String CHANGES_URI = "/openmrs/ws/rest/v1/biometric/sync/changes";
+  private static final String CONFIG_URI = "/openmrs/ws/rest/v1/biometric/config/main";
+  private static final String METRICS_URI = "/openmrs/ws/rest/v1/biometric/sync/admission";
+
+  private final AtomicInteger calls = new AtomicInteger();
+  private final FilterChain counting = (req, res) -> calls.incrementAndGet();
+
+  @Before
+  public void setUp() {
+    // no user context, the requests are anonymous unless a test authenticates a user
+    PowerMockito.mockStatic(Context.class);
+  }
+
+  @Test
+  public void getEndpoint_shouldReturnPathAfterBasePath() {
+    assertThat(SyncAdmissionFilter.getEndpoint(IMAGES_URI),
+        equalTo("/sync/getAllParticipantImages"));
+    assertThat(SyncAdmissionFilter.getEndpoint(PARTICIPANTS_URI + "/"),
+        equalTo("/sync/getAllParticipants"));
+    assertThat(SyncAdmissionFilter.getEndpoint("/openmrs/ws/rest/v1/person"), nullValue());
+  }
+
+  @Test
+  public void toRetryAfterSeconds_shouldRoundUpToWholeSeconds() {
+    assertThat(SyncAdmissionFilter.toRetryAfterSeconds(1), equalTo(1L));
+    assertThat(SyncAdmissionFilter.toRetryAfterSeconds(TimeUnit.MILLISECONDS.toNanos(1500)),
+        equalTo(2L));
+  }
+
+  @Test
+  public void tokenBucket_shouldRefillAtConfiguredRate() {
+    TokenBucket bucket = new TokenBucket(2, 1, 0);
+
+    assertThat(bucket.tryConsume(0), equalTo(0L));
+    assertThat(bucket.tryConsume(0), equalTo(0L));
+    assertThat(bucket.tryConsume(0), equalTo(TimeUnit.SECONDS.toNanos(1)));
+    assertThat(bucket.tryConsume(TimeUnit.SECONDS.toNanos(1)), equalTo(0L));
+    assertThat(bucket.isFull(TimeUnit.SECONDS.toNanos(10)), equalTo(true));
+  }
+
+  @Test
+  public void doFilter_shouldThrottleDeviceExceedingItsBurst() throws Exception {
+    Properties properties = new Properties();
+    properties.setProperty("biometric.sync.admission.burst", "2");
+    properties.setProperty("biometric.sync.admission.rate", "0.001");
+    SyncAdmissionFilter filter = new SyncAdmissionFilter(properties);
+
+    assertThat(filter(filter, PARTICIPANTS_URI, "device-1").getStatus(), equalTo(200));
+    assertThat(filter(filter, PARTICIPANTS_URI, "device-1").getStatus(), equalTo(200));
+    MockHttpServletResponse throttled = filter(filter, PARTICIPANTS_URI, "device-1");
+    MockHttpServletResponse otherDevice = filter(filter, PARTICIPANTS_URI, "device-2");
+
+    assertThat(throttled.getStatus(), equalTo(SyncAdmissionFilter.SC_TOO_MANY_REQUESTS));
+    assertThat(Long.parseLong(throttled.getHeader(SyncAdmissionFilter.RETRY_AFTER)) > 0,
+        equalTo(true));
+    assertThat(otherDevice.getStatus(), equalTo(200));
+    assertThat(calls.get(), equalTo(3));
+  }
+
+  @Test
+  public void doFilter_shouldRejectWhenEndpointTypeIsSaturated() throws Exception {
+    Properties properties = new Properties();
+    properties.setProperty("biometric.sync.admission.concurrency.images", "1");
+    properties.setProperty("biometric.sync.admission.wait", "10");
+    SyncAdmissionFilter filter = new SyncAdmissionFilter(properties);
+    MockHttpServletResponse nested = new MockHttpServletResponse();
+    MockHttpServletResponse otherType = new MockHttpServletResponse();
+
+    // the second request is sent while the first one still holds the only images permit
+    MockHttpServletResponse first = new MockHttpServletResponse();
+    filter.doFilter(createRequest(IMAGES_URI, "device-1"), first, (req, res) -> {
+      filter.doFilter(createRequest(IMAGES_URI, "device-2"), nested, counting);
+      filter.doFilter(createRequest(PARTICIPANTS_URI, "device-2"), otherType, counting);
+    });
+
+    assertThat(first.getStatus(), equalTo(200));
+    assertThat(nested.getStatus(), equalTo(SyncAdmissionFilter.SC_TOO_MANY_REQUESTS));
+    assertThat(nested.getHeader(SyncAdmissionFilter.RETRY_AFTER), equalTo("1"));
+    assertThat(otherType.getStatus(), equalTo(200));
+    assertThat(filter(filter, IMAGES_URI, "device-2").getStatus(), equalTo(200));
+  }
+
+  @Test
+  public void getCost_shouldSumTheCostsOfTheRequestedRecordTypes() {
+    SyncAdmissionFilter filter = new SyncAdmissionFilter(new Properties());
+
+    assertThat(filter.getCost(SYNC_ALL_BODY.getBytes(StandardCharsets.UTF_8)), equalTo(6));
+    assertThat(filter.getCost("{\"entities\": {\"visits\": {}, \"encounters\": {}}}"
+        .getBytes(StandardCharsets.UTF_8)), equalTo(1));
+    assertThat(filter.getCost("not json".getBytes(StandardCharsets.UTF_8)), equalTo(1));
+    assertThat(filter.getCost(new byte[0]), equalTo(1));
+  }
+
+  @Test
+  public void doFilter_shouldWeightSyncAllRequestsByTheirRecordTypes() throws Exception {
+    Properties properties = new Properties();
+    properties.setProperty("biometric.sync.admission.concurrency.all", "6");
+    properties.setProperty("biometric.sync.admission.wait", "10");
+    SyncAdmissionFilter filter = new SyncAdmissionFilter(properties);
+    MockHttpServletResponse nested = new MockHttpServletResponse();
+    StringBuilder body = new StringBuilder();
+
+    // the request of every record type holds all the permits of the lane
+    MockHttpServletRequest request = createRequest(SYNC_ALL_URI, "device-1");
+    request.setContent(SYNC_ALL_BODY.getBytes(StandardCharsets.UTF_8));
+    filter.doFilter(request, new MockHttpServletResponse(), (req, res) -> {
+      body.append(IOUtils.toString(req.getInputStream(), StandardCharsets.UTF_8));
+      MockHttpServletRequest visits = createRequest(SYNC_ALL_URI, "device-2");
+      visits.setContent("{\"entities\": {\"visits\": {\"limit\": 10}}}"
+          .getBytes(StandardCharsets.UTF_8));
+      filter.doFilter(visits, nested, counting);
+    });
+
+    assertThat(body.toString(), equalTo(SYNC_ALL_BODY));
+    assertThat(nested.getStatus(), equalTo(SyncAdmissionFilter.SC_TOO_MANY_REQUESTS));
+    assertThat(filter(filter, SYNC_ALL_URI, "device-2").getStatus(), equalTo(200));
+  }
+
+  @Test
+  public void doFilter_shouldLimitTheDevicesWaitingForChanges() throws Exception {
+    Properties properties = new Properties();
+    properties.setProperty("biometric.sync.admission.concurrency.changes", "1");
+    properties.setProperty("biometric.sync.admission.wait", "10");
+    SyncAdmissionFilter filter = new SyncAdmissionFilter(properties);
+    MockHttpServletResponse nested = new MockHttpServletResponse();
+
+    filter.doFilter(createRequest(CHANGES_URI, "device-1"), new MockHttpServletResponse(),
+        (req, res) -> filter.doFilter(createRequest(CHANGES_URI, "device-2"), nested, counting));
+
+    assertThat(nested.getStatus(), equalTo(SyncAdmissionFilter.SC_TOO_MANY_REQUESTS));
+    assertThat(calls.get(), equalTo(0));
+  }
+
+  @Test
+  public void doFilter_shouldRetryASaturatedEndpointTypeWhenTheDeviceHasAToken()
+      throws Exception {
+    Properties properties = new Properties();
+    properties.setProperty("biometric.sync.admission.concurrency.images", "1");
+    properties.setProperty("biometric.sync.admission.wait", "10");
+    properties.setProperty("biometric.sync.admission.burst", "1");
+    properties.setProperty("biometric.sync.admission.rate", "0.25");
+    SyncAdmissionFilter filter = new SyncAdmissionFilter(properties);
+    MockHttpServletResponse nested = new MockHttpServletResponse();
+
+    filter.doFilter(createRequest(IMAGES_URI, "device-1"), new MockHttpServletResponse(),
+        (req, res) -> filter.doFilter(createRequest(IMAGES_URI, "device-2"), nested, counting));
+
+    // the rejected request took the only token of the device, the next one comes in 4 seconds
+    assertThat(nested.getStatus(), equalTo(SyncAdmissionFilter.SC_TOO_MANY_REQUESTS));
+    assertThat(nested.getHeader(SyncAdmissionFilter.RETRY_AFTER), equalTo("4"));
+  }
+
+  @Test
+  public void doFilter_shouldKeyTheBucketsOnTheAuthenticatedUserAndTheDevice() throws Exception {
+    Properties properties = new Properties();
+    properties.setProperty("biometric.sync.admission.burst", "1");
+    properties.setProperty("biometric.sync.admission.rate", "0.001");
+    SyncAdmissionFilter filter = new SyncAdmissionFilter(properties);
+    User user = new User();
+    User otherUser = new User();
+    when(Context.isSessionOpen()).thenReturn(true);
+
+    when(Context.getAuthenticatedUser()).thenReturn(user);
+    assertThat(filter(filter, PARTICIPANTS_URI, "device-1").getStatus(), equalTo(200));
+    when(Context.getAuthenticatedUser()).thenReturn(otherUser);
+    assertThat(filter(filter, PARTICIPANTS_URI, "device-1").getStatus(), equalTo(200));
+    assertThat(filter(filter, PARTICIPANTS_URI, "device-1").getStatus(),
+        equalTo(SyncAdmissionFilter.SC_TOO_MANY_REQUESTS));
+    assertThat(filter.getMetrics().get("devices"), equalTo((Object) 2));
+  }
+
+  @Test
+  public void doFilter_shouldEvictTheLeastRecentlyUsedDevicesWhenTheLimitIsReached()
+      throws Exception {
+    SyncAdmissionFilter filter = new SyncAdmissionFilter(new Properties());
+    for (int i = 0; i <= 10000; i++) {
+      filter(filter, PARTICIPANTS_URI, "device-" + i);
+    }
+
+    assertThat(filter.getMetrics().get("devices"), equalTo((Object) 10000));
+    assertThat(calls.get(), equalTo(10001));
+  }
+
+  @Test
+  public void doFilter_shouldNotLimitOtherEndpoints() throws Exception {
+    Properties properties = new Properties();
+    properties.setProperty("biometric.sync.admission.burst", "1");
+    SyncAdmissionFilter filter = new SyncAdmissionFilter(properties);
+
+    for (int i = 0; i < 5; i++) {
+      assertThat(filter(filter, CONFIG_URI, "device-1").getStatus(), equalTo(200));
+    }
+    assertThat(calls.get(), equalTo(5));
+  }
+
+  @Test
+  public void getMetrics_shouldCountAdmittedAndRejectedRequests() throws Exception {
+    Properties properties = new Properties();
+    properties.setProperty("biometric.sync.admission.burst", "1");
+    properties.setProperty("biometric.sync.admission.rate", "0.001");
+    SyncAdmissionFilter filter = new SyncAdmissionFilter(properties);
+    filter(filter, PARTICIPANTS_URI, "device-1");
+    filter(filter, PARTICIPANTS_URI, "device-1");
+
+    Map<String, Object> metrics = filter.getMetrics();
+    @SuppressWarnings("unchecked")
+    Map<String, Map<String, Object>> endpoints =
+        (Map<String, Map<String, Object>>) metrics.get("endpoints");
+
+    assertThat(metrics.get("throttled"), equalTo((Object) 1L));
+    assertThat(endpoints.get("participants").get("admitted"), equalTo((Object) 1L));
+    assertThat(endpoints.get("participants").get("queued"), equalTo((Object) 0L));
+    when(Context.isSessionOpen()).thenReturn(true);
+    when(Context.isAuthenticated()).thenReturn(true);
+    MockHttpServletResponse response = filter(filter, METRICS_URI, null);
+    assertThat(response.getStatus(), equalTo(200));
+    assertThat(response.getContentType(), equalTo("application/json"));
+  }
+
+  @Test
+  public void doFilter_shouldNotServeTheMetricsToAnonymousRequests() throws Exception {
+    SyncAdmissionFilter filter = new SyncAdmissionFilter(new Properties());
+
+    MockHttpServletResponse response = filter(filter, METRICS_URI, null);
+
+    assertThat(response.getStatus(), equalTo(401));
+    assertThat(response.getContentAsString(), equalTo(""));
+    assertThat(calls.get(), equalTo(0));
+  }
+
+  private MockHttpServletResponse filter(SyncAdmissionFilter filter, String uri, String deviceId)
+      throws Exception {
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    filter.doFilter(createRequest(uri, deviceId), response, counting);
+    return response;
+  }
+
+  private MockHttpServletRequest createRequest(String uri, String deviceId) {
+    MockHttpServletRequest request =
+        new MockHttpServletRequest(uri.endsWith("admission") ? "GET" : "POST", uri);
+    if (null != deviceId) {
+      request.addHeader("deviceId", deviceId);
+    }
+    return request;
+  }
+}
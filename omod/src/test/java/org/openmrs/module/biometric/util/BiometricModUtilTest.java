@@ -17,8 +17,6 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.when;
-import static org.openmrs.module.biometric.common.BiometricTestUtil.createVisit;
-import static org.openmrs.module.biometric.common.BiometricTestUtil.visitEncounter;
 
 import java.text.DateFormat;
 import java.text.ParseException;
@@ -35,12 +33,10 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
-import org.openmrs.Encounter;
 import org.openmrs.Location;
 import org.openmrs.Patient;
 import org.openmrs.Person;
 import org.openmrs.PersonAddress;
-import org.openmrs.Visit;
 import org.openmrs.api.APIException;
 import org.openmrs.api.LocationService;
 import org.openmrs.api.PersonService;
@@ -246,30 +242,6 @@ public class BiometricModUtilTest {
     assertThat(biometricModUtil.removeWhiteSpaces(str), equalTo("testparticipant"));
   }
 
-  @Test
-  public void getOldestEncounterInVisit_removeMultipleEncounterForOneVisit() {
-    List<Visit> visits = new ArrayList<>();
-    Visit visit = createVisit();
-    Encounter encounter = visitEncounter(2013, Calendar.JANUARY, 9, 11, 11, 12);
-    visit.addEncounter(encounter);
-    encounter = visitEncounter(2013, Calendar.JANUARY, 11, 9, 11, 12);
-    visit.addEncounter(encounter);
-    visits.add(visit);
-    visits = biometricModUtil.getOldestEncounterInVisit(visits);
-    assertEquals(1, visits.get(0).getEncounters().size());
-  }
-
-  @Test
-  public void getOldestEncounterInVisit_skipFunctionWhenOneEncounterOnly() {
-    List<Visit> visits = new ArrayList<>();
-    Visit visit = createVisit();
-    Encounter encounter = visitEncounter(2013, Calendar.JANUARY, 9, 11, 11, 12);
-    visit.addEncounter(encounter);
-    visits.add(visit);
-    visits = biometricModUtil.getOldestEncounterInVisit(visits);
-    assertEquals(1, visits.get(0).getEncounters().size());
-  }
-
   @Test
   public void isLocationExists_shouldReturnFalseWhenLocationNull() {
     when(Context.getLocationService().getLocationByUuid(anyString())).thenReturn(null);
@@ -182,6 +182,46 @@ public class LocationUtilTest {
     locationUtil.validateSyncLocationData(syncRequest);
   }
 
+  @Test(expected = EntityValidationException.class)
+  public final void validateSyncPage_shouldThrowValidationExceptionWhenTheLimitIsNotPositive()
+      throws EntityValidationException {
+    SyncRequest syncRequest = new SyncRequest();
+    syncRequest.setUuidsWithDateModifiedOffset(new HashSet<>());
+    syncRequest.setLimit(-1);
+
+    locationUtil.validateSyncPage(syncRequest);
+  }
+
+  @Test
+  public final void validateSyncPage_shouldKeepTheLimitOfTheRequest()
+      throws EntityValidationException {
+    SyncRequest syncRequest = new SyncRequest();
+    syncRequest.setUuidsWithDateModifiedOffset(new HashSet<>());
+    syncRequest.setLimit(LocationUtil.MAX_SYNC_LIMIT + 1);
+
+    locationUtil.validateSyncPage(syncRequest);
+
+    assertThat(syncRequest.getLimit(), equalTo(LocationUtil.MAX_SYNC_LIMIT + 1));
+  }
+
+  @Test
+  public final void validateSyncAllPage_shouldLowerTheLimitToTheMaximum()
+      throws EntityValidationException {
+    SyncRequest syncRequest = new SyncRequest();
+    syncRequest.setUuidsWithDateModifiedOffset(new HashSet<>());
+    syncRequest.setLimit(LocationUtil.MAX_SYNC_LIMIT + 1);
+
+    locationUtil.validateSyncAllPage(syncRequest);
+
+    assertThat(syncRequest.getLimit(), equalTo(LocationUtil.MAX_SYNC_LIMIT));
+  }
+
+  @Test(expected = EntityValidationException.class)
+  public final void validateSyncScope_shouldThrowValidationExceptionWithoutScope()
+      throws EntityValidationException {
+    locationUtil.validateSyncScope(null);
+  }
+
   @Test
   public void getLocationUuid_nullAttribute() {
     AttributeData attributeData = new AttributeData();
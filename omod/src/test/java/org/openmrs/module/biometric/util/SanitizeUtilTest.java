@@ -0,0 +1,46 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is a
+ * trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.biometric.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.commons.text.StringEscapeUtils;
+import org.jsoup.Jsoup;
+import org.jsoup.parser.Parser;
+import org.jsoup.safety.Whitelist;
+import org.junit.Test;
+
+public class SanitizeUtilTest {
+
+  private static final String[] CORPUS = {
+      "",
+      "9dd05e68-4d77-4b61-b2bf-436857f35aa0",
+      "Rue de la Loi  16 ",
+      "QUJDREVGR0hJSktMTU5PUFFSU1RVVldYWVo=\nYWJjZGVmZ2hpamtsbW5vcHFyc3R1dnd4eXo=\n",
+      "O'Neil",
+      "fish & chips",
+      "&amp;",
+      "<script>alert(1)</script>",
+      "say \"hi\"",
+      "\\u003cb\\u003e",
+      "caf\u00e9",
+      "\u00a0non breaking"
+  };
+
+  @Test
+  public void sanitizeOutput_shouldMatchFullSanitizer() {
+    for (String str : CORPUS) {
+      String expected = Parser.unescapeEntities(Jsoup.clean(
+          StringEscapeUtils.escapeHtml4(StringEscapeUtils.unescapeEcmaScript(str)),
+          Whitelist.basic()), false);
+      assertEquals(str, expected, SanitizeUtil.sanitizeOutput(str));
+    }
+  }
+}
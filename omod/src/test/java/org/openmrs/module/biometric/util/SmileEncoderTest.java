@@ -0,0 +1,27 @@
+package org.openmrs.module.biometric.util;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SmileEncoderTest {
+
+  @Test
+  public void isAccepted_shouldFollowTheQualityOfTheAcceptedTypes() {
+    assertTrue(SmileEncoder.isAccepted(SmileEncoder.SMILE_CONTENT_TYPE));
+    assertTrue(SmileEncoder.isAccepted(
+        "application/json;q=0.5, application/x-jackson-smile"));
+    assertFalse(SmileEncoder.isAccepted(
+        "application/json, application/x-jackson-smile;q=0"));
+    assertFalse(SmileEncoder.isAccepted("application/x-jackson-smile;q=0"));
+  }
+
+  @Test
+  public void isAccepted_shouldPreferJsonForWildcardsAndInvalidHeaders() {
+    assertFalse(SmileEncoder.isAccepted(null));
+    assertFalse(SmileEncoder.isAccepted("*/*"));
+    assertFalse(SmileEncoder.isAccepted("application/*"));
+    assertFalse(SmileEncoder.isAccepted("not a media type"));
+  }
+}
@@ -0,0 +1,111 @@
+package org.openmrs.module.biometric.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.openmrs.module.biometric.api.util.SyncTaskExecutor;
+import org.openmrs.module.biometric.contract.sync.SyncRequest;
+import org.openmrs.module.biometric.contract.sync.SyncResponse;
+import org.openmrs.module.biometric.contract.sync.SyncScope;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SyncPrefetchCacheTest {
+
+  private static final String OWNER = "user:device1:participants";
+
+  @Mock
+  private SyncTaskExecutor syncTaskExecutor;
+
+  @InjectMocks
+  private SyncPrefetchCache cache;
+
+  private SyncResponse page;
+
+  @Before
+  public void setUp() {
+    page = new SyncResponse();
+    when(syncTaskExecutor.prefetch(any(Callable.class)))
+        .thenReturn(CompletableFuture.completedFuture(page));
+  }
+
+  @Test
+  public void take_shouldServeThePrefetchedPageOnce() {
+    cache.prefetch(OWNER, createRequest(1000L, "a", "b"), () -> page);
+
+    assertSame(page, cache.take(OWNER, createRequest(1000L, "b", "a")));
+    assertNull(cache.take(OWNER, createRequest(1000L, "a", "b")));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void take_shouldNotServeThePageToAnotherPosition() {
+    cache.prefetch(OWNER, createRequest(1000L, "a"), () -> page);
+
+    assertNull(cache.take("user:device2:participants", createRequest(1000L, "a")));
+    assertNull(cache.take(OWNER, createRequest(2000L, "a")));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void prefetch_shouldKeepOnePagePerOwner() {
+    cache.prefetch(OWNER, createRequest(1000L, "a"), () -> page);
+    cache.prefetch(OWNER, createRequest(2000L, "b"), () -> page);
+
+    assertEquals(1, cache.size());
+    assertSame(page, cache.take(OWNER, createRequest(2000L, "b")));
+  }
+
+  @Test
+  public void prefetch_shouldSkipRequestsWithoutOwnerOrWhenThePoolIsBusy() {
+    cache.prefetch(null, createRequest(1000L, "a"), () -> page);
+    verify(syncTaskExecutor, never()).prefetch(any(Callable.class));
+
+    when(syncTaskExecutor.prefetch(any(Callable.class))).thenReturn(null);
+    cache.prefetch(OWNER, createRequest(1000L, "a"), () -> page);
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void getPageKey_shouldDependOnTheScopeAndTheLimit() {
+    SyncRequest request = createRequest(1000L, "a");
+    SyncRequest otherLimit = createRequest(1000L, "a");
+    otherLimit.setLimit(20);
+    SyncRequest otherSite = createRequest(1000L, "a");
+    otherSite.getSyncScope().setSiteUuid("s2");
+
+    assertEquals(SyncPrefetchCache.getPageKey(request),
+        SyncPrefetchCache.getPageKey(createRequest(1000L, "a")));
+    assertNotEquals(SyncPrefetchCache.getPageKey(request),
+        SyncPrefetchCache.getPageKey(otherLimit));
+    assertNotEquals(SyncPrefetchCache.getPageKey(request),
+        SyncPrefetchCache.getPageKey(otherSite));
+  }
+
+  private SyncRequest createRequest(Long dateModifiedOffset, String... uuids) {
+    SyncScope syncScope = new SyncScope();
+    syncScope.setCountry("Belgium");
+    syncScope.setSiteUuid("s1");
+    SyncRequest request = new SyncRequest();
+    request.setSyncScope(syncScope);
+    request.setLimit(10);
+    request.setDateModifiedOffset(dateModifiedOffset);
+    request.setUuidsWithDateModifiedOffset(new HashSet<>(Arrays.asList(uuids)));
+    return request;
+  }
+}
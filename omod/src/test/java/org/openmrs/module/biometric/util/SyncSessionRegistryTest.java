@@ -0,0 +1,129 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. If a copy of
+ * the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ * OpenMRS is also distributed under the terms of the Healthcare Disclaimer located at
+ * http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS graphic logo is a
+ * trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.biometric.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Patient;
+import org.openmrs.module.biometric.contract.sync.SyncScope;
+import org.openmrs.module.biometric.util.SyncSessionRegistry.SyncSession;
+
+public class SyncSessionRegistryTest {
+
+  private static final String LOCATION_UUID = "9dd05e68-4d77-4b61-b2bf-436857f35aa0";
+
+  private SyncSessionRegistry registry;
+
+  private SyncScope syncScope;
+
+  @Before
+  public void setUp() {
+    registry = new SyncSessionRegistry();
+    syncScope = new SyncScope();
+    syncScope.setCountry("Belgium");
+    syncScope.setSiteUuid(LOCATION_UUID);
+  }
+
+  @Test
+  public void open_shouldPinTheLocationsAndTheHighWaterMark() {
+    long before = System.currentTimeMillis();
+    SyncSession session =
+        registry.open(syncScope, Collections.singletonList(LOCATION_UUID));
+
+    assertSame(session, registry.get(session.getId()));
+    assertEquals(Collections.singletonList(LOCATION_UUID), session.getLocations());
+    assertTrue(session.getHighWaterMark() >= before);
+    assertEquals(session.getHighWaterMark(), session.getHighWaterMarkDate().getTime());
+    assertTrue(session.includes(createPatient(null, session.getHighWaterMark())));
+    assertFalse(session.includes(createPatient(session.getHighWaterMark() + 1, 0L)));
+    assertTrue(session.includes(session.getHighWaterMark()));
+    assertFalse(session.includes(session.getHighWaterMark() + 1));
+  }
+
+  @Test
+  public void includes_shouldExcludeARecordCreatedAfterTheMarkWithoutDateChanged() {
+    SyncSession session = registry.open(syncScope, Collections.singletonList(LOCATION_UUID));
+
+    assertFalse(session.includes(createPatient(null, session.getHighWaterMark() + 1)));
+    assertTrue(session.includes(createPatient(session.getHighWaterMark(),
+        session.getHighWaterMark() + 1)));
+  }
+
+  @Test
+  public void get_shouldReturnNullForUnknownOrClosedSessions() {
+    SyncSession session = registry.open(syncScope, Collections.singletonList(LOCATION_UUID));
+
+    assertNull(registry.get("unknown"));
+    assertTrue(registry.close(session.getId()));
+    assertNull(registry.get(session.getId()));
+    assertFalse(registry.close(session.getId()));
+  }
+
+  @Test
+  public void isExpired_shouldExpireUnusedSessions() {
+    SyncSession session = registry.open(syncScope, Collections.singletonList(LOCATION_UUID));
+    long timeout = TimeUnit.MINUTES.toMillis(SyncSessionRegistry.SESSION_TIMEOUT_MINUTES);
+
+    assertFalse(session.isExpired(session.getHighWaterMark() + timeout));
+    assertTrue(session.isExpired(session.getHighWaterMark() + timeout + 1));
+  }
+
+  @Test
+  public void matches_shouldCompareTheSyncScope() {
+    SyncSession session = registry.open(syncScope, Collections.singletonList(LOCATION_UUID));
+    SyncScope sameScope = new SyncScope();
+    sameScope.setCountry("Belgium");
+    sameScope.setCluster("");
+    sameScope.setSiteUuid(LOCATION_UUID);
+    SyncScope otherScope = new SyncScope();
+    otherScope.setCountry("Belgium");
+
+    assertTrue(session.matches(sameScope));
+    assertFalse(session.matches(otherScope));
+  }
+
+  @Test
+  public void getCounts_shouldComputeTheCountsOnce() {
+    SyncSession session = registry.open(syncScope, Collections.singletonList(LOCATION_UUID));
+    AtomicInteger loads = new AtomicInteger();
+    Map<String, Long> counts = new HashMap<>();
+    counts.put("tableCount", 10L);
+
+    assertSame(counts, session.getCounts("visits", () -> {
+      loads.incrementAndGet();
+      return counts;
+    }));
+    assertSame(counts, session.getCounts("visits", () -> {
+      loads.incrementAndGet();
+      return new HashMap<>();
+    }));
+    assertEquals(1, loads.get());
+  }
+
+  private static Patient createPatient(Long dateChanged, long dateCreated) {
+    Patient patient = new Patient();
+    patient.setDateCreated(new Date(dateCreated));
+    patient.setDateChanged(null == dateChanged ? null : new Date(dateChanged));
+    return patient;
+  }
+}
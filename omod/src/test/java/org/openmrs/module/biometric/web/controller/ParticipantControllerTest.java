@@ -17,6 +17,9 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.anySetOf;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -37,6 +40,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import org.codehaus.jackson.JsonNode;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.type.TypeReference;
 import org.junit.Before;
@@ -55,12 +59,17 @@ import org.openmrs.api.context.Context;
 import org.openmrs.module.biometric.api.contract.BiometricMatchingResult;
 import org.openmrs.module.biometric.api.contract.PatientResponse;
 import org.openmrs.module.biometric.api.service.BiometricService;
+import org.openmrs.module.biometric.api.exception.EntityNotFoundException;
+import org.openmrs.module.biometric.api.exception.EntityValidationException;
+import org.openmrs.module.biometric.api.model.ParticipantKey;
 import org.openmrs.module.biometric.api.service.ParticipantService;
+import org.openmrs.module.biometric.api.util.ImageVariantStore;
 import org.openmrs.module.biometric.builder.MatchResponseBuilder;
 import org.openmrs.module.biometric.builder.ParticipantMatchResponseBuilder;
 import org.openmrs.module.biometric.builder.PatientBuilder;
 import org.openmrs.module.biometric.contract.ParticipantMatchResponse;
 import org.openmrs.module.biometric.contract.RegisterRequest;
+import org.openmrs.module.biometric.contract.RegisterResult;
 import org.openmrs.module.biometric.util.BiometricModUtil;
 import org.openmrs.module.biometric.util.LocationUtil;
 import org.openmrs.module.biometric.web.helper.ControllerTestHelper;
@@ -85,6 +94,7 @@ public class ParticipantControllerTest {
   private static final String BIOGRAPHIC_DATA_PARAM = "biographicData";
 
   private static final String REGISTER_ENDPOINT = BASE_URL + "/register";
+  private static final String REGISTER_ALL_ENDPOINT = BASE_URL + "/registerAll";
   private static final String MATCH_ENDPOINT = BASE_URL + "/match";
   private static final String CREATE_PARTICIPANT_JSON = "create_participant.json";
   private static final String BIOGRAPHIC_DATA = "biographicData";
@@ -112,6 +122,9 @@ public class ParticipantControllerTest {
   @Mock
   private ParticipantService participantService;
 
+  @Mock
+  private ImageVariantStore imageVariantStore;
+
   @Mock
   private BiometricService biometricService;
 
@@ -489,6 +502,81 @@ public class ParticipantControllerTest {
 
   }
 
+  @Test
+  public void registerAll_shouldReportTheOutcomeOfEachParticipant() throws Exception {
+    RegisterRequest first = createRegisterRequest("uuid-1");
+    RegisterRequest replayed = createRegisterRequest("uuid-2");
+    RegisterRequest invalid = createRegisterRequest("uuid-3");
+    when(util.jsonToObject(anyString(), any(TypeReference.class)))
+        .thenReturn(Arrays.asList(first, replayed, invalid));
+    when(patientBuilder.createFrom(eq(first), any(PatientBuilder.Lookups.class)))
+        .thenReturn(createPatient("uuid-1", "id1"));
+    when(patientBuilder.createFrom(eq(replayed), any(PatientBuilder.Lookups.class)))
+        .thenReturn(createPatient("uuid-2", "id2"));
+    when(patientBuilder.createFrom(eq(invalid), any(PatientBuilder.Lookups.class)))
+        .thenThrow(new EntityNotFoundException("Attribute type : x does not exists"));
+    when(participantService.findParticipantKeysByUuids(anySetOf(String.class)))
+        .thenReturn(Collections.singletonList(new ParticipantKey("uuid-2", "ID2", false)));
+
+    String response = mockMvc.perform(fileUpload(REGISTER_ALL_ENDPOINT)
+        .header(DEVICE_HEADER_PARAM, DEVICE_HEADER_VALUE)
+        .param(BIOGRAPHIC_DATA, "[]")
+        .contentType(MediaType.MULTIPART_FORM_DATA))
+        .andExpect(status().isOk())
+        .andReturn().getResponse().getContentAsString();
+
+    JsonNode results = new ObjectMapper().readTree(response);
+    assertThat(results.size(), is(3));
+    assertThat(results.get(0).get("status").getTextValue(), is(RegisterResult.REGISTERED));
+    assertThat(results.get(1).get("status").getTextValue(), is(RegisterResult.DUPLICATE));
+    assertThat(results.get(2).get("status").getTextValue(), is(RegisterResult.FAILED));
+    verify(participantService, times(1)).registerParticipants(anyListOf(Patient.class));
+    verify(participantService, times(0)).registerParticipant(any(Patient.class));
+  }
+
+  @Test
+  public void registerAll_shouldRegisterOneAtATimeWhenTheChunkFails() throws Exception {
+    RegisterRequest first = createRegisterRequest("uuid-1");
+    RegisterRequest failing = createRegisterRequest("uuid-2");
+    Patient firstPatient = createPatient("uuid-1", "id1");
+    Patient failingPatient = createPatient("uuid-2", "id2");
+    when(util.jsonToObject(anyString(), any(TypeReference.class)))
+        .thenReturn(Arrays.asList(first, failing));
+    when(patientBuilder.createFrom(eq(first), any(PatientBuilder.Lookups.class)))
+        .thenReturn(firstPatient);
+    when(patientBuilder.createFrom(eq(failing), any(PatientBuilder.Lookups.class)))
+        .thenReturn(failingPatient);
+    when(participantService.registerParticipants(anyListOf(Patient.class)))
+        .thenThrow(new IllegalStateException("constraint violation"));
+    when(participantService.registerParticipant(firstPatient)).thenReturn(firstPatient);
+    when(participantService.registerParticipant(failingPatient))
+        .thenThrow(new IllegalStateException("constraint violation"));
+
+    String response = mockMvc.perform(fileUpload(REGISTER_ALL_ENDPOINT)
+        .header(DEVICE_HEADER_PARAM, DEVICE_HEADER_VALUE)
+        .param(BIOGRAPHIC_DATA, "[]")
+        .contentType(MediaType.MULTIPART_FORM_DATA))
+        .andExpect(status().isOk())
+        .andReturn().getResponse().getContentAsString();
+
+    JsonNode results = new ObjectMapper().readTree(response);
+    assertThat(results.get(0).get("status").getTextValue(), is(RegisterResult.REGISTERED));
+    assertThat(results.get(1).get("status").getTextValue(), is(RegisterResult.FAILED));
+    verify(participantService, times(2)).registerParticipant(any(Patient.class));
+  }
+
+  @Test
+  public void registerAll_shouldThrowBadRequestWithoutParticipants() throws Exception {
+    when(util.jsonToObject(anyString(), any(TypeReference.class)))
+        .thenReturn(Collections.emptyList());
+
+    mockMvc.perform(fileUpload(REGISTER_ALL_ENDPOINT)
+        .header(DEVICE_HEADER_PARAM, DEVICE_HEADER_VALUE)
+        .param(BIOGRAPHIC_DATA, "[]")
+        .contentType(MediaType.MULTIPART_FORM_DATA))
+        .andExpect(status().isBadRequest());
+  }
+
   @Test
   public void register_shouldThrow500WhenUuidAlreadyExists() throws Exception {
     //given
@@ -506,15 +594,15 @@ public class ParticipantControllerTest {
 
     Person person = TestUtil.createPerson();
     Patient patient = TestUtil.createPatient(person);
-    PatientResponse patientResponse = TestUtil.createPatientResponse();
+    ParticipantKey existingKey = new ParticipantKey(patient.getUuid(), "otherParticipantId", false);
     when(objectMapper.readValue(biographicData, RegisterRequest.class)).thenReturn(request);
     when(patientBuilder.createFrom(request)).thenReturn(patient);
     when(locationUtil.getLocationUuid(request.getAttributes())).thenReturn(LOCATION_UUID);
     when(util.removeWhiteSpaces(PARTICIPANT_ID)).thenReturn(PARTICIPANT_ID);
     when(participantService.registerParticipant(patient))
         .thenReturn(patient);
-    when(participantService.findPatientsByUuids(anySetOf(String.class)))
-        .thenReturn(Arrays.asList(patientResponse));
+    when(participantService.findParticipantKeysByUuids(anySetOf(String.class)))
+        .thenReturn(Arrays.asList(existingKey));
 
     //when
     mockMvc.perform(fileUpload(REGISTER_ENDPOINT).file(template)
@@ -542,16 +630,15 @@ public class ParticipantControllerTest {
 
     Person person = TestUtil.createPerson();
     Patient patient = TestUtil.createPatient(person);
-    PatientResponse patientResponse = TestUtil.createPatientResponse();
-    patientResponse.setParticipantId("btest1");
+    ParticipantKey existingKey = new ParticipantKey(patient.getUuid(), "btest1", false);
     when(objectMapper.readValue(biographicData, RegisterRequest.class)).thenReturn(request);
     when(patientBuilder.createFrom(request)).thenReturn(patient);
     when(locationUtil.getLocationUuid(request.getAttributes())).thenReturn(LOCATION_UUID);
     when(util.removeWhiteSpaces(PARTICIPANT_ID)).thenReturn(PARTICIPANT_ID);
     when(participantService.registerParticipant(patient))
         .thenReturn(patient);
-    when(participantService.findPatientsByUuids(anySetOf(String.class)))
-        .thenReturn(Arrays.asList(patientResponse));
+    when(participantService.findParticipantKeysByUuids(anySetOf(String.class)))
+        .thenReturn(Arrays.asList(existingKey));
 
     //when
     mockMvc.perform(fileUpload(REGISTER_ENDPOINT).file(template)
@@ -578,18 +665,17 @@ public class ParticipantControllerTest {
 
     Person person = TestUtil.createPerson();
     Patient patient = TestUtil.createPatient(person);
-    PatientResponse patientResponse = TestUtil.createPatientResponse();
-    patientResponse.setParticipantId("btest1");
+    ParticipantKey existingKey = new ParticipantKey(patient.getUuid(), "btest1", false);
     when(objectMapper.readValue(biographicData, RegisterRequest.class)).thenReturn(request);
     when(patientBuilder.createFrom(request)).thenReturn(patient);
     when(locationUtil.getLocationUuid(request.getAttributes())).thenReturn(LOCATION_UUID);
     when(util.removeWhiteSpaces(PARTICIPANT_ID)).thenReturn(PARTICIPANT_ID);
     when(participantService.registerParticipant(patient))
         .thenReturn(patient);
-    when(participantService.findPatientsByUuids(anySetOf(String.class)))
+    when(participantService.findParticipantKeysByUuids(anySetOf(String.class)))
         .thenReturn(Collections.emptyList());
-    when(participantService.findByParticipantId(patient.getPatientIdentifier().getIdentifier()))
-        .thenReturn(Arrays.asList(patientResponse));
+    when(participantService.findParticipantKeysByParticipantId("btest1"))
+        .thenReturn(Arrays.asList(existingKey));
     //when
     mockMvc.perform(fileUpload(REGISTER_ENDPOINT).file(template)
         .header(DEVICE_HEADER_PARAM, DEVICE_HEADER_VALUE)
@@ -615,17 +701,15 @@ public class ParticipantControllerTest {
 
     Person person = TestUtil.createPerson();
     Patient patient = TestUtil.createPatient(person);
-    PatientResponse patientResponse = TestUtil.createPatientResponse();
-    patientResponse.setParticipantId("btest1");
     when(objectMapper.readValue(biographicData, RegisterRequest.class)).thenReturn(request);
     when(patientBuilder.createFrom(request)).thenReturn(patient);
     when(locationUtil.getLocationUuid(request.getAttributes())).thenReturn(LOCATION_UUID);
     when(util.removeWhiteSpaces(PARTICIPANT_ID)).thenReturn(PARTICIPANT_ID);
     when(participantService.registerParticipant(patient))
         .thenReturn(patient);
-    when(participantService.findPatientsByUuids(anySetOf(String.class)))
+    when(participantService.findParticipantKeysByUuids(anySetOf(String.class)))
         .thenReturn(Collections.emptyList());
-    when(participantService.findByParticipantId(patient.getPatientIdentifier().getIdentifier()))
+    when(participantService.findParticipantKeysByParticipantId("btest1"))
         .thenReturn(Collections.emptyList());
     //when
     mockMvc.perform(fileUpload(REGISTER_ENDPOINT).file(template)
@@ -686,13 +770,35 @@ public class ParticipantControllerTest {
 
   @Test
   public void retrievePersonImage_shouldReturnPersonImage() throws Exception {
-    when(participantService.retrieveParticipantImage(anyString())).thenReturn(Optional.of(""));
+    when(participantService.retrieveParticipantImage(anyString(), (String) isNull()))
+        .thenReturn(Optional.of(""));
     mockMvc.perform(get(ControllerTestHelper.BASE_URL + "/personimage/{personUuid}", PERSON_UUID)
         .contentType(MediaType.TEXT_PLAIN))
         .andExpect(content().contentType(MediaType.APPLICATION_JSON_VALUE))
         .andExpect(status().isOk());
   }
 
+  @Test
+  public void retrievePersonImage_shouldReturnPersonImageVariant() throws Exception {
+    when(participantService.retrieveParticipantImage(anyString(), eq("thumb")))
+        .thenReturn(Optional.of(""));
+    mockMvc.perform(get(ControllerTestHelper.BASE_URL + "/personimage/{personUuid}", PERSON_UUID)
+        .param("variant", "thumb")
+        .contentType(MediaType.TEXT_PLAIN))
+        .andExpect(status().isOk());
+    verify(imageVariantStore).validate("thumb");
+  }
+
+  @Test
+  public void retrievePersonImage_shouldThrowBadRequestForUnknownVariant() throws Exception {
+    doThrow(EntityValidationException.class).when(imageVariantStore).validate("poster");
+    mockMvc.perform(get(ControllerTestHelper.BASE_URL + "/personimage/{personUuid}", PERSON_UUID)
+        .param("variant", "poster")
+        .contentType(MediaType.TEXT_PLAIN))
+        .andExpect(status().isBadRequest());
+    verify(participantService, times(0)).retrieveParticipantImage(anyString(), anyString());
+  }
+
   @Test
   public void voidParticipant_shouldReturnOk() throws Exception {
     Patient patient = TestUtil.createPatient(TestUtil.createPerson());
@@ -732,4 +838,16 @@ public class ParticipantControllerTest {
 
   }
 
+  private static RegisterRequest createRegisterRequest(String participantUuid) {
+    RegisterRequest request = new RegisterRequest();
+    request.setParticipantUuid(participantUuid);
+    return request;
+  }
+
+  private static Patient createPatient(String uuid, String participantId) {
+    Patient patient = TestUtil.createPatient(TestUtil.createPerson());
+    patient.setUuid(uuid);
+    patient.getPatientIdentifier().setIdentifier(participantId);
+    return patient;
+  }
 }
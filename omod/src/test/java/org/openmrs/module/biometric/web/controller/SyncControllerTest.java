@@ -11,6 +11,7 @@
 package org.openmrs.module.biometric.web.controller;
 
 import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.anyInt;
@@ -19,12 +20,15 @@ import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyBoolean;
 import static org.mockito.Mockito.anyListOf;
-import static org.mockito.Mockito.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doCallRealMethod;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.openmrs.module.biometric.api.constants.BiometricApiConstants.IGNORED_COUNT;
 import static org.openmrs.module.biometric.api.constants.BiometricApiConstants.TABLE_COUNT;
 import static org.openmrs.module.biometric.api.constants.BiometricApiConstants.VOIDED_COUNT;
 import static org.openmrs.module.biometric.util.LocationUtilTest.COUNTRY1_NAME;
@@ -33,43 +37,68 @@ import static org.openmrs.module.biometric.util.LocationUtilTest.getLocationUuid
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.io.File;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+import org.codehaus.jackson.JsonNode;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.type.TypeReference;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.Spy;
 import org.openmrs.Location;
 import org.openmrs.Patient;
 import org.openmrs.Visit;
 import org.openmrs.VisitType;
 import org.openmrs.api.LocationService;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.biometric.api.constants.BiometricApiConstants;
 import org.openmrs.module.biometric.api.contract.SyncTemplateResponse;
 import org.openmrs.module.biometric.api.exception.EntityValidationException;
+import org.openmrs.module.biometric.api.model.SyncErrorData;
 import org.openmrs.module.biometric.api.service.ConfigService;
 import org.openmrs.module.biometric.api.service.SyncService;
+import org.openmrs.module.biometric.api.util.ImageVariantStore;
+import org.openmrs.module.biometric.api.util.SyncChangeTracker;
+import org.openmrs.module.biometric.api.util.SyncChangeTracker.SyncChanges;
+import org.openmrs.module.biometric.api.util.SyncTaskExecutor;
+import org.openmrs.module.biometric.builder.BootstrapSnapshotBuilder;
 import org.openmrs.module.biometric.builder.ParticipantRecordsResponseBuilder;
 import org.openmrs.module.biometric.builder.SyncResponseBuilder;
 import org.openmrs.module.biometric.builder.VisitResponseBuilder;
 import org.openmrs.module.biometric.common.BiometricTestUtil;
+import org.openmrs.module.biometric.contract.VisitResponse;
+import org.openmrs.module.biometric.contract.sync.ReconcileRequest;
+import org.openmrs.module.biometric.contract.sync.SyncAllRequest;
+import org.openmrs.module.biometric.contract.sync.SyncChangesRequest;
 import org.openmrs.module.biometric.contract.sync.SyncErrorRequest;
 import org.openmrs.module.biometric.contract.sync.SyncRequest;
 import org.openmrs.module.biometric.contract.sync.SyncResponse;
+import org.openmrs.module.biometric.contract.sync.SyncScope;
 import org.openmrs.module.biometric.util.BiometricModUtil;
 import org.openmrs.module.biometric.util.LocationUtil;
 import org.openmrs.module.biometric.util.SanitizeUtil;
+import org.openmrs.module.biometric.util.SmileEncoder;
+import org.openmrs.module.biometric.util.SyncPrefetchCache;
+import org.openmrs.module.biometric.util.SyncSessionRegistry;
+import org.openmrs.module.biometric.util.SyncSessionRegistry.SyncSession;
 import org.openmrs.module.biometric.web.helper.ControllerTestHelper;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
@@ -96,6 +125,8 @@ public class SyncControllerTest {
   private static final String SYNCERRORREQUESTNULL_JSON = "sync_error_request_null.json";
   private static final String DEVICE_ID = "deviceId";
   private static final String LOCATION_UUID = "9dd05e68-4d77-4b61-b2bf-436857f35aa0";
+  private static final long SNAPSHOT_WATERMARK = 1600000000000L;
+  private static final byte[] SNAPSHOT_CONTENT = "0123456789".getBytes(StandardCharsets.UTF_8);
 
   private MockMvc mockMvc;
 
@@ -125,6 +156,30 @@ public class SyncControllerTest {
   @Mock
   private LocationService locationService;
 
+  @Mock
+  private BootstrapSnapshotBuilder bootstrapSnapshotBuilder;
+
+  @Mock
+  private ImageVariantStore imageVariantStore;
+
+  @Mock
+  private SyncPrefetchCache syncPrefetchCache;
+
+  @Mock
+  private SyncChangeTracker syncChangeTracker;
+
+  @Spy
+  private SmileEncoder smileEncoder = new SmileEncoder();
+
+  @Spy
+  private ObjectMapper mapper = new ObjectMapper();
+
+  @Spy
+  private SyncSessionRegistry syncSessionRegistry = new SyncSessionRegistry();
+
+  @Spy
+  private SyncTaskExecutor syncTaskExecutor = new SyncTaskExecutor();
+
   @InjectMocks
   private SyncController syncController;
 
@@ -164,9 +219,10 @@ public class SyncControllerTest {
     Map<String, Long> map = new HashMap<>();
     map.put(TABLE_COUNT, 10L);
     map.put(VOIDED_COUNT, 1L);
-    when(syncService.getAllPatients(any(Date.class), anyInt(), anyListOf(String.class)))
+    when(syncService.getAllPatients(any(Date.class), any(Date.class), anyInt(),
+        anyListOf(String.class)))
         .thenReturn(patientList);
-    when(syncService.getPatientCount(anyListOf(String.class))).thenReturn(map);
+    when(syncService.getPatientCount(anyListOf(String.class), any(Date.class))).thenReturn(map);
     final Date date = Mockito.mock(Date.class);
     PowerMockito.whenNew(Date.class).withAnyArguments().thenReturn(date);
     //when
@@ -198,6 +254,55 @@ public class SyncControllerTest {
         .andExpect(status().isOk());
   }
 
+  @Test
+  public void getAllParticipantImages_shouldThrowBadRequestForUnknownVariant() throws Exception {
+    //given
+    String syncRequest = ControllerTestHelper.loadFile(SYNCREQUEST_JSON);
+    SyncRequest request = new ObjectMapper().readValue(syncRequest, SyncRequest.class);
+    request.setImageVariant("poster");
+    when(util.jsonToObject(syncRequest, SyncRequest.class)).thenReturn(request);
+    doNothing().when(locationUtil).validateSyncLocationData(request);
+    doThrow(EntityValidationException.class).when(imageVariantStore).validate("poster");
+
+    //when
+    mockMvc.perform(
+        post(ControllerTestHelper.BASE_URL + "/sync/getAllParticipantImages")
+            .header("deviceId", "device1")
+            .content(syncRequest).contentType(MediaType.APPLICATION_JSON))
+        .andExpect(status().isBadRequest());
+    verify(syncService, times(0)).getAllParticipantImages(any(Date.class), any(Date.class),
+        anyInt(), anyList(),
+        anyString(), anyBoolean(), anyString(), any(Map.class));
+  }
+
+  @Test
+  public void reconcile_shouldReturnTheBucketsWhichDiffer() throws Exception {
+    //given
+    String reconcileRequest = "{\"syncScope\": {\"siteUuid\": \"s1\", \"country\": \"c1\"},"
+        + " \"entity\": \"participants\", \"bucketCount\": 4, \"digests\": {\"1\": \"00ff\"}}";
+    ReconcileRequest request = new ObjectMapper().readValue(reconcileRequest,
+        ReconcileRequest.class);
+    when(util.jsonToObject(reconcileRequest, ReconcileRequest.class)).thenReturn(request);
+    doNothing().when(locationUtil).validateSyncLocationData(request);
+    Map<Integer, Map<String, Long>> buckets = new HashMap<>();
+    buckets.put(1, Collections.singletonMap("uuid-1", SNAPSHOT_WATERMARK));
+    when(syncService.reconcile("participants", Collections.singletonList("s1"), 4,
+        request.getDigests())).thenReturn(buckets);
+
+    //when
+    String content = mockMvc.perform(
+        post(ControllerTestHelper.BASE_URL + "/sync/reconcile").content(reconcileRequest)
+            .contentType(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk())
+        .andReturn().getResponse().getContentAsString();
+
+    //then
+    JsonNode response = new ObjectMapper().readTree(content);
+    assertThat(response.get("bucketCount").getIntValue(), is(4));
+    assertThat(response.get("buckets").get("1").get("uuid-1").getLongValue(),
+        is(SNAPSHOT_WATERMARK));
+  }
+
   @Test
   public void getAllVisits_shouldReturnAllParticipantVisits() throws Exception {
     //given
@@ -216,13 +321,125 @@ public class SyncControllerTest {
     Visit visit = TestUtil.createVisit();
     visit.setVoided(true);
     visitList.add(visit);
-    when(syncService.getAllVisits(any(Date.class), anyInt(), anyListOf(String.class)))
+    when(syncService.getAllVisits(any(Date.class), any(Date.class), anyInt(),
+        anyListOf(String.class)))
         .thenReturn(visitList);
     //when
     mockMvc.perform(post(ControllerTestHelper.BASE_URL + "/sync/getAllVisits").content(syncRequest)
         .contentType(MediaType.APPLICATION_JSON)).andExpect(status().isOk());
   }
 
+  @Test
+  public void getAllVisits_shouldServeThePrefetchedPageAndPrefetchTheNextOne() throws Exception {
+    String syncRequest = ControllerTestHelper.loadFile(SYNCREQUEST_JSON);
+    SyncRequest request = new ObjectMapper().readValue(syncRequest, SyncRequest.class);
+    when(util.jsonToObject(syncRequest, SyncRequest.class)).thenReturn(request);
+    VisitResponse visit = new VisitResponse();
+    visit.setVisitUuid("1f1c1d1e-4d77-4b61-b2bf-436857f35aa0");
+    visit.setDateModified(5000L);
+    SyncResponse prefetched = new SyncResponse();
+    prefetched.setRecords(Collections.singletonList(visit));
+    String owner = ":device1:visits";
+    when(syncPrefetchCache.take(eq(owner), any(SyncRequest.class))).thenReturn(prefetched);
+
+    mockMvc.perform(post(ControllerTestHelper.BASE_URL + "/sync/getAllVisits")
+        .header(DEVICE_ID, "device1")
+        .content(syncRequest).contentType(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk());
+
+    verify(syncService, times(0)).getAllVisits(any(Date.class), any(Date.class), anyInt(),
+        anyListOf(String.class));
+    ArgumentCaptor<SyncRequest> next = ArgumentCaptor.forClass(SyncRequest.class);
+    verify(syncPrefetchCache).prefetch(eq(owner), next.capture(), any(Callable.class));
+    assertThat(next.getValue().getDateModifiedOffset(), is(5000L));
+    assertThat(next.getValue().getUuidsWithDateModifiedOffset(),
+        is(Collections.singleton("1f1c1d1e-4d77-4b61-b2bf-436857f35aa0")));
+    assertThat(next.getValue().getLimit(), is(request.getLimit()));
+  }
+
+  @Test
+  public void getChanges_shouldWaitForChangesWithTheCappedTimeout() throws Exception {
+    String body = ControllerTestHelper.loadFile(SYNCREQUEST_JSON);
+    SyncChangesRequest request = new ObjectMapper().readValue(body, SyncChangesRequest.class);
+    request.setCursor("5d73d5ec:4");
+    request.setTimeout(600);
+    when(util.jsonToObject(body, SyncChangesRequest.class)).thenReturn(request);
+    SyncChanges changes = new SyncChanges("5d73d5ec:5", Collections.singleton("visits"));
+    when(syncChangeTracker.await("5d73d5ec:4", Collections.singletonList("s1"), 60000L))
+        .thenReturn(changes);
+
+    String response = mockMvc.perform(post(ControllerTestHelper.BASE_URL + "/sync/changes")
+        .content(body).contentType(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk())
+        .andReturn().getResponse().getContentAsString();
+
+    JsonNode json = new ObjectMapper().readTree(response);
+    assertThat(json.get("cursor").getTextValue(), is("5d73d5ec:5"));
+    assertThat(json.get("changes").get(0).getTextValue(), is("visits"));
+  }
+
+  @Test
+  public void getAll_shouldStreamThePagesAndReportTheFailedRecordTypes() throws Exception {
+    String body = "{\"syncScope\": {\"siteUuid\": \"s1\", \"country\": \"c1\"},"
+        + " \"entities\": {\"participants\": {\"limit\": 10},"
+        + " \"templates\": {\"limit\": 10, \"optimize\": true}}}";
+    SyncAllRequest request = new ObjectMapper().readValue(body, SyncAllRequest.class);
+    when(util.jsonToObject(body, SyncAllRequest.class)).thenReturn(request);
+    Map<String, Long> counts = new HashMap<>();
+    counts.put(TABLE_COUNT, 10L);
+    counts.put(VOIDED_COUNT, 1L);
+    when(syncService.getPatientCount(Collections.singletonList("s1"), null)).thenReturn(counts);
+    when(syncService.getAllPatients(any(Date.class), any(Date.class), eq(10),
+        eq(Collections.singletonList("s1"))))
+        .thenReturn(new ArrayList<>());
+    SyncResponse participants = new SyncResponse();
+    participants.setTableCount(10L);
+    when(builder.createFrom(anyListOf(Patient.class), eq(10L), eq(1L), any(SyncRequest.class)))
+        .thenReturn(participants);
+    doThrow(new IllegalStateException("templates unavailable")).when(syncService)
+        .forEachBiometricTemplate(any(Date.class), any(Date.class), anyString(),
+            anyListOf(String.class), anyBoolean(), anyInt(), any(Consumer.class));
+
+    String response = mockMvc.perform(post(ControllerTestHelper.BASE_URL + "/sync/getAll")
+        .header(DEVICE_ID, "device1").content(body).contentType(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk())
+        .andReturn().getResponse().getContentAsString();
+
+    JsonNode json = new ObjectMapper().readTree(response);
+    assertThat(json.get("participants").get("tableCount").getLongValue(), is(10L));
+    assertThat(json.get("errors").get("templates").getTextValue(), is("templates unavailable"));
+    assertThat(null == json.get("templates"), is(true));
+  }
+
+  @Test
+  public void getAll_shouldThrowBadRequestForUnknownRecordType() throws Exception {
+    String body = "{\"syncScope\": {\"siteUuid\": \"s1\", \"country\": \"c1\"},"
+        + " \"entities\": {\"encounters\": {\"limit\": 10}}}";
+    SyncAllRequest request = new ObjectMapper().readValue(body, SyncAllRequest.class);
+    when(util.jsonToObject(body, SyncAllRequest.class)).thenReturn(request);
+
+    mockMvc.perform(post(ControllerTestHelper.BASE_URL + "/sync/getAll")
+        .content(body).contentType(MediaType.APPLICATION_JSON))
+        .andExpect(status().isBadRequest());
+    verify(syncService, times(0)).getPatientCount(anyListOf(String.class), any(Date.class));
+  }
+
+  @Test
+  public void getAll_shouldThrowBadRequestForAMissingLimit() throws Exception {
+    String body = "{\"syncScope\": {\"siteUuid\": \"s1\", \"country\": \"c1\"},"
+        + " \"entities\": {\"participants\": {\"limit\": 10}, \"visits\": {}}}";
+    SyncAllRequest request = new ObjectMapper().readValue(body, SyncAllRequest.class);
+    when(util.jsonToObject(body, SyncAllRequest.class)).thenReturn(request);
+    doCallRealMethod().when(locationUtil).validateSyncAllPage(any(SyncRequest.class));
+    doCallRealMethod().when(locationUtil).validateSyncPage(any(SyncRequest.class));
+
+    mockMvc.perform(post(ControllerTestHelper.BASE_URL + "/sync/getAll")
+        .content(body).contentType(MediaType.APPLICATION_JSON))
+        .andExpect(status().isBadRequest());
+    verify(locationUtil).validateSyncScope(request.getSyncScope());
+    verify(syncService, times(0)).getPatientCount(anyListOf(String.class), any(Date.class));
+  }
+
   @Test
   public void syncErrorResolved_shouldVoidTheErrorKeysForDevice() throws Exception {
     String body = ControllerTestHelper.loadFile(SYNCERROREQUESTRESOLVED_JSON);
@@ -268,8 +485,9 @@ public class SyncControllerTest {
             .content(syncErrorRequest.getBytes(StandardCharsets.UTF_8))
             .contentType(MediaType.MULTIPART_FORM_DATA))
         .andExpect(status().isOk());
-    verify(syncService, times(3))
-        .saveSyncError(anyString(), anyString(), any(Date.class), anyString(), anyString());
+    ArgumentCaptor<List> errors = ArgumentCaptor.forClass(List.class);
+    verify(syncService, times(1)).saveSyncErrors(eq("newDeviceId"), errors.capture());
+    assertThat(errors.getValue().size(), is(3));
   }
 
   @Test
@@ -284,8 +502,7 @@ public class SyncControllerTest {
             .content(syncErrorRequest.getBytes(StandardCharsets.UTF_8))
             .contentType(MediaType.MULTIPART_FORM_DATA))
         .andExpect(status().isBadRequest());
-    verify(syncService, times(0))
-        .saveSyncError(anyString(), anyString(), any(Date.class), anyString(), anyString());
+    verify(syncService, times(0)).saveSyncErrors(anyString(), anyListOf(SyncErrorData.class));
   }
 
   @Test
@@ -300,8 +517,7 @@ public class SyncControllerTest {
             .content(syncErrorRequest.getBytes(StandardCharsets.UTF_8))
             .contentType(MediaType.MULTIPART_FORM_DATA))
         .andExpect(status().isBadRequest());
-    verify(syncService, times(0))
-        .saveSyncError(anyString(), anyString(), any(Date.class), anyString(), anyString());
+    verify(syncService, times(0)).saveSyncErrors(anyString(), anyListOf(SyncErrorData.class));
   }
 
   @Test
@@ -347,28 +563,24 @@ public class SyncControllerTest {
     rows.add(row);
 
     when(
-        syncService.getBiometricTemplatesCount(anyString(), anyList(), anyBoolean()))
+        syncService.getBiometricTemplatesCount(
+            anyString(), anyList(), anyBoolean(), any(Date.class)))
         .thenReturn(row);
+    mockTemplates();
 
-    SyncResponse syncResponse = new SyncResponse();
-    syncResponse.setSyncScope(request.getSyncScope());
-    syncResponse.setDateModifiedOffset(request.getDateModifiedOffset());
-    syncResponse.setOptimize(request.getOptimize());
-
-    when(syncResponseBuilder
-        .createFrom(anyListOf(SyncTemplateResponse.class), anyLong(), anyLong(), anyLong(),
-            any(SyncRequest.class))).thenReturn(syncResponse);
-
-    mockMvc
+    String response = mockMvc
         .perform(post(ControllerTestHelper.BASE_URL + "/sync/getAllParticipantBiometricsTemplates")
             .header("deviceId", "newDeviceId").content(syncRequest.getBytes(StandardCharsets.UTF_8))
-            .contentType(MediaType.APPLICATION_JSON)).andExpect(status().isOk());
-
-    verify(syncResponseBuilder, times(1))
-        .createFrom(anyListOf(SyncTemplateResponse.class), anyLong(), anyLong(), anyLong(),
-            any(SyncRequest.class));
+            .contentType(MediaType.APPLICATION_JSON)).andExpect(status().isOk())
+        .andReturn().getResponse().getContentAsString();
+
+    JsonNode json = new ObjectMapper().readTree(response);
+    assertThat(json.get("syncStatus").getTextValue(), is("OK"));
+    assertThat(json.get("tableCount").getLongValue(), is(15L));
+    assertThat(json.get("records").size(), is(0));
+    assertThat(null == json.get("ignoredCount"), is(true));
     verify(syncService, times(1))
-        .getBiometricTemplatesCount(anyString(), anyList(), anyBoolean());
+        .getBiometricTemplatesCount(anyString(), anyList(), anyBoolean(), any(Date.class));
   }
 
 
@@ -401,28 +613,65 @@ public class SyncControllerTest {
     rows.add(row);
 
     when(
-        syncService.getBiometricTemplatesCount(anyString(), anyList(), anyBoolean()))
+        syncService.getBiometricTemplatesCount(
+            anyString(), anyList(), anyBoolean(), any(Date.class)))
         .thenReturn(row);
+    // the template of the offset was synced by the previous page
+    mockTemplates(createTemplate("dddd", request.getDateModifiedOffset()),
+        createTemplate("eeee", request.getDateModifiedOffset()));
 
-    SyncResponse syncResponse = new SyncResponse();
-    syncResponse.setSyncScope(request.getSyncScope());
-    syncResponse.setDateModifiedOffset(request.getDateModifiedOffset());
-    syncResponse.setOptimize(request.getOptimize());
-
-    when(syncResponseBuilder
-        .createFrom(anyListOf(SyncTemplateResponse.class), anyLong(), anyLong(), anyLong(),
-            any(SyncRequest.class))).thenReturn(syncResponse);
-
-    mockMvc
+    String response = mockMvc
         .perform(post(ControllerTestHelper.BASE_URL + "/sync/getAllParticipantBiometricsTemplates")
             .header("deviceId", "newDeviceId").content(syncRequest.getBytes(StandardCharsets.UTF_8))
-            .contentType(MediaType.APPLICATION_JSON)).andExpect(status().isOk());
-
-    verify(syncResponseBuilder, times(1))
-        .createFrom(anyListOf(SyncTemplateResponse.class), anyLong(), anyLong(), anyLong(),
-            any(SyncRequest.class));
+            .contentType(MediaType.APPLICATION_JSON)).andExpect(status().isOk())
+        .andReturn().getResponse().getContentAsString();
+
+    JsonNode json = new ObjectMapper().readTree(response);
+    assertThat(json.get("syncStatus").getTextValue(), is("OUT_OF_SYNC"));
+    assertThat(json.get("ignoredCount").getLongValue(), is(9L));
+    assertThat(json.get("records").size(), is(1));
+    assertThat(json.get("records").get(0).get("participantUuid").getTextValue(), is("eeee"));
     verify(syncService, times(1))
-        .getBiometricTemplatesCount(anyString(), anyList(), anyBoolean());
+        .getBiometricTemplatesCount(anyString(), anyList(), anyBoolean(), any(Date.class));
+  }
+
+  @Test
+  public void getAllParticipantBiometricsTemplates_shouldReturnRawTemplatesInSmileFormat()
+      throws Exception {
+    String syncRequest = ControllerTestHelper.loadFile(SYNCREQUEST_JSON);
+    SyncRequest request = new ObjectMapper().readValue(syncRequest, SyncRequest.class);
+    request.setOptimize(true);
+    request.setDateModifiedOffset(null);
+    when(util.jsonToObject(syncRequest, SyncRequest.class)).thenReturn(request);
+    doNothing().when(locationUtil).validateSyncLocationData(request);
+    when(locationUtil.findLocationsByCountry(COUNTRY1_NAME))
+        .thenReturn(getLocationUuidsByCountry());
+    Map<String, Long> counts = new HashMap<>();
+    counts.put(TABLE_COUNT, 1L);
+    counts.put(IGNORED_COUNT, 0L);
+    counts.put(VOIDED_COUNT, 0L);
+    when(syncService.getBiometricTemplatesCount(
+        anyString(), anyList(), anyBoolean(), any(Date.class)))
+        .thenReturn(counts);
+
+    byte[] template = {1, 2, 3, 4, 5};
+    SyncTemplateResponse templateResponse = createTemplate(LOCATION_UUID, 1L);
+    templateResponse.setBiometricsTemplate(template);
+    mockTemplates(templateResponse);
+
+    byte[] body = mockMvc
+        .perform(post(ControllerTestHelper.BASE_URL + "/sync/getAllParticipantBiometricsTemplates")
+            .header(DEVICE_ID, "newDeviceId")
+            .accept(MediaType.valueOf(SmileEncoder.SMILE_CONTENT_TYPE))
+            .content(syncRequest.getBytes(StandardCharsets.UTF_8))
+            .contentType(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk())
+        .andExpect(content().contentType(SmileEncoder.SMILE_CONTENT_TYPE))
+        .andReturn().getResponse().getContentAsByteArray();
+
+    JsonNode record = smileEncoder.getMapper().readTree(body).get("records").get(0);
+    assertThat(record.get("participantUuid").getTextValue(), is(LOCATION_UUID));
+    assertArrayEquals(template, record.get("biometricsTemplate").getBinaryValue());
   }
 
   @Test
@@ -450,13 +699,107 @@ public class SyncControllerTest {
     VisitType dosingVisit = new VisitType("Dosing", "dosing visit");
     visit.setVisitType(dosingVisit);
     visitList.add(visit);
-    when(syncService.getAllVisits(any(Date.class), anyInt(), anyListOf(String.class)))
+    when(syncService.getAllVisits(any(Date.class), any(Date.class), anyInt(),
+        anyListOf(String.class)))
         .thenReturn(visitList);
     //when
     mockMvc.perform(post(ControllerTestHelper.BASE_URL + "/sync/getAllVisits").content(syncRequest)
         .contentType(MediaType.APPLICATION_JSON)).andExpect(status().isOk());
   }
 
+  @Test
+  public void openSyncSession_shouldPinTheLocationsOfTheSyncScope() throws Exception {
+    String syncRequest = ControllerTestHelper.loadFile(SYNCREQUEST_JSON);
+    SyncRequest request = new ObjectMapper().readValue(syncRequest, SyncRequest.class);
+    when(util.jsonToObject(syncRequest, SyncRequest.class)).thenReturn(request);
+
+    String content = mockMvc.perform(post(ControllerTestHelper.BASE_URL + "/sync/session")
+        .content(syncRequest).contentType(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk())
+        .andReturn().getResponse().getContentAsString();
+
+    JsonNode response = new ObjectMapper().readTree(content);
+    SyncSession session = syncSessionRegistry.get(response.get("syncSessionId").getTextValue());
+    assertNotNull(session);
+    assertThat(session.getLocations(),
+        is(Collections.singletonList(request.getSyncScope().getSiteUuid())));
+    assertThat(response.get("highWaterMark").getLongValue(), is(session.getHighWaterMark()));
+  }
+
+  @Test
+  public void getAllVisits_shouldOnlyReturnVisitsUpToTheHighWaterMarkOfTheSession()
+      throws Exception {
+    String syncRequest = ControllerTestHelper.loadFile(SYNCREQUEST_JSON);
+    SyncRequest request = new ObjectMapper().readValue(syncRequest, SyncRequest.class);
+    SyncSession session =
+        syncSessionRegistry.open(request.getSyncScope(), Collections.singletonList(LOCATION_UUID));
+    request.setSyncSessionId(session.getId());
+    when(util.jsonToObject(syncRequest, SyncRequest.class)).thenReturn(request);
+    Visit pinnedVisit = TestUtil.createVisit();
+    pinnedVisit.setDateChanged(new Date(session.getHighWaterMark()));
+    Visit laterVisit = TestUtil.createVisit();
+    laterVisit.setUuid("1f1c1d1e-4d77-4b61-b2bf-436857f35aa0");
+    laterVisit.setDateChanged(new Date(session.getHighWaterMark() + 1000));
+    // never changed since it was created after the mark, the date changed is null
+    Visit newVisit = TestUtil.createVisit();
+    newVisit.setUuid("2f1c1d1e-4d77-4b61-b2bf-436857f35aa0");
+    newVisit.setDateChanged(null);
+    newVisit.setDateCreated(new Date(session.getHighWaterMark() + 1000));
+    List<Visit> visitList = new ArrayList<>();
+    visitList.add(newVisit);
+    visitList.add(pinnedVisit);
+    visitList.add(laterVisit);
+    when(syncService.getAllVisits(any(Date.class), any(Date.class), anyInt(),
+        anyListOf(String.class)))
+        .thenReturn(visitList);
+    Map<String, Long> map = new HashMap<>();
+    map.put(TABLE_COUNT, 10L);
+    map.put(VOIDED_COUNT, 1L);
+    when(syncService.getVisitsCount(anyListOf(String.class), any(Date.class))).thenReturn(map);
+
+    for (int i = 0; i < 2; i++) {
+      mockMvc.perform(post(ControllerTestHelper.BASE_URL + "/sync/getAllVisits")
+          .content(syncRequest).contentType(MediaType.APPLICATION_JSON))
+          .andExpect(status().isOk());
+    }
+
+    verify(visitResponseBuilder, times(2)).createFrom(Collections.singletonList(pinnedVisit));
+    verify(syncService, times(2)).getAllVisits(any(Date.class),
+        eq(session.getHighWaterMarkDate()), anyInt(), eq(Collections.singletonList(LOCATION_UUID)));
+    verify(syncService, times(1)).getVisitsCount(
+        Collections.singletonList(LOCATION_UUID), session.getHighWaterMarkDate());
+    verify(locationUtil, times(0)).findLocationsByCountry(anyString());
+  }
+
+  @Test
+  public void getAllVisits_shouldThrowNotFoundForAnExpiredSession() throws Exception {
+    String syncRequest = ControllerTestHelper.loadFile(SYNCREQUEST_JSON);
+    SyncRequest request = new ObjectMapper().readValue(syncRequest, SyncRequest.class);
+    request.setSyncSessionId("expired");
+    when(util.jsonToObject(syncRequest, SyncRequest.class)).thenReturn(request);
+
+    mockMvc.perform(post(ControllerTestHelper.BASE_URL + "/sync/getAllVisits")
+        .content(syncRequest).contentType(MediaType.APPLICATION_JSON))
+        .andExpect(status().isNotFound());
+  }
+
+  @Test
+  public void getAllVisits_shouldThrowBadRequestWhenTheScopeDiffersFromTheSession()
+      throws Exception {
+    String syncRequest = ControllerTestHelper.loadFile(SYNCREQUEST_JSON);
+    SyncRequest request = new ObjectMapper().readValue(syncRequest, SyncRequest.class);
+    SyncScope otherScope = new SyncScope();
+    otherScope.setCountry(COUNTRY1_NAME);
+    SyncSession session =
+        syncSessionRegistry.open(otherScope, Collections.singletonList(LOCATION_UUID));
+    request.setSyncSessionId(session.getId());
+    when(util.jsonToObject(syncRequest, SyncRequest.class)).thenReturn(request);
+
+    mockMvc.perform(post(ControllerTestHelper.BASE_URL + "/sync/getAllVisits")
+        .content(syncRequest).contentType(MediaType.APPLICATION_JSON))
+        .andExpect(status().isBadRequest());
+  }
+
   @Test
   public void getAllConfigUpdates_shouldReturnConfigurations() throws Exception {
     when(configService.retrieveAllConfigUpdates()).thenReturn(Collections.emptyList());
@@ -465,4 +808,76 @@ public class SyncControllerTest {
         .andExpect(content().contentType(MediaType.APPLICATION_JSON_VALUE))
         .andExpect(status().isOk());
   }
+
+  @Test
+  public void getBootstrapSnapshot_shouldReturnTheWholeSnapshot() throws Exception {
+    when(bootstrapSnapshotBuilder.findLatest(any(SyncScope.class))).thenReturn(createSnapshot());
+
+    mockMvc.perform(get(ControllerTestHelper.BASE_URL + "/sync/bootstrap")
+        .param("country", COUNTRY1_NAME))
+        .andExpect(status().isOk())
+        .andExpect(header().string("X-Snapshot-Watermark", String.valueOf(SNAPSHOT_WATERMARK)))
+        .andExpect(header().string("Accept-Ranges", "bytes"))
+        .andExpect(content().bytes(SNAPSHOT_CONTENT));
+  }
+
+  @Test
+  public void getBootstrapSnapshot_shouldResumeFromTheRequestedRange() throws Exception {
+    when(bootstrapSnapshotBuilder.findLatest(any(SyncScope.class))).thenReturn(createSnapshot());
+
+    mockMvc.perform(get(ControllerTestHelper.BASE_URL + "/sync/bootstrap")
+        .param("country", COUNTRY1_NAME)
+        .header("Range", "bytes=4-")
+        .header("If-Range", "\"" + SNAPSHOT_WATERMARK + "\""))
+        .andExpect(status().isPartialContent())
+        .andExpect(header().string("Content-Range", "bytes 4-9/10"))
+        .andExpect(content().bytes("456789".getBytes(StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  public void getBootstrapSnapshot_shouldIgnoreTheRangeOfAnOlderVersion() throws Exception {
+    when(bootstrapSnapshotBuilder.findLatest(any(SyncScope.class))).thenReturn(createSnapshot());
+
+    mockMvc.perform(get(ControllerTestHelper.BASE_URL + "/sync/bootstrap")
+        .param("country", COUNTRY1_NAME)
+        .header("Range", "bytes=4-")
+        .header("If-Range", "\"1\""))
+        .andExpect(status().isOk())
+        .andExpect(content().bytes(SNAPSHOT_CONTENT));
+  }
+
+  @Test
+  public void getBootstrapSnapshot_shouldReturnNotFoundWhenSnapshotIsNotBuilt() throws Exception {
+    when(bootstrapSnapshotBuilder.findLatest(any(SyncScope.class))).thenReturn(null);
+
+    mockMvc.perform(get(ControllerTestHelper.BASE_URL + "/sync/bootstrap")
+        .param("country", COUNTRY1_NAME))
+        .andExpect(status().isNotFound());
+  }
+
+  @SuppressWarnings("unchecked")
+  private void mockTemplates(SyncTemplateResponse... templates) {
+    doAnswer(invocation -> {
+      Consumer<SyncTemplateResponse> consumer =
+          (Consumer<SyncTemplateResponse>) invocation.getArguments()[6];
+      Arrays.asList(templates).forEach(consumer);
+      return null;
+    }).when(syncService).forEachBiometricTemplate(any(Date.class), any(Date.class), anyString(),
+        anyListOf(String.class), anyBoolean(), anyInt(), any(Consumer.class));
+  }
+
+  private SyncTemplateResponse createTemplate(String participantUuid, Long dateModified) {
+    SyncTemplateResponse template = new SyncTemplateResponse();
+    template.setParticipantUuid(participantUuid);
+    template.setDateModified(dateModified);
+    template.setType(BiometricApiConstants.SYNC_UPDATE);
+    return template;
+  }
+
+  private BootstrapSnapshotBuilder.Snapshot createSnapshot() throws Exception {
+    File file = Files.createTempFile("snapshot", ".json.gz").toFile();
+    file.deleteOnExit();
+    Files.write(file.toPath(), SNAPSHOT_CONTENT);
+    return new BootstrapSnapshotBuilder.Snapshot(file, SNAPSHOT_WATERMARK);
+  }
 }
@@ -14,7 +14,6 @@ import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.anyList;
-import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.anySetOf;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.times;
@@ -184,11 +183,6 @@ public class VisitControllerTest {
     visit.addEncounter(encounter1);
     visits.add(visit);
     when(visitSchedulerService.findVisitByPersonUuid(PERSON_UUID)).thenReturn(visits);
-    List<Visit> visitsNew = new ArrayList<>();
-    visit = createVisit();
-    visit.addEncounter(encounter1);
-    visitsNew.add(visit);
-    when(util.getOldestEncounterInVisit(anyListOf(Visit.class))).thenReturn(visitsNew);
     //When
     ResultActions r = mockMvc.perform(
         get(RETRIEVE_VISIT_ENDPOINT, PERSON_UUID)